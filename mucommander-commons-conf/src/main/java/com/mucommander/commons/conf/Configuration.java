@@ -83,6 +83,12 @@ import java.util.*;
  * direct references to the listener instances they register if they do not want them to be garbaged collected
  * out of existence randomly.
  * </p>
+ * <p>
+ * <h3>Concurrent access</h3>
+ * Variable values are cached by fully qualified name once they have been looked up, and cached values are invalidated
+ * by the configuration events that describe their modification. Retrieving a variable whose value is cached, as a
+ * string or as any of the primitive types, neither locks the configuration nor walks its tree.
+ * </p>
  * @author Nicolas Rinaudo
  */
 public class Configuration {
@@ -98,6 +104,10 @@ public class Configuration {
     private final ConfigurationSection                         root = new ConfigurationSection();
     /** Contains all registered configuration LISTENERS, stored as weak references. */
     private final WeakHashMap<ConfigurationListener, ?> LISTENERS = new WeakHashMap<ConfigurationListener, Object>();
+    /** Values of the variables that have been looked up, invalidated by configuration events. */
+    private final ConfigurationCache                           cache = new ConfigurationCache();
+    /** Whether variables are looked up in {@link #cache}, only disabled to benchmark uncached lookups. */
+    private volatile boolean                                   cacheEnabled = true;
 
 
 
@@ -682,13 +692,8 @@ public class Configuration {
      * @see         #setVariable(String,String)
      * @see         #getVariable(String,String)
      */
-    public synchronized String getVariable(String name) {
-        ConfigurationExplorer explorer; // Used to navigate to the variable's parent section.
-
-        // If the variable's 'path' doesn't exist, return null.
-        if((name = moveToParent(explorer = new ConfigurationExplorer(root), name, false)) == null)
-            return null;
-        return explorer.getSection().getVariable(name);
+    public String getVariable(String name) {
+        return getEntry(name).getValue();
     }
 
     /**
@@ -712,7 +717,7 @@ public class Configuration {
      * @see                          #getVariable(String,int)
      */
     public int getIntegerVariable(String name) {
-        return ConfigurationSection.getIntegerValue(getVariable(name));
+        return getEntry(name).getIntegerValue();
     }
 
     /**
@@ -724,7 +729,7 @@ public class Configuration {
      * @see                          #getVariable(String,long)
      */
     public long getLongVariable(String name) {
-        return ConfigurationSection.getLongValue(getVariable(name));
+        return getEntry(name).getLongValue();
     }
 
     /**
@@ -736,7 +741,7 @@ public class Configuration {
      * @see                          #getVariable(String,float)
      */
     public float getFloatVariable(String name) {
-        return ConfigurationSection.getFloatValue(getVariable(name));
+        return getEntry(name).getFloatValue();
     }
 
     /**
@@ -748,7 +753,7 @@ public class Configuration {
      * @see                          #getVariable(String,double)
      */
     public double getDoubleVariable(String name) {
-        return ConfigurationSection.getDoubleValue(getVariable(name));
+        return getEntry(name).getDoubleValue();
     }
 
     /**
@@ -759,7 +764,7 @@ public class Configuration {
      * @see                          #getVariable(String,boolean)
      */
     public boolean getBooleanVariable(String name) {
-        return ConfigurationSection.getBooleanValue(getVariable(name));
+        return getEntry(name).getBooleanValue();
     }
 
     /**
@@ -907,9 +912,10 @@ public class Configuration {
     /**
      * Remove all variables & sub-sections under the root section 
      */
-    public void clear() {
-		root.clear();
-	}
+    public synchronized void clear() {
+        root.clear();
+        cache.clear();
+    }
 
 
     // - Advanced variable retrieval -----------------------------------------------------------------------------------
@@ -927,22 +933,8 @@ public class Configuration {
      * @see                 #setVariable(String,String)
      * @see                 #getVariable(String)
      */
-    public synchronized String getVariable(String name, String defaultValue) {
-        ConfigurationExplorer explorer; // Used to navigate to the variable's parent section.
-        String                value;    // Buffer for the variable's value.
-        String                buffer;   // Buffer for the variable's name trimmed of section information.
-
-        // Navigates to the parent section. We do not have to check for null values here,
-        // as the section will be created if it doesn't exist.
-        buffer = moveToParent(explorer = new ConfigurationExplorer(root), name, true);
-
-        // If the variable isn't set, set it to defaultValue and triggers an event.
-        if((value = explorer.getSection().getVariable(buffer)) == null) {
-            explorer.getSection().setVariable(buffer, defaultValue);
-            triggerEvent(new ConfigurationEvent(this, name, defaultValue));
-            return defaultValue;
-        }
-        return value;
+    public String getVariable(String name, String defaultValue) {
+        return getEntry(name, defaultValue).getValue();
     }
 
     /**
@@ -980,7 +972,7 @@ public class Configuration {
      * @see                          #getIntegerVariable(String)
      */
     public int getVariable(String name, int defaultValue) {
-        return ConfigurationSection.getIntegerValue(getVariable(name, ConfigurationSection.getValue(defaultValue)));
+        return getEntry(name, ConfigurationSection.getValue(defaultValue)).getIntegerValue();
     }
 
     /**
@@ -998,7 +990,7 @@ public class Configuration {
      * @see                          #getLongVariable(String)
      */
     public long getVariable(String name, long defaultValue) {
-        return ConfigurationSection.getLongValue(getVariable(name, ConfigurationSection.getValue(defaultValue)));
+        return getEntry(name, ConfigurationSection.getValue(defaultValue)).getLongValue();
     }
 
     /**
@@ -1016,7 +1008,7 @@ public class Configuration {
      * @see                          #getFloatVariable(String)
      */
     public float getVariable(String name, float defaultValue) {
-        return ConfigurationSection.getFloatValue(getVariable(name, ConfigurationSection.getValue(defaultValue)));
+        return getEntry(name, ConfigurationSection.getValue(defaultValue)).getFloatValue();
     }
 
     /**
@@ -1033,7 +1025,7 @@ public class Configuration {
      * @see                          #getBooleanVariable(String)
      */
     public boolean getVariable(String name, boolean defaultValue) {
-        return ConfigurationSection.getBooleanValue(getVariable(name, ConfigurationSection.getValue(defaultValue)));
+        return getEntry(name, ConfigurationSection.getValue(defaultValue)).getBooleanValue();
     }
 
     /**
@@ -1051,13 +1043,104 @@ public class Configuration {
      * @see                          #getDoubleVariable(String)
      */
     public double getVariable(String name, double defaultValue) {
-        return ConfigurationSection.getDoubleValue(getVariable(name, ConfigurationSection.getValue(defaultValue)));
+        return getEntry(name, ConfigurationSection.getValue(defaultValue)).getDoubleValue();
     }
 
 
 
     // - Helper methods ------------------------------------------------------------------------------------------------
     // -----------------------------------------------------------------------------------------------------------------
+    /**
+     * Enables or disables cached lookups.
+     * <p>
+     * When disabled, every lookup walks the configuration tree while holding the configuration's lock, and primitive
+     * values are parsed each time they are retrieved, as they were before values were cached. This is only meant to
+     * compare both kinds of lookups.
+     * </p>
+     * @param enabled whether variables should be looked up in the cache.
+     */
+    void setCacheEnabled(boolean enabled) {
+        cacheEnabled = enabled;
+    }
+
+    /**
+     * Returns the cached entry of the specified variable, looking it up in the configuration tree if it's not cached.
+     * <p>
+     * Cached entries are retrieved without locking the configuration.
+     * </p>
+     * @param  name fully qualified name of the variable to retrieve.
+     * @return      the variable's entry.
+     */
+    private ConfigurationCache.Entry getEntry(String name) {
+        ConfigurationCache.Entry entry; // Cached value of the variable.
+
+        if(!cacheEnabled || (entry = cache.get(name)) == null)
+            entry = loadEntry(name);
+        return entry;
+    }
+
+    /**
+     * Looks up the specified variable in the configuration tree and caches its value.
+     * @param  name fully qualified name of the variable to retrieve.
+     * @return      the variable's entry.
+     */
+    private synchronized ConfigurationCache.Entry loadEntry(String name) {
+        ConfigurationExplorer explorer; // Used to navigate to the variable's parent section.
+        String                buffer;   // Buffer for the variable's name trimmed of section information.
+
+        // If the variable's 'path' doesn't exist, the variable isn't set.
+        if((buffer = moveToParent(explorer = new ConfigurationExplorer(root), name, false)) == null)
+            return cache.put(name, null);
+        return cache.put(name, explorer.getSection().getVariable(buffer));
+    }
+
+    /**
+     * Returns the cached entry of the specified variable, setting the variable to <code>defaultValue</code> if it's
+     * not set.
+     * <p>
+     * Cached entries of variables that are set are retrieved without locking the configuration.
+     * </p>
+     * @param  name         fully qualified name of the variable to retrieve.
+     * @param  defaultValue value to use if <code>name</code> is not set.
+     * @return              the variable's entry.
+     */
+    private ConfigurationCache.Entry getEntry(String name, String defaultValue) {
+        ConfigurationCache.Entry entry; // Cached value of the variable.
+
+        if(!cacheEnabled || (entry = cache.get(name)) == null || entry.getValue() == null)
+            entry = loadEntry(name, defaultValue);
+        return entry;
+    }
+
+    /**
+     * Looks up the specified variable in the configuration tree, sets it to <code>defaultValue</code> if it's not set
+     * and caches its value.
+     * <p>
+     * If the variable isn't set, a configuration {@link ConfigurationEvent event} will be sent to all registered
+     * LISTENERS.
+     * </p>
+     * @param  name         fully qualified name of the variable to retrieve.
+     * @param  defaultValue value to use if <code>name</code> is not set.
+     * @return              the variable's entry.
+     */
+    private synchronized ConfigurationCache.Entry loadEntry(String name, String defaultValue) {
+        ConfigurationExplorer explorer; // Used to navigate to the variable's parent section.
+        String                value;    // Buffer for the variable's value.
+        String                buffer;   // Buffer for the variable's name trimmed of section information.
+
+        // Navigates to the parent section. We do not have to check for null values here,
+        // as the section will be created if it doesn't exist.
+        buffer = moveToParent(explorer = new ConfigurationExplorer(root), name, true);
+
+        // If the variable isn't set, set it to defaultValue and triggers an event.
+        if((value = explorer.getSection().getVariable(buffer)) == null) {
+            explorer.getSection().setVariable(buffer, defaultValue);
+            triggerEvent(new ConfigurationEvent(this, name, defaultValue));
+            value = defaultValue;
+        }
+        return cache.put(name, value);
+    }
+
     /**
      * Navigates the specified explorer to the parent section of the specified variable.
      * @param  root where to start exploring from.
@@ -1108,6 +1191,8 @@ public class Configuration {
      * @param event event to propagate.
      */
     private void triggerEvent(ConfigurationEvent event) {
+        // Invalidates the cache first, so that LISTENERS retrieve the variable's new value.
+        cache.configurationChanged(event);
         for(ConfigurationListener listener : LISTENERS.keySet())
             listener.configurationChanged(event);
     }
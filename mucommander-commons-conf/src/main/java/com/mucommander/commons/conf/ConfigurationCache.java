@@ -0,0 +1,216 @@
+/**
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2018 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.mucommander.commons.conf;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Read-optimised view of a {@link Configuration}'s variables, mapping fully qualified variable names to their values.
+ * <p>
+ * Values are added to the cache when they are first looked up in the configuration tree, and removed from it when
+ * the configuration {@link ConfigurationEvent event} that describes their modification is received. Unset variables
+ * are cached as well, with a <code>null</code> value. Entries also hold the last value their variable was cast to,
+ * so that primitive values do not have to be parsed each time they are retrieved.
+ * </p>
+ * <p>
+ * The cache can be read without holding any lock. Entries must however be added while holding the configuration's
+ * lock, which is also held when events are triggered, so that a value read from the tree before a modification
+ * cannot be cached after the modification has invalidated it.
+ * </p>
+ */
+class ConfigurationCache implements ConfigurationListener {
+    // - Instance variables --------------------------------------------------------------------------------------------
+    // -----------------------------------------------------------------------------------------------------------------
+    /** Cached entries, mapped by fully qualified variable name. */
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+
+
+
+    // - Cache access --------------------------------------------------------------------------------------------------
+    // -----------------------------------------------------------------------------------------------------------------
+    /**
+     * Returns the cached entry of the specified variable.
+     * @param  name fully qualified name of the variable.
+     * @return      the variable's entry, <code>null</code> if it's not cached.
+     */
+    Entry get(String name) {
+        return entries.get(name);
+    }
+
+    /**
+     * Caches the value of the specified variable.
+     * <p>
+     * Names that contain empty sections (leading, trailing or consecutive periods) refer to the same variable as their
+     * canonical form, but are not the name events are triggered with: their values are not cached.
+     * </p>
+     * @param  name  fully qualified name of the variable.
+     * @param  value value of the variable, <code>null</code> if it's not set.
+     * @return       the variable's entry.
+     */
+    Entry put(String name, String value) {
+        Entry entry = new Entry(value);
+        if(isCanonical(name))
+            entries.put(name, entry);
+        return entry;
+    }
+
+    /**
+     * Removes all entries from the cache.
+     */
+    void clear() {
+        entries.clear();
+    }
+
+    /**
+     * Returns <code>true</code> if the specified name doesn't contain any empty section.
+     * @param  name name to check.
+     * @return      <code>true</code> if the specified name doesn't contain any empty section.
+     */
+    private static boolean isCanonical(String name) {
+        return !name.isEmpty() && name.charAt(0) != '.' && name.charAt(name.length() - 1) != '.' && !name.contains("..");
+    }
+
+
+
+    // - Invalidation --------------------------------------------------------------------------------------------------
+    // -----------------------------------------------------------------------------------------------------------------
+    /**
+     * Removes the modified variable from the cache.
+     * <p>
+     * If the variable's name is not canonical, the whole cache is cleared as the variable may be cached under a
+     * different name.
+     * </p>
+     * @param event describes the configuration modification.
+     */
+    public void configurationChanged(ConfigurationEvent event) {
+        if(isCanonical(event.getVariable()))
+            entries.remove(event.getVariable());
+        else
+            entries.clear();
+    }
+
+
+
+    // - Entries -------------------------------------------------------------------------------------------------------
+    // -----------------------------------------------------------------------------------------------------------------
+    /**
+     * Cached value of a variable, along with the last value it was cast to.
+     */
+    static class Entry {
+        /** Value of the variable, <code>null</code> if it's not set. */
+        private final String  value;
+        /** Last value the variable was cast to, <code>null</code> if it hasn't been cast yet. */
+        private volatile Object castValue;
+
+        /**
+         * Creates a new entry.
+         * @param value value of the variable, <code>null</code> if it's not set.
+         */
+        Entry(String value) {
+            this.value = value;
+        }
+
+        /**
+         * Returns the variable's value.
+         * @return the variable's value, <code>null</code> if it's not set.
+         */
+        String getValue() {
+            return value;
+        }
+
+        /**
+         * Returns the variable's value as an integer.
+         * @return                       the variable's value as an integer.
+         * @throws NumberFormatException if the variable's value cannot be cast to an integer.
+         * @see                          ConfigurationSection#getIntegerValue(String)
+         */
+        int getIntegerValue() {
+            Object buffer = castValue;
+            if(buffer instanceof Integer)
+                return (Integer)buffer;
+
+            int result = ConfigurationSection.getIntegerValue(value);
+            castValue = result;
+            return result;
+        }
+
+        /**
+         * Returns the variable's value as a long.
+         * @return                       the variable's value as a long.
+         * @throws NumberFormatException if the variable's value cannot be cast to a long.
+         * @see                          ConfigurationSection#getLongValue(String)
+         */
+        long getLongValue() {
+            Object buffer = castValue;
+            if(buffer instanceof Long)
+                return (Long)buffer;
+
+            long result = ConfigurationSection.getLongValue(value);
+            castValue = result;
+            return result;
+        }
+
+        /**
+         * Returns the variable's value as a float.
+         * @return                       the variable's value as a float.
+         * @throws NumberFormatException if the variable's value cannot be cast to a float.
+         * @see                          ConfigurationSection#getFloatValue(String)
+         */
+        float getFloatValue() {
+            Object buffer = castValue;
+            if(buffer instanceof Float)
+                return (Float)buffer;
+
+            float result = ConfigurationSection.getFloatValue(value);
+            castValue = result;
+            return result;
+        }
+
+        /**
+         * Returns the variable's value as a double.
+         * @return                       the variable's value as a double.
+         * @throws NumberFormatException if the variable's value cannot be cast to a double.
+         * @see                          ConfigurationSection#getDoubleValue(String)
+         */
+        double getDoubleValue() {
+            Object buffer = castValue;
+            if(buffer instanceof Double)
+                return (Double)buffer;
+
+            double result = ConfigurationSection.getDoubleValue(value);
+            castValue = result;
+            return result;
+        }
+
+        /**
+         * Returns the variable's value as a boolean.
+         * @return the variable's value as a boolean.
+         * @see    ConfigurationSection#getBooleanValue(String)
+         */
+        boolean getBooleanValue() {
+            Object buffer = castValue;
+            if(buffer instanceof Boolean)
+                return (Boolean)buffer;
+
+            boolean result = ConfigurationSection.getBooleanValue(value);
+            castValue = result;
+            return result;
+        }
+    }
+}
@@ -0,0 +1,295 @@
+/**
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2018 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.mucommander.commons.conf;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A test case for the variable cache of the {@link Configuration} class.
+ */
+public class ConfigurationTest {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ConfigurationTest.class);
+
+    // - Test constants ------------------------------------------------------------------------------------------------
+    // -----------------------------------------------------------------------------------------------------------------
+    /** Name of the test variable. */
+    private static final String VARIABLE_NAME = "section1.section2.variable";
+
+
+
+    // - Instance fields -----------------------------------------------------------------------------------------------
+    // -----------------------------------------------------------------------------------------------------------------
+    /** Configuration instance used to run the tests. */
+    private Configuration conf;
+
+
+
+    // - Initialisation ------------------------------------------------------------------------------------------------
+    // -----------------------------------------------------------------------------------------------------------------
+    /**
+     * Initialises the test case.
+     */
+    @BeforeMethod(alwaysRun = true)
+    public void setUp() {
+        conf = new Configuration();
+    }
+
+
+
+    // - Cache tests ---------------------------------------------------------------------------------------------------
+    // -----------------------------------------------------------------------------------------------------------------
+    /**
+     * Makes sure cached values are invalidated when variables are set, removed or renamed.
+     */
+    @Test
+    public void testInvalidation() {
+        assert conf.getVariable(VARIABLE_NAME) == null;
+        assert !conf.isVariableSet(VARIABLE_NAME);
+
+        conf.setVariable(VARIABLE_NAME, 10);
+        assert conf.getIntegerVariable(VARIABLE_NAME) == 10;
+        assert "10".equals(conf.getVariable(VARIABLE_NAME));
+
+        conf.setVariable(VARIABLE_NAME, 20);
+        assert conf.getIntegerVariable(VARIABLE_NAME) == 20;
+        assert conf.getLongVariable(VARIABLE_NAME) == 20;
+        assert conf.getIntegerVariable(VARIABLE_NAME) == 20;
+
+        conf.renameVariable(VARIABLE_NAME, "other");
+        assert conf.getVariable(VARIABLE_NAME) == null;
+        assert conf.getIntegerVariable("other") == 20;
+
+        assert conf.removeIntegerVariable("other") == 20;
+        assert conf.getVariable("other") == null;
+    }
+
+    /**
+     * Makes sure default values are set and cached values are invalidated when the configuration is cleared.
+     */
+    @Test
+    public void testDefaultValues() {
+        assert conf.getVariable(VARIABLE_NAME, true);
+        assert conf.getBooleanVariable(VARIABLE_NAME);
+        assert conf.getVariable(VARIABLE_NAME, false);
+
+        conf.clear();
+        assert !conf.isVariableSet(VARIABLE_NAME);
+        assert !conf.getVariable(VARIABLE_NAME, false);
+        assert !conf.getBooleanVariable(VARIABLE_NAME);
+    }
+
+    /**
+     * Makes sure that names that contain empty sections are not served stale values.
+     */
+    @Test
+    public void testNonCanonicalNames() {
+        conf.setVariable(VARIABLE_NAME, "value1");
+        assert "value1".equals(conf.getVariable(VARIABLE_NAME));
+        assert "value1".equals(conf.getVariable("section1..section2.variable"));
+
+        conf.setVariable(".section1.section2.variable", "value2");
+        assert "value2".equals(conf.getVariable(VARIABLE_NAME));
+        assert "value2".equals(conf.getVariable("section1..section2.variable"));
+    }
+
+    /**
+     * Makes sure cached values are invalidated when the configuration is read, and that LISTENERS receive the new
+     * values.
+     * @throws Exception if an error occurs.
+     */
+    @Test
+    public void testRead() throws Exception {
+        final String[] listenerValue = new String[1];
+        ConfigurationListener listener = new ConfigurationListener() {
+            public void configurationChanged(ConfigurationEvent event) {
+                listenerValue[0] = conf.getVariable(event.getVariable());
+            }
+        };
+        conf.addConfigurationListener(listener);
+
+        conf.setVariable(VARIABLE_NAME, "value1");
+        assert "value1".equals(conf.getVariable(VARIABLE_NAME));
+        assert "value1".equals(listenerValue[0]);
+
+        conf.read(new StringReader("<?xml version=\"1.0\" encoding=\"UTF-8\"?><prefs><section1><section2>"
+                                   + "<variable>value2</variable></section2></section1></prefs>"),
+                  new XmlConfigurationReader());
+        assert "value2".equals(conf.getVariable(VARIABLE_NAME));
+        assert "value2".equals(listenerValue[0]);
+    }
+
+
+
+    // - Concurrency tests ---------------------------------------------------------------------------------------------
+    // -----------------------------------------------------------------------------------------------------------------
+    /**
+     * Makes sure that threads looking up variables while they are being modified never see a stale value once they
+     * have seen a newer one, and that they all see the final values once modifications are over.
+     * @throws InterruptedException if interrupted while waiting for the threads to complete.
+     */
+    @Test
+    public void testConcurrentLookups() throws InterruptedException {
+        final int nbVariables = 50;
+        final int nbRounds    = 200;
+        final int nbThreads   = 4;
+
+        final String[] names = new String[nbVariables];
+        for(int i = 0; i < nbVariables; i++)
+            conf.setVariable(names[i] = "section" + (i % 10) + ".subsection" + (i % 3) + ".variable" + i, i);
+
+        final List<Throwable> failures = Collections.synchronizedList(new ArrayList<Throwable>());
+        final AtomicBoolean   done     = new AtomicBoolean();
+
+        // Readers: values of variable i are i, i+nbVariables, i+2*nbVariables... and only ever increase.
+        Thread[] readers = new Thread[nbThreads];
+        for(int t = 0; t < nbThreads; t++) {
+            readers[t] = new Thread("ConfigurationTest-" + t) {
+                @Override
+                public void run() {
+                    try {
+                        int[] lastValues = new int[nbVariables];
+                        boolean last;
+                        do {
+                            // One more pass after modifications are over, which must see the final values
+                            last = done.get();
+                            for(int i = 0; i < nbVariables; i++) {
+                                int value = conf.getIntegerVariable(names[i]);
+                                if(value % nbVariables != i || value < lastValues[i])
+                                    throw new AssertionError(names[i] + ": read " + value + " after " + lastValues[i]);
+                                if(last && value != i + nbRounds * nbVariables)
+                                    throw new AssertionError(names[i] + ": read " + value + " after modifications");
+                                lastValues[i] = value;
+                            }
+                        }
+                        while(!last);
+                    }
+                    catch(Throwable e) {
+                        failures.add(e);
+                    }
+                }
+            };
+            readers[t].start();
+        }
+
+        // Writer: increases the value of all variables, invalidating their cached entries.
+        for(int round = 1; round <= nbRounds; round++) {
+            for(int i = 0; i < nbVariables; i++)
+                conf.setVariable(names[i], i + round * nbVariables);
+        }
+        done.set(true);
+
+        for(Thread reader : readers)
+            reader.join(60000);
+
+        assert failures.isEmpty() : failures;
+        for(int i = 0; i < nbVariables; i++)
+            assert conf.getIntegerVariable(names[i]) == i + nbRounds * nbVariables;
+    }
+
+
+
+    // - Benchmark -----------------------------------------------------------------------------------------------------
+    // -----------------------------------------------------------------------------------------------------------------
+    /**
+     * Compares the throughput of cached and uncached lookups of integer variables, from several threads.
+     * <p>
+     * This benchmark is part of the <code>benchmark</code> group, which is excluded from the default test run: it is
+     * run by the <code>benchmark</code> Gradle task.
+     * </p>
+     * @throws InterruptedException if interrupted while waiting for the threads to complete.
+     */
+    @Test(groups = "benchmark")
+    public void benchmarkLookups() throws InterruptedException {
+        final int nbVariables = 100;
+        final int nbLookups   = 200000;
+        final int nbThreads   = 4;
+
+        final String[] names = new String[nbVariables];
+        for(int i = 0; i < nbVariables; i++)
+            conf.setVariable(names[i] = "section" + (i % 10) + ".subsection" + (i % 3) + ".variable" + i, i);
+
+        Runnable lookups = new Runnable() {
+            public void run() {
+                for(int i = 0; i < nbLookups; i++) {
+                    if(conf.getIntegerVariable(names[i % nbVariables]) != i % nbVariables)
+                        throw new AssertionError(names[i % nbVariables] + ": wrong value");
+                }
+            }
+        };
+
+        // Warm up, then measure
+        long uncachedTime = 0;
+        long cachedTime   = 0;
+        for(int run = 0; run < 2; run++) {
+            conf.setCacheEnabled(false);
+            uncachedTime = runThreads(nbThreads, lookups);
+            conf.setCacheEnabled(true);
+            cachedTime = runThreads(nbThreads, lookups);
+        }
+
+        long total = (long)nbLookups * nbThreads;
+        LOGGER.info("Uncached lookups: {} ops/s, cached lookups: {} ops/s",
+                    total * 1000000000L / uncachedTime, total * 1000000000L / cachedTime);
+        assert cachedTime < uncachedTime : "cached lookups took " + cachedTime + "ns, uncached ones " + uncachedTime + "ns";
+    }
+
+    /**
+     * Runs the specified task in the specified number of threads and returns the elapsed time.
+     * @param  nbThreads number of threads to run the task in.
+     * @param  task      task to run.
+     * @return           the number of nanoseconds it took for all threads to complete.
+     * @throws InterruptedException if interrupted while waiting for the threads to complete.
+     */
+    private static long runThreads(int nbThreads, final Runnable task) throws InterruptedException {
+        final List<Throwable> failures = Collections.synchronizedList(new ArrayList<Throwable>());
+        Thread[] threads = new Thread[nbThreads];
+        for(int t = 0; t < nbThreads; t++) {
+            threads[t] = new Thread("ConfigurationTest-" + t) {
+                @Override
+                public void run() {
+                    try {
+                        task.run();
+                    }
+                    catch(Throwable e) {
+                        failures.add(e);
+                    }
+                }
+            };
+        }
+
+        long start = System.nanoTime();
+        for(Thread thread : threads)
+            thread.start();
+        for(Thread thread : threads)
+            thread.join();
+        long time = System.nanoTime() - start;
+
+        assert failures.isEmpty() : failures;
+        return time;
+    }
+}
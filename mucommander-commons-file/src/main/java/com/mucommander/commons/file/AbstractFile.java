@@ -539,6 +539,27 @@ public abstract class AbstractFile implements FileAttributes {
     }
 
 
+    /**
+     * Returns the children files that this file contains, filtering out files that do not match the specified FileFilter,
+     * and notifies the given {@link ChildrenListener} of the children as they are listed. The returned array contains
+     * all the children that the listener was notified of.
+     *
+     * <p>This default implementation calls {@link #ls(FileFilter)} without notifying the listener: callers should
+     * use the returned array if they haven't received any batch. This method should be overridden by filesystems that
+     * list folders in several requests, so that the first children can be presented before the listing is complete.</p>
+     *
+     * @param filter the FileFilter to be used to filter files out from the list, may be <code>null</code>
+     * @param listener the listener to notify of children as they are listed
+     * @return the children files that this file contains
+     * @throws IOException if this operation is not possible (file is not browsable) or if an error occurred.
+     * @throws UnsupportedFileOperationException if this method relies on a file operation that is not supported
+     * or not implemented by the underlying filesystem.
+     */
+    public AbstractFile[] ls(FileFilter filter, ChildrenListener listener) throws IOException, UnsupportedFileOperationException {
+        return ls(filter);
+    }
+
+
     /**
      * Returns the children files that this file contains, filtering out files that do not match the specified FilenameFilter.
      * For this operation to be successful, this file must be 'browsable', i.e. {@link #isBrowsable()} must return
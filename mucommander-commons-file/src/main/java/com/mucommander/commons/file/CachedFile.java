@@ -19,10 +19,9 @@
 
 package com.mucommander.commons.file;
 
-import java.io.File;
 import java.io.IOException;
-import java.lang.reflect.Field;
-import java.lang.reflect.Method;
+import java.util.IdentityHashMap;
+import java.util.Map;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -122,55 +121,8 @@ public class CachedFile extends ProxyFile {
     private AbstractFile getCanonicalFile;
     private boolean getCanonicalFileSet;
 
-    // Used to access the java.io.FileSystem#getBooleanAttributes method
-    private static boolean getFileAttributesAvailable;
-    private static Method mGetBooleanAttributes;
-    private static int BA_DIRECTORY, BA_EXISTS, BA_HIDDEN;
-    private static Object fs;
-
-    static {
-        // Exposes the java.io.FileSystem class which by default has package access, in order to use its
-        // 'getBooleanAttributes' method to speed up access to file attributes under Windows.
-        // This method allows to retrieve the values of the 'exists', 'isDirectory' and 'isHidden' attributes in one
-        // pass, resolving the underlying file only once instead of 3 times. Since resolving a file is a particularly
-        // expensive operation under Windows due to improper use of the Win32 API, this helps speed things up a little.
-        // References:
-        //  - http://bugs.sun.com/bugdatabase/view_bug.do?bug_id=5036988
-        //  - http://bugs.sun.com/bugdatabase/view_bug.do?bug_id=6240028
-        //
-        // This hack was made for Windows, but is now used for other platforms as well as it is necessarily faster than
-        // retrieving file attributes individually.
-
-        try {
-            // Resolve FileSystem class, 'getBooleanAttributes' method and fields
-            Class<?> cFile = File.class;
-            Class<?> cFileSystem = Class.forName("java.io.FileSystem");
-            mGetBooleanAttributes = cFileSystem.getDeclaredMethod("getBooleanAttributes", new Class [] {cFile});
-            Field fBA_EXISTS = cFileSystem.getDeclaredField("BA_EXISTS");
-            Field fBA_DIRECTORY = cFileSystem.getDeclaredField("BA_DIRECTORY");
-            Field fBA_HIDDEN = cFileSystem.getDeclaredField("BA_HIDDEN");
-            Field fFs = cFile.getDeclaredField("fs");
-
-            // Allow access to the 'getBooleanAttributes' method and to the fields we're interested in
-            mGetBooleanAttributes.setAccessible(true);
-            fFs.setAccessible(true);
-            fBA_EXISTS.setAccessible(true);
-            fBA_DIRECTORY.setAccessible(true);
-            fBA_HIDDEN.setAccessible(true);
-
-            // Retrieve constant field values once for all
-            BA_EXISTS = (Integer) fBA_EXISTS.get(null);
-            BA_DIRECTORY = (Integer) fBA_DIRECTORY.get(null);
-            BA_HIDDEN = (Integer) fBA_HIDDEN.get(null);
-            fs = fFs.get(null);
-
-            getFileAttributesAvailable = true;
-            LOGGER.trace("Access to java.io.FileSystem granted");
-        }
-        catch(Exception e) {
-            LOGGER.info("Error while allowing access to java.io.FileSystem", e);
-        }
-    }
+    /** True if the attributes of the underlying local file have been fetched in one pass, or if it failed */
+    private boolean fileAttributesFetched;
 
 
     /**
@@ -201,33 +153,68 @@ public class CachedFile extends ProxyFile {
 
 
     /**
-     * Pre-fetches values of {@link #isDirectory}, {@link #exists} and {@link #isHidden} for the given local file,
-     * using the <code>java.io.FileSystem#getBooleanAttributes(java.io.File)</code> method.
-     * The given {@link AbstractFile} must be a local file or a proxy to a local file ('file' protocol). This method
-     * must only be called if the {@link #getFileAttributesAvailable} field is <code>true</code>.
+     * Pre-fetches values of {@link #isDirectory}, {@link #exists}, {@link #isHidden}, {@link #isSymlink},
+     * {@link #getSize} and {@link #getDate} for the given local file in one pass, instead of querying the filesystem
+     * for each of them. The attributes read when the file's parent folder was listed are used if they are available,
+     * see {@link LocalFile#takeListingAttributes()}. Nothing is pre-fetched if the given {@link AbstractFile} is not a
+     * local file or a proxy to a local file ('file' protocol), or if its attributes cannot be read.
      */
     private void getFileAttributes(AbstractFile file) {
+        fileAttributesFetched = true;
+
         file = file.getTopAncestor();
+        if(!(file instanceof LocalFile))
+            return;
 
-        if(file instanceof LocalFile) {
-            try {
-                int ba = (Integer) mGetBooleanAttributes.invoke(fs, new Object[]{file.getUnderlyingFileObject()});
+        LocalFile localFile = (LocalFile)file;
+        LocalFile.LocalFileAttributes attributes = localFile.takeListingAttributes();
+        if(attributes==null)
+            attributes = localFile.readAttributes();
 
-                isDirectory = (ba & BA_DIRECTORY)!=0;
-                isDirectorySet = true;
+        if(attributes==null) {
+            LOGGER.trace("Could not retrieve file attributes for {}", file);
+            return;
+        }
 
-                exists = (ba & BA_EXISTS)!=0;
-                existsSet = true;
+        if(!isDirectorySet) {
+            isDirectory = attributes.isDirectory();
+            isDirectorySet = true;
+        }
 
-                isHidden = (ba & BA_HIDDEN)!=0;
-                isHiddenSet = true;
-            }
-            catch(Exception e) {
-                LOGGER.info("Could not retrieve file attributes for {}", file, e);
-            }
+        if(!existsSet) {
+            exists = attributes.exists();
+            existsSet = true;
+        }
+
+        if(!isHiddenSet) {
+            isHidden = attributes.isHidden();
+            isHiddenSet = true;
+        }
+
+        if(!isSymlinkSet) {
+            isSymlink = attributes.isSymlink();
+            isSymlinkSet = true;
+        }
+
+        if(!getSizeSet) {
+            getSize = attributes.getSize();
+            getSizeSet = true;
+        }
+
+        if(!getDateSet) {
+            getDate = attributes.getDate();
+            getDateSet = true;
         }
     }
 
+    /**
+     * Returns <code>true</code> if the attributes of the underlying file should be pre-fetched in one pass, i.e. if
+     * this has not been attempted yet and the file is a local one.
+     */
+    private boolean shouldGetFileAttributes() {
+        return !fileAttributesFetched && FileProtocols.FILE.equals(file.getURL().getScheme());
+    }
+
 
     ////////////////////////////////////////////////////
     // Overridden methods to cache their return value //
@@ -235,6 +222,9 @@ public class CachedFile extends ProxyFile {
 
     @Override
     public long getSize() {
+        if(!getSizeSet && shouldGetFileAttributes())
+            getFileAttributes(file);
+
         if(!getSizeSet) {
             getSize = file.getSize();
             getSizeSet = true;
@@ -245,6 +235,9 @@ public class CachedFile extends ProxyFile {
 
     @Override
     public long getDate() {
+        if(!getDateSet && shouldGetFileAttributes())
+            getFileAttributes(file);
+
         if(!getDateSet) {
             getDate = file.getDate();
             getDateSet = true;
@@ -255,6 +248,9 @@ public class CachedFile extends ProxyFile {
 
     @Override
     public boolean isSymlink() {
+        if(!isSymlinkSet && shouldGetFileAttributes())
+            getFileAttributes(file);
+
         if(!isSymlinkSet) {
             isSymlink = file.isSymlink();
             isSymlinkSet = true;
@@ -265,7 +261,7 @@ public class CachedFile extends ProxyFile {
 
     @Override
     public boolean isDirectory() {
-        if(!isDirectorySet && getFileAttributesAvailable && FileProtocols.FILE.equals(file.getURL().getScheme()))
+        if(!isDirectorySet && shouldGetFileAttributes())
             getFileAttributes(file);
         // Note: getFileAttributes() might fail to retrieve file attributes, so we need to test isDirectorySet again
 
@@ -289,7 +285,7 @@ public class CachedFile extends ProxyFile {
 
     @Override
     public boolean isHidden() {
-        if(!isHiddenSet && getFileAttributesAvailable && FileProtocols.FILE.equals(file.getURL().getScheme()))
+        if(!isHiddenSet && shouldGetFileAttributes())
             getFileAttributes(file);
         // Note: getFileAttributes() might fail to retrieve file attributes, so we need to test isDirectorySet again
 
@@ -363,7 +359,7 @@ public class CachedFile extends ProxyFile {
 
     @Override
     public boolean exists() {
-        if(!existsSet && getFileAttributesAvailable && FileProtocols.FILE.equals(file.getURL().getScheme()))
+        if(!existsSet && shouldGetFileAttributes())
             getFileAttributes(file);
         // Note: getFileAttributes() might fail to retrieve file attributes, so we need to test isDirectorySet again
 
@@ -500,6 +496,31 @@ public class CachedFile extends ProxyFile {
         return files;
     }
 
+    @Override
+    public AbstractFile[] ls(FileFilter filter, final ChildrenListener listener) throws IOException, UnsupportedFileOperationException {
+        if(!recurseInstances)
+            return file.ls(filter, listener);
+
+        // Create a CachedFile instance around each of the files, both in batches and in the returned array
+        final Map<AbstractFile, AbstractFile> cachedFiles = new IdentityHashMap<AbstractFile, AbstractFile>();
+        AbstractFile files[] = file.ls(filter, new ChildrenListener() {
+            public void childrenListed(AbstractFile children[]) {
+                AbstractFile cachedChildren[] = createCachedFiles(children.clone());
+                for(int i=0; i<children.length; i++)
+                    cachedFiles.put(children[i], cachedChildren[i]);
+
+                listener.childrenListed(cachedChildren);
+            }
+        });
+
+        for(int i=0; i<files.length; i++) {
+            AbstractFile cachedFile = cachedFiles.get(files[i]);
+            files[i] = cachedFile==null?new CachedFile(files[i], true):cachedFile;
+        }
+
+        return files;
+    }
+
     @Override
     public AbstractFile[] ls(FilenameFilter filter) throws IOException, UnsupportedFileOperationException {
         // Don't cache ls() result but create a CachedFile instance around each of the files if recursion is enabled
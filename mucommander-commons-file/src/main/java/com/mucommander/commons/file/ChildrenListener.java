@@ -0,0 +1,37 @@
+/**
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2018 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.mucommander.commons.file;
+
+/**
+ * ChildrenListener is an interface that allows to receive the children of a folder in batches, as they are listed by
+ * {@link AbstractFile#ls(com.mucommander.commons.file.filter.FileFilter, ChildrenListener)}. This allows the first
+ * children of folders that take a long time to list to be presented before the listing is complete.
+ *
+ * <p>Calls to {@link #childrenListed(AbstractFile[])} are serialized but may be made by threads other than the one
+ * that lists the folder. No call is made once <code>ls</code> has returned or thrown an exception. If <code>ls</code>
+ * throws an exception, the children that were received are an incomplete listing of the folder.</p>
+ */
+public interface ChildrenListener {
+
+    /**
+     * Called when a batch of children has been listed. A child is part of a single batch.
+     *
+     * @param children the children that have been listed, filtered by the filter passed to <code>ls</code>
+     */
+    void childrenListed(AbstractFile children[]);
+}
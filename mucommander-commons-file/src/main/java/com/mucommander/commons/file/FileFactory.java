@@ -34,6 +34,7 @@ import com.mucommander.commons.file.archive.ArchiveFormatProvider;
 import com.mucommander.commons.file.icon.FileIconProvider;
 import com.mucommander.commons.file.icon.impl.SwingFileIconProvider;
 import com.mucommander.commons.file.protocol.FileProtocols;
+import com.mucommander.commons.file.protocol.ProtocolFile;
 import com.mucommander.commons.file.protocol.ProtocolProvider;
 import com.mucommander.commons.file.protocol.local.LocalFile;
 import com.mucommander.commons.file.protocol.local.LocalProtocolProvider;
@@ -441,7 +442,7 @@ public class FileFactory {
         // Lookup the pool for an existing AbstractFile instance, only if there are no instantiationParams.
         // If there are instantiationParams (the file was created by the AbstractFile implementation directly, that is
         // by ls()), any existing file in the pool must be replaced with a new, more up-to-date one.
-        FilePool filePool = FILE_POOL_MAP.get(fileURL.getScheme().toLowerCase());
+        FilePool filePool = getFilePool(protocol);
         if(instantiationParams.length==0) {
             // Note: FileURL#equals(Object) and #hashCode() take into account credentials and properties and are
             // trailing slash insensitive (e.g. '/root' and '/root/' URLS are one and the same)
@@ -537,6 +538,77 @@ public class FileFactory {
         return currentFile;
     }
 
+    /**
+     * Creates and returns an instance of AbstractFile for the given child of the specified folder. This method is
+     * meant to be used by {@link AbstractFile#ls()} implementations and is equivalent to
+     * {@link #getFile(FileURL, AbstractFile, Object...)}, but faster: since the parent folder is a protocol file, none
+     * of the parent folders of the child can be an archive and only the child's filename has to be tested against the
+     * registered archive formats, instead of each of the filenames that its path is made of.
+     *
+     * <p>The given URL is used as-is by the created file and must not be modified afterwards.</p>
+     *
+     * @param childURL the URL of the child, cloned from the parent's URL
+     * @param parent the folder that contains the child, used as the created file's parent
+     * @param instantiationParams the parameters passed to the protocol provider
+     * @return an instance of {@link AbstractFile} for the given child
+     * @throws java.io.IOException if something went wrong during file creation.
+     */
+    public static AbstractFile getChildFile(FileURL childURL, ProtocolFile parent, Object... instantiationParams) throws IOException {
+        FilePool filePool = getFilePool(childURL.getScheme());
+        if(filePool==null)
+            throw new IOException("Unsupported file protocol: "+childURL.getScheme());
+
+        // Same as getFile(): lookup the pool only if there are no instantiationParams
+        AbstractFile file;
+        if(instantiationParams.length==0) {
+            file = filePool.get(childURL);
+            if(file!=null) {
+                file.setParent(parent);
+                return file;
+            }
+        }
+
+        // Looking up the archive formats has a cost, and most filenames don't contain a dot
+        String filename = childURL.getFilename();
+        ArchiveFormatProvider provider = filename==null || filename.indexOf('.')==-1
+                ?null
+                :getArchiveFormatProvider(filename);
+
+        if(provider!=null) {
+            // Remove trailing separator of file, some file protocols such as SFTP don't like trailing separators.
+            String pathSeparator = childURL.getPathSeparator();
+            if(childURL.getPath().endsWith(pathSeparator))
+                childURL.setPath(PathUtils.removeTrailingSeparator(childURL.getPath(), pathSeparator));
+
+            // Look for a cached file instance before creating a new one, as getFile() does for archives
+            file = filePool.get(childURL);
+            if(file==null) {
+                file = provider.getFile(createRawFile(childURL, defaultAuthenticator, instantiationParams));
+                filePool.put(childURL, file);
+            }
+        }
+        else {
+            file = createRawFile(childURL, defaultAuthenticator, instantiationParams);
+            filePool.put(file.getURL(), file);
+        }
+
+        file.setParent(parent);
+
+        return file;
+    }
+
+    /**
+     * Returns the pool of the given scheme, <code>null</code> if the scheme is not registered.
+     */
+    private static FilePool getFilePool(String scheme) {
+        FilePool filePool = FILE_POOL_MAP.get(scheme);
+        // Schemes are registered in lower case, most URLs have a lower-case scheme already
+        if(filePool==null)
+            filePool = FILE_POOL_MAP.get(scheme.toLowerCase());
+
+        return filePool;
+    }
+
     private static AbstractFile createRawFile(FileURL fileURL, Authenticator authenticator, Object... instantiationParams) throws IOException {
         String scheme = fileURL.getScheme().toLowerCase();
 
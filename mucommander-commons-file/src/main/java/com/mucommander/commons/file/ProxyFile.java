@@ -350,6 +350,11 @@ public abstract class ProxyFile extends AbstractFile {
         return file.ls(filter);
     }
 
+    @Override
+    public AbstractFile[] ls(FileFilter filter, ChildrenListener listener) throws IOException, UnsupportedFileOperationException {
+        return file.ls(filter, listener);
+    }
+
     @Override
     public AbstractFile[] ls(FilenameFilter filter) throws IOException, UnsupportedFileOperationException {
         return file.ls(filter);
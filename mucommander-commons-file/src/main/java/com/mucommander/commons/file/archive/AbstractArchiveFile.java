@@ -189,10 +189,8 @@ public abstract class AbstractArchiveFile extends ProxyFile {
         checkEntriesTree();
         DefaultMutableTreeNode entryNode = entryTreeRoot.findEntryNode(entry.getPath());
 
-        if(entryNode!=null) {
-            DefaultMutableTreeNode parentNode = (DefaultMutableTreeNode)entryNode.getParent();
-            parentNode.remove(entryNode);
-        }
+        if(entryNode!=null)
+            entryTreeRoot.removeEntryNode(entryNode);
     }
 
     /**
@@ -19,22 +19,39 @@
 
 package com.mucommander.commons.file.archive;
 
-import com.mucommander.commons.file.util.PathUtils;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Map;
 
 import javax.swing.tree.DefaultMutableTreeNode;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 /**
  * Stores archive entries and organizes them in a tree structure that maps entries in the way they are organized
  * inside the archive. An instance of <code>ArchiveEntryTree</code> also acts as the root node: all entry nodes
  * are children of it (direct or indirect).
  *
+ * <p>In addition to the tree structure, nodes are indexed by their path so that looking up an entry, or the parent
+ * node of an entry being added, is done in constant time regardless of the number of entries a directory contains.
+ * Paths are indexed without their trailing slash, making lookups 'trailing slash insensitive'.
+ * Nodes must be removed using {@link #removeEntryNode(DefaultMutableTreeNode)} to keep the index consistent.</p>
+ *
  * @author Maxence Bernard
  */
 public class ArchiveEntryTree extends DefaultMutableTreeNode {
     private static final Logger LOGGER = LoggerFactory.getLogger(ArchiveEntryTree.class);
 
+    /** Maps entry paths (without trailing slash) to their node */
+    private Map<String, DefaultMutableTreeNode> nodesByPath = new HashMap<String, DefaultMutableTreeNode>();
+
+    /** Node of the directory the last entry was added to, most archives list a directory's entries contiguously */
+    private DefaultMutableTreeNode lastParentNode;
+
+    /** Index key of {@link #lastParentNode} */
+    private String lastParentKey;
+
     /**
      * Creates a new empty tree.
      */
@@ -48,56 +65,84 @@ public class ArchiveEntryTree extends DefaultMutableTreeNode {
      */
     public void addArchiveEntry(ArchiveEntry entry) {
         String entryPath = entry.getPath();
-        int entryDepth = entry.getDepth();
-        int slashPos = 0;
-        DefaultMutableTreeNode node = this;
-        for(int d=1; d<=entryDepth; d++) {
-            if(d==entryDepth && !entry.isDirectory()) {
-                // Create a leaf node for the entry
-                entry.setExists(true);      // the entry has to exist
-                node.add(new DefaultMutableTreeNode(entry, true));
-                break;
+        if(ArchiveEntry.getDepth(entryPath)==0)
+            return;
+
+        String key = getKey(entryPath);
+        DefaultMutableTreeNode node;
+
+        if(entry.isDirectory()) {
+            node = nodesByPath.get(key);
+            if(node!=null) {
+                LOGGER.trace("Replacing entry for node "+node);
+                // Replace existing entry
+                node.setUserObject(entry);
+                return;
             }
+        }
 
-            String subPath = d==entryDepth?entryPath:entryPath.substring(0, (slashPos=entryPath.indexOf('/', slashPos)+1));
-
-            int nbChildren = node.getChildCount();
-            DefaultMutableTreeNode childNode = null;
-            boolean matchFound = false;
-            for(int c=0; c<nbChildren; c++) {
-                childNode = (DefaultMutableTreeNode)node.getChildAt(c);
-                // Path comparison is 'trailing slash insensitive'
-                if(PathUtils.pathEquals(((ArchiveEntry)childNode.getUserObject()).getPath(), subPath, "/")) {
-                    // Found a match
-                    matchFound = true;
-                    break;
-                }
-            }
+        // Create a leaf node for the entry
+        entry.setExists(true);      // the entry has to exist
+        node = new DefaultMutableTreeNode(entry, true);
+        getParentNode(key, entry.getDate()).add(node);
 
-            if(matchFound) {
-                if(d==entryDepth) {
-                    LOGGER.trace("Replacing entry for node "+childNode);
-                    // Replace existing entry
-                    childNode.setUserObject(entry);
-                }
-                else {
-                    node = childNode;
-                }
-            }
-            else {
-                if(d==entryDepth) {
-                    // Create a leaf node for the entry
-                    entry.setExists(true);      // the entry has to exist
-                    node.add(new DefaultMutableTreeNode(entry, true));
-                }
-                else {
-                    LOGGER.trace("Creating node for "+subPath);
-                    childNode = new DefaultMutableTreeNode(new ArchiveEntry(subPath, true, entry.getDate(), 0, true), true);
-                    node.add(childNode);
-                    node = childNode;
-                }
-            }
+        // Several regular file entries may share the same path, the first one is the one that gets looked up
+        if(!nodesByPath.containsKey(key))
+            nodesByPath.put(key, node);
+    }
+
+    /**
+     * Returns the node of the directory that contains the entry with the given key, creating it and its own parents
+     * if they do not exist.
+     *
+     * @param key path of the entry, without trailing slash
+     * @param date date to use for the directory nodes that need to be created
+     * @return the node of the directory that contains the entry
+     */
+    private DefaultMutableTreeNode getParentNode(String key, long date) {
+        int lastSlash = key.lastIndexOf('/');
+        if(lastSlash==-1)
+            return this;
+
+        // Fast path: the parent is the same as the last entry's, no need to extract the parent path
+        if(lastParentKey!=null && lastParentKey.length()==lastSlash && key.regionMatches(0, lastParentKey, 0, lastSlash))
+            return lastParentNode;
+
+        String parentKey = key.substring(0, lastSlash);
+        DefaultMutableTreeNode parentNode = nodesByPath.get(parentKey);
+        if(parentNode==null) {
+            LOGGER.trace("Creating node for "+parentKey);
+            parentNode = new DefaultMutableTreeNode(new ArchiveEntry(parentKey+"/", true, date, 0, true), true);
+            getParentNode(parentKey, date).add(parentNode);
+            nodesByPath.put(parentKey, parentNode);
         }
+
+        lastParentKey = parentKey;
+        lastParentNode = parentNode;
+
+        return parentNode;
+    }
+
+    /**
+     * Removes the given node and its children from this tree.
+     *
+     * @param entryNode the node to remove
+     */
+    public void removeEntryNode(DefaultMutableTreeNode entryNode) {
+        Enumeration<?> nodes = entryNode.depthFirstEnumeration();
+        while(nodes.hasMoreElements()) {
+            DefaultMutableTreeNode node = (DefaultMutableTreeNode)nodes.nextElement();
+            String key = getKey(((ArchiveEntry)node.getUserObject()).getPath());
+            if(nodesByPath.get(key)==node)
+                nodesByPath.remove(key);
+        }
+
+        lastParentKey = null;
+        lastParentNode = null;
+
+        DefaultMutableTreeNode parentNode = (DefaultMutableTreeNode)entryNode.getParent();
+        if(parentNode!=null)
+            parentNode.remove(entryNode);
     }
 
 
@@ -113,31 +158,22 @@ public class ArchiveEntryTree extends DefaultMutableTreeNode {
      * @return the node that corresponds to the specified entry path
      */
     public DefaultMutableTreeNode findEntryNode(String entryPath) {
-        int entryDepth = ArchiveEntry.getDepth(entryPath);
-        int slashPos = 0;
-        DefaultMutableTreeNode currentNode = this;
-        for(int d=1; d<=entryDepth; d++) {
-            String subPath = d==entryDepth?entryPath:entryPath.substring(0, (slashPos=entryPath.indexOf('/', slashPos)+1));
-
-            int nbChildren = currentNode.getChildCount();
-            DefaultMutableTreeNode matchNode = null;
-            for(int c=0; c<nbChildren; c++) {
-                DefaultMutableTreeNode childNode = (DefaultMutableTreeNode)currentNode.getChildAt(c);
-
-                // Path comparison is 'trailing slash insensitive'
-                if(PathUtils.pathEquals(((ArchiveEntry)childNode.getUserObject()).getPath(), subPath, "/")) {
-                    // Found the node, let's return it
-                    matchNode = childNode;
-                    break;
-                }
-            }
+        if(ArchiveEntry.getDepth(entryPath)==0)
+            return this;
 
-            if(matchNode==null)
-                return null;    // No node maching the provided path, return null
-
-            currentNode = matchNode;
-        }
+        return nodesByPath.get(getKey(entryPath));
+    }
 
-        return currentNode;
+    /**
+     * Returns the key under which the entry with the given path is indexed, i.e. the path without its trailing slash.
+     *
+     * @param entryPath path of an entry
+     * @return the key under which the entry is indexed
+     */
+    private static String getKey(String entryPath) {
+        int len = entryPath.length();
+        return len>0 && entryPath.charAt(len-1)=='/'
+                ?entryPath.substring(0, len-1)
+                :entryPath;
     }
 }
@@ -1,6 +1,9 @@
 package com.mucommander.commons.file.archive.sevenzip;
 
-import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -8,204 +11,382 @@ import org.slf4j.LoggerFactory;
 import com.mucommander.commons.file.archive.sevenzip.provider.SevenZip.HRESULT;
 import com.mucommander.commons.file.archive.sevenzip.provider.SevenZip.Archive.IArchiveExtractCallback;
 import com.mucommander.commons.file.archive.sevenzip.provider.SevenZip.Archive.IInArchive;
-import com.mucommander.commons.file.archive.sevenzip.provider.SevenZip.Archive.SevenZipEntry;
-
-public class MuArchiveExtractCallback implements IArchiveExtractCallback // , ICryptoGetTextPassword,
-	{
-	
-	private static final Logger LOGGER = LoggerFactory.getLogger(MuArchiveExtractCallback.class);
-	private java.io.OutputStream out;
-	private String filename;
-	
-	public MuArchiveExtractCallback(java.io.OutputStream out, String filename) {
-		this.out = out;
-		this.filename = filename;
-		PasswordIsDefined = false;
-	}
-	
-	    class OutputStream extends java.io.OutputStream {
-	        java.io.RandomAccessFile file;
-	        
-	        public OutputStream(java.io.RandomAccessFile f) {
-	            file = f;
-	        }
-	        
-	        public void close()  throws java.io.IOException {
-	            file.close();
-	            file = null;
-	        }
-	        /*
-	        public void flush()  throws java.io.IOException {
-	            file.flush();
-	        }
-	         */
-	        public void write(byte[] b)  throws java.io.IOException {
-	            file.write(b);
-	        }
-	        
-	        public void write(byte[] b, int off, int len)  throws java.io.IOException {
-	            file.write(b,off,len);
-	        }
-	        
-	        public void write(int b)  throws java.io.IOException {
-	            file.write(b);
-	        }
-	    }
-	    
-	    public int SetTotal(long size) {
-	        return HRESULT.S_OK;
-	    }
-	    
-	    public int SetCompleted(long completeValue) {
-	        return HRESULT.S_OK;
-	    }
-	    
-	    public void PrintString(String str) {
-	        System.out.print(str);
-	    }
-	    
-	    public int PrepareOperation(int askExtractMode) {
-	    	System.out.println("askExtractMode = " + askExtractMode);
-	        _extractMode = false;
-	        switch (askExtractMode) {
-	            case IInArchive.NExtract_NAskMode_kExtract:
-	                _extractMode = true;
-	        };
-	        System.out.println("here1");
-	        switch (askExtractMode) {
-	            case IInArchive.NExtract_NAskMode_kExtract:
-	                PrintString("Extracting  ");
-	                break;
-	            case IInArchive.NExtract_NAskMode_kTest:
-	                PrintString("Testing     ");
-	                break;
-	            case IInArchive.NExtract_NAskMode_kSkip:
-	                PrintString("Skipping    ");
-	                break;
-	        };
-	        System.out.println("here2");
-	        PrintString(_filePath);
-	        return HRESULT.S_OK;
-	    }
-	    
-    public int SetOperationResult(int operationResult) throws java.io.IOException {
-        switch(operationResult) {
-            case IInArchive.NExtract_NOperationResult_kOK:
+import com.mucommander.commons.util.CircularByteBuffer;
+
+/**
+ * Extracts a sequence of consecutive entries that belong to the same folder (solid block) of a 7z archive, in a
+ * single pass. Each entry is decompressed into a bounded buffer which is read by the consumer of the entry: the
+ * decoder blocks when the buffer is full, and waits for the next entry to be requested by {@link #getEntryInputStream(int)}
+ * before decompressing it. Entries of the sequence that are skipped by the consumer are decompressed but discarded.
+ *
+ * <p>The decoder waits at most {@link #idleTimeout} milliseconds for the next entry to be requested, or for its consumer
+ * to read from a full buffer, after which the extraction is aborted: an entry stream that is kept open but not read
+ * does not hold the decoder and its thread forever. {@link #run()} performs the extraction, it is meant to be executed
+ * by a separate thread.</p>
+ */
+class MuArchiveExtractCallback implements IArchiveExtractCallback, Runnable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(MuArchiveExtractCallback.class);
+
+    /** Size of the buffer an entry is decompressed into */
+    final static int BUFFER_SIZE = 256 * 1024;
+
+    /** Default number of milliseconds the decoder waits for the consumer */
+    final static long IDLE_TIMEOUT = 30 * 1000;
+
+    /** Number of milliseconds the decoder waits for the next entry to be requested, or for a full buffer to be read */
+    static volatile long idleTimeout = IDLE_TIMEOUT;
+
+    /** The archive the entries are extracted from */
+    private final IInArchive archive;
+
+    /** Indexes of the entries to extract, consecutive entries of the same folder */
+    private final int[] indices;
+
+    /** Index of the last entry requested by the consumer, -1 if none */
+    private int requestedIndex = -1;
+
+    /** The stream of the last entry requested by the consumer */
+    private EntryStream requestedStream;
+
+    /** The stream of the entry being decompressed, null if the entry is skipped */
+    private EntryStream currentStream;
+
+    /** True when the extraction has been cancelled */
+    private volatile boolean cancelled;
+
+    /** True when the decoder has started */
+    private boolean started;
+
+    /** True when the extraction is over */
+    private boolean finished;
+
+    /**
+     * Creates a new extraction of the given entries.
+     *
+     * @param archive the archive to extract the entries from
+     * @param indices indexes of consecutive entries that belong to the same folder
+     */
+    MuArchiveExtractCallback(IInArchive archive, int[] indices) {
+        this.archive = archive;
+        this.indices = indices;
+    }
+
+    /**
+     * Returns <code>true</code> if the given entry is part of this extraction.
+     */
+    private boolean contains(int index) {
+        return index>=indices[0] && index<=indices[indices.length-1];
+    }
+
+    /**
+     * Returns an <code>InputStream</code> to the given entry's data, <code>null</code> if this extraction cannot provide
+     * it because the entry is not part of it, or because the decoder is already past it. Entries that precede the
+     * given one and that haven't been read yet are discarded.
+     *
+     * @param index index of the entry in the archive
+     * @return an InputStream to the entry's data, <code>null</code> if this extraction cannot provide it
+     */
+    synchronized InputStream getEntryInputStream(int index) {
+        if(cancelled || finished || !contains(index) || index<=requestedIndex)
+            return null;
+
+        if(requestedStream!=null)
+            requestedStream.discard();
+
+        requestedIndex = index;
+        requestedStream = new EntryStream();
+        notifyAll();
+
+        return requestedStream.getInputStream();
+    }
+
+    /**
+     * Returns <code>true</code> if the consumer of the last requested entry has not read it entirely nor closed its
+     * stream yet. The entries that follow it should not be requested from this extraction until then, as that would
+     * discard the rest of it.
+     *
+     * @return true if the last requested entry is still being read
+     */
+    synchronized boolean isBusy() {
+        return !isFinished() && requestedStream!=null && !requestedStream.isDone();
+    }
+
+    /**
+     * Returns <code>true</code> if the decoder is not running and will not run anymore, i.e. if the extraction is over
+     * or if it was cancelled before it started.
+     *
+     * @return true if the decoder is not running and will not run anymore
+     */
+    synchronized boolean isFinished() {
+        return finished || (cancelled && !started);
+    }
+
+    /**
+     * Cancels this extraction and waits for the decoder to stop if it has started. The entry being read, if any, is
+     * reported as corrupted to its consumer.
+     */
+    synchronized void cancel() {
+        cancelled = true;
+        if(requestedStream!=null)
+            requestedStream.discard();
+        notifyAll();
+
+        while(started && !finished) {
+            try {
+                wait();
+            }
+            catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    public void run() {
+        synchronized(this) {
+            if(cancelled) {
+                finished = true;
+                notifyAll();
+                return;
+            }
+            started = true;
+        }
+
+        try {
+            archive.Extract(indices, indices.length, IInArchive.NExtract_NAskMode_kExtract, this);
+        }
+        catch(Exception e) {
+            LOGGER.info("Error while extracting 7zip entries", e);
+        }
+        finally {
+            synchronized(this) {
+                finished = true;
+                // The requested entry may not have been reached
+                if(requestedStream!=null)
+                    requestedStream.finish(IInArchive.NExtract_NOperationResult_kDataError);
+                notifyAll();
+            }
+        }
+    }
+
+
+    /////////////////////////////////////////////
+    // IArchiveExtractCallback implementation //
+    /////////////////////////////////////////////
+
+    public int SetTotal(long size) {
+        return HRESULT.S_OK;
+    }
+
+    public int SetCompleted(long completeValue) {
+        return HRESULT.S_OK;
+    }
+
+    public int PrepareOperation(int askExtractMode) {
+        return HRESULT.S_OK;
+    }
+
+    public synchronized int GetStream(int index, OutputStream[] outStream, int askExtractMode) throws IOException {
+        outStream[0] = null;
+        currentStream = null;
+
+        // Entries of the folder that precede the requested ones are decompressed but not extracted
+        if(askExtractMode!=IInArchive.NExtract_NAskMode_kExtract || !contains(index))
+            return HRESULT.S_OK;
+
+        // Wait for the entry to be requested, or for a subsequent one
+        long deadline = System.currentTimeMillis()+idleTimeout;
+        while(!cancelled && requestedIndex<index) {
+            long timeout = deadline-System.currentTimeMillis();
+            if(timeout<=0) {
+                LOGGER.debug("No request for 7zip entry {}, aborting extraction", index);
+                cancelled = true;
                 break;
-            default:
-            {
-                NumErrors++;
-                PrintString("     ");
-                switch(operationResult) {
-                    case IInArchive.NExtract_NOperationResult_kUnSupportedMethod:
-                        PrintString("Unsupported Method");
-                        break;
-                    case IInArchive.NExtract_NOperationResult_kCRCError:
-                        PrintString("CRC Failed");
-                        break;
-                    case IInArchive.NExtract_NOperationResult_kDataError:
-                        PrintString("Data Error");
-                        break;
-                    default:
-                        PrintString("Unknown Error");
-                }
             }
+
+            try {
+                wait(timeout);
+            }
+            catch(InterruptedException e) {
+                cancelled = true;
+            }
+        }
+
+        if(cancelled)
+            return HRESULT.E_FAIL;
+
+        if(requestedIndex==index) {
+            currentStream = requestedStream;
+            outStream[0] = currentStream.getOutputStream();
         }
-            /*
-            if(_outFileStream != null && _processedFileInfo.UTCLastWriteTimeIsDefined)
-                _outFileStreamSpec->File.SetLastWriteTime(&_processedFileInfo.UTCLastWriteTime);
-             */
-        if (_outFileStream != null) _outFileStream.close(); // _outFileStream.Release();
-            /*
-            if (_extractMode && _processedFileInfo.AttributesAreDefined)
-                NFile::NDirectory::MySetFileAttributes(_diskFilePath, _processedFileInfo.Attributes);
-             */
+
         return HRESULT.S_OK;
     }
-    
-    java.io.OutputStream _outFileStream;
-    
-    public int GetStream(int index,
-            java.io.OutputStream [] outStream,
-            int askExtractMode) throws java.io.IOException {
-
-    	SevenZipEntry item = _archiveHandler.getEntry(index);
-        _filePath = item.getName();
-        
-        if (!_filePath.equals(filename))
-        	return HRESULT.S_OK;
-    	
-    	outStream[0] = null;
-        
-        File file = new File(_filePath);
-        
-        switch (askExtractMode) {
-            case IInArchive.NExtract_NAskMode_kTest:
-                return HRESULT.S_OK;
-                
-            case IInArchive.NExtract_NAskMode_kExtract:
-                
-//                try {
-                    isDirectory = item.isDirectory();
-                    
-                    if (isDirectory) {
-                        if (file.isDirectory()) {
-                            return HRESULT.S_OK;
+
+    public synchronized int SetOperationResult(int operationResult) throws IOException {
+        if(currentStream!=null) {
+            currentStream.finish(operationResult);
+            currentStream = null;
+        }
+
+        return HRESULT.S_OK;
+    }
+
+
+    /**
+     * The bounded buffer an entry is decompressed into. The consumer's stream reports an error once all the data has
+     * been read if the entry was not successfully decompressed.
+     */
+    private class EntryStream {
+
+        private final CircularByteBuffer buffer = new CircularByteBuffer(BUFFER_SIZE);
+
+        /** Result of the decompression, -1 until the entry has been fully decompressed */
+        private volatile int operationResult = -1;
+
+        /** True if the consumer is not interested in the data anymore */
+        private volatile boolean discarded;
+
+        /** True when the consumer has reached the end of the data */
+        private volatile boolean consumed;
+
+        /**
+         * Returns <code>true</code> if the consumer is done with this entry.
+         */
+        private boolean isDone() {
+            return discarded || consumed;
+        }
+
+        /**
+         * Marks the entry as finished with the given result, unless it is already.
+         */
+        private void finish(int result) {
+            if(operationResult!=-1)
+                return;
+
+            operationResult = result;
+            try {
+                buffer.getOutputStream().close();
+            }
+            catch(IOException e) {
+                // Can't happen
+            }
+        }
+
+        /**
+         * Discards the data that has not been read yet, and any data to come.
+         */
+        private void discard() {
+            discarded = true;
+            try {
+                // Wakes up the decoder if it is blocked on a full buffer
+                buffer.getInputStream().close();
+            }
+            catch(IOException e) {
+                // Can't happen
+            }
+        }
+
+        private OutputStream getOutputStream() {
+            return new OutputStream() {
+                @Override
+                public void write(int b) throws IOException {
+                    write(new byte[]{(byte)b}, 0, 1);
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    // Wait for space in the buffer rather than blocking on the write, so that the wait can time out
+                    long deadline = System.currentTimeMillis()+idleTimeout;
+                    while(len>0) {
+                        if(cancelled)
+                            throw new IOException("7zip extraction cancelled");
+
+                        if(discarded)
+                            return;
+
+                        int nbWritten = Math.min(len, buffer.getSpaceLeft());
+                        if(nbWritten>0) {
+                            try {
+                                buffer.getOutputStream().write(b, off, nbWritten);
+                            }
+                            catch(IOException e) {
+                                // The buffer has been closed by the consumer
+                                if(!discarded)
+                                    throw e;
+                            }
+
+                            off += nbWritten;
+                            len -= nbWritten;
+                            deadline = System.currentTimeMillis()+idleTimeout;
+                            continue;
+                        }
+
+                        long timeout = deadline-System.currentTimeMillis();
+                        if(timeout<=0) {
+                            LOGGER.debug("7zip entry {} is not being read, aborting extraction", requestedIndex);
+                            cancelled = true;
+                            throw new IOException("7zip entry is not being read");
+                        }
+
+                        // Reading from or closing the buffer notifies its monitor
+                        synchronized(buffer) {
+                            try {
+                                if(buffer.getSpaceLeft()==0 && !discarded)
+                                    buffer.wait(Math.min(timeout, 100));
+                            }
+                            catch(InterruptedException e) {
+                                cancelled = true;
+                            }
                         }
-                        if (file.mkdirs())
-                            return HRESULT.S_OK;
-                        else
-                            return HRESULT.S_FALSE;
                     }
-                    
-                    
-                    File dirs = file.getParentFile();
-                    if (dirs != null) {
-                        if (!dirs.isDirectory())
-                            if (!dirs.mkdirs())
-                                return HRESULT.S_FALSE;
+                }
+            };
+        }
+
+        private InputStream getInputStream() {
+            return new FilterInputStream(buffer.getInputStream()) {
+                @Override
+                public int read() throws IOException {
+                    int b = super.read();
+                    if(b==-1) {
+                        consumed = true;
+                        checkResult();
                     }
-                    
-                    long pos = item.getPosition();
-                    if (pos == -1) {
-                        file.delete();
+
+                    return b;
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    int nbRead = super.read(b, off, len);
+                    if(nbRead==-1) {
+                        consumed = true;
+                        checkResult();
                     }
-                    
-                    /*java.io.RandomAccessFile outStr = new java.io.RandomAccessFile(_filePath,"rw");
-                    
-                    if (pos != -1) {
-                        outStr.seek(pos);
-                    }*/
-                    
-                    outStream[0] = out; //new OutputStream(outStr);
-                /*} catch (java.io.IOException e) {
-                    return HRESULT.S_FALSE;
-                }*/
-                
-                return HRESULT.S_OK;
-                
+
+                    return nbRead;
+                }
+
+                @Override
+                public void close() throws IOException {
+                    // Lets the decoder skip the rest of the entry
+                    discard();
+                }
+            };
+        }
+
+        private void checkResult() throws IOException {
+            switch(operationResult) {
+                case IInArchive.NExtract_NOperationResult_kOK:
+                    return;
+                case IInArchive.NExtract_NOperationResult_kUnSupportedMethod:
+                    throw new IOException("Unsupported 7zip compression method");
+                case IInArchive.NExtract_NOperationResult_kCRCError:
+                    throw new IOException("7zip entry CRC error");
+                default:
+                    throw new IOException("7zip entry data error");
+            }
         }
-        
-        // other case : skip ...
-        
-        return HRESULT.S_OK;
-        
     }
-	    
-	    IInArchive _archiveHandler;  // IInArchive
-	    String _filePath;       // name inside arcvhive
-	    String _diskFilePath;   // full path to file on disk
-	    
-	    public long NumErrors;
-	    boolean PasswordIsDefined;
-	    String Password;
-	    boolean _extractMode;
-	    
-	    boolean isDirectory;
-	    
-	    public void Init(IInArchive archiveHandler) {
-	        NumErrors = 0;
-	        _archiveHandler = archiveHandler;
-	    }
-	    
-	}
+}
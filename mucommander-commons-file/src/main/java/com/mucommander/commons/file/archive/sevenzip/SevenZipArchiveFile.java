@@ -18,9 +18,21 @@
 
 package com.mucommander.commons.file.archive.sevenzip;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.util.Vector;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -34,33 +46,137 @@ import com.mucommander.commons.file.archive.WrapperArchiveEntryIterator;
 import com.mucommander.commons.file.archive.sevenzip.provider.SevenZip.Archive.IInArchive;
 import com.mucommander.commons.file.archive.sevenzip.provider.SevenZip.Archive.SevenZipEntry;
 import com.mucommander.commons.file.archive.sevenzip.provider.SevenZip.Archive.SevenZip.Handler;
-import com.mucommander.commons.util.CircularByteBuffer;
 
 
 /**
  * SevenZipArchiveFile provides read access to archives in the 7zip format.
  *
+ * <p>Entries are decompressed by a separate thread into a bounded buffer. When an entry is requested, the entries that
+ * follow it in the same folder (solid block) are decompressed in the same pass if they are requested next, which is
+ * typically the case when the archive is unpacked: a folder is decompressed only once instead of once per entry.</p>
+ *
+ * <p>Entries can be read concurrently: an entry that is requested while the entry of the last extraction is still
+ * being read is decompressed by another extraction, from a separate instance of the archive.</p>
+ *
  * @author Arik Hadas, Maxence Bernard
  */
 public class SevenZipArchiveFile extends AbstractROArchiveFile {
     private static final Logger LOGGER = LoggerFactory.getLogger(SevenZipArchiveFile.class);
 
+    /** Number of seconds an idle extraction thread is kept alive */
+    private static final int EXTRACTOR_KEEP_ALIVE = 30;
+
+    /** Maximum number of extractions that run at the same time, for all archives */
+    static final int MAX_EXTRACTORS = Math.max(8, 2*Runtime.getRuntime().availableProcessors());
+
+    /** Executes extractions, lazily created */
+    private static ExecutorService extractorExecutor;
+
     private IInArchive sevenZipFile;
+
+    /** Maps entry paths to their index in the archive, lazily created */
+    private Map<String, Integer> entryIndexes;
+
+    /** The extractions that were started and that may not be over */
+    private final List<MuArchiveExtractCallback> extractions = new ArrayList<MuArchiveExtractCallback>();
+
+    /** The extraction that uses {@link #sevenZipFile}, null if none */
+    private MuArchiveExtractCallback sharedExtraction;
 	
 	public SevenZipArchiveFile(AbstractFile file) throws IOException {		
 		super(file);
 	}
+
+    /**
+     * Returns the executor that runs extractions, creating it if necessary. At most {@link #MAX_EXTRACTORS}
+     * extractions run at a time, the following ones are queued. Threads are reused and terminate after having been
+     * idle for {@link #EXTRACTOR_KEEP_ALIVE} seconds.
+     *
+     * @return the executor that runs extractions
+     */
+    private static synchronized ExecutorService getExtractorExecutor() {
+        if(extractorExecutor==null) {
+            final AtomicInteger threadCount = new AtomicInteger();
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(MAX_EXTRACTORS, MAX_EXTRACTORS, EXTRACTOR_KEEP_ALIVE, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(),
+                    new ThreadFactory() {
+                        public Thread newThread(Runnable r) {
+                            Thread thread = new Thread(r, "SevenZipExtractor-"+threadCount.incrementAndGet());
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+            executor.allowCoreThreadTimeOut(true);
+            extractorExecutor = executor;
+        }
+
+        return extractorExecutor;
+    }
+
+    /**
+     * Opens a new instance of the archive, with its own stream to the archive file.
+     *
+     * @return the opened archive
+     * @throws IOException if the archive could not be opened
+     */
+    private IInArchive openArchive() throws IOException {
+        IInArchive archive = new Handler();
+        if (archive.Open(new MuRandomAccessFile(file)) != 0)
+            throw new IOException("Error while opening 7zip archive " + file.getAbsolutePath());
+        return archive;
+    }
 	
 	private IInArchive openSevenZipFile() throws IOException {
-		if (sevenZipFile == null) {
-			MuRandomAccessFile in = new MuRandomAccessFile(file);
-//			MyRandomAccessFile in = new MyRandomAccessFile(file.getAbsolutePath(), "rw");
-			sevenZipFile = new Handler();
-			if (sevenZipFile.Open(in) != 0)
-				throw new IOException("Error while opening 7zip archive " + file.getAbsolutePath());
-		}
+		if (sevenZipFile == null)
+			sevenZipFile = openArchive();
         return sevenZipFile;
     }
+
+    /**
+     * Returns the index of the entry with the given path, <code>-1</code> if there is no such entry.
+     *
+     * @param sevenZipFile the opened archive
+     * @param path path of the entry
+     * @return the index of the entry, -1 if there is no such entry
+     */
+    private synchronized int getEntryIndex(IInArchive sevenZipFile, String path) {
+        if(entryIndexes==null) {
+            int nbEntries = sevenZipFile.size();
+            Map<String, Integer> indexes = new HashMap<String, Integer>(nbEntries*4/3+1);
+            for(int i = 0; i < nbEntries; i++)
+                indexes.put(sevenZipFile.getEntry(i).getName(), i);
+            entryIndexes = indexes;
+        }
+
+        Integer index = entryIndexes.get(path);
+        return index==null ? -1 : index;
+    }
+
+    /**
+     * Returns the indexes of the given entry and of the entries that follow it in the same folder.
+     *
+     * @param sevenZipFile the opened archive
+     * @param index index of an entry that has data
+     * @return the indexes of the entry and of the following entries of the same folder
+     */
+    private static int[] getFolderIndices(IInArchive sevenZipFile, int index) {
+        int folderIndex = sevenZipFile.getFolderIndex(index);
+        int nbEntries = sevenZipFile.size();
+        Vector<Integer> indices = new Vector<Integer>();
+        for(int i = index; i < nbEntries; i++) {
+            int entryFolderIndex = sevenZipFile.getFolderIndex(i);
+            if(entryFolderIndex == folderIndex)
+                indices.add(i);
+            else if(entryFolderIndex != -1)
+                break;
+        }
+
+        int[] result = new int[indices.size()];
+        for(int i = 0; i < result.length; i++)
+            result[i] = indices.get(i);
+
+        return result;
+    }
     
     /**
      * Creates and return an {@link ArchiveEntry()} whose attributes are fetched from the given {@link SevenZipEntry}
@@ -79,123 +195,92 @@ public class SevenZipArchiveFile extends AbstractROArchiveFile {
 
     @Override
     public InputStream getEntryInputStream(final ArchiveEntry entry, ArchiveEntryIterator entryIterator) throws IOException, UnsupportedFileOperationException {
+        if(entry.isDirectory())
+            throw new IOException("7zip entry is a directory: "+entry.getPath());
+
 		final IInArchive sevenZipFile = openSevenZipFile();
-		
-/*		ByteArrayOutputStream os = new ByteArrayOutputStream(1024);
-
-//		threadPool.execute(new Runnable() {
-//			public void run() {
-//		        BufferedOutputStream bufferedOut = new BufferedOutputStream(out);
-		        try {
-		        	int arrays []  = new int[1];
-		            for(int i = 0 ; i < sevenZipFile.size() ; i++) {
-//		                	System.out.println("check " + sevenZipFile.getEntry(i).getName());
-		                if (entry.getPath().equals(sevenZipFile.getEntry(i).getName())) {
-		                	System.out.println("entry.getPath = " + entry.getPath() + ", sevenZipFile.getEntry(i).getName() " + sevenZipFile.getEntry(i).getName());
-		                    arrays[0] = i;
-		                    break;
-		                }
-		            }
-		        	
-					MuArchiveExtractCallback extractCallbackSpec = new MuArchiveExtractCallback(os);//, entry.getPath());
-			        extractCallbackSpec.Init(sevenZipFile);
-			        try {
-			        	sevenZipFile.Extract(arrays, 1, IInArchive.NExtract_NAskMode_kExtract , extractCallbackSpec);
-			        }
-			        catch (Exception e) {
-			        	e.printStackTrace();
-//			        	return;
-			        }
-//			        sevenZipFile.Extract(null, -1, IInArchive.NExtract_NAskMode_kExtract , extractCallbackSpec);
-			        try
-			        {
-			        Thread.sleep(1000); // do nothing for 1000 miliseconds (1 second)
-			        }
-			        catch(InterruptedException e)
-			        {
-			        e.printStackTrace();
-			        }
-			        
-			        System.out.println("stopped");
-					
-//			        bufferedOut.flush();
-				}
-                catch (Exception e) {
-                    LOGGER.info("Error while retrieving 7zip entry {}", e);
-                    System.out.println("Error while retrieving 7zip entry {}");
-				}
-                finally {
-//                    try { bufferedOut.close(); }
-//                    catch(IOException e) {
-//                        // Not much we can do about it
-//                    	e.printStackTrace();
-//                    }
-
-                    try { in.close(); }
-                    catch(IOException e) {
-                        // Not much we can do about it
-                    	e.printStackTrace();
-                    }
 
-                    try { sevenZipFile.close(); }
-                    catch(IOException e) {
-                        // Not much we can do about it
-                    	e.printStackTrace();
-                    }
+        int index = getEntryIndex(sevenZipFile, entry.getPath());
+        if(index == -1)
+            throw new IOException("Unknown 7zip entry: "+entry.getPath());
+
+        // Empty files have no data to decompress
+        if(sevenZipFile.getFolderIndex(index) == -1)
+            return new ByteArrayInputStream(new byte[0]);
+
+        synchronized(this) {
+            // Continue an extraction whose last entry has been read, if it hasn't reached the entry yet
+            for(Iterator<MuArchiveExtractCallback> iterator = extractions.iterator(); iterator.hasNext();) {
+                MuArchiveExtractCallback extraction = iterator.next();
+                if(extraction.isFinished()) {
+                    iterator.remove();
+                }
+                else if(!extraction.isBusy()) {
+                    InputStream in = extraction.getEntryInputStream(index);
+                    if(in != null)
+                        return in;
                 }
-//			}
-//		});
-		
-		return new ByteArrayInputStream(os.toByteArray()); */
-		
-		final int arrays []  = new int[1];
-        for(int i = 0 ; i < sevenZipFile.size() ; i++) {
-//            	System.out.println("check " + sevenZipFile.getEntry(i).getName());
-            if (entry.getPath().equals(sevenZipFile.getEntry(i).getName())) {
-            	System.out.println("entry.getPath = " + entry.getPath() + ", sevenZipFile.getEntry(i).getName() " + sevenZipFile.getEntry(i).getName());
-                arrays[0] = i;
-                break;
             }
+
+            // Extractions whose last entry has been read are of no use anymore
+            for(Iterator<MuArchiveExtractCallback> iterator = extractions.iterator(); iterator.hasNext();) {
+                MuArchiveExtractCallback extraction = iterator.next();
+                if(!extraction.isBusy()) {
+                    extraction.cancel();
+                    iterator.remove();
+                }
+            }
+
+            // An archive instance can be read by a single extraction at a time, the other ones open their own
+            final boolean shared = sharedExtraction == null || sharedExtraction.isFinished();
+            final IInArchive archive = shared ? sevenZipFile : openArchive();
+
+            final MuArchiveExtractCallback extraction = new MuArchiveExtractCallback(archive, getFolderIndices(sevenZipFile, index));
+            InputStream in = extraction.getEntryInputStream(index);
+            extractions.add(extraction);
+            if(shared) {
+                sharedExtraction = extraction;
+                getExtractorExecutor().execute(extraction);
+            }
+            else {
+                getExtractorExecutor().execute(new Runnable() {
+                    public void run() {
+                        try {
+                            extraction.run();
+                        }
+                        finally {
+                            try { archive.close(); }
+                            catch(IOException e) {
+                                LOGGER.debug("Error while closing 7zip archive", e);
+                            }
+                        }
+                    }
+                });
+            }
+
+            LOGGER.trace("Started extraction of 7zip entry {}", entry.getPath());
+
+            return in;
         }
-    	
-		final CircularByteBuffer cbb = new CircularByteBuffer(CircularByteBuffer.INFINITE_SIZE);
-		  new Thread(
-		    new Runnable(){
-		      public void run(){
-		        
-		        MuArchiveExtractCallback extractCallbackSpec = new MuArchiveExtractCallback(cbb.getOutputStream(), entry.getPath());
-		        extractCallbackSpec.Init(sevenZipFile);
-		        try {
-		        	sevenZipFile.Extract(arrays, 1, IInArchive.NExtract_NAskMode_kExtract , extractCallbackSpec);
-		        }
-		        catch (Exception e) {
-		        	e.printStackTrace();
-//		        	return;
-		        }
-		      }
-		    }
-		  ).start();
-		  
-		  return cbb.getInputStream();
 	}
 
 	@Override
     public ArchiveEntryIterator getEntryIterator() throws IOException {
 		final IInArchive sevenZipFile = openSevenZipFile();
 
-        try {
-            int nbEntries = sevenZipFile.size();
-            Vector<ArchiveEntry> entries = new Vector<ArchiveEntry>();
-            for(int i = 0; i <nbEntries ; i++)
-                entries.add(createArchiveEntry(sevenZipFile.getEntry(i)));
-
-            return new WrapperArchiveEntryIterator(entries.iterator());
+        int nbEntries = sevenZipFile.size();
+        Vector<ArchiveEntry> entries = new Vector<ArchiveEntry>();
+        Map<String, Integer> indexes = new HashMap<String, Integer>(nbEntries*4/3+1);
+        for(int i = 0; i <nbEntries ; i++) {
+            SevenZipEntry sevenZipEntry = sevenZipFile.getEntry(i);
+            entries.add(createArchiveEntry(sevenZipEntry));
+            indexes.put(sevenZipEntry.getName(), i);
         }
-        finally {
-            /*try { sevenZipFile.close(); }
-            catch(IOException e) {
-                // Not much we can do about it
-            }*/
+
+        synchronized(this) {
+            entryIndexes = indexes;
         }
+
+        return new WrapperArchiveEntryIterator(entries.iterator());
 	}
 }
@@ -21,6 +21,13 @@ public interface IInArchive {
     
     int size();
     
+    /**
+     * Returns the index of the folder (solid block) that holds the data of the given item, <code>-1</code> if the
+     * item has no data (directory or empty file). Items of a folder have consecutive indexes and can only be
+     * decompressed in order.
+     */
+    int getFolderIndex(int index);
+    
     int close() throws IOException ;
     
     int Extract(int [] indices, int numItems,
@@ -272,8 +272,7 @@ public class Handler implements com.mucommander.commons.file.archive.sevenzip.pr
                     continue;
                 }
             } catch(Exception e) {
-                System.out.println("IOException : " + e);
-                e.printStackTrace();
+                // The extraction was aborted or the data is corrupted, remaining items are reported as such
                 result = folderOutStream.FlushCorrupted(IInArchive.NExtract_NOperationResult_kDataError);
                 if (result != HRESULT.S_OK) return result;
                 continue;
@@ -304,6 +303,11 @@ public class Handler implements com.mucommander.commons.file.archive.sevenzip.pr
         return _database.Files.size();
     }
     
+    public int getFolderIndex(int index) {
+        int folderIndex = _database.FileIndexToFolderIndexMap.get(index);
+        return folderIndex == InArchive.kNumNoIndex ? -1 : folderIndex;
+    }
+    
     long getPackSize(int index2) {
         long packSize = 0;
         int folderIndex = _database.FileIndexToFolderIndexMap.get(index2);
@@ -320,7 +320,7 @@ public class Decoder
         try {
             ret = CodeReal(inStream,outStream,outSize,progress);
         } catch (IOException e) {
-            e.printStackTrace(); // TBD
+            // Reported by the caller
             this.Flush();
             this.ReleaseStreams();
             throw e;
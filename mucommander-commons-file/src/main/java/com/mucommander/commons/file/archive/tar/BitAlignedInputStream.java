@@ -0,0 +1,144 @@
+/**
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2018 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.mucommander.commons.file.archive.tar;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * An <code>InputStream</code> that reads a stream of bits starting at a bit offset which is not a multiple of 8,
+ * realigning the bits so that the first bit of the first returned byte is the bit located at that offset.
+ * The last byte returned by this stream is padded with zero bits.
+ *
+ * <p>Bits can be packed in two orders depending on the compression format: least significant bit first (deflate),
+ * or most significant bit first (bzip2).</p>
+ */
+class BitAlignedInputStream extends InputStream {
+
+    /** The underlying stream, positioned on the byte that contains the first bit */
+    private final InputStream in;
+
+    /** Number of bits to skip in the first byte, between 1 and 7 */
+    private final int bitShift;
+
+    /** True if bits are packed most significant bit first */
+    private final boolean msbFirst;
+
+    /** Buffers bytes of the underlying stream */
+    private final byte[] buffer = new byte[65536];
+
+    private int pos;
+    private int limit;
+    private boolean eof;
+
+    /**
+     * Creates a new <code>BitAlignedInputStream</code>.
+     *
+     * @param in the underlying stream, positioned on the byte that contains the first bit
+     * @param bitShift number of bits to skip in the first byte, between 1 and 7
+     * @param msbFirst <code>true</code> if bits are packed most significant bit first, <code>false</code> if they are
+     * packed least significant bit first
+     */
+    BitAlignedInputStream(InputStream in, int bitShift, boolean msbFirst) {
+        if(bitShift<1 || bitShift>7)
+            throw new IllegalArgumentException("Invalid bit shift: "+bitShift);
+
+        this.in = in;
+        this.bitShift = bitShift;
+        this.msbFirst = msbFirst;
+    }
+
+    /**
+     * Returns a stream that starts at the given bit offset of the specified stream, which must be positioned on the
+     * byte that contains the bit. The stream itself is returned if the offset is a multiple of 8.
+     *
+     * @param in a stream positioned on the byte that contains the first bit
+     * @param bitOffset the absolute offset of the first bit
+     * @param msbFirst <code>true</code> if bits are packed most significant bit first
+     * @return a stream that starts at the given bit offset
+     */
+    static InputStream getInputStream(InputStream in, long bitOffset, boolean msbFirst) {
+        int bitShift = (int)(bitOffset & 7);
+        return bitShift==0?in:new BitAlignedInputStream(in, bitShift, msbFirst);
+    }
+
+    /**
+     * Makes sure the buffer contains at least 2 bytes, unless the end of the underlying stream has been reached.
+     */
+    private void fill() throws IOException {
+        if(limit-pos>=2 || eof)
+            return;
+
+        if(pos>0) {
+            System.arraycopy(buffer, pos, buffer, 0, limit-pos);
+            limit -= pos;
+            pos = 0;
+        }
+
+        while(limit<2) {
+            int nbRead = in.read(buffer, limit, buffer.length-limit);
+            if(nbRead==-1) {
+                eof = true;
+                return;
+            }
+            limit += nbRead;
+        }
+    }
+
+    private byte combine(int current, int next) {
+        return msbFirst
+                ?(byte)((current<<bitShift) | (next>>>(8-bitShift)))
+                :(byte)((current>>>bitShift) | (next<<(8-bitShift)));
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] b = new byte[1];
+        return read(b, 0, 1)==-1?-1:b[0]&0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if(len==0)
+            return 0;
+
+        fill();
+        int available = limit-pos;
+        if(available==0)
+            return -1;
+
+        // Last byte, padded with zeros
+        if(available==1) {
+            b[off] = combine(buffer[pos++]&0xFF, 0);
+            return 1;
+        }
+
+        int n = Math.min(len, available-1);
+        for(int i=0; i<n; i++)
+            b[off+i] = combine(buffer[pos+i]&0xFF, buffer[pos+i+1]&0xFF);
+        pos += n;
+
+        return n;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
@@ -0,0 +1,240 @@
+/**
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2018 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.mucommander.commons.file.archive.tar;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+
+import org.apache.tools.bzip2.CBZip2InputStream;
+
+import com.mucommander.commons.file.AbstractFile;
+import com.mucommander.commons.io.StreamUtils;
+
+/**
+ * A {@link SeekPointIndex} for bzip2-compressed streams.
+ *
+ * <p>Bzip2 compresses data in independent blocks that start with a 48-bit magic number, which is not aligned on a
+ * byte boundary. While the stream is decompressed for the first time, the compressed bytes consumed by
+ * <code>CBZip2InputStream</code> are scanned for the magic number, and a seek point is recorded each time a block
+ * starts. Resuming from a seek point is done by realigning the compressed stream on the block's first bit, preceded by
+ * the stream header.</p>
+ *
+ * <p>Since decompression does not start with the first block, the combined CRC of the stream cannot be verified when
+ * the end of the stream is reached: <code>CBZip2InputStream</code> reports the mismatch on the standard error but
+ * does not fail. Block CRCs are still verified.</p>
+ */
+class Bzip2SeekPointIndex extends SeekPointIndex {
+
+    /** Magic number that starts each block */
+    private static final long BLOCK_MAGIC = 0x314159265359L;
+
+    private static final long MAGIC_MASK = 0xFFFFFFFFFFFFL;
+
+    /** Block size character of the stream header, '1' to '9' */
+    private int blockSize = '9';
+
+    /**
+     * Returns an <code>InputStream</code> that decompresses the given bzip2 stream and builds this index along the way.
+     *
+     * @param in the bzip2-compressed stream, positioned at its start ('BZ' magic)
+     * @return a stream that returns the uncompressed data
+     * @throws IOException if the stream is not a valid bzip2 stream
+     */
+    InputStream createIndexingInputStream(InputStream in) throws IOException {
+        BlockScanningInputStream scanningIn = new BlockScanningInputStream(new BufferedInputStream(in));
+        addSeekPoint(new SeekPoint(0, 0, null));
+
+        // Skips the 2 magic bytes 'BZ', as required by CBZip2InputStream
+        StreamUtils.skipFully(scanningIn, 2);
+
+        try {
+            InputStream bzIn = new CBZip2InputStream(scanningIn);
+            // The first block is read by the constructor, it is covered by the stream start
+            scanningIn.blockBitOffset = -1;
+
+            return new DecompressedInputStream(bzIn, scanningIn);
+        }
+        catch(Exception e) {
+            // CBZip2InputStream is known to throw NullPointerException if file is not properly Bzip2-encoded
+            throw new IOException("Exception caught while creating CBZip2InputStream", e);
+        }
+    }
+
+    @Override
+    protected InputStream getInputStream(AbstractFile file, SeekPoint seekPoint) throws IOException {
+        InputStream in = file.getInputStream(seekPoint.getBitOffset()>>>3);
+        if(seekPoint.isStreamStart()) {
+            StreamUtils.skipFully(in, 2);
+        }
+        else {
+            // The block is preceded by the remainder of the stream header: 'h' followed by the block size
+            in = new SequenceInputStream(
+                    new ByteArrayInputStream(seekPoint.getState()),
+                    BitAlignedInputStream.getInputStream(in, seekPoint.getBitOffset(), true));
+        }
+
+        try {
+            return new CBZip2InputStream(new BufferedInputStream(in));
+        }
+        catch(Exception e) {
+            in.close();
+            throw new IOException("Exception caught while creating CBZip2InputStream", e);
+        }
+    }
+
+
+    /**
+     * Scans the compressed bytes that are consumed for the block magic number.
+     */
+    private class BlockScanningInputStream extends FilterInputStream {
+
+        /** Last 8 bytes consumed */
+        private long lastBytes;
+
+        /** Number of bytes consumed */
+        private long position;
+
+        /** Offset in bits of the block that was started by the current read, -1 if none */
+        private long blockBitOffset = -1;
+
+        private BlockScanningInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = in.read();
+            if(b==-1)
+                return -1;
+
+            position++;
+            lastBytes = (lastBytes<<8) | b;
+
+            if(position==4)
+                blockSize = b;
+
+            // The magic number may start at any bit of a byte
+            if(position>=7) {
+                for(int shift=0; shift<8; shift++) {
+                    if(((lastBytes>>>shift) & MAGIC_MASK)==BLOCK_MAGIC) {
+                        blockFound(position*8-shift-48);
+                        break;
+                    }
+                }
+            }
+
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            // CBZip2InputStream only reads one byte at a time, this is only used to skip the stream header
+            int i = 0;
+            for(; i<len; i++) {
+                int c = read();
+                if(c==-1)
+                    break;
+                b[off+i] = (byte)c;
+            }
+
+            return i==0 && len>0?-1:i;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long i = 0;
+            for(; i<n && read()!=-1; i++);
+
+            return i;
+        }
+
+        private void blockFound(long bitOffset) {
+            // The whole block is read at once, right after its magic number: anything that looks like the magic
+            // number afterwards is part of the block's data
+            if(blockBitOffset==-1)
+                blockBitOffset = bitOffset;
+        }
+    }
+
+
+    /**
+     * Counts the uncompressed bytes returned by <code>CBZip2InputStream</code>. Bytes are requested one at a time so
+     * that the offset of a block is known exactly: <code>CBZip2InputStream</code> reads the next block when it
+     * returns the last byte of the current one.
+     */
+    private class DecompressedInputStream extends FilterInputStream {
+
+        private final BlockScanningInputStream scanningIn;
+
+        /** Number of uncompressed bytes returned */
+        private long position;
+
+        private DecompressedInputStream(InputStream in, BlockScanningInputStream scanningIn) {
+            super(in);
+            this.scanningIn = scanningIn;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = in.read();
+            if(b==-1) {
+                setComplete();
+                return -1;
+            }
+
+            position++;
+
+            long blockBitOffset = scanningIn.blockBitOffset;
+            if(blockBitOffset!=-1) {
+                scanningIn.blockBitOffset = -1;
+                addSeekPoint(new SeekPoint(position, blockBitOffset, new byte[]{'h', (byte)blockSize}));
+            }
+
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if(len==0)
+                return 0;
+
+            int i = 0;
+            for(; i<len; i++) {
+                int c = read();
+                if(c==-1)
+                    break;
+                b[off+i] = (byte)c;
+            }
+
+            return i==0?-1:i;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long i = 0;
+            for(; i<n && read()!=-1; i++);
+
+            return i;
+        }
+    }
+}
@@ -0,0 +1,586 @@
+/**
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2018 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.mucommander.commons.file.archive.tar;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipException;
+
+/**
+ * An <code>InputStream</code> that decompresses a gzip stream and records seek points into a
+ * {@link GzipSeekPointIndex} as it goes.
+ *
+ * <p><code>java.util.zip.Inflater</code> does not report the boundaries of deflate blocks, which are the only places
+ * where decompression can be resumed. This class therefore implements the inflate algorithm itself: it records a seek
+ * point (bit offset and the last 32KB of uncompressed data) at the first block boundary found after each span of
+ * uncompressed data, and at the start of each gzip member. Resuming from a seek point is done with
+ * <code>java.util.zip.Inflater</code>, see {@link GzipSeekPointIndex}.</p>
+ *
+ * <p>Concatenated gzip members are decompressed as a single stream, like <code>java.util.zip.GZIPInputStream</code>
+ * does. The CRC32 and size of each member are verified.</p>
+ */
+class GzipIndexingInputStream extends InputStream {
+
+    /** Size of the deflate history window */
+    static final int WINDOW_SIZE = 32768;
+
+    /** Maximum length of a match */
+    private static final int MAX_MATCH = 258;
+
+    /** Size of the circular output buffer, holds the history window and the data that hasn't been read yet */
+    private static final int OUTPUT_SIZE = 2*WINDOW_SIZE;
+    private static final int OUTPUT_MASK = OUTPUT_SIZE-1;
+
+    /** Number of bits that Huffman codes are looked up with in a single step */
+    private static final int FAST_BITS = 9;
+
+    private static final int GZIP_MAGIC = 0x8b1f;
+    private static final int FHCRC = 2;
+    private static final int FEXTRA = 4;
+    private static final int FNAME = 8;
+    private static final int FCOMMENT = 16;
+
+    private static final short[] LENGTH_BASE = {3, 4, 5, 6, 7, 8, 9, 10, 11, 13, 15, 17, 19, 23, 27, 31, 35, 43, 51, 59, 67, 83, 99, 115, 131, 163, 195, 227, 258};
+    private static final short[] LENGTH_EXTRA = {0, 0, 0, 0, 0, 0, 0, 0, 1, 1, 1, 1, 2, 2, 2, 2, 3, 3, 3, 3, 4, 4, 4, 4, 5, 5, 5, 5, 0};
+    private static final short[] DIST_BASE = {1, 2, 3, 4, 5, 7, 9, 13, 17, 25, 33, 49, 65, 97, 129, 193, 257, 385, 513, 769, 1025, 1537, 2049, 3073, 4097, 6145, 8193, 12289, 16385, 24577};
+    private static final short[] DIST_EXTRA = {0, 0, 0, 0, 1, 1, 2, 2, 3, 3, 4, 4, 5, 5, 6, 6, 7, 7, 8, 8, 9, 9, 10, 10, 11, 11, 12, 12, 13, 13};
+    private static final int[] CODE_LENGTH_ORDER = {16, 17, 18, 0, 8, 7, 9, 6, 10, 5, 11, 4, 12, 3, 13, 2, 14, 1, 15};
+
+    private static final Huffman FIXED_LITERALS;
+    private static final Huffman FIXED_DISTANCES;
+
+    static {
+        int[] lengths = new int[288];
+        try {
+            for(int i=0; i<288; i++)
+                lengths[i] = i<144?8:i<256?9:i<280?7:8;
+            FIXED_LITERALS = new Huffman(lengths, 0, 288);
+
+            for(int i=0; i<30; i++)
+                lengths[i] = 5;
+            FIXED_DISTANCES = new Huffman(lengths, 0, 30);
+        }
+        catch(ZipException e) {
+            // The fixed codes are valid
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /** Decoder states */
+    private static final int MEMBER_HEADER = 0;
+    private static final int BLOCK_HEADER = 1;
+    private static final int STORED_BLOCK = 2;
+    private static final int HUFFMAN_BLOCK = 3;
+    private static final int MEMBER_TRAILER = 4;
+    private static final int END = 5;
+
+    /** The compressed stream */
+    private final InputStream in;
+
+    /** The index seek points are added to */
+    private final GzipSeekPointIndex index;
+
+    /** Minimum amount of uncompressed data between two seek points */
+    private final long span;
+
+    private final byte[] inBuffer = new byte[65536];
+    private int inPos;
+    private int inLimit;
+    /** Offset of the first byte of inBuffer in the compressed stream */
+    private long inBufferOffset;
+
+    private long bitBuffer;
+    private int bitCount;
+
+    /** Circular buffer containing the last uncompressed bytes */
+    private final byte[] output = new byte[OUTPUT_SIZE];
+    /** Total number of uncompressed bytes produced */
+    private long written;
+    /** Total number of uncompressed bytes returned by read methods */
+    private long delivered;
+
+    private int state = MEMBER_HEADER;
+    private boolean lastBlock;
+    private int storedRemaining;
+    private Huffman literals;
+    private Huffman distances;
+
+    /** Uncompressed offset after which the next seek point will be recorded */
+    private long nextSeekPointOffset;
+
+    /** Uncompressed offset of the current member's start */
+    private long memberStart;
+    /** Number of members whose header has been read */
+    private int memberCount;
+    private final CRC32 crc = new CRC32();
+
+    /**
+     * Creates a new <code>GzipIndexingInputStream</code>.
+     *
+     * @param in the gzip-compressed stream, positioned at its start
+     * @param index the index to add seek points to
+     * @param span the minimum amount of uncompressed data between two seek points
+     */
+    GzipIndexingInputStream(InputStream in, GzipSeekPointIndex index, long span) {
+        this.in = in;
+        this.index = index;
+        this.span = span;
+    }
+
+
+    ///////////////////
+    // Bit functions //
+    ///////////////////
+
+    private int readByte() throws IOException {
+        if(inPos==inLimit) {
+            inBufferOffset += inLimit;
+            inPos = 0;
+            inLimit = 0;
+            int nbRead;
+            do {
+                nbRead = in.read(inBuffer, 0, inBuffer.length);
+            }
+            while(nbRead==0);
+
+            if(nbRead==-1)
+                return -1;
+            inLimit = nbRead;
+        }
+
+        return inBuffer[inPos++]&0xFF;
+    }
+
+    /**
+     * Returns the offset in the compressed stream of the next bit to be consumed.
+     */
+    private long getBitOffset() {
+        return (inBufferOffset+inPos)*8 - bitCount;
+    }
+
+    /**
+     * Loads bytes into the bit buffer until it contains at least <code>n</code> bits, or the end of the stream is
+     * reached.
+     *
+     * @return <code>false</code> if the end of the stream was reached before <code>n</code> bits could be loaded
+     */
+    private boolean loadBits(int n) throws IOException {
+        while(bitCount<n) {
+            int b = readByte();
+            if(b==-1)
+                return false;
+            bitBuffer |= ((long)b)<<bitCount;
+            bitCount += 8;
+        }
+        return true;
+    }
+
+    private int bits(int n) throws IOException {
+        if(n==0)
+            return 0;
+        if(!loadBits(n))
+            throw new EOFException("Unexpected end of ZLIB input stream");
+
+        int value = (int)(bitBuffer & ((1L<<n)-1));
+        bitBuffer >>>= n;
+        bitCount -= n;
+        return value;
+    }
+
+    /**
+     * Discards the remaining bits of the current byte.
+     */
+    private void alignToByte() {
+        int n = bitCount & 7;
+        bitBuffer >>>= n;
+        bitCount -= n;
+    }
+
+    /**
+     * Reads a byte-aligned byte, <code>-1</code> if the end of the stream has been reached.
+     */
+    private int alignedByte() throws IOException {
+        if(bitCount>=8) {
+            int value = (int)(bitBuffer & 0xFF);
+            bitBuffer >>>= 8;
+            bitCount -= 8;
+            return value;
+        }
+        return readByte();
+    }
+
+    private int alignedByteOrThrow() throws IOException {
+        int b = alignedByte();
+        if(b==-1)
+            throw new EOFException("Unexpected end of ZLIB input stream");
+        return b;
+    }
+
+    private int decode(Huffman huffman) throws IOException {
+        loadBits(15);
+        int entry = huffman.fast[(int)(bitBuffer & ((1<<FAST_BITS)-1))];
+        int length = entry & 15;
+        if(entry!=0 && length<=bitCount) {
+            bitBuffer >>>= length;
+            bitCount -= length;
+            return entry>>>4;
+        }
+
+        // Slow path for codes longer than FAST_BITS, decodes one bit at a time
+        int code = 0;
+        int first = 0;
+        int index = 0;
+        for(int len=1; len<=15; len++) {
+            code |= bits(1);
+            int count = huffman.count[len];
+            if(code-count<first)
+                return huffman.symbols[index+(code-first)];
+            index += count;
+            first += count;
+            first <<= 1;
+            code <<= 1;
+        }
+
+        throw new ZipException("invalid code");
+    }
+
+
+    //////////////
+    // Decoding //
+    //////////////
+
+    private void readMemberHeader() throws IOException {
+        int b1 = alignedByte();
+        int b2 = b1==-1?-1:alignedByte();
+        if(b1==-1 || b2==-1 || (b1|(b2<<8))!=GZIP_MAGIC) {
+            // End of stream or trailing garbage after the first member, ignored like GZIPInputStream does
+            if(memberCount>0) {
+                state = END;
+                return;
+            }
+            throw new ZipException("Not in GZIP format");
+        }
+
+        long memberOffset = getBitOffset()-16;
+        if(alignedByteOrThrow()!=8)
+            throw new ZipException("Unsupported compression method");
+        int flags = alignedByteOrThrow();
+        // Skip MTIME, XFL and OS
+        for(int i=0; i<6; i++)
+            alignedByteOrThrow();
+        if((flags&FEXTRA)!=0) {
+            int length = alignedByteOrThrow() | (alignedByteOrThrow()<<8);
+            for(int i=0; i<length; i++)
+                alignedByteOrThrow();
+        }
+        if((flags&FNAME)!=0)
+            while(alignedByteOrThrow()!=0);
+        if((flags&FCOMMENT)!=0)
+            while(alignedByteOrThrow()!=0);
+        if((flags&FHCRC)!=0) {
+            alignedByteOrThrow();
+            alignedByteOrThrow();
+        }
+
+        index.addSeekPoint(new SeekPointIndex.SeekPoint(written, memberOffset, null));
+        nextSeekPointOffset = written+span;
+        memberStart = written;
+        memberCount++;
+        crc.reset();
+        state = BLOCK_HEADER;
+    }
+
+    private void readBlockHeader() throws IOException {
+        if(written>=nextSeekPointOffset) {
+            index.addSeekPoint(new SeekPointIndex.SeekPoint(written, getBitOffset(), getWindow()));
+            nextSeekPointOffset = written+span;
+        }
+
+        lastBlock = bits(1)==1;
+        int type = bits(2);
+        switch(type) {
+            case 0:
+                alignToByte();
+                int length = bits(16);
+                int nlength = bits(16);
+                if(length!=(~nlength & 0xFFFF))
+                    throw new ZipException("invalid stored block lengths");
+                storedRemaining = length;
+                state = STORED_BLOCK;
+                break;
+            case 1:
+                literals = FIXED_LITERALS;
+                distances = FIXED_DISTANCES;
+                state = HUFFMAN_BLOCK;
+                break;
+            case 2:
+                readDynamicTables();
+                state = HUFFMAN_BLOCK;
+                break;
+            default:
+                throw new ZipException("invalid block type");
+        }
+    }
+
+    private void readDynamicTables() throws IOException {
+        int nlen = bits(5)+257;
+        int ndist = bits(5)+1;
+        int ncode = bits(4)+4;
+        if(nlen>286 || ndist>30)
+            throw new ZipException("too many length or distance symbols");
+
+        int[] lengths = new int[320];
+        for(int i=0; i<ncode; i++)
+            lengths[CODE_LENGTH_ORDER[i]] = bits(3);
+        Huffman codeLengths = new Huffman(lengths, 0, 19);
+
+        int i = 0;
+        while(i<nlen+ndist) {
+            int symbol = decode(codeLengths);
+            if(symbol<16) {
+                lengths[i++] = symbol;
+                continue;
+            }
+
+            int value = 0;
+            int repeat;
+            if(symbol==16) {
+                if(i==0)
+                    throw new ZipException("invalid bit length repeat");
+                value = lengths[i-1];
+                repeat = 3+bits(2);
+            }
+            else if(symbol==17) {
+                repeat = 3+bits(3);
+            }
+            else {
+                repeat = 11+bits(7);
+            }
+
+            if(i+repeat>nlen+ndist)
+                throw new ZipException("invalid bit length repeat");
+            while(repeat-->0)
+                lengths[i++] = value;
+        }
+
+        if(lengths[256]==0)
+            throw new ZipException("invalid code -- missing end-of-block");
+
+        literals = new Huffman(lengths, 0, nlen);
+        distances = new Huffman(lengths, nlen, ndist);
+    }
+
+    private void readMemberTrailer() throws IOException {
+        alignToByte();
+        long expectedCrc = 0;
+        long expectedSize = 0;
+        for(int i=0; i<4; i++)
+            expectedCrc |= ((long)alignedByteOrThrow())<<(8*i);
+        for(int i=0; i<4; i++)
+            expectedSize |= ((long)alignedByteOrThrow())<<(8*i);
+
+        if(expectedCrc!=crc.getValue())
+            throw new ZipException("Corrupt GZIP trailer");
+        if(expectedSize!=((written-memberStart) & 0xFFFFFFFFL))
+            throw new ZipException("Corrupt GZIP trailer");
+
+        state = MEMBER_HEADER;
+    }
+
+    /**
+     * Returns the last {@link #WINDOW_SIZE} bytes of uncompressed data (or less if less data was produced),
+     * compressed with <code>Deflater</code> to reduce the index's memory footprint.
+     */
+    private byte[] getWindow() {
+        int length = (int)Math.min(WINDOW_SIZE, written);
+        byte[] window = new byte[length];
+        int start = (int)((written-length) & OUTPUT_MASK);
+        int firstPart = Math.min(length, OUTPUT_SIZE-start);
+        System.arraycopy(output, start, window, 0, firstPart);
+        System.arraycopy(output, 0, window, firstPart, length-firstPart);
+
+        return GzipSeekPointIndex.compressWindow(window, Deflater.BEST_SPEED);
+    }
+
+    private void put(byte b) {
+        output[(int)(written++ & OUTPUT_MASK)] = b;
+    }
+
+    /**
+     * Decompresses data until the output buffer is filled, or the end of the current member is reached.
+     */
+    private void inflate() throws IOException {
+        // Leave room for a maximum-length match without overwriting data that hasn't been read yet
+        long limit = delivered+WINDOW_SIZE-MAX_MATCH;
+
+        while(written<=limit) {
+            switch(state) {
+                case MEMBER_HEADER:
+                    readMemberHeader();
+                    break;
+
+                case BLOCK_HEADER:
+                    readBlockHeader();
+                    break;
+
+                case STORED_BLOCK:
+                    while(storedRemaining>0 && written<=limit) {
+                        put((byte)alignedByteOrThrow());
+                        storedRemaining--;
+                    }
+                    if(storedRemaining==0)
+                        state = lastBlock?MEMBER_TRAILER:BLOCK_HEADER;
+                    break;
+
+                case HUFFMAN_BLOCK:
+                    int symbol = decode(literals);
+                    if(symbol<256) {
+                        put((byte)symbol);
+                    }
+                    else if(symbol==256) {
+                        state = lastBlock?MEMBER_TRAILER:BLOCK_HEADER;
+                    }
+                    else {
+                        symbol -= 257;
+                        if(symbol>=29)
+                            throw new ZipException("invalid literal/length code");
+                        int length = LENGTH_BASE[symbol]+bits(LENGTH_EXTRA[symbol]);
+                        symbol = decode(distances);
+                        if(symbol>=30)
+                            throw new ZipException("invalid distance code");
+                        int distance = DIST_BASE[symbol]+bits(DIST_EXTRA[symbol]);
+                        if(distance>written-memberStart)
+                            throw new ZipException("invalid distance too far back");
+
+                        while(length-->0)
+                            put(output[(int)((written-distance) & OUTPUT_MASK)]);
+                    }
+                    break;
+
+                case MEMBER_TRAILER:
+                    // The CRC is computed as data is read, wait for the whole member to be read
+                    if(delivered<written)
+                        return;
+                    readMemberTrailer();
+                    break;
+
+                default:
+                    return;
+            }
+        }
+    }
+
+
+    ////////////////////////////////
+    // InputStream implementation //
+    ////////////////////////////////
+
+    @Override
+    public int read() throws IOException {
+        byte[] b = new byte[1];
+        return read(b, 0, 1)==-1?-1:b[0]&0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if(len==0)
+            return 0;
+
+        while(delivered==written) {
+            if(state==END) {
+                index.setComplete();
+                return -1;
+            }
+            inflate();
+        }
+
+        int n = (int)Math.min(len, written-delivered);
+        int start = (int)(delivered & OUTPUT_MASK);
+        int firstPart = Math.min(n, OUTPUT_SIZE-start);
+        System.arraycopy(output, start, b, off, firstPart);
+        System.arraycopy(output, 0, b, off+firstPart, n-firstPart);
+        crc.update(b, off, n);
+        delivered += n;
+
+        return n;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+
+    /**
+     * A canonical Huffman code, decoded with a lookup table for codes of up to {@link #FAST_BITS} bits and
+     * bit by bit for longer codes.
+     */
+    private static class Huffman {
+        /** Number of codes of each length */
+        private final short[] count = new short[16];
+        /** Symbols ordered by code */
+        private final short[] symbols;
+        /** Maps the next FAST_BITS bits of the stream to (symbol<<4)|length, 0 for codes that are longer */
+        private final int[] fast = new int[1<<FAST_BITS];
+
+        private Huffman(int[] lengths, int offset, int n) throws ZipException {
+            symbols = new short[n];
+            for(int i=0; i<n; i++)
+                count[lengths[offset+i]]++;
+            count[0] = 0;
+
+            // Check for an over-subscribed code, incomplete codes are allowed
+            int left = 1;
+            for(int len=1; len<=15; len++) {
+                left <<= 1;
+                left -= count[len];
+                if(left<0)
+                    throw new ZipException("invalid code lengths set");
+            }
+
+            int[] offsets = new int[16];
+            for(int len=1; len<15; len++)
+                offsets[len+1] = offsets[len]+count[len];
+            for(int i=0; i<n; i++) {
+                if(lengths[offset+i]!=0)
+                    symbols[offsets[lengths[offset+i]]++] = (short)i;
+            }
+
+            // Deflate stores Huffman codes starting with their most significant bit, the lookup table is indexed
+            // with bit-reversed codes
+            int code = 0;
+            int index = 0;
+            for(int len=1; len<=15; len++) {
+                for(int k=0; k<count[len]; k++) {
+                    int symbol = symbols[index++];
+                    if(len<=FAST_BITS) {
+                        int reversed = Integer.reverse(code)>>>(32-len);
+                        for(int i=reversed; i<(1<<FAST_BITS); i+=1<<len)
+                            fast[i] = (symbol<<4)|len;
+                    }
+                    code++;
+                }
+                code <<= 1;
+            }
+        }
+    }
+}
@@ -0,0 +1,309 @@
+/**
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2018 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.mucommander.commons.file.archive.tar;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.util.Enumeration;
+import java.util.NoSuchElementException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipException;
+
+import com.mucommander.commons.file.AbstractFile;
+
+/**
+ * A {@link SeekPointIndex} for gzip-compressed streams, built by {@link GzipIndexingInputStream}.
+ *
+ * <p>Seek points located at the start of a gzip member are resumed with a <code>GZIPInputStream</code>. The other
+ * ones are located at a deflate block boundary, which need not be byte-aligned. The compressed stream is
+ * decompressed from there with a raw <code>Inflater</code>, using the 32KB of uncompressed data that precede the seek
+ * point as a preset dictionary. When the member ends, decompression continues with the next member, if any.</p>
+ *
+ * <p><code>Inflater</code> cannot be told to skip the first bits of its input, and shifting the stream so that the
+ * block starts on a byte boundary would break the byte alignment that stored blocks rely on. Instead, the bits of
+ * the first byte that precede the block are replaced by empty blocks whose length in bits has the same remainder
+ * modulo 8, so the rest of the stream is left untouched.</p>
+ */
+class GzipSeekPointIndex extends SeekPointIndex {
+
+    /**
+     * Returns an <code>InputStream</code> that decompresses the given gzip stream and builds this index along the way.
+     *
+     * @param in the gzip-compressed stream, positioned at its start
+     * @param span minimum amount of uncompressed data between two seek points
+     * @return a stream that returns the uncompressed data
+     */
+    InputStream createIndexingInputStream(InputStream in, long span) {
+        return new GzipIndexingInputStream(in, this, span);
+    }
+
+    /**
+     * Compresses a history window, windows are stored compressed in the index to reduce its footprint.
+     */
+    static byte[] compressWindow(byte[] window, int level) {
+        Deflater deflater = new Deflater(level, true);
+        try {
+            deflater.setInput(window);
+            deflater.finish();
+            ByteArrayOutputStream bout = new ByteArrayOutputStream(window.length/2);
+            byte[] buffer = new byte[8192];
+            while(!deflater.finished()) {
+                int n = deflater.deflate(buffer);
+                bout.write(buffer, 0, n);
+            }
+            return bout.toByteArray();
+        }
+        finally {
+            deflater.end();
+        }
+    }
+
+    private static byte[] decompressWindow(byte[] compressedWindow) throws IOException {
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(compressedWindow);
+            byte[] window = new byte[GzipIndexingInputStream.WINDOW_SIZE];
+            int length = 0;
+            while(!inflater.finished() && length<window.length) {
+                int n = inflater.inflate(window, length, window.length-length);
+                if(n==0 && (inflater.needsInput() || inflater.needsDictionary()))
+                    break;
+                length += n;
+            }
+
+            if(length==window.length)
+                return window;
+
+            byte[] trimmed = new byte[length];
+            System.arraycopy(window, 0, trimmed, 0, length);
+            return trimmed;
+        }
+        catch(DataFormatException e) {
+            throw new ZipException("Invalid seek point window: "+e.getMessage());
+        }
+        finally {
+            inflater.end();
+        }
+    }
+
+    @Override
+    protected InputStream getInputStream(final AbstractFile file, final SeekPoint seekPoint) throws IOException {
+        if(seekPoint.isStreamStart())
+            return new GZIPInputStream(file.getInputStream(seekPoint.getBitOffset()>>>3));
+
+        final Inflater inflater = new Inflater(true);
+        InputStream in = null;
+        try {
+            inflater.setDictionary(decompressWindow(seekPoint.getState()));
+            in = getBlockInputStream(file, seekPoint.getBitOffset());
+        }
+        catch(IOException e) {
+            inflater.end();
+            throw e;
+        }
+
+        final InputStream memberIn = new InflaterInputStream(in, inflater, 65536) {
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                }
+                finally {
+                    inflater.end();
+                }
+            }
+        };
+
+        // Continue with the next members (if any) once the current one has been read, they are opened only if needed
+        return new SequenceInputStream(new Enumeration<InputStream>() {
+            private int nextStream;
+
+            public boolean hasMoreElements() {
+                return nextStream<2;
+            }
+
+            public InputStream nextElement() {
+                switch(nextStream++) {
+                    case 0:
+                        return memberIn;
+                    case 1:
+                        return new NextMemberInputStream(file, getNextStreamStart(seekPoint));
+                    default:
+                        throw new NoSuchElementException();
+                }
+            }
+        });
+    }
+
+
+    /**
+     * Returns the compressed stream starting at the byte that contains the given bit offset, with the bits of that
+     * byte that precede the offset replaced by empty deflate blocks.
+     */
+    private static InputStream getBlockInputStream(AbstractFile file, long bitOffset) throws IOException {
+        InputStream in = file.getInputStream(bitOffset>>>3);
+        int skippedBits = (int)(bitOffset&7);
+        if(skippedBits==0)
+            return in;
+
+        try {
+            int firstByte = in.read();
+            if(firstByte==-1)
+                throw new EOFException("Unexpected end of gzip stream");
+
+            EmptyBlocksWriter writer = new EmptyBlocksWriter();
+            // Empty fixed blocks are 10 bits long, start with an empty dynamic block (99 bits) to get an odd length
+            if(skippedBits%2==1)
+                writer.writeDynamicBlock();
+            while(writer.getPendingBitCount()!=skippedBits)
+                writer.writeFixedBlock();
+
+            return new SequenceInputStream(new ByteArrayInputStream(writer.toByteArray(firstByte)), in);
+        }
+        catch(IOException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+
+    /**
+     * Writes empty non-final deflate blocks, which produce no uncompressed data.
+     */
+    private static class EmptyBlocksWriter {
+        /** Order in which code length code lengths are transmitted, up to the one of length 1 */
+        private static final int CODE_LENGTH_ORDER[] = {16, 17, 18, 0, 8, 7, 9, 6, 10, 5, 11, 4, 12, 3, 13, 2, 14, 1};
+
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        private int bitBuffer;
+        private int bitCount;
+
+        private void bits(int value, int n) {
+            for(int i=0; i<n; i++) {
+                bitBuffer |= ((value>>i)&1)<<bitCount;
+                if(++bitCount==8) {
+                    out.write(bitBuffer);
+                    bitBuffer = 0;
+                    bitCount = 0;
+                }
+            }
+        }
+
+        /**
+         * Huffman codes are packed starting with their most significant bit.
+         */
+        private void code(int code, int length) {
+            for(int i=length-1; i>=0; i--)
+                bits(code>>i, 1);
+        }
+
+        /**
+         * Writes a 10-bit block that uses the fixed Huffman codes and contains only the end-of-block code.
+         */
+        void writeFixedBlock() {
+            bits(0, 1);
+            bits(1, 2);
+            code(0, 7);
+        }
+
+        /**
+         * Writes a 99-bit block whose literal/length code contains only the end-of-block code. Code length symbols
+         * 0, 1, 17 and 18 have 2-bit codes, the 256 literal lengths of 0 are written as repeats of 138, 115 and 3.
+         */
+        void writeDynamicBlock() {
+            bits(0, 1);
+            bits(2, 2);
+            // 257 literal/length codes, 1 distance code, 18 code length codes
+            bits(0, 5);
+            bits(0, 5);
+            bits(CODE_LENGTH_ORDER.length-4, 4);
+            for(int symbol : CODE_LENGTH_ORDER)
+                bits(symbol==0 || symbol==1 || symbol==17 || symbol==18 ? 2 : 0, 3);
+
+            code(3, 2);
+            bits(138-11, 7);
+            code(3, 2);
+            bits(115-11, 7);
+            code(2, 2);
+            bits(3-3, 3);
+            // End-of-block and the single distance code have a length of 1
+            code(1, 2);
+            code(1, 2);
+
+            code(0, 1);
+        }
+
+        int getPendingBitCount() {
+            return bitCount;
+        }
+
+        /**
+         * Returns the blocks that were written, the last byte completed with the high bits of the given byte.
+         */
+        byte[] toByteArray(int nextByte) {
+            out.write(bitBuffer | (nextByte & (0xFF<<bitCount)));
+            return out.toByteArray();
+        }
+    }
+
+
+    /**
+     * Decompresses the members that follow a seek point's member, opening the file only when data is first read.
+     */
+    private class NextMemberInputStream extends InputStream {
+        private final AbstractFile file;
+        private final SeekPoint memberStart;
+        private InputStream in;
+
+        private NextMemberInputStream(AbstractFile file, SeekPoint memberStart) {
+            this.file = file;
+            this.memberStart = memberStart;
+        }
+
+        private InputStream getInputStream() throws IOException {
+            if(in==null)
+                in = GzipSeekPointIndex.this.getInputStream(file, memberStart);
+            return in;
+        }
+
+        @Override
+        public int read() throws IOException {
+            return memberStart==null?-1:getInputStream().read();
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            return memberStart==null?-1:getInputStream().read(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if(in!=null)
+                in.close();
+        }
+    }
+}
@@ -0,0 +1,218 @@
+/**
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2018 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.mucommander.commons.file.archive.tar;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.mucommander.commons.file.AbstractFile;
+import com.mucommander.commons.io.StreamUtils;
+
+/**
+ * Indexes the points of a compressed stream from which decompression can be resumed, so that data located at a given
+ * offset of the uncompressed stream can be read without decompressing everything that precedes it.
+ *
+ * <p>Seek points are added in increasing order of uncompressed offset while the compressed stream is being read for
+ * the first time, by an indexing stream specific to the compression format. The index can be used while it is being
+ * built: data located after the last seek point is reached by decompressing from that point.
+ * Instances are thread-safe.</p>
+ *
+ * @see GzipSeekPointIndex
+ * @see Bzip2SeekPointIndex
+ */
+abstract class SeekPointIndex {
+
+    /** Seek points, sorted by increasing uncompressed offset */
+    private final List<SeekPoint> seekPoints = new ArrayList<SeekPoint>();
+
+    /** True when all the data of interest has been indexed */
+    private volatile boolean complete;
+
+    /**
+     * Adds a seek point to this index. The seek point's uncompressed offset must be greater than the one of the
+     * last seek point that was added.
+     *
+     * @param seekPoint the seek point to add
+     */
+    synchronized void addSeekPoint(SeekPoint seekPoint) {
+        seekPoints.add(seekPoint);
+    }
+
+    /**
+     * Returns the last seek point that was added, <code>null</code> if there is none.
+     *
+     * @return the last seek point that was added
+     */
+    synchronized SeekPoint getLastSeekPoint() {
+        return seekPoints.isEmpty()?null:seekPoints.get(seekPoints.size()-1);
+    }
+
+    /**
+     * Returns the number of seek points in this index.
+     *
+     * @return the number of seek points in this index
+     */
+    synchronized int getSeekPointCount() {
+        return seekPoints.size();
+    }
+
+    /**
+     * Returns the seek point that is the closest to the given uncompressed offset, without being located after it.
+     * The first seek point is always at the start of the stream, so the returned value is never <code>null</code>
+     * once indexing has started.
+     *
+     * @param uncompressedOffset offset in the uncompressed stream
+     * @return the closest seek point located before or at the given offset
+     */
+    synchronized SeekPoint getSeekPoint(long uncompressedOffset) {
+        int low = 0;
+        int high = seekPoints.size()-1;
+        SeekPoint match = null;
+        while(low<=high) {
+            int mid = (low+high)>>>1;
+            SeekPoint point = seekPoints.get(mid);
+            if(point.getUncompressedOffset()<=uncompressedOffset) {
+                match = point;
+                low = mid+1;
+            }
+            else {
+                high = mid-1;
+            }
+        }
+
+        return match;
+    }
+
+    /**
+     * Returns the first seek point located strictly after the given one that satisfies {@link SeekPoint#isStreamStart()},
+     * <code>null</code> if there is none.
+     *
+     * @param seekPoint a seek point of this index
+     * @return the next seek point corresponding to the start of a compressed stream
+     */
+    synchronized SeekPoint getNextStreamStart(SeekPoint seekPoint) {
+        for(int i=seekPoints.indexOf(seekPoint)+1; i>0 && i<seekPoints.size(); i++) {
+            if(seekPoints.get(i).isStreamStart())
+                return seekPoints.get(i);
+        }
+
+        return null;
+    }
+
+    /**
+     * Returns <code>true</code> if the whole compressed stream, or at least all the data of interest it contains,
+     * has been indexed.
+     *
+     * @return <code>true</code> if all the data of interest has been indexed
+     */
+    boolean isComplete() {
+        return complete;
+    }
+
+    /**
+     * Marks this index as complete. This is called by the indexing stream when the end of the compressed stream is
+     * reached, or by the consumer of the uncompressed data when it knows that the rest of it is not needed.
+     */
+    void setComplete() {
+        complete = true;
+    }
+
+    /**
+     * Returns an <code>InputStream</code> that provides the uncompressed data of the given file, starting at the
+     * specified uncompressed offset. Decompression starts from the closest seek point located before the offset.
+     *
+     * @param file the compressed file this index was built from
+     * @param uncompressedOffset offset in the uncompressed stream to start at
+     * @return an InputStream positioned at the given offset of the uncompressed stream
+     * @throws IOException if an error occurred while opening the file or positioning the stream
+     */
+    InputStream getInputStream(AbstractFile file, long uncompressedOffset) throws IOException {
+        SeekPoint seekPoint = getSeekPoint(uncompressedOffset);
+        if(seekPoint==null)
+            throw new IOException("No seek point before offset "+uncompressedOffset);
+
+        InputStream in = getInputStream(file, seekPoint);
+        try {
+            StreamUtils.skipFully(in, uncompressedOffset-seekPoint.getUncompressedOffset());
+        }
+        catch(IOException e) {
+            in.close();
+            throw e;
+        }
+
+        return in;
+    }
+
+    /**
+     * Returns an <code>InputStream</code> that provides the uncompressed data of the given file, starting at the
+     * given seek point.
+     *
+     * @param file the compressed file this index was built from
+     * @param seekPoint a seek point of this index
+     * @return an InputStream positioned at the given seek point
+     * @throws IOException if an error occurred while opening the file
+     */
+    protected abstract InputStream getInputStream(AbstractFile file, SeekPoint seekPoint) throws IOException;
+
+
+    /**
+     * A position in a compressed stream from which decompression can be resumed.
+     */
+    static class SeekPoint {
+
+        /** Offset of this point in the uncompressed stream */
+        private final long uncompressedOffset;
+
+        /** Offset of this point in the compressed stream, in bits */
+        private final long bitOffset;
+
+        /** Format-specific decompressor state needed to resume, <code>null</code> at the start of a stream */
+        private final byte[] state;
+
+        SeekPoint(long uncompressedOffset, long bitOffset, byte[] state) {
+            this.uncompressedOffset = uncompressedOffset;
+            this.bitOffset = bitOffset;
+            this.state = state;
+        }
+
+        long getUncompressedOffset() {
+            return uncompressedOffset;
+        }
+
+        long getBitOffset() {
+            return bitOffset;
+        }
+
+        byte[] getState() {
+            return state;
+        }
+
+        /**
+         * Returns <code>true</code> if this point is the start of a compressed stream (e.g. a gzip member), in which
+         * case decompression can be resumed without any state and {@link #getBitOffset()} is a multiple of 8.
+         *
+         * @return <code>true</code> if this point is the start of a compressed stream
+         */
+        boolean isStreamStart() {
+            return state==null;
+        }
+    }
+}
@@ -50,6 +50,30 @@ import java.util.zip.GZIPInputStream;
 public class TarArchiveFile extends AbstractROArchiveFile {
     private static final Logger LOGGER = LoggerFactory.getLogger(TarArchiveFile.class);
 
+    /**
+     * Compressed archives smaller than this are not indexed: decompressing them from the start is cheap enough.
+     * Reading an entry located before this uncompressed offset does not trigger indexing either.
+     */
+    private static final long SEEK_INDEX_MIN_SIZE = 8*1024*1024;
+
+    /** Minimum number of uncompressed bytes between two gzip seek points */
+    private static final long GZIP_SEEK_POINT_MIN_SPAN = 8*1024*1024;
+
+    /** Maximum number of gzip seek points per archive, each of them retaining a compressed 32KB window */
+    private static final int GZIP_MAX_SEEK_POINTS = 128;
+
+    /** Controls whether compressed archives are indexed to speed up random entry access */
+    private static boolean seekIndexEnabled = true;
+
+    /** Index of the compressed archive, <code>null</code> if not created yet or if the archive is not indexed */
+    private SeekPointIndex seekPointIndex;
+
+    /** Date of the archive file when the index was created */
+    private long seekPointIndexDate;
+
+    /** True while the archive is being indexed */
+    private boolean indexing;
+
     /**
      * Creates a TarArchiveFile on of the given file.
      *
@@ -60,6 +84,125 @@ public class TarArchiveFile extends AbstractROArchiveFile {
     }
 
 
+    /**
+     * Returns <code>true</code> if compressed (gzip or bzip2) archives are indexed when an entry that is not located
+     * close to the start of the archive is first read, so that entries can later be extracted without decompressing
+     * the archive from the start. Enabled by default.
+     *
+     * @return <code>true</code> if compressed archives are indexed
+     */
+    public static boolean isSeekIndexEnabled() {
+        return seekIndexEnabled;
+    }
+
+    /**
+     * Sets whether compressed (gzip or bzip2) archives are indexed when an entry is first read.
+     *
+     * @param enabled <code>true</code> to index compressed archives
+     */
+    public static void setSeekIndexEnabled(boolean enabled) {
+        seekIndexEnabled = enabled;
+    }
+
+    /**
+     * Returns <code>true</code> if this archive is Gzip-compressed, based on its extension.
+     *
+     * @return <code>true</code> if this archive is Gzip-compressed
+     */
+    private boolean isGzipped() {
+        String name = getCustomExtension() != null ? getCustomExtension() : getName();
+        return StringUtils.endsWithIgnoreCase(name, "tgz") || StringUtils.endsWithIgnoreCase(name, "tar.gz");
+    }
+
+    /**
+     * Returns <code>true</code> if this archive is Bzip2-compressed, based on its extension.
+     *
+     * @return <code>true</code> if this archive is Bzip2-compressed
+     */
+    private boolean isBzipped() {
+        String name = getCustomExtension() != null ? getCustomExtension() : getName();
+        return StringUtils.endsWithIgnoreCase(name, "tbz2") || StringUtils.endsWithIgnoreCase(name, "tar.bz2");
+    }
+
+    /**
+     * Returns the index of this archive if it is complete and the archive has not been modified since it was created,
+     * <code>null</code> otherwise.
+     *
+     * @return the index of this archive, <code>null</code> if there is no usable index
+     */
+    private synchronized SeekPointIndex getSeekPointIndex() {
+        if(seekPointIndex!=null && seekPointIndex.isComplete() && seekPointIndexDate==file.getDate())
+            return seekPointIndex;
+
+        return null;
+    }
+
+    /**
+     * Starts indexing the compressed archive in a background thread, if the archive is large enough to benefit from it
+     * and if it isn't indexed or being indexed already. The index is used by {@link #getEntryInputStream} once
+     * complete.
+     *
+     * <p>Indexing gzip archives requires finding the boundaries of deflate blocks, which
+     * <code>java.util.zip.Inflater</code> does not report: the archive is decompressed by a slower, pure-Java
+     * inflater. This is why archives are not indexed when their entries are listed, but only once an entry that is
+     * not located close to the start of the archive has been read.</p>
+     */
+    private synchronized void startIndexing() {
+        if(!seekIndexEnabled || indexing || getSeekPointIndex()!=null)
+            return;
+
+        final long size = file.getSize();
+        if(size<SEEK_INDEX_MIN_SIZE || !(isGzipped() || isBzipped()))
+            return;
+
+        indexing = true;
+        Thread thread = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    long date = file.getDate();
+                    InputStream in;
+                    SeekPointIndex index;
+                    if(isGzipped()) {
+                        GzipSeekPointIndex gzipIndex = new GzipSeekPointIndex();
+                        // Spreads seek points over the uncompressed stream, assuming a typical 1:4 compression ratio
+                        in = gzipIndex.createIndexingInputStream(file.getInputStream(), Math.max(GZIP_SEEK_POINT_MIN_SPAN, 4*size/GZIP_MAX_SEEK_POINTS));
+                        index = gzipIndex;
+                    }
+                    else {
+                        Bzip2SeekPointIndex bzip2Index = new Bzip2SeekPointIndex();
+                        in = bzip2Index.createIndexingInputStream(file.getInputStream());
+                        index = bzip2Index;
+                    }
+
+                    // Go through the entries, the index is marked as complete when the last one has been reached
+                    TarEntryIterator iterator = new TarEntryIterator(new TarInputStream(in, 0), index);
+                    try {
+                        while(iterator.nextEntry()!=null);
+                    }
+                    finally {
+                        iterator.close();
+                    }
+
+                    synchronized(TarArchiveFile.this) {
+                        seekPointIndex = index;
+                        seekPointIndexDate = date;
+                    }
+                }
+                catch(IOException e) {
+                    LOGGER.info("Could not index "+file.getAbsolutePath(), e);
+                }
+                finally {
+                    synchronized(TarArchiveFile.this) {
+                        indexing = false;
+                    }
+                }
+            }
+        }, "TarArchiveIndexer");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.start();
+    }
+
     /**
      * Returns a TarInputStream which can be used to read TAR entries.
      *
@@ -73,15 +216,14 @@ public class TarArchiveFile extends AbstractROArchiveFile {
     private TarInputStream createTarStream(long entryOffset) throws IOException, UnsupportedFileOperationException {
         InputStream in = file.getInputStream();
 
-        String name = getCustomExtension() != null ? getCustomExtension() : getName();
             // Gzip-compressed file
-        if(StringUtils.endsWithIgnoreCase(name, "tgz") || StringUtils.endsWithIgnoreCase(name, "tar.gz"))
+        if(isGzipped())
                 // Note: this will fail for gz/tgz entries inside a tar file (IOException: Not in GZIP format),
                 // why is a complete mystery: the gz/tgz entry can be extracted and then properly browsed
             in = new GZIPInputStream(in);
 
         // Bzip2-compressed file
-        else if(StringUtils.endsWithIgnoreCase(name, "tbz2") || StringUtils.endsWithIgnoreCase(name, "tar.bz2")) {
+        else if(isBzipped()) {
             try {
                 // Skips the 2 magic bytes 'BZ', as required by CBZip2InputStream. Quoted from CBZip2InputStream's Javadoc:
                 // "Although BZip2 headers are marked with the magic 'Bz'. this constructor expects the next byte in the
@@ -145,6 +287,21 @@ public class TarArchiveFile extends AbstractROArchiveFile {
         // Iterate through the archive until we've found the entry
         TarEntry tarEntry = (TarEntry)entry.getEntryObject();
         if(tarEntry!=null) {
+            SeekPointIndex index = getSeekPointIndex();
+            if(index!=null) {
+                // Resume decompression from the closest seek point, the stream is positioned at the entry's header.
+                // Records are read one at a time, to stop reading the compressed stream as soon as the entry ends.
+                TarInputStream tin = new TarInputStream(index.getInputStream(file, tarEntry.getOffset()), 512, 512, 0);
+                tin.getNextEntry();
+
+                return tin;
+            }
+
+            // Index the archive so that subsequent reads of entries that are not located close to its start don't have
+            // to decompress it from the start
+            if(tarEntry.getOffset()>=SEEK_INDEX_MIN_SIZE)
+                startIndexing();
+
             TarInputStream tin = createTarStream(tarEntry.getOffset());
             tin.getNextEntry();
 
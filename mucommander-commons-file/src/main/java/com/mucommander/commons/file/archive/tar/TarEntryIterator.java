@@ -40,6 +40,9 @@ class TarEntryIterator implements ArchiveEntryIterator {
     /** The current entry, where the TarInputStream is currently positionned */
     private ArchiveEntry currentEntry;
 
+    /** Index of the compressed archive being built while iterating, <code>null</code> if there is none */
+    private SeekPointIndex seekPointIndex;
+
 
     /**
      * Creates a new TarEntryIterator that iterates through the entries of the given {@link TarInputStream}.
@@ -48,7 +51,21 @@ class TarEntryIterator implements ArchiveEntryIterator {
      * @throws IOException if an error occurred while fetching the first entry
      */
     TarEntryIterator(TarInputStream tin) throws IOException {
+        this(tin, null);
+    }
+
+    /**
+     * Creates a new TarEntryIterator that iterates through the entries of the given {@link TarInputStream}, which
+     * builds the specified index of the compressed archive. The index is marked as complete when the last entry has
+     * been reached, as the compressed data that follows does not need to be indexed.
+     *
+     * @param tin the TarInputStream to iterate through
+     * @param seekPointIndex the index built by the TarInputStream, may be <code>null</code>
+     * @throws IOException if an error occurred while fetching the first entry
+     */
+    TarEntryIterator(TarInputStream tin, SeekPointIndex seekPointIndex) throws IOException {
         this.tin = tin;
+        this.seekPointIndex = seekPointIndex;
     }
 
     /**
@@ -96,8 +113,12 @@ class TarEntryIterator implements ArchiveEntryIterator {
     private ArchiveEntry getNextEntry() throws IOException {
         TarEntry entry = tin.getNextEntry();
 
-        if(entry==null)
+        if(entry==null) {
+            if(seekPointIndex!=null)
+                seekPointIndex.setComplete();
+
             return null;
+        }
 
         return createArchiveEntry(entry);
     }
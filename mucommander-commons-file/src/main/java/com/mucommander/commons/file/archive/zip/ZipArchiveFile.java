@@ -120,9 +120,27 @@ public class ZipArchiveFile extends AbstractRWArchiveFile {
         return zipEntry;
     }
 
+    /**
+     * Returns the {@link com.mucommander.commons.file.archive.zip.provider.ZipEntry} that corresponds to the given
+     * entry, <code>null</code> if there is none in the Zip file. Zip entries are looked up rather than kept in the
+     * entries tree, so that browsing an archive with a very large number of entries doesn't retain one
+     * <code>ZipEntry</code> per entry.
+     *
+     * @param entry the entry to look up
+     * @return the corresponding ZipEntry, <code>null</code> if the entry doesn't exist in the Zip file
+     */
+    private ZipEntry getZipEntry(ArchiveEntry entry) {
+        String path = entry.getPath();
+        if(entry.isDirectory() && !path.endsWith("/"))
+            path += "/";
+
+        return zipFile.getEntry(path);
+    }
+
     /**
      * Creates and return an {@link ArchiveEntry()} whose attributes are fetched from the given {@link com.mucommander.commons.file.archive.zip.provider.ZipEntry}.
      * It is worth noting that the returned entry has the {@link ArchiveEntry#exists exists} flag set to <code>true</code>.
+     * The ZipEntry is not set as the entry object, see {@link #getZipEntry(ArchiveEntry)}.
      *
      * @param zipEntry the object that serves to initialize the attributes of the returned ArchiveEntry
      * @return an ArchiveEntry whose attributes are fetched from the given ZipEntry
@@ -133,8 +151,6 @@ public class ZipArchiveFile extends AbstractRWArchiveFile {
         if(zipEntry.hasUnixMode())
             entry.setPermissions(new SimpleFilePermissions(zipEntry.getUnixMode()));
 
-        entry.setEntryObject(zipEntry);
-
         return entry;
     }
 
@@ -197,9 +213,9 @@ public class ZipArchiveFile extends AbstractRWArchiveFile {
         if (file.isFileOperationSupported(FileOperation.RANDOM_READ_FILE)) {
             checkZipFile();
 
-            ZipEntry zipEntry = (com.mucommander.commons.file.archive.zip.provider.ZipEntry)entry.getEntryObject();
+            ZipEntry zipEntry = getZipEntry(entry);
             if(zipEntry==null)  // Should not normally happen
-                throw new IOException();
+                throw new IOException("Unknown Zip entry: "+entry.getName());
 
             return zipFile.getInputStream(zipEntry);
         }
@@ -253,18 +269,12 @@ public class ZipArchiveFile extends AbstractRWArchiveFile {
             // Add the new directory entry to the zip file (physically)
             zipFile.addEntry(zipEntry);
 
-            // Set the ZipEntry object into the ArchiveEntry
-            entry.setEntryObject(zipEntry);
-
             // Declare the zip file and entries tree up-to-date and add the new entry to the entries tree
             finishAddEntry(entry);
 
             return null;
         }
         else {
-            // Set the ZipEntry object into the ArchiveEntry
-            entry.setEntryObject(zipEntry);
-
             return new FilteredOutputStream(zipFile.addEntry(zipEntry)) {
                 @Override
                 public void close() throws IOException {
@@ -279,7 +289,8 @@ public class ZipArchiveFile extends AbstractRWArchiveFile {
 
     @Override
     public synchronized void deleteEntry(ArchiveEntry entry) throws IOException, UnsupportedFileOperationException {
-        ZipEntry zipEntry = (com.mucommander.commons.file.archive.zip.provider.ZipEntry)entry.getEntryObject();
+        checkZipFile();
+        ZipEntry zipEntry = getZipEntry(entry);
 
         // Most of the time, the ZipEntry will not be null. However, it can be null in some rare cases, when directory
         // entries have been created in the entries tree but don't exist in the Zip file.
@@ -287,14 +298,9 @@ public class ZipArchiveFile extends AbstractRWArchiveFile {
         if(zipEntry!=null) {
             // Entry exists physically in the zip file
 
-            checkZipFile();
-
             // Delete the entry from the zip file (physically)
             zipFile.deleteEntry(zipEntry);
 
-            // Remove the ZipEntry object from the AchiveEntry
-            entry.setEntryObject(null);
-
             // Declare the zip file and entries tree up-to-date
             declareZipFileUpToDate();
             declareEntriesTreeUpToDate();
@@ -306,8 +312,9 @@ public class ZipArchiveFile extends AbstractRWArchiveFile {
     }
 
     @Override
-    public void updateEntry(ArchiveEntry entry) throws IOException, UnsupportedFileOperationException {
-        ZipEntry zipEntry = (com.mucommander.commons.file.archive.zip.provider.ZipEntry)entry.getEntryObject();
+    public synchronized void updateEntry(ArchiveEntry entry) throws IOException, UnsupportedFileOperationException {
+        checkZipFile();
+        ZipEntry zipEntry = getZipEntry(entry);
 
         // Most of the time, the ZipEntry will not be null. However, it can be null in some rare cases, when directory
         // entries have been created in the entries tree but don't exist in the Zip file.
@@ -315,8 +322,6 @@ public class ZipArchiveFile extends AbstractRWArchiveFile {
         if(zipEntry!=null) {
             // Entry exists physically in the zip file
 
-            checkZipFile();
-
             zipEntry.setTime(entry.getDate());
             zipEntry.setUnixMode(entry.getPermissions().getIntValue());
             
@@ -0,0 +1,113 @@
+/**
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2018 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.mucommander.commons.file.archive.zip.provider;
+
+import com.mucommander.commons.io.BufferPool;
+
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.Callable;
+import java.util.zip.Deflater;
+
+/**
+ * DeflateChunk compresses a chunk of a Zip entry's data independently of the other chunks, so that the chunks of an
+ * entry can be compressed concurrently and their output concatenated to form the entry's DEFLATED data.
+ *
+ * <p>Like <i>pigz</i> does, each chunk but the last one ends with a sync flush, which aligns the output on a byte
+ * boundary without ending the DEFLATE stream, and the last 32KB of the previous chunk are used as a preset dictionary
+ * so that the compression ratio is almost the same as when the entry is compressed as a whole.</p>
+ */
+class DeflateChunk implements Callable<byte[]> {
+
+    /** Size of the DEFLATE window, i.e. number of bytes of the previous chunk used as a dictionary */
+    final static int DICTIONARY_SIZE = 32*1024;
+
+    /** The data to compress */
+    private final byte data[];
+
+    /** Number of bytes to compress */
+    private final int length;
+
+    /** The data of the previous chunk, which must be at least DICTIONARY_SIZE long, null for the first chunk */
+    private final byte dictionary[];
+
+    /** Compression level */
+    private final int level;
+
+    /** True if this chunk is the last one of the entry */
+    private final boolean last;
+
+
+    /**
+     * Creates a new <code>DeflateChunk</code>.
+     *
+     * @param data the data to compress
+     * @param length the number of bytes to compress
+     * @param dictionary the data of the previous chunk, at least {@link #DICTIONARY_SIZE} bytes long, <code>null</code>
+     * for the first chunk of an entry
+     * @param level the compression level
+     * @param last <code>true</code> if this chunk is the last one of the entry
+     */
+    DeflateChunk(byte data[], int length, byte dictionary[], int level, boolean last) {
+        this.data = data;
+        this.length = length;
+        this.dictionary = dictionary;
+        this.level = level;
+        this.last = last;
+    }
+
+    /**
+     * Compresses the chunk and returns the DEFLATED data.
+     *
+     * @return the DEFLATED data
+     */
+    public byte[] call() {
+        Deflater deflater = new Deflater(level, true);
+        byte buffer[] = BufferPool.getByteArray();
+        try {
+            if(dictionary!=null)
+                deflater.setDictionary(dictionary, dictionary.length-DICTIONARY_SIZE, DICTIONARY_SIZE);
+
+            deflater.setInput(data, 0, length);
+            ByteArrayOutputStream deflatedOut = new ByteArrayOutputStream(length/2+64);
+
+            int len;
+            if(last) {
+                deflater.finish();
+                while(!deflater.finished()) {
+                    len = deflater.deflate(buffer, 0, buffer.length);
+                    deflatedOut.write(buffer, 0, len);
+                }
+            }
+            else {
+                // The output buffer being filled up means that there may be more output
+                do {
+                    len = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+                    deflatedOut.write(buffer, 0, len);
+                }
+                while(len==buffer.length);
+            }
+
+            return deflatedOut.toByteArray();
+        }
+        finally {
+            BufferPool.releaseByteArray(buffer);
+            deflater.end();
+        }
+    }
+}
@@ -0,0 +1,374 @@
+/**
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2018 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.mucommander.commons.file.archive.zip.provider;
+
+import com.mucommander.commons.io.BufferPool;
+import com.mucommander.commons.io.EncodingDetector;
+import com.mucommander.commons.io.RandomAccessInputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.zip.ZipException;
+
+/**
+ * ZipCentralDirectory is a compact, read-only index of the central directory of a Zip file, which allows archives
+ * with a very large number of entries to be opened without holding a {@link ZipEntry} instance per entry.
+ *
+ * <p>The raw bytes of the central directory are kept in a <code>ByteBuffer</code>: on the heap for small directories,
+ * or memory-mapped from a temporary copy for large ones. The index itself only consists of primitive arrays: the offset
+ * of each central file header within the buffer, the hash code of each entry's name and an open-addressed hash table
+ * that maps names to entry indexes. Filenames are decoded when looking up and materializing entries, and are not
+ * retained by the index.</p>
+ *
+ * <p>{@link ZipEntry} instances are created on demand by {@link #getEntry(int)} and are not retained: a new instance
+ * is returned each time an entry is requested, so that iterating over the entries of a large archive doesn't leave
+ * one instance per entry behind.</p>
+ */
+final class ZipCentralDirectory implements ZipConstants {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ZipCentralDirectory.class);
+
+    /** Central directories larger than this size (in bytes) are memory-mapped rather than loaded on the heap */
+    final static int MAPPING_THRESHOLD = 1024*1024;
+
+    /** Value of the central file header signature */
+    private final static long CFH_SIG_VALUE = ZipLong.getValue(CFH_SIG);
+
+    /** Offset of the central directory in the Zip file */
+    private final long startOffset;
+
+    /** The central directory's bytes, in little-endian order */
+    private final ByteBuffer buffer;
+
+    /** Offset of each entry's central file header (signature included) in the buffer, in the archive's order */
+    private final int headerOffsets[];
+
+    /** Hash code of each entry's name */
+    private final int nameHashes[];
+
+    /** Open-addressed hash table holding entry indexes plus one, 0 for empty slots. Its size is a power of two. */
+    private final int hashTable[];
+
+    /** Encoding of the entries that do not have the UTF-8 flag set, may be null for the platform's default encoding */
+    private final String encoding;
+
+
+    /**
+     * Reads and indexes the central directory that starts at the current offset of the given stream.
+     *
+     * @param rais the stream to read the central directory from, positioned at its start
+     * @param length number of bytes between the start of the central directory and the end of central directory record
+     * @param defaultEncoding the encoding to use for entries that do not have the UTF-8 flag set, <code>null</code>
+     * to detect it
+     * @throws IOException if an I/O error occurred
+     * @throws ZipException if the central directory is not valid
+     */
+    ZipCentralDirectory(RandomAccessInputStream rais, long length, String defaultEncoding) throws IOException, ZipException {
+        if(length<0 || length>Integer.MAX_VALUE)
+            throw new ZipException("Invalid central directory length: "+length);
+
+        this.startOffset = rais.getOffset();
+        this.buffer = readCentralDirectory(rais, (int)length);
+
+        // First pass: locate central file headers and accumulate the bytes of non-UTF-8 names and comments
+        ByteArrayOutputStream encodingAccumulator = defaultEncoding==null?new ByteArrayOutputStream():null;
+        int offsets[] = new int[64];
+        int nbEntries = 0;
+        int offset = 0;
+        while(offset+4+ZipFile.CFH_LEN<=buffer.limit() && getUnsignedInt(offset)==CFH_SIG_VALUE) {
+            int cfh = offset+4;
+
+            int method = getUnsignedShort(cfh+6);
+            if(method!=DEFLATED && method!=STORED)
+                throw new ZipException("Unsupported compression method");
+
+            int fileNameLen = getUnsignedShort(cfh+24);
+            int extraLen = getUnsignedShort(cfh+26);
+            int commentLen = getUnsignedShort(cfh+28);
+            int nameOffset = cfh+ZipFile.CFH_LEN;
+            if(nameOffset+fileNameLen+extraLen+commentLen>buffer.limit())
+                throw new ZipException("Truncated central directory");
+
+            if(encodingAccumulator!=null && !isUTF8(offset)) {
+                ZipFile.feedEncodingAccumulator(encodingAccumulator, getBytes(nameOffset, fileNameLen));
+                ZipFile.feedEncodingAccumulator(encodingAccumulator, getBytes(nameOffset+fileNameLen+extraLen, commentLen));
+            }
+
+            if(nbEntries==offsets.length)
+                offsets = Arrays.copyOf(offsets, nbEntries*2);
+            offsets[nbEntries++] = offset;
+
+            offset = nameOffset+fileNameLen+extraLen+commentLen;
+        }
+
+        this.headerOffsets = Arrays.copyOf(offsets, nbEntries);
+
+        if(encodingAccumulator!=null && encodingAccumulator.size()>0) {
+            // Note: the guessed encoding may be null if no encoding could be detected.
+            // In that case, the default system encoding will be used to create the string
+            encoding = EncodingDetector.detectEncoding(encodingAccumulator.toByteArray());
+            LOGGER.info("Guessed encoding: "+encoding);
+        }
+        else {
+            encoding = defaultEncoding;
+        }
+
+        // Second pass: hash names, now that their encoding is known
+        int tableSize = Integer.highestOneBit(Math.max(nbEntries, 1)*2);
+        if(tableSize<nbEntries*2)
+            tableSize <<= 1;
+
+        this.nameHashes = new int[nbEntries];
+        this.hashTable = new int[tableSize];
+        for(int i=0; i<nbEntries; i++) {
+            int hash = getName(i).hashCode();
+            nameHashes[i] = hash;
+
+            int slot = spread(hash) & (tableSize-1);
+            while(hashTable[slot]!=0)
+                slot = (slot+1) & (tableSize-1);
+            hashTable[slot] = i+1;
+        }
+    }
+
+    /**
+     * Reads <code>length</code> bytes from the given stream into a buffer. Large central directories are copied to a
+     * temporary file which is then memory-mapped, falling back to the heap if the mapping cannot be created.
+     */
+    private static ByteBuffer readCentralDirectory(RandomAccessInputStream rais, int length) throws IOException {
+        if(length>MAPPING_THRESHOLD) {
+            long startOffset = rais.getOffset();
+            try {
+                return mapCentralDirectory(rais, length).order(ByteOrder.LITTLE_ENDIAN);
+            }
+            catch(IOException e) {
+                LOGGER.info("Could not map central directory, loading it on the heap", e);
+                rais.seek(startOffset);
+            }
+        }
+
+        byte bytes[] = new byte[length];
+        rais.readFully(bytes);
+
+        return ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Copies <code>length</code> bytes from the given stream to a temporary file and maps it in memory. The file is
+     * deleted as soon as it is mapped, or when the JVM exits if the platform doesn't allow mapped files to be deleted.
+     */
+    private static ByteBuffer mapCentralDirectory(RandomAccessInputStream rais, int length) throws IOException {
+        File tempFile = File.createTempFile("zipcd", null);
+        try {
+            RandomAccessFile raf = new RandomAccessFile(tempFile, "rw");
+            try {
+                byte copyBuffer[] = BufferPool.getByteArray();
+                try {
+                    int remaining = length;
+                    while(remaining>0) {
+                        int nbBytes = Math.min(remaining, copyBuffer.length);
+                        rais.readFully(copyBuffer, 0, nbBytes);
+                        raf.write(copyBuffer, 0, nbBytes);
+                        remaining -= nbBytes;
+                    }
+                }
+                finally {
+                    BufferPool.releaseByteArray(copyBuffer);
+                }
+
+                // The mapping remains valid after the channel has been closed
+                return raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, length);
+            }
+            finally {
+                raf.close();
+            }
+        }
+        finally {
+            if(!tempFile.delete())
+                tempFile.deleteOnExit();
+        }
+    }
+
+    /**
+     * Returns the number of entries in the central directory.
+     *
+     * @return the number of entries in the central directory
+     */
+    int getNbEntries() {
+        return headerOffsets.length;
+    }
+
+    /**
+     * Returns the index of the entry with the given name, <code>-1</code> if there is none. If several entries have
+     * the same name, the index of the last one is returned.
+     *
+     * @param name name of the entry to look up
+     * @return the index of the entry with the given name, <code>-1</code> if there is none
+     */
+    int indexOf(String name) {
+        int hash = name.hashCode();
+        int mask = hashTable.length-1;
+        int index = -1;
+
+        for(int slot = spread(hash) & mask; hashTable[slot]!=0; slot = (slot+1) & mask) {
+            int i = hashTable[slot]-1;
+            if(nameHashes[i]==hash && i>index && getName(i).equals(name))
+                index = i;
+        }
+
+        return index;
+    }
+
+    /**
+     * Mixes the high bits of the given hash code into its low bits, which are the ones used to pick a slot in the
+     * hash table.
+     */
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * Creates the entry at the given index from the central directory. A new instance is returned each time.
+     *
+     * @param index index of the entry in the central directory
+     * @return the entry at the given index
+     */
+    ZipEntry getEntry(int index) {
+        return createEntry(index);
+    }
+
+    /**
+     * Returns an <code>Iterator</code> on the entries, in the order they appear in the central directory. Entries are
+     * created as the iterator goes and are not retained.
+     *
+     * @return an <code>Iterator</code> on the entries
+     */
+    Iterator<ZipEntry> iterator() {
+        return new Iterator<ZipEntry>() {
+            private int index;
+
+            public boolean hasNext() {
+                return index<headerOffsets.length;
+            }
+
+            public ZipEntry next() {
+                if(!hasNext())
+                    throw new NoSuchElementException();
+
+                return getEntry(index++);
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    /**
+     * Parses the central file header of the entry at the given index and returns a new ZipEntry instance.
+     */
+    private ZipEntry createEntry(int index) {
+        int offset = headerOffsets[index];
+        int cfh = offset+4;
+
+        ZipEntryInfo entryInfo = new ZipEntryInfo();
+        entryInfo.centralHeaderOffset = startOffset+offset;
+
+        ZipEntry ze = new ZipEntry();
+        ze.setPlatform((getUnsignedShort(cfh) >> 8) & 0x0F);
+
+        int gp = getUnsignedShort(cfh+4);
+        entryInfo.encoding = isUTF8(offset)?UTF_8:encoding;
+        entryInfo.hasDataDescriptor = (gp&8)!=0;
+
+        ze.setMethod(getUnsignedShort(cfh+6));
+        ze.setDosTime(getUnsignedInt(cfh+8));
+        ze.setCrc(getUnsignedInt(cfh+12));
+        ze.setCompressedSize(getUnsignedInt(cfh+16));
+        ze.setSize(getUnsignedInt(cfh+20));
+
+        int fileNameLen = getUnsignedShort(cfh+24);
+        int extraLen = getUnsignedShort(cfh+26);
+        int commentLen = getUnsignedShort(cfh+28);
+
+        ze.setInternalAttributes(getUnsignedShort(cfh+32));
+        ze.setExternalAttributes(getUnsignedInt(cfh+34));
+        entryInfo.headerOffset = getUnsignedInt(cfh+38);
+
+        int nameOffset = cfh+ZipFile.CFH_LEN;
+        ZipFile.setFilename(ze, ZipFile.getString(getBytes(nameOffset, fileNameLen), entryInfo.encoding));
+        ze.setExtra(getBytes(nameOffset+fileNameLen, extraLen));
+        ze.setComment(ZipFile.getString(getBytes(nameOffset+fileNameLen+extraLen, commentLen), entryInfo.encoding));
+
+        entryInfo.centralHeaderLen = 46+fileNameLen+extraLen+commentLen;
+        ze.setEntryInfo(entryInfo);
+
+        return ze;
+    }
+
+    /**
+     * Decodes the name of the entry at the given index, the same way {@link #createEntry(int)} does.
+     */
+    private String getName(int index) {
+        int offset = headerOffsets[index];
+        int cfh = offset+4;
+        String name = ZipFile.getString(getBytes(cfh+ZipFile.CFH_LEN, getUnsignedShort(cfh+24)), isUTF8(offset)?UTF_8:encoding);
+
+        // See ZipFile#setFilename
+        if(((getUnsignedShort(cfh) >> 8) & 0x0F)==ZipEntry.PLATFORM_FAT)
+            name = name.replace('\\', '/');
+
+        return name;
+    }
+
+    /**
+     * Returns <code>true</code> if bit 11 of the general purpose bit flag of the central file header that starts at
+     * the given offset is set, signaling that UTF-8 is used for filename and comment.
+     */
+    private boolean isUTF8(int offset) {
+        return (getUnsignedShort(offset+8)&0x800)!=0;
+    }
+
+    private int getUnsignedShort(int offset) {
+        return buffer.getShort(offset) & 0xFFFF;
+    }
+
+    private long getUnsignedInt(int offset) {
+        return buffer.getInt(offset) & 0xFFFFFFFFL;
+    }
+
+    private byte[] getBytes(int offset, int length) {
+        byte bytes[] = new byte[length];
+        // Absolute bulk reads are not available, read from a duplicate so that concurrent reads do not interfere
+        ByteBuffer duplicate = buffer.duplicate();
+        duplicate.position(offset);
+        duplicate.get(bytes);
+
+        return bytes;
+    }
+}
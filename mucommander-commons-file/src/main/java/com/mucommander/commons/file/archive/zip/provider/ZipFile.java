@@ -42,6 +42,10 @@ import java.util.zip.ZipException;
  * Alternatively, the encoding used for parsing entries can be specified if it is known in advance. For new entries
  * added with {@link #addEntry(ZipEntry)}, UTF-8 is always used and declared as such in the Zip headers.
  *  <li>Loads the internal/external file attributes and extra fields instead of ignoring them
+ *  <li>Keeps a compact index of the central directory rather than one {@link ZipEntry} per entry, so that archives
+ * containing a very large number of entries can be opened and looked up without exhausting memory. Entries are
+ * created as they are requested and are not retained until the archive is modified: entries must be looked up again
+ * after a modification, rather than reused.
  * </ul>
  *
  * <p>This class doesn't extend <code>java.util.zip.ZipFile</code> as it would have to reimplement all methods anyway.
@@ -81,10 +85,16 @@ public class ZipFile implements ZipConstants {
     /** The currently opened RandomAccessInputStream to the zip file (may be null) */
     private RandomAccessOutputStream raos;
 
-    /** Contains ZipEntry instances corresponding to the archive's entries, in the order they were found in the archive. */
+    /** Compact index of the archive's central directory, null once the entries have been materialized */
+    private ZipCentralDirectory centralDirectory;
+
+    /**
+     * Contains ZipEntry instances corresponding to the archive's entries, in the order they were found in the archive.
+     * Only populated when the archive is first modified, see {@link #materializeEntries()}.
+     */
     private Vector<ZipEntry> entries = new Vector<ZipEntry>();
 
-    /** Maps entry paths to corresponding ZipEntry instances */
+    /** Maps entry paths to corresponding ZipEntry instances, populated along with {@link #entries} */
     private Hashtable<String, ZipEntry> nameMap = new Hashtable<String, ZipEntry>();
 
     /** Global zip file comment */
@@ -229,6 +239,10 @@ public class ZipFile implements ZipConstants {
      * @return Returns all entries as an <code>Iterator</code> of ZipEntry instances.
      */
     public Iterator<ZipEntry> getEntries() {
+        ZipCentralDirectory centralDirectory = this.centralDirectory;
+        if(centralDirectory!=null)
+            return centralDirectory.iterator();
+
         return entries.iterator();
     }
 
@@ -238,19 +252,49 @@ public class ZipFile implements ZipConstants {
      * @return the number of entries contained by this Zip file
      */
     public int getNbEntries() {
+        ZipCentralDirectory centralDirectory = this.centralDirectory;
+        if(centralDirectory!=null)
+            return centralDirectory.getNbEntries();
+
         return entries.size();
     }
 
     /**
-     * Returns a named entry or <code>null</code> if no entry by that name exists.
+     * Returns a named entry or <code>null</code> if no entry by that name exists. Until the archive is modified, a new
+     * instance is returned each time.
      *
      * @param name name of the entry.
      * @return the ZipEntry corresponding to the given name or <code>null</code> if not present.
      */
     public ZipEntry getEntry(String name) {
+        ZipCentralDirectory centralDirectory = this.centralDirectory;
+        if(centralDirectory!=null) {
+            int index = centralDirectory.indexOf(name);
+            return index==-1?null:centralDirectory.getEntry(index);
+        }
+
         return nameMap.get(name);
     }
 
+    /**
+     * Populates the lists of entries that are maintained when modifying the archive, and discards the central
+     * directory index. The offsets of these instances are updated as the archive is modified.
+     */
+    private synchronized void materializeEntries() {
+        if(centralDirectory==null)
+            return;
+
+        int nbEntries = centralDirectory.getNbEntries();
+        entries.ensureCapacity(nbEntries);
+        for(int i=0; i<nbEntries; i++) {
+            ZipEntry ze = centralDirectory.getEntry(i);
+            entries.add(ze);
+            nameMap.put(ze.getName(), ze);
+        }
+
+        centralDirectory = null;
+    }
+
     /**
      * Returns an InputStream for reading the contents of the given entry.
      *
@@ -312,6 +356,13 @@ public class ZipFile implements ZipConstants {
      * @throws UnsupportedFileOperationException if a required operation is not supported by the underlying filesystem.
      */
     public void deleteEntry(ZipEntry ze) throws IOException, ZipException, UnsupportedFileOperationException {
+        materializeEntries();
+
+        // Use the instance whose offsets are up to date
+        ZipEntry current = nameMap.get(ze.getName());
+        if(current!=null)
+            ze = current;
+
         openRead();
         openWrite();
 
@@ -443,6 +494,8 @@ public class ZipFile implements ZipConstants {
      * or is not implemented.
      */
     public OutputStream addEntry(final ZipEntry entry) throws IOException, UnsupportedFileOperationException {
+        materializeEntries();
+
         try {
             // Open the zip file for random read and write access
             openRead();
@@ -541,6 +594,16 @@ public class ZipFile implements ZipConstants {
      * @throws UnsupportedFileOperationException if a required operation is not supported by the underlying filesystem.
      */
     public void updateEntry(ZipEntry entry) throws IOException, UnsupportedFileOperationException {
+        // The given instance may have been returned before the archive was modified: use the up-to-date offsets
+        ZipEntry current = getEntry(entry.getName());
+        if(current!=null && current!=entry) {
+            entry.setEntryInfo(current.getEntryInfo());
+            if(centralDirectory==null) {
+                entries.set(entries.indexOf(current), entry);
+                nameMap.put(entry.getName(), entry);
+            }
+        }
+
         try {
             // Open the zip file for write
             openWrite();
@@ -590,6 +653,8 @@ public class ZipFile implements ZipConstants {
      * @throws UnsupportedFileOperationException if a required operation is not supported by the underlying filesystem.
      */
     public void defragment() throws IOException, UnsupportedFileOperationException {
+        materializeEntries();
+
         int nbEntries = entries.size();
         if(nbEntries==0)
             return;
@@ -727,7 +792,7 @@ public class ZipFile implements ZipConstants {
 
 
     /** Combined length of all constant-size fields of the Central File Header */
-    private static final int CFH_LEN =
+    static final int CFH_LEN =
         /* version made by                 */ 2
         /* version needed to extract       */ + 2
         /* general purpose bit flag        */ + 2
@@ -746,8 +811,8 @@ public class ZipFile implements ZipConstants {
         /* relative offset of local header */ + 4;
 
     /**
-     * Reads the central directory of the given archive and populates
-     * the internal tables with ZipEntry instances.
+     * Reads the central directory of the given archive and indexes it. ZipEntry instances are created on demand by the
+     * {@link ZipCentralDirectory}.
      *
      * <p>The ZipEntrys will know all data that can be obtained from
      * the central directory alone, but not the data that requires the
@@ -757,171 +822,9 @@ public class ZipFile implements ZipConstants {
      * @throws ZipException if this file is not a valid Zip file
      */
     private void parseCentralDirectory() throws IOException, ZipException {
+        long eocdOffset = positionAtCentralDirectory();
 
-        positionAtCentralDirectory();
-
-        byte[] cfh = new byte[CFH_LEN];
-
-        byte[] signatureBytes = new byte[4];
-        rais.readFully(signatureBytes);
-        long sig = ZipLong.getValue(signatureBytes);
-        final long cfhSig = ZipLong.getValue(CFH_SIG);
-
-        boolean defaultEncodingSet = defaultEncoding!=null;
-        ByteArrayOutputStream encodingAccumulator = defaultEncodingSet?null:new ByteArrayOutputStream();
-
-        while (sig == cfhSig) {
-            ZipEntryInfo entryInfo = new ZipEntryInfo();
-
-            // Set Central directory file header offset
-            entryInfo.centralHeaderOffset = rais.getOffset() - 4;     // 4 for the header signature
-
-            rais.readFully(cfh);
-            ZipEntry ze = new ZipEntry();
-
-            int versionMadeBy = ZipShort.getValue(cfh, 0);
-            // off += 2;
-            ze.setPlatform((versionMadeBy >> 8) & 0x0F);
-
-            // skip version info
-            // off += 2;
-
-            int gp = ZipShort.getValue(cfh, 4);   // General purpose bit flag
-            boolean isUTF8 = (gp&0x800)!=0;         // Tests if bit 11 is set, signaling UTF-8 is used for filename and comment
-
-            if(isUTF8) {
-                entryInfo.encoding = UTF_8;
-                LOGGER.info("Entry declared as UTF-8");
-            }
-            else if(defaultEncodingSet) {
-                entryInfo.encoding = defaultEncoding;
-                LOGGER.info("Using default encoding: "+defaultEncoding);
-            }
-            else {
-//                FileLogger.finest("Encoding will be detected later");
-            }
-
-            entryInfo.hasDataDescriptor = (gp&8)!=0;
-            // off += 2;
-
-            int method = ZipShort.getValue(cfh, 6);
-            // Note: ZipEntry#setMethod(int) will throw a java.lang.InternalError ("invalid compression method") if the
-            // method is different from DEFLATED or STORED (happens with IMPLODED for example).
-            // Thus we check the method ourselves to fail gracefully.
-            if(method!=DEFLATED && method!=STORED)
-                throw new ZipException("Unsupported compression method");
-
-            ze.setMethod(method);
-            // off += 2;
-
-            ze.setDosTime(ZipLong.getValue(cfh, 8));
-            // off += 4;
-
-            ze.setCrc(ZipLong.getValue(cfh, 12));
-            // off += 4;
-
-            ze.setCompressedSize(ZipLong.getValue(cfh, 16));
-            // off += 4;
-
-            ze.setSize(ZipLong.getValue(cfh, 20));
-            // off += 4;
-
-            int fileNameLen = ZipShort.getValue(cfh, 24);
-            // off += 2;
-
-            int extraLen = ZipShort.getValue(cfh, 26);
-            // off += 2;
-
-            int commentLen = ZipShort.getValue(cfh, 28);
-            // off += 2;
-
-            // skip disk number
-            // off += 2;
-
-            ze.setInternalAttributes(ZipShort.getValue(cfh, 32));
-            // off += 2;
-
-            ze.setExternalAttributes(ZipLong.getValue(cfh, 34));
-            // off += 4;
-
-            // Read filename bytes
-            byte[] filename = new byte[fileNameLen];
-            rais.readFully(filename);
-
-            // If the encoding is known already, set the String now
-            if(entryInfo.encoding!=null) {
-                setFilename(ze, getString(filename, entryInfo.encoding));
-            }
-            else {
-                // Keep the filename bytes, String will be encoded after
-                entryInfo.filename = filename;
-                // Accumulate those unidentified bytes for encoding detection
-                feedEncodingAccumulator(encodingAccumulator, filename);
-            }
-
-            // Offset to local file header
-            entryInfo.headerOffset = ZipLong.getValue(cfh, 38);
-            // data offset will be filled later
-
-            // Read and set extra bytes
-            byte extra[] = new byte[extraLen];
-            rais.readFully(extra);
-            ze.setExtra(extra);
-
-            // Read comment bytes
-            byte[] comment = new byte[commentLen];
-            rais.readFully(comment);
-
-            // If the encoding is known already, set the String now
-            if(entryInfo.encoding!=null) {
-                ze.setComment(getString(comment, entryInfo.encoding));
-            }
-            else {
-                // Keep the comment bytes, String will be encoded after
-                entryInfo.comment = comment;
-                // Accumulate those unidentified bytes for encoding detection
-                feedEncodingAccumulator(encodingAccumulator, comment);
-            }
-
-            entryInfo.centralHeaderLen = 46 + fileNameLen + extraLen + commentLen;
-
-            // Add the new entry to the internal lists
-            ze.setEntryInfo(entryInfo);
-            entries.add(ze);
-            nameMap.put(ze.getName(), ze);
-
-            // Swallow signature
-            rais.readFully(signatureBytes);
-            sig = ZipLong.getValue(signatureBytes);
-        }
-
-        if(encodingAccumulator!=null && encodingAccumulator.size()>0) {
-            int nbEntries = entries.size();
-            // Note: guessedEncoding may be null if no encoding could be detected.
-            // In that case, the default system encoding will be used to create the string
-            String guessedEncoding = EncodingDetector.detectEncoding(encodingAccumulator.toByteArray());
-
-            LOGGER.info("Guessed encoding: "+guessedEncoding);
-
-            ZipEntry entry;
-            ZipEntryInfo entryInfo;
-            for(int i=0; i<nbEntries; i++) {
-                entry = entries.elementAt(i);
-                entryInfo = entry.getEntryInfo();
-
-                // Skip those entries for which we know the encoding already
-                if(entryInfo.encoding != null)
-                    continue;
-
-                entryInfo.encoding = guessedEncoding;
-
-                setFilename(entry, getString(entryInfo.filename, guessedEncoding));
-                entryInfo.filename = null;
-
-                entry.setComment(getString(entryInfo.comment, guessedEncoding));
-                entryInfo.comment = null;
-            }
-        }
+        centralDirectory = new ZipCentralDirectory(rais, eocdOffset-rais.getOffset(), defaultEncoding);
     }
 
     /**
@@ -936,7 +839,7 @@ public class ZipFile implements ZipConstants {
      * @param ze the ZipEntry object in which to set the filename
      * @param filename the filename to set 
      */
-    private static void setFilename(ZipEntry ze, String filename) {
+    static void setFilename(ZipEntry ze, String filename) {
         if(ze.getPlatform()==ZipEntry.PLATFORM_FAT)
             filename = filename.replace('\\', '/');
 
@@ -951,7 +854,7 @@ public class ZipFile implements ZipConstants {
      * @param bytes the bytes to feed to the encoding accumulator
      * @throws IOException if an I/O occurs (should never happen)
      */
-    private static void feedEncodingAccumulator(ByteArrayOutputStream encodingAccumulator, byte bytes[]) throws IOException {
+    static void feedEncodingAccumulator(ByteArrayOutputStream encodingAccumulator, byte bytes[]) throws IOException {
         if(encodingAccumulator.size() < EncodingDetector.MAX_RECOMMENDED_BYTE_SIZE)
             encodingAccumulator.write(bytes);
         // Else accumulator has enough bytes, ignore the given bytes
@@ -1007,11 +910,12 @@ public class ZipFile implements ZipConstants {
      * it and positions the stream at the first central directory
      * record.
      *
+     * @return the offset of the end of central dir record, which follows the last central directory record
      * @throws IOException if an I/O error occurs
      * @throws ZipException if the end of central directory signature could not be found. This can be interpreted as the
      * underlying file not being a Zip file
      */
-    private void positionAtCentralDirectory() throws IOException, ZipException {
+    private long positionAtCentralDirectory() throws IOException, ZipException {
         long length = rais.getLength();
         if(length<MIN_EOCD_SIZE)
             throw new ZipException("Invalid Zip file (too small)");
@@ -1049,6 +953,8 @@ public class ZipFile implements ZipConstants {
                 throw new ZipException("Invalid Zip stream (EOCD signature not found)");
             }
 
+            long eocdOffset = length-bufLen+off;
+
             // Parse the offset to the central directory start
             off += CFD_LOCATOR_OFFSET;
             byte[] cdStart = new byte[4];
@@ -1071,6 +977,8 @@ public class ZipFile implements ZipConstants {
 
             // Seek to the start of the central directory
             rais.seek(ZipLong.getValue(cdStart));
+
+            return eocdOffset;
         }
         finally {
             BufferPool.releaseByteArray(buf);
@@ -1085,7 +993,7 @@ public class ZipFile implements ZipConstants {
      * @param encoding the encoding to use to instantiate the String
      * @return String instance that was created with the given encoding
      */
-    private static String getString(byte[] bytes, String encoding) {
+    static String getString(byte[] bytes, String encoding) {
         if(bytes.length==0)
             return "";
 
@@ -22,9 +22,15 @@ import com.mucommander.commons.io.BufferPool;
 import com.mucommander.commons.io.RandomAccessOutputStream;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
 import java.util.Vector;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
 import java.util.zip.Deflater;
 import java.util.zip.ZipException;
 
@@ -33,6 +39,12 @@ import java.util.zip.ZipException;
  * functionality of this package, especially internal/external file attributes and extra fields with different layouts
  * for local file data and central directory entries.
  *
+ * <p>If an <code>Executor</code> is set with {@link #setDeflateExecutor(Executor, int)}, DEFLATED entries are split
+ * into chunks that are compressed concurrently by the executor, while the calling thread keeps on writing data.
+ * Compressed chunks, as well as the headers of the following entries, are written to the underlying stream in order as
+ * soon as they are available. The number of chunks that are compressed or waiting to be written is bounded, the
+ * calling thread blocks when the limit is reached.</p>
+ *
  * <p>--------------------------------------------------------------------------------------------------------------<br>
  * <br>
  * This class is based off the <code>org.apache.tools.zip</code> package of the <i>Apache Ant</i> project. The Ant
@@ -114,6 +126,21 @@ public class ZipOutputStream extends OutputStream implements ZipConstants {
      */
     private boolean hasRandomAccess;
 
+    /** Size of the chunks that DEFLATED entries are split into when they are compressed concurrently */
+    private static final int DEFLATE_CHUNK_SIZE = 128*1024;
+
+    /** Executor that compresses DEFLATED entries concurrently, null to compress them in the calling thread */
+    private Executor deflateExecutor;
+
+    /** Maximum number of chunks that can be compressed or waiting to be written at the same time */
+    private int maxPendingChunks;
+
+    /** Number of chunks that are being compressed or waiting to be written */
+    private int nbPendingChunks;
+
+    /** Writes that are waiting for compressed chunks to be written before them, in order */
+    private ArrayDeque<PendingWrite> pendingWrites = new ArrayDeque<PendingWrite>();
+
 
     /**
      * Creates a new <code>ZipOutputStream</code> that writes Zip-compressed data to the given <code>OutputStream</code>.
@@ -173,6 +200,23 @@ public class ZipOutputStream extends OutputStream implements ZipConstants {
         return encoding==null || encoding.equalsIgnoreCase("UTF-8") || encoding.equalsIgnoreCase("UTF8");
     }
 
+    /**
+     * Sets the <code>Executor</code> that compresses the DEFLATED entries that are subsequently put, <code>null</code>
+     * to compress them in the calling thread (default).
+     *
+     * <p>Entries are split into chunks of 128KB that are compressed independently: the executor should have about as
+     * many threads as there are processors available. Compressed chunks are kept in memory until they can be written
+     * in order, at most twice as many chunks as there are threads are pending at any given time.</p>
+     *
+     * @param executor the executor that compresses DEFLATED entries, <code>null</code> to compress them in the calling
+     * thread
+     * @param nbThreads number of threads of the executor
+     */
+    public void setDeflateExecutor(Executor executor, int nbThreads) {
+        this.deflateExecutor = executor;
+        this.maxPendingChunks = 2*Math.max(1, nbThreads);
+    }
+
     /**
      * Finishs writing the contents and closes this as well as the
      * underlying stream.
@@ -181,6 +225,8 @@ public class ZipOutputStream extends OutputStream implements ZipConstants {
      */
     public void finish() throws IOException {
         closeEntry();
+        writePendingData(true);
+
         long cdOffset = written;
         int nbEntries = entries.size();
         ZipEntry ze;
@@ -203,6 +249,19 @@ public class ZipOutputStream extends OutputStream implements ZipConstants {
         if (entry == null)
             return;
 
+        if(zeos instanceof ParallelDeflatedOutputStream) {
+            ParallelDeflatedOutputStream pdos = (ParallelDeflatedOutputStream)zeos;
+            pdos.finishDeflate();
+            pendingWrites.add(new EntryTrailer(entry, pdos));
+            writePendingData(false);
+
+            entry = null;
+            entryInfo = null;
+            zeos = null;
+
+            return;
+        }
+
         finalizeEntryData(entry, zeos, out, !hasRandomAccess, zipBuffer);
         written += entry.getCompressedSize();
 
@@ -252,17 +311,27 @@ public class ZipOutputStream extends OutputStream implements ZipConstants {
 
         // If random access output, write the local file header containing
         // the correct CRC and compressed/uncompressed sizes
-        if (!useDataDescriptor) {
-            RandomAccessOutputStream raos = (RandomAccessOutputStream)out;
-
-            long save = raos.getOffset();
+        if (!useDataDescriptor)
+            updateLocalFileHeader(entry, (RandomAccessOutputStream)out, zipBuffer);
+    }
 
-            raos.seek(entry.getEntryInfo().headerOffset + 14);
-            raos.write(ZipLong.getBytes(entry.getCrc(), zipBuffer.longBuffer));
-            raos.write(ZipLong.getBytes(entry.getCompressedSize(), zipBuffer.longBuffer));
-            raos.write(ZipLong.getBytes(entry.getSize(), zipBuffer.longBuffer));
-            raos.seek(save);
-        }
+    /**
+     * Writes the CRC and compressed/uncompressed sizes of the given entry in its local file header, and seeks back to
+     * the current offset.
+     *
+     * @param entry the entry
+     * @param raos the stream that the entry was written to
+     * @param zipBuffer a ZipBuffer instance used to convert integer values to Zip variants
+     * @throws IOException if an I/O error occurred
+     */
+    private static void updateLocalFileHeader(ZipEntry entry, RandomAccessOutputStream raos, ZipBuffer zipBuffer) throws IOException {
+        long save = raos.getOffset();
+
+        raos.seek(entry.getEntryInfo().headerOffset + 14);
+        raos.write(ZipLong.getBytes(entry.getCrc(), zipBuffer.longBuffer));
+        raos.write(ZipLong.getBytes(entry.getCompressedSize(), zipBuffer.longBuffer));
+        raos.write(ZipLong.getBytes(entry.getSize(), zipBuffer.longBuffer));
+        raos.seek(save);
     }
 
     /**
@@ -292,6 +361,18 @@ public class ZipOutputStream extends OutputStream implements ZipConstants {
             entry.setTime(System.currentTimeMillis());
         }
 
+        if(entryMethod == DEFLATED && deflateExecutor != null) {
+            // The header is written once the data of the previous entries has been written
+            zeos = new ParallelDeflatedOutputStream(level);
+            pendingWrites.add(new EntryHeader(entry));
+            writePendingData(false);
+
+            return;
+        }
+
+        // Entries that are not compressed concurrently are written directly
+        writePendingData(true);
+
         if(entryMethod == DEFLATED) {
             deflater.reset();
             deflater.setLevel(level);
@@ -307,6 +388,21 @@ public class ZipOutputStream extends OutputStream implements ZipConstants {
         entryInfo.dataOffset = written;
     }
 
+    /**
+     * Writes the pending data to the underlying stream, in order. If <code>wait</code> is <code>false</code>, this
+     * method returns as soon as a chunk that is still being compressed is encountered.
+     *
+     * @param wait <code>true</code> to wait until all pending data has been written
+     * @throws IOException if an I/O error occurred or if a chunk could not be compressed
+     */
+    private void writePendingData(boolean wait) throws IOException {
+        PendingWrite pendingWrite;
+        while((pendingWrite=pendingWrites.peek())!=null && (wait || pendingWrite.isReady())) {
+            pendingWrites.poll();
+            pendingWrite.write();
+        }
+    }
+
     /**
      * Sets the file comment.
      *
@@ -718,4 +814,217 @@ public class ZipOutputStream extends OutputStream implements ZipConstants {
     public void flush() throws IOException {
         out.flush();
     }
+
+
+    ///////////////////
+    // Inner classes //
+    ///////////////////
+
+    /**
+     * Data that is waiting for the data before it to be written to the underlying stream.
+     */
+    private interface PendingWrite {
+
+        /**
+         * Returns <code>true</code> if the data can be written without waiting.
+         *
+         * @return <code>true</code> if the data can be written without waiting
+         */
+        boolean isReady();
+
+        /**
+         * Writes the data to the underlying stream, waiting for it to be available if needed.
+         *
+         * @throws IOException if an I/O error occurred
+         */
+        void write() throws IOException;
+    }
+
+    /**
+     * The local file header of an entry that is compressed concurrently.
+     */
+    private class EntryHeader implements PendingWrite {
+        private final ZipEntry entry;
+
+        private EntryHeader(ZipEntry entry) {
+            this.entry = entry;
+        }
+
+        public boolean isReady() {
+            return true;
+        }
+
+        public void write() throws IOException {
+            ZipEntryInfo entryInfo = entry.getEntryInfo();
+            entryInfo.headerOffset = written;
+            written += writeLocalFileHeader(entry, out, encoding, !hasRandomAccess, zipBuffer);
+            entryInfo.dataOffset = written;
+        }
+    }
+
+    /**
+     * A chunk of compressed data of an entry that is compressed concurrently.
+     */
+    private class DeflatedChunk implements PendingWrite {
+        private final FutureTask<byte[]> deflateTask;
+        private final ParallelDeflatedOutputStream pdos;
+
+        private DeflatedChunk(FutureTask<byte[]> deflateTask, ParallelDeflatedOutputStream pdos) {
+            this.deflateTask = deflateTask;
+            this.pdos = pdos;
+        }
+
+        public boolean isReady() {
+            return deflateTask.isDone();
+        }
+
+        public void write() throws IOException {
+            byte deflatedData[];
+            try {
+                deflatedData = deflateTask.get();
+            }
+            catch(InterruptedException e) {
+                throw new InterruptedIOException();
+            }
+            catch(ExecutionException e) {
+                throw new IOException(e.getCause());
+            }
+            finally {
+                nbPendingChunks--;
+            }
+
+            out.write(deflatedData);
+            written += deflatedData.length;
+            pdos.totalOut += deflatedData.length;
+        }
+    }
+
+    /**
+     * Writes the size and CRC information of an entry that is compressed concurrently, after its last chunk.
+     */
+    private class EntryTrailer implements PendingWrite {
+        private final ZipEntry entry;
+        private final ParallelDeflatedOutputStream pdos;
+
+        private EntryTrailer(ZipEntry entry, ParallelDeflatedOutputStream pdos) {
+            this.entry = entry;
+            this.pdos = pdos;
+        }
+
+        public boolean isReady() {
+            return true;
+        }
+
+        public void write() throws IOException {
+            entry.setSize(pdos.totalIn);
+            entry.setCompressedSize(pdos.totalOut);
+            entry.setCrc(pdos.getCrc());
+
+            if(hasRandomAccess)
+                updateLocalFileHeader(entry, (RandomAccessOutputStream)out, zipBuffer);
+            else
+                written += writeDataDescriptor(entry, out, zipBuffer);
+        }
+    }
+
+    /**
+     * ZipEntryOutputStream that splits the data of a DEFLATED entry into chunks, which are compressed by the deflate
+     * executor. The CRC is calculated in the calling thread.
+     */
+    private class ParallelDeflatedOutputStream extends ZipEntryOutputStream {
+
+        /** Compression level */
+        private final int level;
+
+        /** The chunk being filled, grown as needed up to DEFLATE_CHUNK_SIZE */
+        private byte chunk[] = new byte[8192];
+
+        /** Number of bytes in the current chunk */
+        private int chunkLength;
+
+        /** The previous chunk, used as a dictionary to compress the current one */
+        private byte previousChunk[];
+
+        /** Number of uncompressed bytes written so far */
+        private long totalIn;
+
+        /** Number of compressed bytes written to the underlying stream so far */
+        private long totalOut;
+
+        private ParallelDeflatedOutputStream(int level) {
+            super(ZipOutputStream.this.out, DEFLATED);
+
+            this.level = level;
+        }
+
+        /**
+         * Submits the current chunk to the deflate executor and queues its compressed data for writing, blocking if
+         * too many chunks are pending already.
+         *
+         * @param last <code>true</code> if the chunk is the last one of the entry
+         * @throws IOException if an I/O error occurred while writing pending data
+         */
+        private void submitChunk(boolean last) throws IOException {
+            FutureTask<byte[]> deflateTask = new FutureTask<byte[]>(new DeflateChunk(chunk, chunkLength, previousChunk, level, last));
+            pendingWrites.add(new DeflatedChunk(deflateTask, this));
+            nbPendingChunks++;
+            deflateExecutor.execute(deflateTask);
+
+            previousChunk = last?null:chunk;
+            chunk = last?null:new byte[DEFLATE_CHUNK_SIZE];
+            chunkLength = 0;
+
+            writePendingData(false);
+            while(nbPendingChunks>maxPendingChunks)
+                pendingWrites.poll().write();
+        }
+
+        /**
+         * Submits the last chunk of the entry.
+         *
+         * @throws IOException if an I/O error occurred while writing pending data
+         */
+        private void finishDeflate() throws IOException {
+            if(chunk!=null)
+                submitChunk(true);
+        }
+
+        @Override
+        public int getTotalIn() {
+            return (int)totalIn;
+        }
+
+        @Override
+        public int getTotalOut() {
+            return (int)totalOut;
+        }
+
+        @Override
+        public void write(byte[] b, int offset, int length) throws IOException {
+            crc.update(b, offset, length);
+            totalIn += length;
+
+            while(length>0) {
+                if(chunkLength==chunk.length) {
+                    if(chunk.length<DEFLATE_CHUNK_SIZE)
+                        chunk = Arrays.copyOf(chunk, Math.min(chunk.length*2, DEFLATE_CHUNK_SIZE));
+                    else
+                        submitChunk(false);
+                }
+
+                int nbBytes = Math.min(length, chunk.length-chunkLength);
+                System.arraycopy(b, offset, chunk, chunkLength, nbBytes);
+                chunkLength += nbBytes;
+                offset += nbBytes;
+                length -= nbBytes;
+            }
+        }
+
+        /**
+         * Does nothing: the entry is completed by {@link ZipOutputStream#closeEntry()}.
+         */
+        @Override
+        public void close() {
+        }
+    }
 }
@@ -26,6 +26,11 @@ import com.mucommander.commons.file.archive.zip.provider.ZipOutputStream;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 //import java.util.zip.ZipEntry;
 //import java.util.zip.ZipOutputStream;
 
@@ -33,6 +38,9 @@ import java.io.OutputStream;
 /**
  * Archiver implementation using the Zip archive format.
  *
+ * <p>When more than one processor is available, entries are compressed concurrently by a pool of threads, one per
+ * processor, shared by all archivers.</p>
+ *
  * @author Maxence Bernard
  */
 class ZipArchiver extends Archiver {
@@ -40,12 +48,34 @@ class ZipArchiver extends Archiver {
     private ZipOutputStream zos;
     private boolean firstEntry = true;
 
+    /** Number of threads that compress entries, for all archivers */
+    private final static int NB_DEFLATE_THREADS = Runtime.getRuntime().availableProcessors();
+
+    /** Compresses the entries of all archivers concurrently. Threads are created on demand and disposed of after a
+     * minute of inactivity, the chunks that exceed {@link #NB_DEFLATE_THREADS} are queued */
+    private final static ThreadPoolExecutor DEFLATE_EXECUTOR = new ThreadPoolExecutor(NB_DEFLATE_THREADS, NB_DEFLATE_THREADS,
+            60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+        private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "ZipDeflate-" + threadNumber.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    static {
+        DEFLATE_EXECUTOR.allowCoreThreadTimeOut(true);
+    }
 
 
     protected ZipArchiver(OutputStream outputStream) {
         super(outputStream);
 
         this.zos = new ZipOutputStream(outputStream);
+
+        if(NB_DEFLATE_THREADS>1)
+            zos.setDeflateExecutor(DEFLATE_EXECUTOR, NB_DEFLATE_THREADS);
     }
 
 
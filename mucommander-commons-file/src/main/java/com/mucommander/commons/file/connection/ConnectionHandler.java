@@ -146,7 +146,7 @@ public abstract class ConnectionHandler {
             isLocked = false;
         }
 
-        ConnectionPool.notifyConnectionHandlerLockReleased();
+        ConnectionPool.notifyConnectionHandlerLockReleased(this);
 
         return true;
     }
@@ -19,9 +19,19 @@
 package com.mucommander.commons.file.connection;
 
 import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -31,6 +41,17 @@ import com.mucommander.commons.file.FileURL;
 
 
 /**
+ * Shares {@link ConnectionHandler} instances across the files of a same server.
+ *
+ * <p>Connections are grouped into sub-pools, one for each realm/credentials combination, each of which is guarded by
+ * its own lock: threads that request or release connections of different servers never contend with each other, and
+ * a slow server cannot stall the others. At most {@link #getMaxConnectionsPerRealm()} connections are opened for a given
+ * realm/credentials combination; threads that request a connection once the limit is reached are served in the
+ * order they arrived in.</p>
+ *
+ * <p>Connections are monitored by a scheduled task that closes connections that have expired and keeps alive the
+ * others. Usage statistics are available for each realm with {@link #getRealmStatistics()}.</p>
+ *
  * @see com.mucommander.commons.file.connection.ConnectionHandler
  * @author Maxence Bernard
  */
@@ -40,89 +61,89 @@ public class ConnectionPool implements Runnable {
     /** Singleton instance */
     private static ConnectionPool instance = new ConnectionPool();
 
-    /** List of registered ConnectionHandler */
-    private final static List<ConnectionHandler> connectionHandlers = new ArrayList<ConnectionHandler>();
+    /** Sub-pools of ConnectionHandler, one for each realm/credentials combo. Sub-pools are never removed. */
+    private final static Map<RealmKey, RealmPool> realmPools = new HashMap<RealmKey, RealmPool>();
 
-    /** The thread that monitors connections, null if there currently is no registered ConnectionHandler */
-    private static Thread monitorThread;
+    /** Executes the monitor task */
+    private static ScheduledExecutorService monitorExecutor;
 
-    /** Controls how of often the thread monitor checks connections */
+    /** The task that monitors connections, null if there currently is no registered ConnectionHandler */
+    private static ScheduledFuture<?> monitorTask;
+
+    /** Executes the tasks that close or keep connections alive, which could block the monitor */
+    private static ExecutorService connectionExecutor;
+
+    /** Controls how of often the monitor checks connections */
     private final static int MONITOR_SLEEP_PERIOD = 1000;
 
+    /** Default maximum number of simultaneous connections per realm/credentials combo */
+    public final static int DEFAULT_MAX_CONNECTIONS_PER_REALM = 4;
+
     /** Maximum number of simultaneous connections per realm/credentials combo */
-    private final static int MAX_CONNECTIONS_PER_REALM = 4;
+    private static volatile int maxConnectionsPerRealm = DEFAULT_MAX_CONNECTIONS_PER_REALM;
 
 
-    public static ConnectionHandler getConnectionHandler(ConnectionHandlerFactory connectionHandlerFactory, FileURL url, boolean acquireLock) throws InterruptedIOException {
-        FileURL realm = url.getRealm();
+    /**
+     * Returns the maximum number of simultaneous connections per realm/credentials combo.
+     *
+     * @return the maximum number of simultaneous connections per realm/credentials combo
+     */
+    public static int getMaxConnectionsPerRealm() {
+        return maxConnectionsPerRealm;
+    }
 
-        while(true) {
-            synchronized(connectionHandlers) {      // Ensures that monitor thread is not currently changing the list while we access it
-                Credentials urlCredentials = url.getCredentials();
-                int matchingConnHandlers = 0;
-
-                // Try and find an appropriate existing ConnectionHandler
-                for(ConnectionHandler connHandler : connectionHandlers) {
-                	// ConnectionHandler must match the realm and credentials and must not be locked
-                	if(connHandler.equals(realm, urlCredentials)) {
-                		matchingConnHandlers++;
-                		synchronized(connHandler) {     // Ensures that lock remains unchanged while we access/update it
-                			if(!connHandler.isLocked()) {
-                				// Try to acquire lock if a lock was requested
-                				if(!acquireLock || connHandler.acquireLock()) {
-                					LOGGER.info("returning ConnectionHandler {}, realm = {}", connHandler, realm);
-
-                					// Update last activity timestamp to now
-                					connHandler.updateLastActivityTimestamp();
-
-                					return connHandler;
-                				}
-                			}
-                		}
-                	}
-                    
-                    if(matchingConnHandlers==MAX_CONNECTIONS_PER_REALM) {
-                        LOGGER.info("Maximum number of connection per realm reached, waiting for one to be removed or released...");
-                        try {
-                            // Wait for a ConnectionHandler to be released or removed from the pool
-                            connectionHandlers.wait();      // relinquishes the lock on connectionHandlers
-                            break;
-                        }
-                        catch(InterruptedException e) {
-                            LOGGER.info("Interrupted while waiting on a connection for {}", url, e);
-                            throw new InterruptedIOException();
-                        }
-                    }
-                }
+    /**
+     * Sets the maximum number of simultaneous connections per realm/credentials combo. Connections that exceed a
+     * lowered limit are not closed, but no new connection is opened until the number of connections falls below it.
+     *
+     * @param max the maximum number of simultaneous connections per realm/credentials combo, must be at least 1
+     * @throws IllegalArgumentException if the given value is lower than 1
+     */
+    public static void setMaxConnectionsPerRealm(int max) {
+        if(max<1)
+            throw new IllegalArgumentException("invalid maximum number of connections: "+max);
 
-                if(matchingConnHandlers==MAX_CONNECTIONS_PER_REALM)
-                    continue;
+        maxConnectionsPerRealm = max;
 
-                // No suitable ConnectionHandler found, create a new one
-                ConnectionHandler connHandler = connectionHandlerFactory.createConnectionHandler(url);
+        // Threads waiting for a connection may now be able to open one
+        for(RealmPool pool : getRealmPools()) {
+            synchronized(pool) {
+                pool.notifyAll();
+            }
+        }
+    }
 
-                // Acquire lock if a lock was requested
-                if(acquireLock)
-                    connHandler.acquireLock();
 
-                LOGGER.info("adding new ConnectionHandler {}, realm = {}", connHandler, connHandler.getRealm());
+    public static ConnectionHandler getConnectionHandler(ConnectionHandlerFactory connectionHandlerFactory, FileURL url, boolean acquireLock) throws InterruptedIOException {
+        FileURL realm = url.getRealm();
+        RealmPool pool = getRealmPool(realm, url.getCredentials());
 
-                // Insert new ConnectionHandler at first position as if it has more chances to be accessed again soon
-                connectionHandlers.add(0, connHandler);
+        ConnectionHandler connHandler = pool.getConnectionHandler(realm, url, acquireLock);
+        if(connHandler!=null)
+            return connHandler;
 
-                // Start monitor thread if it is not currently running (if there previously was no registered ConnectionHandler)
-                if(monitorThread==null) {
-                    LOGGER.info("starting monitor thread");
-                    monitorThread = new Thread(instance);
-                    monitorThread.start();
-                }
+        // No suitable ConnectionHandler found, create a new one. This is done without holding any lock, as
+        // ConnectionHandlerFactory implementations are free to perform I/O.
+        try {
+            connHandler = connectionHandlerFactory.createConnectionHandler(url);
 
-                // Update last activity timestamp to now
-                connHandler.updateLastActivityTimestamp();
+            // Acquire lock if a lock was requested
+            if(acquireLock)
+                connHandler.acquireLock();
 
-                return connHandler;
-            }
+            // Update last activity timestamp to now
+            connHandler.updateLastActivityTimestamp();
         }
+        finally {
+            pool.addConnectionHandler(connHandler);
+        }
+
+        LOGGER.info("adding new ConnectionHandler {}, realm = {}", connHandler, connHandler.getRealm());
+
+        // Start monitor if it is not currently running (if there previously was no registered ConnectionHandler)
+        startMonitor();
+
+        return connHandler;
     }
 
 
@@ -134,115 +155,471 @@ public class ConnectionPool implements Runnable {
      * @return a list of registered ConnectionHandler instances
      */
     public static List<ConnectionHandler> getConnectionHandlersSnapshot() {
-    	synchronized (connectionHandlers) {
-    		return new ArrayList<ConnectionHandler>(connectionHandlers);
-    	}
+        List<ConnectionHandler> snapshot = new ArrayList<ConnectionHandler>();
+        for(RealmPool pool : getRealmPools()) {
+            synchronized(pool) {
+                snapshot.addAll(pool.connectionHandlers);
+            }
+        }
+
+        return snapshot;
     }
-    
+
     /**
-     * Called by {@link ConnectionHandler#releaseLock()} to notify the <code>ConnectionHandler</code> that a
+     * Returns a snapshot of the usage statistics of each realm/credentials combo a connection has been requested for.
+     *
+     * @return a snapshot of the usage statistics of each realm/credentials combo
+     */
+    public static List<RealmStatistics> getRealmStatistics() {
+        List<RealmPool> pools = getRealmPools();
+        List<RealmStatistics> statistics = new ArrayList<RealmStatistics>(pools.size());
+        for(RealmPool pool : pools)
+            statistics.add(pool.getStatistics());
+
+        return statistics;
+    }
+
+    /**
+     * Called by {@link ConnectionHandler#releaseLock()} to notify the <code>ConnectionPool</code> that a
      * <code>ConnectionHandler</code> has been released.
+     *
+     * @param connHandler the ConnectionHandler that has been released
+     */
+    static void notifyConnectionHandlerLockReleased(ConnectionHandler connHandler) {
+        RealmPool pool;
+        synchronized(realmPools) {
+            pool = realmPools.get(new RealmKey(connHandler.getRealm(), connHandler.getCredentials()));
+        }
+
+        if(pool!=null) {
+            synchronized(pool) {
+                // Notify any thread waiting for a ConnectionHandler to be released
+                pool.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Returns the sub-pool of the given realm/credentials combo, creating it if necessary.
      */
-    static void notifyConnectionHandlerLockReleased() {
-        synchronized(connectionHandlers) {
-            // Notify any thread waiting for a ConnectionHandler to be released
-            connectionHandlers.notify();
+    private static RealmPool getRealmPool(FileURL realm, Credentials credentials) {
+        RealmKey key = new RealmKey(realm, credentials);
+        synchronized(realmPools) {
+            RealmPool pool = realmPools.get(key);
+            if(pool==null) {
+                pool = new RealmPool(realm);
+                realmPools.put(key, pool);
+            }
+
+            return pool;
+        }
+    }
+
+    private static List<RealmPool> getRealmPools() {
+        synchronized(realmPools) {
+            return new ArrayList<RealmPool>(realmPools.values());
+        }
+    }
+
+    private static void startMonitor() {
+        synchronized(realmPools) {
+            if(monitorTask!=null)
+                return;
+
+            if(monitorExecutor==null) {
+                monitorExecutor = Executors.newSingleThreadScheduledExecutor(createThreadFactory("ConnectionPool monitor"));
+                connectionExecutor = Executors.newCachedThreadPool(createThreadFactory("ConnectionPool worker"));
+            }
+
+            LOGGER.info("starting monitor");
+            monitorTask = monitorExecutor.scheduleWithFixedDelay(instance, MONITOR_SLEEP_PERIOD, MONITOR_SLEEP_PERIOD, TimeUnit.MILLISECONDS);
         }
     }
 
+    private static ThreadFactory createThreadFactory(final String name) {
+        final AtomicInteger threadCount = new AtomicInteger();
+        return new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, name+"-"+threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+
     /**
-     * Monitors connections and periodically:
+     * Monitors connections and:
      * <ul>
      *   <li>keeps connections alive
      *   <li>closes and removes connections that have expired
      * </ul>
+     * This method performs a single pass, it is executed periodically as long as there are registered
+     * ConnectionHandler instances.
      */
     public void run() {
+        long now = System.currentTimeMillis();
 
-        while(monitorThread!=null) {        // Thread will be interrupted by CloseConnectionThread if there are no more ConnectionHandler
-            long now = System.currentTimeMillis();
+        for(RealmPool pool : getRealmPools())
+            pool.monitor(now);
 
-            synchronized(connectionHandlers) {      // Ensures that getConnectionHandler is not currently changing the list while we access it
-                for (Iterator<ConnectionHandler> it = connectionHandlers.iterator(); it.hasNext(); ) {
-                	ConnectionHandler connHandler = it.next();
-                    synchronized(connHandler) {     // Ensures that no one is trying to acquire a lock on the connection while we access it 
-                        if(!connHandler.isLocked()) {   // Do not touch ConnectionHandler if it is currently locked
+        // Stop monitor if there are no more ConnectionHandler
+        synchronized(realmPools) {
+            for(RealmPool pool : realmPools.values()) {
+                synchronized(pool) {
+                    if(!pool.connectionHandlers.isEmpty() || pool.nbPendingConnections>0)
+                        return;
+                }
+            }
 
-                            // Remove ConnectionHandler instance from the list of registered ConnectionHandler
-                            // if it is not connected
-                            if(!connHandler.isConnected()) {
-                                LOGGER.info("Removing unconnected ConnectionHandler {}", connHandler);
+            if(monitorTask!=null) {
+                LOGGER.info("No more ConnectionHandler, stopping monitor");
+                monitorTask.cancel(false);
+                monitorTask = null;
+            }
+        }
+    }
 
-                                it.remove();
-                                // Notify any thread waiting for a ConnectionHandler to be released
-                                connectionHandlers.notify();
 
-                                continue;       // Skips close on inactivity and keep alive checks
-                            }
+    /**
+     * Identifies a realm/credentials combo. Two keys are equal if a {@link ConnectionHandler} created for one of them
+     * {@link ConnectionHandler#equals(FileURL, Credentials) matches} the other.
+     */
+    private static class RealmKey {
 
-                            long lastUsed = connHandler.getLastActivityTimestamp();
+        private final FileURL realm;
+        private final Credentials credentials;
 
-                            // If time-to-live has been reached without any connection activity, remove ConnectionHandler
-                            // from the list of registered ConnectionHandler and close the connection in a separate thread
-                            long closePeriod = connHandler.getCloseOnInactivityPeriod();
-                            if(closePeriod!=-1 && now-lastUsed>closePeriod*1000) {
-                                LOGGER.info("Removing timed-out ConnectionHandler {}",connHandler);
+        private RealmKey(FileURL realm, Credentials credentials) {
+            this.realm = realm;
+            this.credentials = credentials;
+        }
 
-                                it.remove();
-                                // Notify any thread waiting for a ConnectionHandler to be released
-                                connectionHandlers.notify();
+        @Override
+        public boolean equals(Object o) {
+            if(!(o instanceof RealmKey))
+                return false;
+
+            RealmKey key = (RealmKey)o;
+            if(!realm.equals(key.realm, false, true))
+                return false;
+
+            // Same comparison as ConnectionHandler#equals(FileURL, Credentials)
+            return (credentials==null && key.credentials==null)
+                || (credentials!=null && credentials.equals(key.credentials, true))
+                || (key.credentials!=null && key.credentials.equals(credentials, true));
+        }
 
-                                // Close connection in a separate thread as it could lock this thread
-                                new CloseConnectionThread(connHandler).start();
+        @Override
+        public int hashCode() {
+            // Only the parts of the realm that are compared case-insensitively and without any normalization
+            String scheme = realm.getScheme();
+            String host = realm.getHost();
+            return 31*(scheme==null?0:scheme.toLowerCase().hashCode()) + (host==null?0:host.toLowerCase().hashCode());
+        }
+    }
 
-                                continue;       // Skips keep alive check
-                            }
 
-                            // If keep-alive period has been reached without any connection activity or a keep alive,
-                            // keep connection alive in a separate thread
-                            long keepAlivePeriod = connHandler.getKeepAlivePeriod(); 
-                            if(keepAlivePeriod!=-1 && now-Math.max(lastUsed, connHandler.getLastKeepAliveTimestamp())>keepAlivePeriod*1000) {
-                                // Update last keep alive timestamp to now
-                                connHandler.updateLastKeepAliveTimestamp();
+    /**
+     * The connections of a realm/credentials combo. All fields are guarded by the instance's lock, which is also used
+     * to wait for a connection to be released.
+     */
+    private static class RealmPool {
+
+        /** The realm, without credentials */
+        private final String realmString;
+
+        /** Registered ConnectionHandler instances, most recently created first */
+        private final List<ConnectionHandler> connectionHandlers = new ArrayList<ConnectionHandler>();
+
+        /** Threads waiting for a connection, in arrival order */
+        private final ArrayDeque<Thread> waitingThreads = new ArrayDeque<Thread>();
+
+        /** Number of ConnectionHandler instances being created */
+        private int nbPendingConnections;
 
-                                // Keep connection alive in a separate thread as it could lock this thread
-                                new KeepAliveConnectionThread(connHandler).start();
+        /** Number of connections that have been requested */
+        private long nbRequests;
+
+        /** Number of requests that have been served by a registered ConnectionHandler */
+        private long nbHits;
+
+        /** Number of requests that had to wait for a connection */
+        private long nbWaits;
+
+        /** Total time spent waiting for a connection, in milliseconds */
+        private long totalWaitTime;
+
+        private RealmPool(FileURL realm) {
+            this.realmString = realm.toString(false);
+        }
+
+        /**
+         * Returns a registered ConnectionHandler that matches the given realm and credentials, waiting for one to be
+         * released if the maximum number of connections has been reached. Returns <code>null</code> if a new
+         * ConnectionHandler can be created, in which case the caller must then call {@link #addConnectionHandler}.
+         */
+        private synchronized ConnectionHandler getConnectionHandler(FileURL realm, FileURL url, boolean acquireLock) throws InterruptedIOException {
+            Credentials urlCredentials = url.getCredentials();
+            Thread currentThread = Thread.currentThread();
+            long waitStart = 0;
+
+            nbRequests++;
+            try {
+                while(true) {
+                    // Requests are served in arrival order: don't overtake threads that are already waiting
+                    if(waitingThreads.isEmpty() || waitingThreads.peekFirst()==currentThread) {
+                        // Try and find an appropriate existing ConnectionHandler
+                        for(ConnectionHandler connHandler : connectionHandlers) {
+                            // ConnectionHandler must match the realm and credentials and must not be locked
+                            if(connHandler.equals(realm, urlCredentials)) {
+                                synchronized(connHandler) {     // Ensures that lock remains unchanged while we access/update it
+                                    // Try to acquire lock if a lock was requested
+                                    if(!connHandler.isLocked() && (!acquireLock || connHandler.acquireLock())) {
+                                        LOGGER.info("returning ConnectionHandler {}, realm = {}", connHandler, realm);
+
+                                        // Update last activity timestamp to now
+                                        connHandler.updateLastActivityTimestamp();
+                                        nbHits++;
+
+                                        return connHandler;
+                                    }
+                                }
                             }
                         }
+
+                        if(connectionHandlers.size()+nbPendingConnections<maxConnectionsPerRealm) {
+                            nbPendingConnections++;
+                            return null;
+                        }
+                    }
+
+                    if(waitStart==0) {
+                        LOGGER.info("Maximum number of connection per realm reached, waiting for one to be removed or released...");
+                        waitStart = System.currentTimeMillis();
+                        waitingThreads.addLast(currentThread);
+                    }
+
+                    try {
+                        // Wait for a ConnectionHandler to be released or removed from the pool
+                        wait();
+                    }
+                    catch(InterruptedException e) {
+                        LOGGER.info("Interrupted while waiting on a connection for {}", url, e);
+                        throw new InterruptedIOException();
                     }
                 }
+            }
+            finally {
+                if(waitStart!=0) {
+                    waitingThreads.remove(currentThread);
+                    nbWaits++;
+                    totalWaitTime += System.currentTimeMillis()-waitStart;
+                    // Let the next thread in line have a go
+                    notifyAll();
+                }
+            }
+        }
+
+        /**
+         * Registers a ConnectionHandler that was created after {@link #getConnectionHandler} returned <code>null</code>.
+         *
+         * @param connHandler the created ConnectionHandler, <code>null</code> if it could not be created
+         */
+        private synchronized void addConnectionHandler(ConnectionHandler connHandler) {
+            nbPendingConnections--;
+
+            if(connHandler!=null) {
+                // Insert new ConnectionHandler at first position as if it has more chances to be accessed again soon
+                connectionHandlers.add(0, connHandler);
+            }
+            else {
+                // Another thread may now create a connection
+                notifyAll();
+            }
+        }
+
+        /**
+         * Removes the connections that are not connected anymore or that have expired, and keeps the others alive.
+         * Connections are closed and kept alive by other threads, as this could block the monitor.
+         *
+         * @param now the current time
+         */
+        private synchronized void monitor(long now) {
+            boolean removed = false;
+
+            for (Iterator<ConnectionHandler> it = connectionHandlers.iterator(); it.hasNext(); ) {
+                ConnectionHandler connHandler = it.next();
+                synchronized(connHandler) {     // Ensures that no one is trying to acquire a lock on the connection while we access it 
+                    if(connHandler.isLocked())   // Do not touch ConnectionHandler if it is currently locked
+                        continue;
+
+                    // Remove ConnectionHandler instance from the list of registered ConnectionHandler
+                    // if it is not connected
+                    if(!connHandler.isConnected()) {
+                        LOGGER.info("Removing unconnected ConnectionHandler {}", connHandler);
+
+                        it.remove();
+                        removed = true;
+
+                        continue;       // Skips close on inactivity and keep alive checks
+                    }
+
+                    long lastUsed = connHandler.getLastActivityTimestamp();
+
+                    // If time-to-live has been reached without any connection activity, remove ConnectionHandler
+                    // from the list of registered ConnectionHandler and close the connection in a separate thread
+                    long closePeriod = connHandler.getCloseOnInactivityPeriod();
+                    if(closePeriod!=-1 && now-lastUsed>closePeriod*1000) {
+                        LOGGER.info("Removing timed-out ConnectionHandler {}",connHandler);
+
+                        it.remove();
+                        removed = true;
+
+                        connectionExecutor.execute(new CloseConnectionTask(connHandler));
+
+                        continue;       // Skips keep alive check
+                    }
+
+                    // If keep-alive period has been reached without any connection activity or a keep alive,
+                    // keep connection alive in a separate thread
+                    long keepAlivePeriod = connHandler.getKeepAlivePeriod(); 
+                    if(keepAlivePeriod!=-1 && now-Math.max(lastUsed, connHandler.getLastKeepAliveTimestamp())>keepAlivePeriod*1000) {
+                        // Update last keep alive timestamp to now
+                        connHandler.updateLastKeepAliveTimestamp();
 
-                // Stop monitor thread if there are no more ConnectionHandler
-                if(connectionHandlers.isEmpty()) {
-                    LOGGER.info("No more ConnectionHandler, stopping monitor thread");
-                    monitorThread = null;
+                        connectionExecutor.execute(new KeepAliveConnectionTask(connHandler));
+                    }
                 }
             }
 
-            // Sleep for MONITOR_SLEEP_PERIOD milliseconds, minus the processing time of this loop
-            try {
-                Thread.sleep(Math.max(0, MONITOR_SLEEP_PERIOD-(System.currentTimeMillis()-now)));
+            if(removed) {
+                // Notify any thread waiting for a ConnectionHandler to be released
+                notifyAll();
             }
-            catch(InterruptedException e) {
-                // Will loop again
+        }
+
+        private synchronized RealmStatistics getStatistics() {
+            int nbActive = 0;
+            for(ConnectionHandler connHandler : connectionHandlers) {
+                if(connHandler.isLocked())
+                    nbActive++;
             }
+
+            return new RealmStatistics(realmString, nbActive, connectionHandlers.size()-nbActive, waitingThreads.size(),
+                    nbRequests, nbHits, nbWaits, totalWaitTime);
+        }
+    }
+
+
+    /**
+     * A snapshot of the usage statistics of the connections of a realm/credentials combo.
+     */
+    public static class RealmStatistics {
+
+        private final String realm;
+        private final int nbActiveConnections;
+        private final int nbIdleConnections;
+        private final int nbWaitingThreads;
+        private final long nbRequests;
+        private final long nbHits;
+        private final long nbWaits;
+        private final long totalWaitTime;
+
+        private RealmStatistics(String realm, int nbActiveConnections, int nbIdleConnections, int nbWaitingThreads,
+                                long nbRequests, long nbHits, long nbWaits, long totalWaitTime) {
+            this.realm = realm;
+            this.nbActiveConnections = nbActiveConnections;
+            this.nbIdleConnections = nbIdleConnections;
+            this.nbWaitingThreads = nbWaitingThreads;
+            this.nbRequests = nbRequests;
+            this.nbHits = nbHits;
+            this.nbWaits = nbWaits;
+            this.totalWaitTime = totalWaitTime;
+        }
+
+        /**
+         * Returns the realm, without credentials.
+         */
+        public String getRealm() {
+            return realm;
+        }
+
+        /**
+         * Returns the number of connections that are currently locked.
+         */
+        public int getActiveConnections() {
+            return nbActiveConnections;
+        }
+
+        /**
+         * Returns the number of connections that are currently not locked.
+         */
+        public int getIdleConnections() {
+            return nbIdleConnections;
+        }
+
+        /**
+         * Returns the number of threads that are currently waiting for a connection.
+         */
+        public int getWaitingThreads() {
+            return nbWaitingThreads;
+        }
+
+        /**
+         * Returns the number of connections that have been requested.
+         */
+        public long getRequests() {
+            return nbRequests;
+        }
+
+        /**
+         * Returns the number of requests that have been served by an existing connection.
+         */
+        public long getHits() {
+            return nbHits;
+        }
+
+        /**
+         * Returns the ratio of requests that have been served by an existing connection, between 0 and 1.
+         */
+        public float getHitRate() {
+            return nbRequests==0?0:nbHits/(float)nbRequests;
+        }
+
+        /**
+         * Returns the number of requests that had to wait for a connection to be released.
+         */
+        public long getWaits() {
+            return nbWaits;
+        }
+
+        /**
+         * Returns the total time spent waiting for a connection to be released, in milliseconds.
+         */
+        public long getTotalWaitTime() {
+            return totalWaitTime;
+        }
+
+        @Override
+        public String toString() {
+            return realm+": active="+nbActiveConnections+" idle="+nbIdleConnections+" waiting="+nbWaitingThreads
+                    +" requests="+nbRequests+" hits="+nbHits+" waits="+nbWaits+" waitTime="+totalWaitTime+"ms";
         }
     }
 
 
     /**
-     * Closes a specified ConnectionHandler's connection in a separate thread and removes the ConnectionHandler from
+     * Closes a specified ConnectionHandler's connection, the ConnectionHandler has already been removed from
      * the list of registered ConnectionHandler instances.
      */
-    private static class CloseConnectionThread extends Thread {
+    private static class CloseConnectionTask implements Runnable {
 
-        private ConnectionHandler connHandler;
+        private final ConnectionHandler connHandler;
 
-        private CloseConnectionThread(ConnectionHandler connHandler) {
+        private CloseConnectionTask(ConnectionHandler connHandler) {
             this.connHandler = connHandler;
         }
 
-        @Override
         public void run() {
             // Try to close connection, only if it is connected
             if(connHandler.isConnected()) {
@@ -254,18 +631,18 @@ public class ConnectionPool implements Runnable {
 
 
     /**
-     * Keeps alive a specified ConnectionHandler's connection in a separate thread. If the connection is not currently
-     * active, {@link com.mucommander.commons.file.connection.ConnectionHandler#keepAlive()} will not be called.
+     * Keeps alive a specified ConnectionHandler's connection. If the connection is currently locked,
+     * {@link com.mucommander.commons.file.connection.ConnectionHandler#keepAlive()} will not be called.
+     * The ConnectionHandler is locked while it is kept alive, so that other threads don't get blocked on it.
      */
-    private static class KeepAliveConnectionThread extends Thread {
+    private static class KeepAliveConnectionTask implements Runnable {
 
         private final ConnectionHandler connHandler;
 
-        private KeepAliveConnectionThread(ConnectionHandler connHandler) {
+        private KeepAliveConnectionTask(ConnectionHandler connHandler) {
             this.connHandler = connHandler;
         }
 
-        @Override
         public void run() {
             LOGGER.info("keeping connection alive: {}", connHandler);
 
@@ -274,10 +651,17 @@ public class ConnectionPool implements Runnable {
                 if(connHandler.isLocked())
                     return;
 
+                connHandler.acquireLock();
+            }
+
+            try {
                 // Keep alive connection, only if it is connected
                 if(connHandler.isConnected())
                     connHandler.keepAlive();
             }
+            finally {
+                connHandler.releaseLock();
+            }
         }
     }
 
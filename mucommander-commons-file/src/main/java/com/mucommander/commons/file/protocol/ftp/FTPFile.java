@@ -154,10 +154,6 @@ public class FTPFile extends ProtocolFile implements ConnectionHandlerFactory {
 
 
     private org.apache.commons.net.ftp.FTPFile getFTPFile(FileURL fileURL) throws IOException {
-        // Todo: this method is very ineffective as it lists the parent directory to retrieve the information about the
-        // requested file to workaround the fact that FTPClient#listFiles follows directories.
-        // => Use the MLST command if supported by the server (use FEAT command to find out if it is supported).
-        // See http://tools.ietf.org/html/draft-ietf-ftpext-mlst-16
         FileURL parentURL = fileURL.getParent();
         LOGGER.trace("fileURL={} parent={}", fileURL, parentURL);
 
@@ -166,30 +162,47 @@ public class FTPFile extends ProtocolFile implements ConnectionHandlerFactory {
             return createFTPFile("/", true);
         }
         else {
-            FTPConnectionHandler connHandler = (FTPConnectionHandler)ConnectionPool.getConnectionHandler(this, fileURL, true);
-            org.apache.commons.net.ftp.FTPFile files[];
-            try {
-                // Makes sure the connection is started, if not starts it
-                connHandler.checkConnection();
+            // Look up the file in the parent's listing if it was listed recently, which is the case when the parent's
+            // children are resolved one after the other
+            org.apache.commons.net.ftp.FTPFile files[] = FTPListingCache.getInstance().get(parentURL);
+            if(files==null) {
+                FTPConnectionHandler connHandler = (FTPConnectionHandler)ConnectionPool.getConnectionHandler(this, fileURL, true);
+                try {
+                    // Makes sure the connection is started, if not starts it
+                    connHandler.checkConnection();
+
+                    // Retrieve the information about this file only using MLST, if the server supports it
+                    if(connHandler.mlstCommandSupported) {
+                        org.apache.commons.net.ftp.FTPFile file = mlistFile(connHandler, fileURL.getPath());
+                        if(connHandler.mlstCommandSupported) {
+                            // MLST returns the file's path instead of its name
+                            if(file!=null)
+                                file.setName(fileURL.getFilename());
+
+                            return file;
+                        }
+                    }
 
-                // List files contained by this file's parent in order to retrieve the FTPFile instance corresponding
-                // to this file
-                files = listFiles(connHandler, parentURL.getPath());
-            }
-            finally {
-                // Release the lock on the ConnectionHandler
-                connHandler.releaseLock();
+                    // List files contained by this file's parent in order to retrieve the FTPFile instance corresponding
+                    // to this file. This works around the fact that FTPClient#listFiles follows directories.
+                    files = listFiles(connHandler, parentURL.getPath());
+                    FTPListingCache.getInstance().put(parentURL, files);
+                }
+                finally {
+                    // Release the lock on the ConnectionHandler
+                    connHandler.releaseLock();
+                }
             }
 
             // File doesn't exist
-            if(files==null || files.length==0)
+            if(files.length==0)
                 return null;
 
             // Find the file in the parent folder's contents
             int nbFiles = files.length;
             String wantedName = fileURL.getFilename();
             for(int i=0; i<nbFiles; i++) {
-                if(files[i].getName().equalsIgnoreCase(wantedName))
+                if(files[i]!=null && files[i].getName().equalsIgnoreCase(wantedName))
                     return files[i];
             }
 
@@ -199,6 +212,57 @@ public class FTPFile extends ProtocolFile implements ConnectionHandlerFactory {
     }
 
 
+    /**
+     * Retrieves the information about the given path on the server using the <code>MLST</code> command, which unlike
+     * <code>LIST</code> does not follow directories and returns machine-readable facts.
+     * If the server replies that the command is not implemented, it is marked as unsupported in the connection handler
+     * and <code>null</code> is returned.
+     *
+     * @param connHandler the connection handler to use for communicating with the server
+     * @param absPath absolute path to the file
+     * @return the file, <code>null</code> if it doesn't exist
+     * @throws IOException if an error occurred while communicating with the server
+     * @throws AuthException if the user is not allowed to access this file
+     */
+    private static org.apache.commons.net.ftp.FTPFile mlistFile(FTPConnectionHandler connHandler, String absPath) throws IOException, AuthException {
+        try {
+            org.apache.commons.net.ftp.FTPFile file = connHandler.ftpClient.mlistFile(absPath);
+            if(file!=null)
+                return file;
+
+            int replyCode = connHandler.ftpClient.getReplyCode();
+            if(isCommandNotImplemented(replyCode)) {
+                LOGGER.info("marking MLST command as unsupported");
+                connHandler.mlstCommandSupported = false;
+            }
+            // 550 (or 450 if the file is temporarily unavailable) means that the file doesn't exist
+            else if(replyCode!=FTPReply.FILE_UNAVAILABLE && replyCode!=FTPReply.FILE_ACTION_NOT_TAKEN) {
+                // Throw an IOException if server replied with an error
+                connHandler.checkServerReply();
+            }
+
+            return null;
+        }
+        catch(IOException e) {
+            // Checks if the IOException corresponds to a socket error and in that case, closes the connection
+            connHandler.checkSocketException(e);
+
+            // Throw back the IOException
+            throw e;
+        }
+    }
+
+
+    /**
+     * Returns <code>true</code> if the given reply code means that the server does not support a command.
+     */
+    private static boolean isCommandNotImplemented(int replyCode) {
+        return replyCode==FTPReply.UNRECOGNIZED_COMMAND
+            || replyCode==FTPReply.COMMAND_NOT_IMPLEMENTED
+            || replyCode==FTPReply.COMMAND_NOT_IMPLEMENTED_FOR_PARAMETER;
+    }
+
+
     private org.apache.commons.net.ftp.FTPFile createFTPFile(String name, boolean isDirectory) {
         org.apache.commons.net.ftp.FTPFile file = new org.apache.commons.net.ftp.FTPFile();
         file.setName(name);
@@ -211,8 +275,8 @@ public class FTPFile extends ProtocolFile implements ConnectionHandlerFactory {
 
     /**
      * Lists and returns the contents of the given path on the server using the given connection handler.
-     * The directory contents is listed by issuing a CWD followed by a LIST so after this method is called, the current
-     * working directory is left to the specified path.
+     * The directory contents is listed by issuing a CWD followed by an MLSD if the server supports it, a LIST
+     * otherwise, so after this method is called, the current working directory is left to the specified path.
      *
      * @param connHandler the connection handler to use for communicating with the server
      * @param absPath absolute path to the directory to list
@@ -243,7 +307,24 @@ public class FTPFile extends ProtocolFile implements ConnectionHandlerFactory {
             // http://issues.apache.org/jira/browse/NET-10
 
             connHandler.ftpClient.changeWorkingDirectory(absPath);
-            files = connHandler.ftpClient.listFiles();
+
+            files = null;
+            if(connHandler.mlstCommandSupported) {
+                // MLSD returns machine-readable facts that, unlike the output of LIST, do not need to be guessed
+                // from the server's system type and locale
+                files = connHandler.ftpClient.mlistDir();
+                if(isCommandNotImplemented(connHandler.ftpClient.getReplyCode())) {
+                    LOGGER.info("marking MLSD command as unsupported");
+                    connHandler.mlstCommandSupported = false;
+                    files = null;
+                }
+                else if(files!=null) {
+                    files = filterMlsdEntries(files);
+                }
+            }
+
+            if(!connHandler.mlstCommandSupported)
+                files = connHandler.ftpClient.listFiles();
 
             // Throw an IOException if server replied with an error
             connHandler.checkServerReply();
@@ -268,6 +349,41 @@ public class FTPFile extends ProtocolFile implements ConnectionHandlerFactory {
     }
 
 
+    /**
+     * Removes the entries that MLSD returns for the listed directory itself and its parent.
+     */
+    private static org.apache.commons.net.ftp.FTPFile[] filterMlsdEntries(org.apache.commons.net.ftp.FTPFile files[]) {
+        java.util.List<org.apache.commons.net.ftp.FTPFile> filteredFiles = new java.util.ArrayList<org.apache.commons.net.ftp.FTPFile>(files.length);
+        String rawListing;
+        for(org.apache.commons.net.ftp.FTPFile file : files) {
+            if(file==null)
+                continue;
+
+            rawListing = file.getRawListing();
+            if(rawListing!=null) {
+                rawListing = rawListing.toLowerCase();
+                if(rawListing.startsWith("type=cdir;") || rawListing.contains(";type=cdir;")
+                        || rawListing.startsWith("type=pdir;") || rawListing.contains(";type=pdir;"))
+                    continue;
+            }
+
+            filteredFiles.add(file);
+        }
+
+        return filteredFiles.toArray(new org.apache.commons.net.ftp.FTPFile[filteredFiles.size()]);
+    }
+
+
+    /**
+     * Removes the listing of the given file's parent from {@link FTPListingCache}, after the file has been modified.
+     */
+    private static void invalidateParentListing(FileURL fileURL) {
+        FileURL parentURL = fileURL.getParent();
+        if(parentURL!=null)
+            FTPListingCache.getInstance().invalidate(parentURL);
+    }
+
+
     /////////////////////////////////////////////
     // ConnectionHandlerFactory implementation //
     /////////////////////////////////////////////
@@ -328,6 +444,7 @@ public class FTPFile extends ProtocolFile implements ConnectionHandlerFactory {
             LOGGER.info("sending SITE UTIME {} {}", sdate, absPath);
             boolean success = connHandler.ftpClient.sendSiteCommand("UTIME "+sdate+" "+absPath);
             LOGGER.info("server reply: {}", connHandler.ftpClient.getReplyString());
+            invalidateParentListing(fileURL);
 
             if(!success) {
                 int replyCode = connHandler.ftpClient.getReplyCode();
@@ -529,6 +646,8 @@ public class FTPFile extends ProtocolFile implements ConnectionHandlerFactory {
                 connHandler.ftpClient.deleteFile(absPath);
 
             fileExists = false; // need to set to false since the file is cached
+            invalidateParentListing(fileURL);
+            FTPListingCache.getInstance().invalidate(fileURL);
             // Throw an IOException if server replied with an error
             connHandler.checkServerReply();
         }
@@ -562,6 +681,9 @@ public class FTPFile extends ProtocolFile implements ConnectionHandlerFactory {
             connHandler.releaseLock();
         }
 
+        // Sibling lookups that follow (e.g. to resolve a child's URL) can use the listing
+        FTPListingCache.getInstance().put(fileURL, files);
+
         if(files==null || files.length==0)
             return new AbstractFile[] {};
 
@@ -591,7 +713,7 @@ public class FTPFile extends ProtocolFile implements ConnectionHandlerFactory {
             if(childName.equals(".") || childName.equals(".."))
                 continue;
 
-            child = FileFactory.getFile(childURL, this, files[i]);
+            child = FileFactory.getChildFile(childURL, this, files[i]);
             children[fileCount++] = child;
         }
 
@@ -615,6 +737,7 @@ public class FTPFile extends ProtocolFile implements ConnectionHandlerFactory {
             connHandler.checkConnection();
 
             connHandler.ftpClient.makeDirectory(absPath);
+            invalidateParentListing(fileURL);
             // Throw an IOException if server replied with an error
             connHandler.checkServerReply();
 
@@ -695,6 +818,7 @@ public class FTPFile extends ProtocolFile implements ConnectionHandlerFactory {
             LOGGER.info("sending SITE CHMOD {} {}", Integer.toOctalString(permissions), absPath);
             boolean success = connHandler.ftpClient.sendSiteCommand("CHMOD "+Integer.toOctalString(permissions)+" "+absPath);
             LOGGER.info("server reply: {}", connHandler.ftpClient.getReplyString());
+            invalidateParentListing(fileURL);
 
             if(!success) {
                 int replyCode = connHandler.ftpClient.getReplyCode();
@@ -753,7 +877,12 @@ public class FTPFile extends ProtocolFile implements ConnectionHandlerFactory {
             // Makes sure the connection is started, if not starts it
             connHandler.checkConnection();
 
-            if(!connHandler.ftpClient.rename(absPath, destFile.getURL().getPath()))
+            boolean success = connHandler.ftpClient.rename(absPath, destFile.getURL().getPath());
+            invalidateParentListing(fileURL);
+            invalidateParentListing(destFile.getURL());
+            FTPListingCache.getInstance().invalidate(fileURL);
+
+            if(!success)
                 throw new IOException();
         }
         catch(IOException e) {
@@ -1086,6 +1215,7 @@ public class FTPFile extends ProtocolFile implements ConnectionHandlerFactory {
                 return;
 
             isClosed = true;
+            invalidateParentListing(fileURL);
 
             try {
                 super.close();
@@ -1137,6 +1267,10 @@ public class FTPFile extends ProtocolFile implements ConnectionHandlerFactory {
         /** False if SITE CHMOD command is not supported by the remote server (once tried and failed) */
         private boolean chmodCommandSupported = true;
 
+        /** True if the MLST and MLSD commands are supported by the remote server, as advertised by the FEAT command
+         * (and not tried and failed) */
+        private boolean mlstCommandSupported;
+
         /** Controls how ofter should keepAlive() be called by ConnectionPool */
         private final static long KEEP_ALIVE_PERIOD = 60;
 
@@ -1311,6 +1445,11 @@ public class FTPFile extends ProtocolFile implements ConnectionHandlerFactory {
 	                    ftpClient.sendCommand("OPTS UTF8 ON");
 	                }
 
+	                // Use MLST and MLSD instead of LIST if the server advertises them. Servers that do not support the
+	                // FEAT command reply with an error, which FTPClient#hasFeature reports as the feature being absent.
+	                mlstCommandSupported = ftpClient.hasFeature("MLST");
+	                LOGGER.info("mlstCommandSupported={}", mlstCommandSupported);
+
 	                break;
 	            }
 	            catch(IOException e) {
@@ -0,0 +1,128 @@
+/**
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2018 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.mucommander.commons.file.protocol.ftp;
+
+import com.mucommander.commons.file.Credentials;
+import com.mucommander.commons.file.FileURL;
+import org.apache.commons.net.ftp.FTPFile;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Caches the directory listings of FTP servers for a short amount of time, so that the files of a directory can be
+ * resolved one after the other without listing the directory every time.
+ *
+ * <p>Listings are cached per realm (server and user) and path. The listing of a directory must be invalidated
+ * whenever the directory is modified through {@link com.mucommander.commons.file.protocol.ftp.FTPFile}, using
+ * {@link #invalidate(FileURL)}. Modifications made by other clients are picked up once the listing has expired.</p>
+ */
+class FTPListingCache {
+
+    /** Number of milliseconds during which a listing is used */
+    private final static long TIME_TO_LIVE = 10000;
+
+    /** Maximum number of listings held by the cache */
+    private final static int MAX_LISTINGS = 64;
+
+    /** The cache shared by all FTP files */
+    private final static FTPListingCache INSTANCE = new FTPListingCache();
+
+    /** Cached listings, in access order */
+    private final LinkedHashMap<String, Listing> listings = new LinkedHashMap<String, Listing>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Listing> eldest) {
+            return size()>MAX_LISTINGS;
+        }
+    };
+
+    /**
+     * Returns the cache shared by all FTP files.
+     *
+     * @return the cache shared by all FTP files
+     */
+    static FTPListingCache getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Returns the key under which the listing of the given directory is cached.
+     */
+    private static String getKey(FileURL directoryURL) {
+        Credentials credentials = directoryURL.getCredentials();
+        String path = directoryURL.getPath();
+        if(path.length()>1 && path.endsWith("/"))
+            path = path.substring(0, path.length()-1);
+
+        return (credentials==null?"":credentials.getLogin()) + "@" + directoryURL.getRealm().toString(false) + path;
+    }
+
+    /**
+     * Returns the listing of the given directory, <code>null</code> if it is not in the cache or has expired.
+     *
+     * @param directoryURL the URL of the directory
+     * @return the directory's files, <code>null</code> if the listing is not in the cache or has expired
+     */
+    synchronized FTPFile[] get(FileURL directoryURL) {
+        String key = getKey(directoryURL);
+        Listing listing = listings.get(key);
+        if(listing==null)
+            return null;
+
+        if(System.currentTimeMillis()-listing.time>TIME_TO_LIVE) {
+            listings.remove(key);
+            return null;
+        }
+
+        return listing.files;
+    }
+
+    /**
+     * Adds the listing of the given directory to the cache.
+     *
+     * @param directoryURL the URL of the directory
+     * @param files the directory's files, which must not be modified afterwards
+     */
+    synchronized void put(FileURL directoryURL, FTPFile files[]) {
+        listings.put(getKey(directoryURL), new Listing(files));
+    }
+
+    /**
+     * Removes the listing of the given directory from the cache.
+     *
+     * @param directoryURL the URL of the directory
+     */
+    synchronized void invalidate(FileURL directoryURL) {
+        listings.remove(getKey(directoryURL));
+    }
+
+
+    /**
+     * The files of a directory and the time at which they were listed.
+     */
+    private static class Listing {
+        private final FTPFile files[];
+        private final long time;
+
+        private Listing(FTPFile files[]) {
+            this.files = files;
+            this.time = System.currentTimeMillis();
+        }
+    }
+}
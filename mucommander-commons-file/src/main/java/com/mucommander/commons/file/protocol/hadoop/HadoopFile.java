@@ -387,7 +387,7 @@ public abstract class HadoopFile extends ProtocolFile {
             childURL = (FileURL)fileURL.clone();
             childURL.setPath(parentPath + childStatus.getPath().getName());
 
-            children[i] = FileFactory.getFile(childURL, this, fs, childStatus);
+            children[i] = FileFactory.getChildFile(childURL, this, fs, childStatus);
         }
 
         return children;
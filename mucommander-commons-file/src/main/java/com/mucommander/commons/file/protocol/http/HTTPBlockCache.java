@@ -0,0 +1,132 @@
+/**
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2018 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.mucommander.commons.file.protocol.http;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A least-recently-used cache of the blocks of HTTP resources, shared by the random access streams of all
+ * {@link HTTPFile} instances, so that the blocks of a resource that are read again, e.g. by a new stream opened on the
+ * same resource, need not be requested again.
+ *
+ * <p>Resources are cut into blocks of {@link #BLOCK_SIZE} bytes, except the last one which may be shorter.
+ * Resources are identified by a <i>version</i> string, which should change when the resource does, for instance
+ * by including its length and date. Since the cache is shared, the string must also identify the credentials the
+ * resource is requested with.</p>
+ */
+class HTTPBlockCache {
+
+    /** Size of the blocks of a resource */
+    final static int BLOCK_SIZE = 8*1024;
+
+    /** Default maximum number of blocks held by the cache (4MB) */
+    private final static int DEFAULT_MAX_BLOCKS = 512;
+
+    /** The cache shared by all random access streams */
+    private final static HTTPBlockCache INSTANCE = new HTTPBlockCache(DEFAULT_MAX_BLOCKS);
+
+    /** Cached blocks, in access order */
+    private final LinkedHashMap<BlockKey, byte[]> blocks;
+
+    /**
+     * Creates a new cache that holds at most the given number of blocks.
+     *
+     * @param maxBlocks maximum number of blocks held by the cache
+     */
+    HTTPBlockCache(final int maxBlocks) {
+        blocks = new LinkedHashMap<BlockKey, byte[]>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<BlockKey, byte[]> eldest) {
+                return size()>maxBlocks;
+            }
+        };
+    }
+
+    /**
+     * Returns the cache shared by all random access streams.
+     *
+     * @return the cache shared by all random access streams
+     */
+    static HTTPBlockCache getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Returns the given block of a resource, <code>null</code> if it is not in the cache.
+     *
+     * @param resource the resource's version string
+     * @param index the block's index
+     * @return the block's data, <code>null</code> if it is not in the cache
+     */
+    synchronized byte[] get(String resource, long index) {
+        return blocks.get(new BlockKey(resource, index));
+    }
+
+    /**
+     * Returns <code>true</code> if the given block of a resource is in the cache, without affecting the block's
+     * eviction order.
+     *
+     * @param resource the resource's version string
+     * @param index the block's index
+     * @return <code>true</code> if the block is in the cache
+     */
+    synchronized boolean contains(String resource, long index) {
+        return blocks.containsKey(new BlockKey(resource, index));
+    }
+
+    /**
+     * Adds the given block of a resource to the cache, evicting the least recently used block if the cache is full.
+     *
+     * @param resource the resource's version string
+     * @param index the block's index
+     * @param data the block's data, which must not be modified afterwards
+     */
+    synchronized void put(String resource, long index, byte data[]) {
+        blocks.put(new BlockKey(resource, index), data);
+    }
+
+
+    /**
+     * Identifies a block of a resource.
+     */
+    private static class BlockKey {
+        private final String resource;
+        private final long index;
+
+        private BlockKey(String resource, long index) {
+            this.resource = resource;
+            this.index = index;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if(!(o instanceof BlockKey))
+                return false;
+
+            BlockKey key = (BlockKey)o;
+            return index==key.index && resource.equals(key.resource);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31*resource.hashCode() + (int)(index^(index>>>32));
+        }
+    }
+}
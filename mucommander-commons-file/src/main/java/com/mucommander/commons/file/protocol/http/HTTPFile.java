@@ -23,8 +23,10 @@ import com.mucommander.commons.file.*;
 import com.mucommander.commons.file.protocol.FileProtocols;
 import com.mucommander.commons.file.protocol.ProtocolFile;
 import com.mucommander.commons.io.BlockRandomInputStream;
+import com.mucommander.commons.io.ByteUtils;
 import com.mucommander.commons.io.RandomAccessInputStream;
 import com.mucommander.commons.io.RandomAccessOutputStream;
+import com.mucommander.commons.io.StreamUtils;
 import com.mucommander.commons.io.base64.Base64Encoder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -32,9 +34,20 @@ import org.slf4j.LoggerFactory;
 import java.io.*;
 import java.net.HttpURLConnection;
 import java.net.URL;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
 import java.util.StringTokenizer;
 import java.util.TreeSet;
 import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -112,6 +125,26 @@ public class HTTPFile extends ProtocolFile {
     /** Matches HTML and XHTML attribute key/value pairs, where the value is surrounded by Double Quotes */
     private final static Pattern linkAttributePatternDQ = Pattern.compile("(src|href|SRC|HREF)=\\\".*?\\\"");
 
+    /** Maximum number of read-ahead requests that run at the same time, the following ones are queued */
+    private final static int MAX_READ_AHEAD_THREADS = 4;
+
+    /** Requests the blocks that random access streams are likely to read next, threads are created on demand and
+     * disposed of after a minute of inactivity */
+    private final static ThreadPoolExecutor READ_AHEAD_EXECUTOR = new ThreadPoolExecutor(MAX_READ_AHEAD_THREADS, MAX_READ_AHEAD_THREADS,
+            60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+        private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "HTTPReadAhead-" + threadNumber.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    static {
+        READ_AHEAD_EXECUTOR.allowCoreThreadTimeOut(true);
+    }
+
 
     protected HTTPFile(FileURL fileURL) throws IOException {
         // TODO: optimize this
@@ -721,18 +754,43 @@ public class HTTPFile extends ProtocolFile {
      * HTTPRandomAccessInputStream extends BlockRandomInputStream to provide random read access to an HTTPFile.
      * It uses the 'Range' request header to read the HTTP resource partially, chunk by chunk and reposition the offset
      * when {@link #seek(long)} is called.
+     *
+     * <p>The size of the requested chunks doubles as long as the resource is read sequentially, and the chunk that
+     * is likely to be read next is requested in the background. Chunks are cached in the {@link HTTPBlockCache}
+     * shared by all streams, and their response is read entirely so that the connection can be reused
+     * (HTTP keep-alive).</p>
      */
     private class HTTPRandomAccessInputStream extends BlockRandomInputStream {
 
-        /** Amount of data returned  */
-        private final static int CHUNK_SIZE = 1024;
+        /** Amount of data requested when seeking: a single cache block */
+        private final static int MIN_CHUNK_SIZE = HTTPBlockCache.BLOCK_SIZE;
+
+        /** Amount of data that requests grow to when the resource is read sequentially */
+        private final static int MAX_CHUNK_SIZE = 512*1024;
 
         /** Length of the HTTP resource */
         private long length;
 
+        /** Identifies this version of the HTTP resource in the block cache */
+        private final String resource;
+
+        private final HTTPBlockCache cache = HTTPBlockCache.getInstance();
+
+        /** Offset of the end of the last chunk that was read, used to detect sequential reads */
+        private long lastChunkEnd = -1;
+
+        /** Request of the blocks that are likely to be read next, <code>null</code> if there is none */
+        private Future<?> readAhead;
+
+        /** Index of the first block requested by {@link #readAhead} */
+        private long readAheadFirstBlock;
+
+        /** Index of the last block requested by {@link #readAhead} */
+        private long readAheadLastBlock;
+
 
         private HTTPRandomAccessInputStream() throws IOException {
-            super(CHUNK_SIZE);
+            super(MIN_CHUNK_SIZE, MAX_CHUNK_SIZE);
 
             // HEAD the HTTP resource to get its length
             if(!fileResolved)
@@ -741,49 +799,201 @@ public class HTTPFile extends ProtocolFile {
             length = getSize();
             if(length == -1)        // Knowing the content length is required
                 throw new IOException();
+
+            resource = url.toString() + "|" + getCredentialsKey() + "|" + length + "|" + getDate();
         }
 
-        ///////////////////////////////////////////
-        // BlockRandomInputStream implementation //
-        ///////////////////////////////////////////
+        /**
+         * Returns a string that identifies the credentials the resource is requested with, so that the blocks
+         * requested with some credentials are not served to a stream that uses other ones: the server may return a
+         * different content, or none at all. The password is hashed so that it is not held by the cache.
+         *
+         * @return a string that identifies the credentials, an empty string if there are none
+         */
+        private String getCredentialsKey() throws IOException {
+            Credentials credentials = fileURL.getCredentials();
+            if(credentials==null)
+                return "";
+
+            try {
+                MessageDigest digest = MessageDigest.getInstance("SHA-256");
+                return credentials.getLogin() + ":" + ByteUtils.toHexString(
+                        digest.digest((credentials.getLogin()+":"+credentials.getPassword()).getBytes("UTF-8")));
+            }
+            catch(NoSuchAlgorithmException e) {
+                // SHA-256 is available on all Java platforms
+                throw new IOException(e);
+            }
+        }
+
+        /**
+         * Requests the given range of blocks, adds them to the cache and returns them. The last block of the resource
+         * may be shorter than {@link HTTPBlockCache#BLOCK_SIZE}.
+         *
+         * @param firstBlock index of the first block to request
+         * @param lastBlock index of the last block to request
+         * @return the blocks' data
+         * @throws IOException if an I/O error occurred
+         */
+        private byte[][] requestBlocks(long firstBlock, long lastBlock) throws IOException {
+            long start = firstBlock*HTTPBlockCache.BLOCK_SIZE;
+            long end = Math.min((lastBlock+1)*HTTPBlockCache.BLOCK_SIZE, length);
 
-        @Override
-        protected int readBlock(long fileOffset, byte block[], int blockLen) throws IOException {
             HttpURLConnection conn = getHttpURLConnection(url);
 
-            // Note: 'Range' may not be supported by the HTTP server, in that case an IOException will be thrown
-            conn.setRequestProperty("Range", "bytes="+fileOffset +"-"+ Math.min(fileOffset+blockLen, length-1));
+            // Note: 'Range' may not be supported by the HTTP server, in that case the whole resource is returned
+            conn.setRequestProperty("Range", "bytes="+start+"-"+(end-1));
 
             conn.connect();
             checkHTTPResponse(conn);
 
-            // Read up to blockLen bytes
+            boolean partial = conn.getResponseCode()==HttpURLConnection.HTTP_PARTIAL;
             InputStream in = conn.getInputStream();
             try {
-                int totalRead = 0;
-                int read;
-                while(totalRead<blockLen) {
-                    read = in.read(block, totalRead, blockLen-totalRead);
-                    if(read==-1)
+                if(!partial)
+                    StreamUtils.skipFully(in, start);
+
+                byte blocks[][] = new byte[(int)(lastBlock-firstBlock+1)][];
+                for(int i=0; i<blocks.length; i++) {
+                    long blockStart = start+(long)i*HTTPBlockCache.BLOCK_SIZE;
+                    byte data[] = new byte[(int)Math.max(0, Math.min(HTTPBlockCache.BLOCK_SIZE, end-blockStart))];
+                    int nbRead = StreamUtils.readUpTo(in, data);
+                    if(nbRead<data.length) {
+                        // The resource has shrunk, do not cache the truncated block
+                        blocks[i] = Arrays.copyOf(data, nbRead);
+                        for(i++; i<blocks.length; i++)
+                            blocks[i] = new byte[0];
                         break;
+                    }
 
-                    totalRead += read;
+                    cache.put(resource, firstBlock+i, data);
+                    blocks[i] = data;
                 }
 
-                return totalRead;
+                return blocks;
             }
             finally {
-                in.close();
+                // The connection can be reused only if the response was read entirely
+                if(partial)
+                    in.close();
+                else
+                    conn.disconnect();
             }
         }
 
+        /**
+         * Requests the blocks that follow the given one in the background, if they are not cached already.
+         *
+         * @param firstBlock index of the first block to request
+         * @param len amount of data to request
+         */
+        private void startReadAhead(long firstBlock, int len) {
+            if(readAhead!=null && !readAhead.isDone())
+                return;
+
+            long lastBlock = Math.min(firstBlock + (Math.min(len, MAX_CHUNK_SIZE)-1)/HTTPBlockCache.BLOCK_SIZE,
+                                      (length-1)/HTTPBlockCache.BLOCK_SIZE);
+            while(firstBlock<=lastBlock && cache.contains(resource, firstBlock))
+                firstBlock++;
+
+            if(firstBlock>lastBlock)
+                return;
+
+            final long requestFirstBlock = firstBlock;
+            final long requestLastBlock = lastBlock;
+            readAheadFirstBlock = firstBlock;
+            readAheadLastBlock = lastBlock;
+            readAhead = READ_AHEAD_EXECUTOR.submit(new Callable<Void>() {
+                public Void call() throws IOException {
+                    requestBlocks(requestFirstBlock, requestLastBlock);
+                    return null;
+                }
+            });
+        }
+
+        /**
+         * Waits for the pending read-ahead request to complete if it overlaps the given range of blocks.
+         *
+         * @throws InterruptedIOException if the calling thread was interrupted
+         */
+        private void waitForReadAhead(long firstBlock, long lastBlock) throws InterruptedIOException {
+            if(readAhead==null || lastBlock<readAheadFirstBlock || firstBlock>readAheadLastBlock)
+                return;
+
+            try {
+                readAhead.get();
+            }
+            catch(InterruptedException e) {
+                throw new InterruptedIOException();
+            }
+            catch(ExecutionException e) {
+                // The missing blocks will be requested again
+                LOGGER.info("Read-ahead of {} failed", url, e.getCause());
+            }
+
+            readAhead = null;
+        }
+
+        ///////////////////////////////////////////
+        // BlockRandomInputStream implementation //
+        ///////////////////////////////////////////
+
+        @Override
+        protected int readBlock(long fileOffset, byte block[], int blockLen) throws IOException {
+            if(blockLen<=0)
+                return 0;
+
+            long firstBlock = fileOffset/HTTPBlockCache.BLOCK_SIZE;
+            long lastBlock = (fileOffset+blockLen-1)/HTTPBlockCache.BLOCK_SIZE;
+            waitForReadAhead(firstBlock, lastBlock);
+
+            // Request the blocks that are not cached, in a single request
+            byte blocks[][] = new byte[(int)(lastBlock-firstBlock+1)][];
+            int firstMissing = -1;
+            int lastMissing = -1;
+            for(int i=0; i<blocks.length; i++) {
+                blocks[i] = cache.get(resource, firstBlock+i);
+                if(blocks[i]==null) {
+                    if(firstMissing==-1)
+                        firstMissing = i;
+                    lastMissing = i;
+                }
+            }
+
+            if(firstMissing!=-1) {
+                byte requestedBlocks[][] = requestBlocks(firstBlock+firstMissing, firstBlock+lastMissing);
+                System.arraycopy(requestedBlocks, 0, blocks, firstMissing, requestedBlocks.length);
+            }
+
+            // Copy the requested range out of the blocks
+            int totalRead = 0;
+            for(int i=0; i<blocks.length && totalRead<blockLen; i++) {
+                long blockStart = (firstBlock+i)*HTTPBlockCache.BLOCK_SIZE;
+                int from = (int)(fileOffset+totalRead-blockStart);
+                int nbBytes = Math.min(blocks[i].length-from, blockLen-totalRead);
+                if(nbBytes<=0)
+                    break;
+
+                System.arraycopy(blocks[i], from, block, totalRead, nbBytes);
+                totalRead += nbBytes;
+            }
+
+            // Request the next chunk in the background if the resource is being read sequentially
+            if(fileOffset==lastChunkEnd)
+                startReadAhead(lastBlock+1, blockLen*2);
+            lastChunkEnd = fileOffset+totalRead;
+
+            return totalRead;
+        }
+
         public long getLength() throws IOException {
             return length;
         }
 
         @Override
         public void close() throws IOException {
-            // No-op, the underlying stream is already closed
+            // The underlying streams are already closed, pending read-ahead requests are left to complete as their
+            // blocks may be read by other streams
         }
     }
 }
@@ -31,7 +31,16 @@ import java.io.OutputStream;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.DosFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.StringTokenizer;
 import java.util.Vector;
 import java.util.regex.Matcher;
@@ -51,6 +60,7 @@ import com.mucommander.commons.file.MacOsSystemFolder;
 import com.mucommander.commons.file.PermissionAccess;
 import com.mucommander.commons.file.PermissionBits;
 import com.mucommander.commons.file.PermissionType;
+import com.mucommander.commons.file.SimpleFileAttributes;
 import com.mucommander.commons.file.UnsupportedFileOperation;
 import com.mucommander.commons.file.UnsupportedFileOperationException;
 import com.mucommander.commons.file.filter.FilenameFilter;
@@ -113,6 +123,9 @@ public class LocalFile extends ProtocolFile {
     protected AbstractFile parent;
     /** Indicates whether the parent folder instance has been retrieved and cached or not (parent can be null) */
     protected boolean parentValueSet;
+
+    /** Attributes read when the parent folder was listed, null if they are not available or have been consumed */
+    private volatile LocalFileAttributes listingAttributes;
 	
     /** Underlying local filesystem's path separator: "/" under UNIX systems, "\" under Windows and OS/2 */
     public final static String SEPARATOR = File.separator;
@@ -124,6 +137,11 @@ public class LocalFile extends ProtocolFile {
      * of having single a root folder '/' */
     public final static boolean USES_ROOT_DRIVES = IS_WINDOWS || OsFamily.OS_2.isCurrent();
 
+    /** The NIO attributes view that contains the attributes of {@link LocalFileAttributes} */
+    private final static Class<? extends BasicFileAttributes> ATTRIBUTES_CLASS = IS_WINDOWS
+            ?DosFileAttributes.class
+            :BasicFileAttributes.class;
+
     /** Pattern matching Windows-like drives' root, e.g. C:\ */
     final static Pattern DRIVE_ROOT_PATTERN = Pattern.compile("^[a-zA-Z]{1}[:]{1}[\\\\]{1}");
 
@@ -213,6 +231,66 @@ public class LocalFile extends ProtocolFile {
     // LocalFile-specific methods //
     ////////////////////////////////
 
+    /**
+     * Returns the attributes that were read when this file's parent folder was {@link #ls(FilenameFilter) listed},
+     * or <code>null</code> if they are not available. The attributes are returned only once: this method is meant to
+     * be called by a client that caches the attributes, such as {@link com.mucommander.commons.file.CachedFile}, and
+     * subsequent calls return <code>null</code> until the parent folder is listed again. The attributes are discarded
+     * when this file is modified through this instance.
+     *
+     * @return the attributes read when this file's parent folder was listed, <code>null</code> if not available
+     */
+    public LocalFileAttributes takeListingAttributes() {
+        LocalFileAttributes attributes = listingAttributes;
+        listingAttributes = null;
+
+        return attributes;
+    }
+
+    /**
+     * Reads the attributes of this file in one pass, instead of querying the filesystem for each of them.
+     * Returns <code>null</code> if the attributes could not be read, for instance because the file doesn't exist or
+     * is a broken symlink.
+     *
+     * @return the attributes of this file, <code>null</code> if they could not be read
+     */
+    public LocalFileAttributes readAttributes() {
+        try {
+            return readAttributes(file.toPath(), getName());
+        }
+        catch(IOException | InvalidPathException e) {
+            LOGGER.trace("Could not read the attributes of {}", absPath, e);
+            return null;
+        }
+    }
+
+    /**
+     * Reads the attributes of the given path with a single <code>stat</code>, or two if the path is a symlink:
+     * the symlink itself is not followed first so that it can be reported as such, then its target is read as
+     * <code>java.io.File</code> reports the attributes of the target.
+     */
+    private static LocalFileAttributes readAttributes(Path path, String name) throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(path, ATTRIBUTES_CLASS, LinkOption.NOFOLLOW_LINKS);
+        // Symlinks are not supported under Windows, see #isSymlink()
+        boolean symlink = attributes.isSymbolicLink() && !IS_WINDOWS;
+        if(attributes.isSymbolicLink())
+            attributes = Files.readAttributes(path, ATTRIBUTES_CLASS);
+
+        LocalFileAttributes localAttributes = new LocalFileAttributes();
+        localAttributes.setPath(path.toString());
+        localAttributes.setExists(true);
+        localAttributes.setDate(attributes.lastModifiedTime().toMillis());
+        localAttributes.setSize(attributes.size());
+        localAttributes.setDirectory(attributes.isDirectory());
+        localAttributes.setSymlink(symlink);
+        // java.io.File#isHidden() returns true for dot files under all platforms but Windows
+        localAttributes.setHidden(IS_WINDOWS
+                ?((DosFileAttributes)attributes).isHidden()
+                :name.startsWith("."));
+
+        return localAttributes;
+    }
+
     /**
      * Returns the user home folder. Most if not all OSes have one, but in the unlikely event that the OS doesn't have
      * one or that the folder cannot be resolved, <code>null</code> will be returned.
@@ -661,6 +739,8 @@ public class LocalFile extends ProtocolFile {
 
     @Override
     public void changeDate(long lastModified) throws IOException {
+        listingAttributes = null;
+
         // java.io.File#setLastModified(long) throws an IllegalArgumentException if time is negative.
         // If specified time is negative, set it to 0 (01/01/1970).
         if(lastModified < 0)
@@ -795,6 +875,7 @@ public class LocalFile extends ProtocolFile {
      */
     @Override
     public OutputStream getOutputStream() throws IOException {
+        listingAttributes = null;
         return new LocalOutputStream(new FileOutputStream(absPath, false).getChannel());
     }
 
@@ -805,17 +886,18 @@ public class LocalFile extends ProtocolFile {
      */
     @Override
     public OutputStream getAppendOutputStream() throws IOException {
+        listingAttributes = null;
         return new LocalOutputStream(new FileOutputStream(absPath, true).getChannel());
     }
 
     /**
-     * Implementation notes: the returned <code>InputStream</code> uses a NIO {@link FileChannel} under the hood to
-     * benefit from <code>InterruptibleChannel</code> and allow a thread waiting for an I/O to be gracefully interrupted
-     * using <code>Thread#interrupt()</code>.
+     * Implementation notes: the returned <code>InputStream</code> serves reads from a read buffer, so that archive
+     * parsers that read a few bytes at a time do not issue a system call per read.
+     * See {@link LocalBufferedRandomAccessInputStream}.
      */
     @Override
     public RandomAccessInputStream getRandomAccessInputStream() throws IOException {
-        return new LocalRandomAccessInputStream(new RandomAccessFile(file, "r").getChannel());
+        return new LocalBufferedRandomAccessInputStream(new RandomAccessFile(file, "r").getChannel());
     }
 
     /**
@@ -825,11 +907,13 @@ public class LocalFile extends ProtocolFile {
      */
     @Override
     public RandomAccessOutputStream getRandomAccessOutputStream() throws IOException {
+        listingAttributes = null;
         return new LocalRandomAccessOutputStream(new RandomAccessFile(file, "rw").getChannel());
     }
 
     @Override
     public void delete() throws IOException {
+        listingAttributes = null;
         boolean ret = file.delete();
 		
         if(!ret)
@@ -844,6 +928,7 @@ public class LocalFile extends ProtocolFile {
 
     @Override
     public void mkdir() throws IOException {
+        listingAttributes = null;
         if(!file.mkdir())
             throw new IOException();
     }
@@ -856,6 +941,8 @@ public class LocalFile extends ProtocolFile {
         // perform all those checks even if some are not necessary on this or that platform.
         checkRenamePrerequisites(destFile, true, false);
 
+        listingAttributes = null;
+
         // The behavior of java.io.File#renameTo() when the destination file already exists is not consistent
         // across platforms:
         // - Under UNIX, it succeeds and return true
@@ -996,8 +1083,59 @@ public class LocalFile extends ProtocolFile {
     }
 
 
+    /**
+     * Implementation notes: the folder is iterated with a NIO <code>DirectoryStream</code> and the attributes of each
+     * child are read in the same pass, so that they don't have to be queried separately when the children are
+     * displayed. Those attributes are made available through {@link #takeListingAttributes()}.
+     */
     @Override
     public AbstractFile[] ls(FilenameFilter filenameFilter) throws IOException {
+        Path folderPath;
+        try {
+            folderPath = file.toPath();
+        }
+        catch(InvalidPathException e) {
+            // The path cannot be handled by NIO, fall back to java.io
+            return lsFiles(filenameFilter);
+        }
+
+        List<AbstractFile> children = new ArrayList<AbstractFile>();
+        try(DirectoryStream<Path> stream = Files.newDirectoryStream(folderPath)) {
+            for(Path path : stream) {
+                String name = path.getFileName().toString();
+                if(filenameFilter!=null && !filenameFilter.accept(name))
+                    continue;
+
+                AbstractFile child = createChild(name, path.toFile());
+
+                LocalFileAttributes attributes;
+                try {
+                    attributes = readAttributes(path, name);
+                }
+                catch(IOException e) {
+                    // e.g. a broken symlink, attributes will be queried individually
+                    attributes = null;
+                }
+
+                // The child may be an archive file that wraps the LocalFile
+                AbstractFile localChild = child.getTopAncestor();
+                if(localChild instanceof LocalFile)
+                    ((LocalFile)localChild).listingAttributes = attributes;
+
+                children.add(child);
+            }
+        }
+        catch(DirectoryIteratorException e) {
+            throw e.getCause();
+        }
+
+        return children.toArray(new AbstractFile[children.size()]);
+    }
+
+    /**
+     * Lists this folder using <code>java.io.File#listFiles</code>, without reading the children's attributes.
+     */
+    private AbstractFile[] lsFiles(FilenameFilter filenameFilter) throws IOException {
         File files[] = file.listFiles(filenameFilter==null?null:new LocalFilenameFilter(filenameFilter));
 
         if(files==null)
@@ -1005,21 +1143,26 @@ public class LocalFile extends ProtocolFile {
 
         int nbFiles = files.length;
         AbstractFile children[] = new AbstractFile[nbFiles];
-        FileURL childURL;
 
-        for(int i=0; i<nbFiles; i++) {
-            // Clone the FileURL of this file and set the child's path, this is more efficient than creating a new
-            // FileURL instance from scratch.
-            childURL = (FileURL)fileURL.clone();
+        for(int i=0; i<nbFiles; i++)
+            children[i] = createChild(files[i].getName(), files[i]);
+
+        return children;
+    }
 
-			childURL.setPath(absPath+SEPARATOR+files[i].getName());
+    /**
+     * Creates the child of this folder with the given name and <code>java.io.File</code> instance.
+     */
+    private AbstractFile createChild(String name, File childFile) throws IOException {
+        // Clone the FileURL of this file and set the child's path, this is more efficient than creating a new
+        // FileURL instance from scratch.
+        FileURL childURL = (FileURL)fileURL.clone();
 
-            // Retrieves an AbstractFile (LocalFile or AbstractArchiveFile) instance that's potentially already in
-            // the cache, reuse this file as the file's parent, and the already-created java.io.File instance.
-            children[i] = FileFactory.getFile(childURL, this, files[i]);
-        }
+        childURL.setPath(absPath+SEPARATOR+name);
 
-        return children;
+        // Retrieves an AbstractFile (LocalFile or AbstractArchiveFile) instance that's potentially already in
+        // the cache, reuse this file as the file's parent, and the already-created java.io.File instance.
+        return FileFactory.getChildFile(childURL, this, childFile);
     }
 
     @Override
@@ -1177,6 +1320,133 @@ public class LocalFile extends ProtocolFile {
         }
     }
 
+    /**
+     * LocalBufferedRandomAccessInputStream extends RandomAccessInputStream to provide random read access to a LocalFile,
+     * serving reads from a buffer of {@link #READ_BUFFER_SIZE} bytes, without locking. The buffer is filled with a
+     * positioned read of the file's channel, so that archive parsers that read a few bytes at a time do not issue a
+     * system call per read.
+     * Like other streams, instances of this class must not be used by several threads at once.
+     */
+    public static class LocalBufferedRandomAccessInputStream extends RandomAccessInputStream {
+
+        /** Size of the buffer reads are served from */
+        final static int READ_BUFFER_SIZE = 16*1024;
+
+        private final FileChannel channel;
+
+        /** The read buffer, null until the file is first read */
+        private ByteBuffer readBuffer;
+
+        /** The read buffer if it contains bytes of the file, null otherwise */
+        private ByteBuffer window;
+
+        /** Offset in the file of the window's first byte */
+        private long windowStart;
+
+        /** Offset in the file of the next byte to read */
+        private long offset;
+
+        /**
+         * Creates a new <code>LocalBufferedRandomAccessInputStream</code> that reads the given channel from its
+         * current position.
+         *
+         * @param channel the channel to read
+         * @throws IOException if an I/O error occurred while retrieving the channel's position
+         */
+        public LocalBufferedRandomAccessInputStream(FileChannel channel) throws IOException {
+            this.channel = channel;
+            this.offset = channel.position();
+        }
+
+        /**
+         * Makes sure that the window contains the byte at the current offset, refilling the read buffer if needed.
+         *
+         * @return the number of bytes that can be read from the window, <code>-1</code> if the end of the file has been
+         * reached
+         * @throws IOException if an I/O error occurred
+         */
+        private int fillWindow() throws IOException {
+            if(window!=null && offset>=windowStart && offset<windowStart+window.limit())
+                return (int)(windowStart+window.limit()-offset);
+
+            window = null;
+
+            if(offset>=channel.size())
+                return -1;
+
+            if(readBuffer==null)
+                readBuffer = BufferPool.getByteBuffer(READ_BUFFER_SIZE);
+
+            // Align the buffer so that reads that go backward (e.g. when looking for a Zip's central directory)
+            // are served by the same buffer
+            long start = offset - offset%READ_BUFFER_SIZE;
+            readBuffer.clear();
+            int nbRead;
+            do {
+                nbRead = channel.read(readBuffer, start+readBuffer.position());
+            }
+            while(nbRead>0 && readBuffer.hasRemaining());
+            readBuffer.flip();
+
+            if(offset>=start+readBuffer.limit())
+                return -1;
+
+            window = readBuffer;
+            windowStart = start;
+
+            return (int)(windowStart+window.limit()-offset);
+        }
+
+        @Override
+        public int read() throws IOException {
+            if(fillWindow()==-1)
+                return -1;
+
+            return 0xFF&window.get((int)(offset++-windowStart));
+        }
+
+        @Override
+        public int read(byte b[], int off, int len) throws IOException {
+            if(len==0)
+                return 0;
+
+            int nbAvailable = fillWindow();
+            if(nbAvailable==-1)
+                return -1;
+
+            int nbRead = Math.min(len, nbAvailable);
+            // Use a duplicate to leave the window's position untouched
+            ByteBuffer bb = window.duplicate();
+            bb.position((int)(offset-windowStart));
+            bb.get(b, off, nbRead);
+            offset += nbRead;
+
+            return nbRead;
+        }
+
+        @Override
+        public void close() throws IOException {
+            window = null;
+            if(readBuffer!=null) {
+                BufferPool.releaseByteBuffer(readBuffer);
+                readBuffer = null;
+            }
+            channel.close();
+        }
+
+        public long getOffset() throws IOException {
+            return offset;
+        }
+
+        public long getLength() throws IOException {
+            return channel.size();
+        }
+
+        public void seek(long offset) throws IOException {
+            this.offset = offset;
+        }
+    }
+
     /**
      * A replacement for <code>java.io.FileInputStream</code> that uses a NIO {@link FileChannel} under the hood to
      * benefit from <code>InterruptibleChannel</code> and allow a thread waiting for an I/O to be gracefully interrupted
@@ -1383,6 +1653,38 @@ public class LocalFile extends ProtocolFile {
     }
 
 
+    /**
+     * The attributes of a local file that are read in one pass, either when its parent folder is listed or by
+     * {@link LocalFile#readAttributes()}. In addition to the attributes of {@link SimpleFileAttributes}, the
+     * symlink and hidden attributes are available. Permissions, owner and group are not set.
+     */
+    public static class LocalFileAttributes extends SimpleFileAttributes {
+
+        private boolean symlink;
+
+        private boolean hidden;
+
+        private LocalFileAttributes() {
+        }
+
+        public boolean isSymlink() {
+            return symlink;
+        }
+
+        private void setSymlink(boolean symlink) {
+            this.symlink = symlink;
+        }
+
+        public boolean isHidden() {
+            return hidden;
+        }
+
+        private void setHidden(boolean hidden) {
+            this.hidden = hidden;
+        }
+    }
+
+
     /**
      * Turns a {@link FilenameFilter} into a {@link java.io.FilenameFilter}.
      */
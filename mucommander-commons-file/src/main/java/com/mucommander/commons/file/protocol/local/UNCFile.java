@@ -29,9 +29,9 @@ import com.mucommander.commons.file.UnsupportedFileOperation;
 import com.mucommander.commons.file.UnsupportedFileOperationException;
 import com.mucommander.commons.file.filter.FilenameFilter;
 import com.mucommander.commons.file.protocol.ProtocolFile;
+import com.mucommander.commons.file.protocol.local.LocalFile.LocalBufferedRandomAccessInputStream;
 import com.mucommander.commons.file.protocol.local.LocalFile.LocalInputStream;
 import com.mucommander.commons.file.protocol.local.LocalFile.LocalOutputStream;
-import com.mucommander.commons.file.protocol.local.LocalFile.LocalRandomAccessInputStream;
 import com.mucommander.commons.file.protocol.local.LocalFile.LocalRandomAccessOutputStream;
 import com.mucommander.commons.file.util.Kernel32;
 import com.mucommander.commons.file.util.Kernel32API;
@@ -295,13 +295,12 @@ public class UNCFile extends ProtocolFile {
     }
 
     /**
-     * Implementation notes: the returned <code>InputStream</code> uses a NIO {@link FileChannel} under the hood to
-     * benefit from <code>InterruptibleChannel</code> and allow a thread waiting for an I/O to be gracefully interrupted
-     * using <code>Thread#interrupt()</code>.
+     * Implementation notes: the returned <code>InputStream</code> serves reads from a read buffer, so that archive
+     * parsers that read a few bytes at a time do not issue a system call per read.
      */
     @Override
     public RandomAccessInputStream getRandomAccessInputStream() throws IOException {
-        return new LocalRandomAccessInputStream(new RandomAccessFile(file, "r").getChannel());
+        return new LocalBufferedRandomAccessInputStream(new RandomAccessFile(file, "r").getChannel());
     }
 
     /**
@@ -501,7 +500,7 @@ public class UNCFile extends ProtocolFile {
 
             // Retrieves an AbstractFile (LocalFile or AbstractArchiveFile) instance that's potentially already in
             // the cache, reuse this file as the file's parent, and the already-created java.io.File instance.
-            children[i] = FileFactory.getFile(childURL, this, file);
+            children[i] = FileFactory.getChildFile(childURL, this, file);
         }
 
         return children;
@@ -412,7 +412,7 @@ public class NFSFile extends ProtocolFile {
             childURL.setPath(baseURLPath+names[i]);
 
             // Create the child NFSFile using this file as a parent
-            children[i] = FileFactory.getFile(childURL, this);
+            children[i] = FileFactory.getChildFile(childURL, this);
         }
 
         return children;
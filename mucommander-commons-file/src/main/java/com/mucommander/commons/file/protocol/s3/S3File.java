@@ -20,17 +20,20 @@
 package com.mucommander.commons.file.protocol.s3;
 
 import com.mucommander.commons.file.*;
+import com.mucommander.commons.file.filter.FileFilter;
 import com.mucommander.commons.file.protocol.ProtocolFile;
 import com.mucommander.commons.io.RandomAccessOutputStream;
 import com.mucommander.commons.runtime.JavaVersion;
-import org.jets3t.service.Constants;
-import org.jets3t.service.S3ObjectsChunk;
 import org.jets3t.service.S3Service;
-import org.jets3t.service.S3ServiceException;
+import org.jets3t.service.ServiceException;
 
 import java.io.IOException;
 import java.io.OutputStream;
-import java.util.Date;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Super class of {@link S3Root}, {@link S3Bucket} and {@link S3Object}.
@@ -39,6 +42,35 @@ import java.util.Date;
  */
 public abstract class S3File extends ProtocolFile {
 
+    /** Name of the property that controls the number of chunks of a directory listing that are requested concurrently */
+    public final static String NB_LISTING_THREADS_PROPERTY_NAME = "nbListingThreads";
+
+    /** Default number of chunks of a directory listing that are requested concurrently */
+    public final static int DEFAULT_NB_LISTING_THREADS = 1;
+
+    /** Name of the property that controls whether HTTPS is used, <code>"false"</code> to use plain HTTP */
+    public final static String SECURE_PROPERTY_NAME = "secure";
+
+    /** Maximum number of parts of objects that are transferred at the same time, for all objects */
+    private final static int MAX_TRANSFER_THREADS = 16;
+
+    /** Downloads and uploads the parts of objects that are transferred concurrently. Threads are created on demand and
+     * disposed of after a minute of inactivity, the parts that exceed {@link #MAX_TRANSFER_THREADS} are queued */
+    final static ThreadPoolExecutor TRANSFER_EXECUTOR = new ThreadPoolExecutor(MAX_TRANSFER_THREADS, MAX_TRANSFER_THREADS,
+            60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+        private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "S3Transfer-" + threadNumber.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    static {
+        TRANSFER_EXECUTOR.allowCoreThreadTimeOut(true);
+    }
+
     protected org.jets3t.service.S3Service service;
 
     protected AbstractFile parent;
@@ -50,11 +82,11 @@ public abstract class S3File extends ProtocolFile {
         this.service = service;
     }
     
-    protected IOException getIOException(S3ServiceException e) throws IOException {
+    protected IOException getIOException(ServiceException e) throws IOException {
         return getIOException(e, fileURL);
     }
 
-    protected static IOException getIOException(S3ServiceException e, FileURL fileURL) throws IOException {
+    protected static IOException getIOException(ServiceException e, FileURL fileURL) throws IOException {
         handleAuthException(e, fileURL);
 
         Throwable cause = e.getCause();
@@ -67,69 +99,61 @@ public abstract class S3File extends ProtocolFile {
         return new IOException(e.getMessage());
     }
 
-    protected static void handleAuthException(S3ServiceException e, FileURL fileURL) throws AuthException {
+    protected static void handleAuthException(ServiceException e, FileURL fileURL) throws AuthException {
         int code = e.getResponseCode();
         if(code==401 || code==403)
             throw new AuthException(fileURL);
     }
     
     protected AbstractFile[] listObjects(String bucketName, String prefix, S3File parent) throws IOException {
-        try {
-            S3ObjectsChunk chunk = service.listObjectsChunked(bucketName, prefix, "/", Constants.DEFAULT_OBJECT_LIST_CHUNK_SIZE, null, true);
-            org.jets3t.service.model.S3Object objects[] = chunk.getObjects();
-            String[] commonPrefixes = chunk.getCommonPrefixes();
-
-            if(objects.length==0 && !prefix.equals("")) {
-                // This happens only when the directory does not exist
-                throw new IOException();
-            }
-
-            AbstractFile[] children = new AbstractFile[objects.length+commonPrefixes.length];
-            FileURL childURL;
-            int i=0;
-            String objectKey;
-
-            for(org.jets3t.service.model.S3Object object : objects) {
-                // Discard the object corresponding to the prefix itself
-                objectKey = object.getKey();
-                if(objectKey.equals(prefix))
-                    continue;
-
-                childURL = (FileURL)fileURL.clone();
-                childURL.setPath(bucketName + "/" + objectKey);
-
-                children[i] = FileFactory.getFile(childURL, parent, service, object);
-                i++;
-            }
-
-            org.jets3t.service.model.S3Object directoryObject;
-            for(String commonPrefix : commonPrefixes) {
-                childURL = (FileURL)fileURL.clone();
-                childURL.setPath(bucketName + "/" + commonPrefix);
-
-                directoryObject = new org.jets3t.service.model.S3Object(commonPrefix);
-                // Common prefixes are not objects per se, and therefore do not have a date, content-length nor owner.
-                directoryObject.setLastModifiedDate(new Date(System.currentTimeMillis()));
-                directoryObject.setContentLength(0);
-                children[i] = FileFactory.getFile(childURL, parent, service, directoryObject);
-                i++;
-            }
+        return listObjects(bucketName, prefix, parent, null, null);
+    }
 
-            // Trim the array if an object was discarded.
-            // Note: Having to recreate an array sucks (puts pressure on the GC), but I haven't found a reliable way
-            // to know in advance whether the prefix will appear in the results or not.
-            if(i<children.length) {
-                AbstractFile[] childrenTrimmed = new AbstractFile[i];
-                System.arraycopy(children, 0, childrenTrimmed, 0, i);
+    /**
+     * Lists the objects and common prefixes that are immediately under the given prefix, one chunk at a time, and
+     * notifies the listener of the children of each chunk as soon as it is received. If the
+     * {@link #NB_LISTING_THREADS_PROPERTY_NAME} URL property is greater than 1, the keys that remain after the first
+     * chunk are listed concurrently.
+     *
+     * @param bucketName name of the bucket that contains the objects
+     * @param prefix the key of the directory to list, <code>""</code> for the bucket's root
+     * @param parent the parent of the listed files
+     * @param filter filter the children are matched against, <code>null</code> to return all of them
+     * @param listener notified of the children as they are listed, by the calling thread or by <code>S3Listing</code>
+     * threads, may be <code>null</code>
+     * @return the children, matching the filter if one was specified
+     * @throws IOException if the directory does not exist or an error occurred while listing it, in which case the
+     * children the listener was notified of are incomplete
+     */
+    protected AbstractFile[] listObjects(String bucketName, String prefix, S3File parent, FileFilter filter, ChildrenListener listener) throws IOException {
+        return new S3ObjectLister(service, fileURL, bucketName, prefix, parent, filter, listener, getNbListingThreads()).list();
+    }
 
-                return childrenTrimmed;
-            }
+    /**
+     * Returns the number of chunks to list concurrently, as specified by the {@link #NB_LISTING_THREADS_PROPERTY_NAME}
+     * URL property, {@link #DEFAULT_NB_LISTING_THREADS} if the property is not set.
+     *
+     * @return the number of chunks to list concurrently
+     */
+    protected int getNbListingThreads() {
+        return getIntProperty(NB_LISTING_THREADS_PROPERTY_NAME, DEFAULT_NB_LISTING_THREADS);
+    }
 
-            return children;
-        }
-        catch(S3ServiceException e) {
-            throw getIOException(e);
-        }
+    /**
+     * Returns the value of the given URL property as an int, the specified default value if the property is not set
+     * or is not a valid int.
+     *
+     * @param name name of the property
+     * @param defaultValue value returned if the property is not set or is invalid
+     * @return the value of the property as an int
+     */
+    protected int getIntProperty(String name, int defaultValue) {
+        String prop = fileURL.getProperty(name);
+        if(prop==null)
+            return defaultValue;
+
+        try { return Integer.parseInt(prop); }
+        catch(NumberFormatException e) { return defaultValue; }
     }
 
 
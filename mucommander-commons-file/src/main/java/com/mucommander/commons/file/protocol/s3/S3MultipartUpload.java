@@ -0,0 +1,219 @@
+/**
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2018 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.mucommander.commons.file.protocol.s3;
+
+import com.mucommander.commons.io.FileTransferError;
+import com.mucommander.commons.io.FileTransferException;
+import com.mucommander.commons.io.StreamUtils;
+import org.jets3t.service.S3Service;
+import org.jets3t.service.S3ServiceException;
+import org.jets3t.service.model.MultipartPart;
+import org.jets3t.service.model.MultipartUpload;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * Uploads an S3 object in consecutive parts using the multipart upload API, several parts being uploaded concurrently.
+ * A part that fails to upload is sent again, so that a transient error doesn't require starting the transfer over.
+ * The upload is aborted if it does not complete, so that the parts that were uploaded are not stored (and billed)
+ * indefinitely.
+ *
+ * <p>Parts are read from the source stream in order by the calling thread, and at most <code>nbThreads</code> parts
+ * are uploaded at the same time, each of them being held in memory: the memory footprint of an upload is therefore
+ * roughly <code>(nbThreads+1)*partSize</code>.</p>
+ */
+class S3MultipartUpload {
+    private static final Logger LOGGER = LoggerFactory.getLogger(S3MultipartUpload.class);
+
+    /** Minimum size of a part, except for the last one (5MB) */
+    final static int MIN_PART_SIZE = 5*1024*1024;
+
+    /** Maximum number of parts of an object */
+    final static int MAX_NB_PARTS = 10000;
+
+    /** Number of times a part is sent again after a failed upload */
+    private final static int NB_PART_RETRIES = 2;
+
+    private final S3Service service;
+    private final String bucketName;
+    private final String objectKey;
+    private final int nbThreads;
+
+    /**
+     * Creates a new <code>S3MultipartUpload</code> for the given object.
+     *
+     * @param service the service to upload parts with
+     * @param bucketName name of the bucket to upload the object to
+     * @param objectKey key of the object
+     * @param nbThreads number of parts to upload concurrently
+     */
+    S3MultipartUpload(S3Service service, String bucketName, String objectKey, int nbThreads) {
+        this.service = service;
+        this.bucketName = bucketName;
+        this.objectKey = objectKey;
+        this.nbThreads = Math.max(1, nbThreads);
+    }
+
+    /**
+     * Returns the size of the parts an object of the given length is uploaded in: the requested size, raised to the
+     * minimum size allowed by S3, and raised further if needed so that the object fits in {@link #MAX_NB_PARTS}.
+     *
+     * @param length length of the object
+     * @param partSize requested size of the parts
+     * @return the size of the parts
+     */
+    static int getPartSize(long length, int partSize) {
+        long minPartSize = (length+MAX_NB_PARTS-1)/MAX_NB_PARTS;
+        return (int)Math.max(Math.max(partSize, MIN_PART_SIZE), minPartSize);
+    }
+
+    /**
+     * Uploads the object contained in the given stream. The stream is not closed.
+     *
+     * @param in the stream that contains the object to be uploaded
+     * @param length length of the object
+     * @param partSize size of the parts, see {@link #getPartSize(long, int)}
+     * @throws FileTransferException if an error occurred during the transfer
+     */
+    void upload(InputStream in, long length, int partSize) throws FileTransferException {
+        MultipartUpload upload;
+        try {
+            upload = service.multipartStartUpload(bucketName, objectKey, null);
+        }
+        catch(S3ServiceException e) {
+            LOGGER.info("Failed to start the upload of {}", objectKey, e);
+            throw new FileTransferException(FileTransferError.UNKNOWN);
+        }
+
+        Deque<Future<MultipartPart>> pendingParts = new ArrayDeque<Future<MultipartPart>>();
+        List<MultipartPart> parts = new ArrayList<MultipartPart>();
+        boolean completed = false;
+        try {
+            int partNumber = 1;
+            for(long offset=0; offset<length; offset+=partSize) {
+                // Wait for a part to be uploaded before reading the next one, to bound the number of parts in memory
+                if(pendingParts.size()>=nbThreads)
+                    parts.add(getPart(pendingParts.poll()));
+
+                byte data[] = new byte[(int)Math.min(partSize, length-offset)];
+                try {
+                    StreamUtils.readFully(in, data);
+                }
+                catch(IOException e) {
+                    throw new FileTransferException(FileTransferError.READING_SOURCE, offset);
+                }
+
+                pendingParts.add(S3File.TRANSFER_EXECUTOR.submit(new PartUpload(upload.getUploadId(), partNumber++, data)));
+            }
+
+            while(!pendingParts.isEmpty())
+                parts.add(getPart(pendingParts.poll()));
+
+            try {
+                service.multipartCompleteUpload(upload, parts);
+            }
+            catch(S3ServiceException e) {
+                LOGGER.info("Failed to complete the upload of {}", objectKey, e);
+                throw new FileTransferException(FileTransferError.UNKNOWN);
+            }
+
+            completed = true;
+        }
+        finally {
+            if(!completed) {
+                for(Future<MultipartPart> future : pendingParts)
+                    future.cancel(true);
+
+                try {
+                    service.multipartAbortUpload(upload);
+                }
+                catch(S3ServiceException e) {
+                    LOGGER.info("Failed to abort the upload of {}", objectKey, e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Waits for the given part to be uploaded and returns it.
+     */
+    private MultipartPart getPart(Future<MultipartPart> future) throws FileTransferException {
+        try {
+            return future.get();
+        }
+        catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new FileTransferException(FileTransferError.UNKNOWN);
+        }
+        catch(ExecutionException e) {
+            LOGGER.info("Failed to upload a part of {}", objectKey, e.getCause());
+            throw new FileTransferException(FileTransferError.UNKNOWN);
+        }
+    }
+
+
+    /**
+     * Uploads a part of the object, sending it again if the upload fails.
+     */
+    private class PartUpload implements Callable<MultipartPart> {
+
+        private final String uploadId;
+        private final int partNumber;
+        private final byte data[];
+
+        private PartUpload(String uploadId, int partNumber, byte data[]) {
+            this.uploadId = uploadId;
+            this.partNumber = partNumber;
+            this.data = data;
+        }
+
+        public MultipartPart call() throws S3ServiceException {
+            // MultipartUpload keeps track of the parts it uploaded in a list that is not thread-safe, each part is
+            // therefore uploaded with its own instance
+            MultipartUpload upload = new MultipartUpload(uploadId, bucketName, objectKey);
+            for(int attempt=0; ; attempt++) {
+                org.jets3t.service.model.S3Object object = new org.jets3t.service.model.S3Object(objectKey);
+                object.setDataInputStream(new ByteArrayInputStream(data));
+                object.setContentLength(data.length);
+
+                try {
+                    return service.multipartUploadPart(upload, partNumber, object);
+                }
+                catch(S3ServiceException e) {
+                    // Client errors are not transient
+                    if(attempt==NB_PART_RETRIES || e.getResponseCode()/100==4 || Thread.currentThread().isInterrupted())
+                        throw e;
+
+                    LOGGER.info("Failed to upload part {} of {}, retrying", partNumber, objectKey);
+                }
+            }
+        }
+    }
+}
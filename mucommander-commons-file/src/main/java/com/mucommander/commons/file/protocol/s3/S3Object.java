@@ -20,14 +20,16 @@
 package com.mucommander.commons.file.protocol.s3;
 
 import com.mucommander.commons.file.*;
+import com.mucommander.commons.file.filter.FileFilter;
 import com.mucommander.commons.io.BufferPool;
 import com.mucommander.commons.io.FileTransferError;
 import com.mucommander.commons.io.FileTransferException;
 import com.mucommander.commons.io.RandomAccessInputStream;
 import com.mucommander.commons.io.StreamUtils;
 import org.jets3t.service.S3Service;
-import org.jets3t.service.S3ServiceException;
-import org.jets3t.service.model.S3Owner;
+import org.jets3t.service.ServiceException;
+import org.jets3t.service.model.StorageObject;
+import org.jets3t.service.model.StorageOwner;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -46,8 +48,21 @@ public class S3Object extends S3File {
     private String bucketName;
     private S3ObjectFileAttributes atts;
 
-    /** Maximum size of an S3 object (5GB) */
-    private final static long MAX_OBJECT_SIZE = 5368709120l;
+    /** Name of the property that controls the number of parts of an object that are transferred concurrently */
+    public final static String NB_TRANSFER_THREADS_PROPERTY_NAME = "nbTransferThreads";
+
+    /** Default number of parts of an object that are transferred concurrently: objects are downloaded in a single GET
+     * and uploaded in a single PUT, unless they are too large for it */
+    public final static int DEFAULT_NB_TRANSFER_THREADS = 1;
+
+    /** Name of the property that controls the size of the parts of an object that are transferred concurrently */
+    public final static String PART_SIZE_PROPERTY_NAME = "partSize";
+
+    /** Default size of the parts of an object that are transferred concurrently (8MB) */
+    public final static int DEFAULT_PART_SIZE = 8*1024*1024;
+
+    /** Maximum size of an object uploaded in a single PUT request (5GB), larger objects are uploaded in parts */
+    private final static long MAX_PUT_SIZE = 5368709120l;
 
     // TODO: add support for ACL ? (would cost an extra request per object)
     /** Default permissions for S3 objects */
@@ -61,7 +76,7 @@ public class S3Object extends S3File {
         atts = new S3ObjectFileAttributes();
     }
 
-    protected S3Object(FileURL url, S3Service service, String bucketName, org.jets3t.service.model.S3Object object) throws AuthException {
+    protected S3Object(FileURL url, S3Service service, String bucketName, StorageObject object) throws AuthException {
         super(url, service);
 
         this.bucketName = bucketName;
@@ -80,15 +95,28 @@ public class S3Object extends S3File {
     }
 
     /**
-     * Uploads the object contained in the given input stream to S3 by performing a 'PUT Object' request.
-     * The input stream is always closed, whether the operation failed or succeeded.
+     * Uploads the object contained in the given input stream to S3 by performing a 'PUT Object' request, or a
+     * multipart upload if the object is too large for a single request or if it is to be uploaded in parts
+     * concurrently. The input stream is always closed, whether the operation failed or succeeded.
      *
      * @param in the stream that contains the object to be uploaded
      * @param objectLength length of the object
      * @throws FileTransferException if an error occurred during the transfer
      */
     private void putObject(InputStream in, long objectLength) throws FileTransferException {
+        int nbThreads = getIntProperty(NB_TRANSFER_THREADS_PROPERTY_NAME, DEFAULT_NB_TRANSFER_THREADS);
+        int partSize = getIntProperty(PART_SIZE_PROPERTY_NAME, DEFAULT_PART_SIZE);
         try {
+            if(objectLength>MAX_PUT_SIZE || (nbThreads>1 && partSize>0 && objectLength>partSize)) {
+                new S3MultipartUpload(service, bucketName, getObjectKey(false), nbThreads)
+                        .upload(in, objectLength, S3MultipartUpload.getPartSize(objectLength, partSize));
+
+                // The response to the completion request does not contain the attributes of the object
+                atts.updateAttributes();
+                atts.updateExpirationDate();
+                return;
+            }
+
             // Init S3 object
             org.jets3t.service.model.S3Object object = new org.jets3t.service.model.S3Object(getObjectKey(false));
             object.setDataInputStream(in);
@@ -99,7 +127,7 @@ public class S3Object extends S3File {
             atts.setExists(true);
             atts.updateExpirationDate();
         }
-        catch(S3ServiceException e) {
+        catch(ServiceException e) {
             throw new FileTransferException(FileTransferError.UNKNOWN);
         }
         finally {
@@ -143,6 +171,11 @@ public class S3Object extends S3File {
         return listObjects(bucketName, getObjectKey(true), this);
     }
 
+    @Override
+    public AbstractFile[] ls(FileFilter filter, ChildrenListener listener) throws IOException {
+        return listObjects(bucketName, getObjectKey(true), this, filter, listener);
+    }
+
     @Override
     public void mkdir() throws IOException {
         if(exists())
@@ -153,7 +186,7 @@ public class S3Object extends S3File {
             atts.setExists(true);
             atts.updateExpirationDate();
         }
-        catch(S3ServiceException e) {
+        catch(ServiceException e) {
             throw getIOException(e);
         }
     }
@@ -178,7 +211,7 @@ public class S3Object extends S3File {
             atts.setDirectory(false);
             atts.setSize(0);
         }
-        catch(S3ServiceException e) {
+        catch(ServiceException e) {
             throw getIOException(e);
         }
     }
@@ -217,7 +250,7 @@ public class S3Object extends S3File {
             destObjectFile.atts.setAttributes(destObject);
             destObjectFile.atts.setExists(true);
         }
-        catch(S3ServiceException e) {
+        catch(ServiceException e) {
             throw getIOException(e);
         }
     }
@@ -229,12 +262,21 @@ public class S3Object extends S3File {
 
     @Override
     public InputStream getInputStream(long offset) throws IOException {
+        // Download large objects in parts concurrently if requested to. Each part costs a GET request.
+        int nbThreads = getIntProperty(NB_TRANSFER_THREADS_PROPERTY_NAME, DEFAULT_NB_TRANSFER_THREADS);
+        int partSize = getIntProperty(PART_SIZE_PROPERTY_NAME, DEFAULT_PART_SIZE);
+        if(nbThreads>1 && partSize>0) {
+            long size = getSize();
+            if(size-offset>partSize)
+                return new S3ObjectRangedInputStream(service, fileURL, bucketName, getObjectKey(false), atts.getETag(), offset, size, partSize, nbThreads);
+        }
+
         try {
             // Note: do *not* use S3ObjectRandomAccessInputStream if the object is to be read sequentially, as it would
             // add unnecessary billing overhead since it reads the object chunk by chunk, each in a separate GET request.
             return service.getObject(bucketName, getObjectKey(false), null, null, null, null, offset==0?null:offset, null).getDataInputStream();
         }
-        catch(S3ServiceException e) {
+        catch(ServiceException e) {
             throw getIOException(e);
         }
     }
@@ -284,7 +326,7 @@ public class S3Object extends S3File {
 //                    atts.setExists(true);
 //                    atts.updateExpirationDate();
 //                }
-//                catch(S3ServiceException e) {
+//                catch(ServiceException e) {
 //                    throw getIOException(e);
 //                }
 //                finally {
@@ -453,7 +495,7 @@ public class S3Object extends S3File {
                         .getDataInputStream();
                     this.offset = offset;
                 }
-                catch(S3ServiceException e) {
+                catch(ServiceException e) {
                     throw getIOException(e);
                 }
             }
@@ -565,7 +607,7 @@ public class S3Object extends S3File {
 //                    in.close();
 //                }
 //            }
-//            catch(S3ServiceException e) {
+//            catch(ServiceException e) {
 //                throw getIOException(e);
 //            }
 //        }
@@ -592,6 +634,9 @@ public class S3Object extends S3File {
 
         private final static int TTL = 60000;
 
+        /** ETag of the object, <code>null</code> if it is unknown */
+        private String eTag;
+
         private S3ObjectFileAttributes() throws AuthException {
             super(TTL, false);      // no initial update
 
@@ -599,7 +644,7 @@ public class S3Object extends S3File {
             updateExpirationDate(); // declare the attributes as 'fresh'
         }
 
-        private S3ObjectFileAttributes(org.jets3t.service.model.S3Object object) throws AuthException {
+        private S3ObjectFileAttributes(StorageObject object) throws AuthException {
             super(TTL, false);      // no initial update
 
             setAttributes(object);
@@ -608,14 +653,19 @@ public class S3Object extends S3File {
             updateExpirationDate(); // declare the attributes as 'fresh'
         }
 
-        private void setAttributes(org.jets3t.service.model.S3Object object) {
+        private void setAttributes(StorageObject object) {
             setDirectory(object.getKey().endsWith("/"));
             setSize(object.getContentLength());
             setDate(object.getLastModifiedDate().getTime());
             setPermissions(DEFAULT_PERMISSIONS);
             // Note: owner is null for common prefix objects
-            S3Owner owner = object.getOwner();
+            StorageOwner owner = object.getOwner();
             setOwner(owner==null?null:owner.getDisplayName());
+            eTag = object.getETag();
+        }
+
+        private String getETag() {
+            return eTag;
         }
 
         private void fetchAttributes() throws AuthException {
@@ -624,7 +674,7 @@ public class S3Object extends S3File {
                 // Object does not exist on the server
                 setExists(true);
             }
-            catch(S3ServiceException e) {
+            catch(ServiceException e) {
                 // Object does not exist on the server, or could not be retrieved
                 setExists(false);
 
@@ -633,6 +683,7 @@ public class S3Object extends S3File {
                 setDate(0);
                 setPermissions(FilePermissions.EMPTY_FILE_PERMISSIONS);
                 setOwner(null);
+                eTag = null;
 
                 handleAuthException(e, fileURL);
             }
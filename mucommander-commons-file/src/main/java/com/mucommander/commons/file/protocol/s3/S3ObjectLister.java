@@ -0,0 +1,368 @@
+/**
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2018 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.mucommander.commons.file.protocol.s3;
+
+import com.mucommander.commons.file.AbstractFile;
+import com.mucommander.commons.file.ChildrenListener;
+import com.mucommander.commons.file.FileFactory;
+import com.mucommander.commons.file.FileURL;
+import com.mucommander.commons.file.filter.FileFilter;
+import org.jets3t.service.Constants;
+import org.jets3t.service.S3Service;
+import org.jets3t.service.ServiceException;
+import org.jets3t.service.StorageObjectsChunk;
+import org.jets3t.service.model.StorageObject;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Lists the objects and common prefixes that are immediately under a prefix, one chunk (page) at a time, so that the
+ * children of large directories can be handed to a {@link ChildrenListener} as they are received.
+ *
+ * <p>S3 listings are sequential by nature: a chunk can only be requested once the last key of the previous one is
+ * known. To list large directories faster, the keys that remain after the first chunk can be split into ranges
+ * according to their first character after the prefix, each range being listed concurrently from a marker that
+ * precedes it.</p>
+ *
+ * <p>The listener is notified of the first chunk by the thread that calls {@link #list()}, and of the following
+ * chunks by that thread or by <code>S3Listing</code> threads when ranges are listed concurrently. Notifications are
+ * serialized, and none is made once <code>list()</code> has returned or thrown an exception.</p>
+ */
+class S3ObjectLister {
+
+    /** The character after which the key space is split: 0x7F and upper are listed as part of the last range */
+    private final static char LAST_SPLIT_CHAR = 0x7F;
+
+    /** Maximum number of key ranges that are listed at the same time, for all listings */
+    private final static int MAX_LISTING_THREADS = 16;
+
+    /** Lists key ranges concurrently. Threads are created on demand and disposed of after a minute of inactivity, the
+     * ranges that exceed {@link #MAX_LISTING_THREADS} are queued */
+    private final static ThreadPoolExecutor LISTING_EXECUTOR = new ThreadPoolExecutor(MAX_LISTING_THREADS, MAX_LISTING_THREADS,
+            60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+        private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "S3Listing-" + threadNumber.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    static {
+        LISTING_EXECUTOR.allowCoreThreadTimeOut(true);
+    }
+
+    private final S3Service service;
+    private final FileURL fileURL;
+    private final String bucketName;
+    private final String prefix;
+    private final S3File parent;
+    private final FileFilter filter;
+    private final ChildrenListener listener;
+
+    /** Number of chunks to list concurrently */
+    private final int nbThreads;
+
+    /** Number of keys to request per chunk */
+    private long chunkSize = Constants.DEFAULT_OBJECT_LIST_CHUNK_SIZE;
+
+    /** True once the listing has failed, the listener is not notified anymore. Accessed while holding the listener's lock. */
+    private boolean failed;
+
+    /**
+     * Creates a new <code>S3ObjectLister</code>.
+     *
+     * @param service the service to list objects with
+     * @param fileURL the URL the children's URL are derived from
+     * @param bucketName name of the bucket that contains the objects
+     * @param prefix the key of the directory to list, <code>""</code> for the bucket's root
+     * @param parent the parent of the listed files
+     * @param filter filter the children are matched against, <code>null</code> to return all of them
+     * @param listener notified of the children as they are listed, may be <code>null</code>
+     * @param nbThreads number of chunks to list concurrently
+     */
+    S3ObjectLister(S3Service service, FileURL fileURL, String bucketName, String prefix, S3File parent,
+                   FileFilter filter, ChildrenListener listener, int nbThreads) {
+        this.service = service;
+        this.fileURL = fileURL;
+        this.bucketName = bucketName;
+        this.prefix = prefix;
+        this.parent = parent;
+        this.filter = filter;
+        this.listener = listener;
+        this.nbThreads = nbThreads;
+    }
+
+    /**
+     * Sets the number of keys to request per chunk, {@link Constants#DEFAULT_OBJECT_LIST_CHUNK_SIZE} by default.
+     *
+     * @param chunkSize number of keys to request per chunk
+     */
+    void setChunkSize(long chunkSize) {
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Lists the children and returns them. The listener, if any, is notified of each chunk of children as soon as it
+     * is received, the first chunk always being notified first. If an exception is thrown, the listener may have been
+     * notified of some of the children: they must be considered as an incomplete listing.
+     *
+     * @return the children, matching the filter if one was specified
+     * @throws IOException if the directory does not exist or an error occurred while listing it,
+     * <code>InterruptedIOException</code> if the calling thread was interrupted
+     */
+    AbstractFile[] list() throws IOException {
+        try {
+            StorageObjectsChunk chunk = listChunk(null);
+
+            if(chunk.getObjects().length==0 && !prefix.equals("")) {
+                // This happens only when the directory does not exist
+                throw new IOException();
+            }
+
+            List<AbstractFile> children = new ArrayList<AbstractFile>();
+            addChildren(chunk, children, 0, -1);
+
+            String priorLastKey = chunk.getPriorLastKey();
+            if(priorLastKey==null)
+                return toArray(children);
+
+            char splitChars[] = getSplitChars(priorLastKey);
+            if(splitChars.length==0) {
+                do {
+                    chunk = listChunk(priorLastKey);
+                    addChildren(chunk, children, 0, -1);
+                    priorLastKey = chunk.getPriorLastKey();
+                }
+                while(priorLastKey!=null);
+            }
+            else {
+                listRanges(priorLastKey, splitChars, children);
+            }
+
+            return toArray(children);
+        }
+        catch(ServiceException e) {
+            throw S3File.getIOException(e, fileURL);
+        }
+    }
+
+    /**
+     * Returns the characters the keys that come after the given one are split on, so that each range is roughly
+     * the same size in the ASCII space. An empty array is returned if the keys should not be split.
+     */
+    private char[] getSplitChars(String priorLastKey) {
+        if(nbThreads<2)
+            return new char[0];
+
+        int firstChar = priorLastKey.length()>prefix.length() ? priorLastKey.charAt(prefix.length()) : 0;
+        if(firstChar>=LAST_SPLIT_CHAR-1)
+            return new char[0];
+
+        // The first range lists the remaining keys that start with the last key's character
+        int span = LAST_SPLIT_CHAR - (firstChar+1);
+        int nbSplits = Math.min(nbThreads-1, span);
+        char splitChars[] = new char[nbSplits];
+        for(int i=0; i<nbSplits; i++)
+            splitChars[i] = (char)(firstChar + 1 + i*span/nbSplits);
+
+        return splitChars;
+    }
+
+    /**
+     * Lists the ranges that start at the given split characters concurrently. The first range starts after the
+     * specified key, the last one is unbounded.
+     */
+    private void listRanges(String priorLastKey, char splitChars[], List<AbstractFile> children) throws IOException {
+        List<Future<List<AbstractFile>>> futures = new ArrayList<Future<List<AbstractFile>>>(splitChars.length+1);
+        boolean completed = false;
+        try {
+            futures.add(LISTING_EXECUTOR.submit(new RangeListing(priorLastKey, -1, splitChars[0])));
+            for(int i=0; i<splitChars.length; i++) {
+                // A marker that sorts right before all keys that start with the split character
+                String marker = prefix + (char)(splitChars[i]-1) + Character.MAX_VALUE;
+                futures.add(LISTING_EXECUTOR.submit(new RangeListing(marker, splitChars[i], i==splitChars.length-1 ? -1 : splitChars[i+1])));
+            }
+
+            for(Future<List<AbstractFile>> future : futures)
+                children.addAll(future.get());
+
+            completed = true;
+        }
+        catch(InterruptedException e) {
+            throw new InterruptedIOException();
+        }
+        catch(ExecutionException e) {
+            Throwable cause = e.getCause();
+            if(cause instanceof ServiceException)
+                throw S3File.getIOException((ServiceException)cause, fileURL);
+            if(cause instanceof IOException)
+                throw (IOException)cause;
+
+            throw new IOException(cause);
+        }
+        finally {
+            if(!completed) {
+                // Ranges that are still being listed must not notify the listener anymore
+                if(listener!=null) {
+                    synchronized(listener) {
+                        failed = true;
+                    }
+                }
+
+                for(Future<List<AbstractFile>> future : futures)
+                    future.cancel(true);
+            }
+        }
+    }
+
+    /**
+     * Requests the chunk of keys that follows the given one.
+     */
+    private StorageObjectsChunk listChunk(String priorLastKey) throws ServiceException {
+        return service.listObjectsChunked(bucketName, prefix, "/", chunkSize, priorLastKey, false);
+    }
+
+    /**
+     * Creates the children of the given chunk whose first character after the prefix is in the
+     * <code>[lowChar, highChar)</code> range, adds those that match the filter to the list and notifies the listener.
+     *
+     * @param chunk the chunk to create children from
+     * @param children the list to add children to
+     * @param lowChar the lowest character that starts a key of the range
+     * @param highChar the character that starts the keys of the next range, <code>-1</code> if the range is unbounded
+     * @return <code>false</code> if the chunk contains keys that are past the end of the range
+     * @throws IOException if a child could not be created, <code>InterruptedIOException</code> if the listing has
+     * failed in another thread
+     */
+    private boolean addChildren(StorageObjectsChunk chunk, List<AbstractFile> children, int lowChar, int highChar) throws IOException {
+        List<AbstractFile> batch = new ArrayList<AbstractFile>();
+        boolean inRange = true;
+        FileURL childURL;
+        String objectKey;
+        int c;
+
+        for(StorageObject object : chunk.getObjects()) {
+            // Discard the object corresponding to the prefix itself
+            objectKey = object.getKey();
+            if(objectKey.equals(prefix))
+                continue;
+
+            c = objectKey.charAt(prefix.length());
+            if(highChar!=-1 && c>=highChar) {
+                inRange = false;
+                continue;
+            }
+            if(c<lowChar)
+                continue;
+
+            childURL = (FileURL)fileURL.clone();
+            childURL.setPath(bucketName + "/" + objectKey);
+
+            batch.add(FileFactory.getChildFile(childURL, parent, service, object));
+        }
+
+        org.jets3t.service.model.S3Object directoryObject;
+        for(String commonPrefix : chunk.getCommonPrefixes()) {
+            c = commonPrefix.charAt(prefix.length());
+            if(highChar!=-1 && c>=highChar) {
+                inRange = false;
+                continue;
+            }
+            if(c<lowChar)
+                continue;
+
+            childURL = (FileURL)fileURL.clone();
+            childURL.setPath(bucketName + "/" + commonPrefix);
+
+            directoryObject = new org.jets3t.service.model.S3Object(commonPrefix);
+            // Common prefixes are not objects per se, and therefore do not have a date, content-length nor owner.
+            directoryObject.setLastModifiedDate(new Date(System.currentTimeMillis()));
+            directoryObject.setContentLength(0);
+            batch.add(FileFactory.getChildFile(childURL, parent, service, directoryObject));
+        }
+
+        AbstractFile batchFiles[] = toArray(batch);
+        if(filter!=null)
+            batchFiles = filter.filter(batchFiles);
+
+        for(AbstractFile file : batchFiles)
+            children.add(file);
+
+        if(listener!=null) {
+            synchronized(listener) {
+                if(failed)
+                    throw new InterruptedIOException();
+
+                listener.childrenListed(batchFiles);
+            }
+        }
+
+        return inRange;
+    }
+
+    private static AbstractFile[] toArray(List<AbstractFile> files) {
+        return files.toArray(new AbstractFile[files.size()]);
+    }
+
+
+    /**
+     * Lists the keys of a range, one chunk after the other, and returns the children they correspond to.
+     */
+    private class RangeListing implements Callable<List<AbstractFile>> {
+
+        private final String marker;
+        private final int lowChar;
+        private final int highChar;
+
+        private RangeListing(String marker, int lowChar, int highChar) {
+            this.marker = marker;
+            this.lowChar = lowChar;
+            this.highChar = highChar;
+        }
+
+        public List<AbstractFile> call() throws IOException, ServiceException {
+            List<AbstractFile> children = new ArrayList<AbstractFile>();
+            String priorLastKey = marker;
+            do {
+                if(Thread.currentThread().isInterrupted())
+                    throw new InterruptedIOException();
+
+                StorageObjectsChunk chunk = listChunk(priorLastKey);
+                priorLastKey = addChildren(chunk, children, Math.max(lowChar, 0), highChar) ? chunk.getPriorLastKey() : null;
+            }
+            while(priorLastKey!=null);
+
+            return children;
+        }
+    }
+}
@@ -0,0 +1,250 @@
+/**
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2018 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.mucommander.commons.file.protocol.s3;
+
+import com.mucommander.commons.file.FileURL;
+import com.mucommander.commons.io.StreamUtils;
+import org.jets3t.service.S3Service;
+import org.jets3t.service.ServiceException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * Reads an S3 object sequentially by downloading consecutive parts of it concurrently, each with a GET Range request,
+ * and returning them in order. A part that fails to download is requested again, so that a transient error doesn't
+ * require starting the transfer over. Parts are requested only if the object still has the ETag it had when the
+ * stream was created, so that parts of different versions of an object are never mixed.
+ *
+ * <p>At most <code>nbThreads</code> parts are downloaded ahead of the part being read, each of them being held in
+ * memory: the memory footprint of this stream is therefore roughly <code>(nbThreads+1)*partSize</code>.</p>
+ */
+class S3ObjectRangedInputStream extends InputStream {
+    private static final Logger LOGGER = LoggerFactory.getLogger(S3ObjectRangedInputStream.class);
+
+    /** Number of times a part is requested again after a failed download */
+    private final static int NB_PART_RETRIES = 2;
+
+    private final S3Service service;
+    private final FileURL fileURL;
+    private final String bucketName;
+    private final String objectKey;
+
+    /** ETags the object must match, <code>null</code> if it is unknown */
+    private final String ifMatchTags[];
+
+    /** Offset of the end of the object, exclusive */
+    private final long endOffset;
+
+    private final int partSize;
+    private final int nbThreads;
+
+    /** Parts being downloaded, in the order they are to be read */
+    private final Deque<Future<byte[]>> pendingParts = new ArrayDeque<Future<byte[]>>();
+
+    /** Offset of the next part to download */
+    private long nextPartOffset;
+
+    /** Part being read */
+    private byte part[];
+
+    /** Position of the next byte to read in the part */
+    private int partPos;
+
+    private boolean closed;
+
+    /**
+     * Creates a new <code>S3ObjectRangedInputStream</code> that starts reading the object at the given offset.
+     *
+     * @param service the service to download parts with
+     * @param fileURL the URL of the object, used to report authentication errors
+     * @param bucketName name of the bucket that contains the object
+     * @param objectKey key of the object
+     * @param eTag the ETag of the object, <code>null</code> if it is unknown
+     * @param offset offset of the first byte to read
+     * @param length length of the object
+     * @param partSize size of each part
+     * @param nbThreads number of parts to download concurrently
+     */
+    S3ObjectRangedInputStream(S3Service service, FileURL fileURL, String bucketName, String objectKey, String eTag, long offset, long length, int partSize, int nbThreads) {
+        this.service = service;
+        this.fileURL = fileURL;
+        this.bucketName = bucketName;
+        this.objectKey = objectKey;
+        this.ifMatchTags = eTag==null ? null : new String[]{eTag};
+        this.endOffset = length;
+        this.partSize = partSize;
+        this.nbThreads = nbThreads;
+        this.nextPartOffset = offset;
+
+        fillPipeline();
+    }
+
+    /**
+     * Starts downloading parts until <code>nbThreads</code> are being downloaded or the end of the object is reached.
+     */
+    private void fillPipeline() {
+        while(pendingParts.size()<nbThreads && nextPartOffset<endOffset) {
+            long start = nextPartOffset;
+            long end = Math.min(start+partSize, endOffset);
+            pendingParts.add(S3File.TRANSFER_EXECUTOR.submit(new PartDownload(start, (int)(end-start))));
+            nextPartOffset = end;
+        }
+    }
+
+    /**
+     * Makes sure that a part with remaining bytes is available, waiting for the next one to be downloaded if the
+     * current one has been read entirely.
+     *
+     * @return <code>false</code> if the end of the object has been reached
+     */
+    private boolean nextPart() throws IOException {
+        if(closed)
+            throw new IOException("Stream closed");
+
+        if(part!=null && partPos<part.length)
+            return true;
+
+        Future<byte[]> future = pendingParts.poll();
+        if(future==null)
+            return false;
+
+        try {
+            part = future.get();
+            partPos = 0;
+        }
+        catch(InterruptedException e) {
+            future.cancel(true);
+            throw new InterruptedIOException();
+        }
+        catch(ExecutionException e) {
+            Throwable cause = e.getCause();
+            if(cause instanceof IOException)
+                throw (IOException)cause;
+
+            throw new IOException(cause);
+        }
+
+        fillPipeline();
+
+        return true;
+    }
+
+
+    ////////////////////////////////
+    // InputStream implementation //
+    ////////////////////////////////
+
+    @Override
+    public int read() throws IOException {
+        if(!nextPart())
+            return -1;
+
+        return part[partPos++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte b[], int off, int len) throws IOException {
+        if(len==0)
+            return 0;
+
+        if(!nextPart())
+            return -1;
+
+        int nbRead = Math.min(len, part.length-partPos);
+        System.arraycopy(part, partPos, b, off, nbRead);
+        partPos += nbRead;
+
+        return nbRead;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return part==null ? 0 : part.length-partPos;
+    }
+
+    @Override
+    public void close() {
+        if(closed)
+            return;
+
+        for(Future<byte[]> future : pendingParts)
+            future.cancel(true);
+
+        pendingParts.clear();
+        part = null;
+        closed = true;
+    }
+
+
+    /**
+     * Downloads a part of the object, requesting it again if the download fails.
+     */
+    private class PartDownload implements Callable<byte[]> {
+
+        private final long offset;
+        private final int length;
+
+        private PartDownload(long offset, int length) {
+            this.offset = offset;
+            this.length = length;
+        }
+
+        public byte[] call() throws IOException {
+            byte data[] = new byte[length];
+            for(int attempt=0; ; attempt++) {
+                try {
+                    InputStream in = service.getObject(bucketName, objectKey, null, null, ifMatchTags, null, offset, offset+length-1).getDataInputStream();
+                    try {
+                        StreamUtils.readFully(in, data);
+                    }
+                    finally {
+                        in.close();
+                    }
+
+                    return data;
+                }
+                catch(ServiceException e) {
+                    // Client errors are not transient, including the object having changed (412 Precondition Failed)
+                    if(attempt==NB_PART_RETRIES || e.getResponseCode()/100==4)
+                        throw S3File.getIOException(e, fileURL);
+
+                    LOGGER.info("Failed to download part at offset {} of {}, retrying", offset, objectKey);
+                }
+                catch(InterruptedIOException e) {
+                    throw e;
+                }
+                catch(IOException e) {
+                    if(attempt==NB_PART_RETRIES || Thread.currentThread().isInterrupted())
+                        throw e;
+
+                    LOGGER.info("Failed to download part at offset {} of {}, retrying", offset, objectKey);
+                }
+            }
+        }
+    }
+}
@@ -22,10 +22,12 @@ package com.mucommander.commons.file.protocol.s3;
 import com.mucommander.commons.file.*;
 import com.mucommander.commons.file.protocol.ProtocolProvider;
 
+import org.jets3t.service.Constants;
 import org.jets3t.service.Jets3tProperties;
 import org.jets3t.service.S3Service;
 import org.jets3t.service.S3ServiceException;
 import org.jets3t.service.impl.rest.httpclient.RestS3Service;
+import org.jets3t.service.model.StorageObject;
 import org.jets3t.service.security.AWSCredentials;
 
 import java.io.IOException;
@@ -47,9 +49,24 @@ public class S3ProtocolProvider implements ProtocolProvider {
 
         if(instantiationParams.length==0) {
             try {
-                service = new RestS3Service(new AWSCredentials(credentials.getLogin(), credentials.getPassword()));
                 Jets3tProperties props = new Jets3tProperties();
+                props.loadAndReplaceProperties(Jets3tProperties.getInstance(Constants.JETS3T_PROPERTIES_FILENAME), Constants.JETS3T_PROPERTIES_FILENAME);
                 props.setProperty("s3service.s3-endpoint", url.getHost());
+
+                // HTTPS is used unless plain HTTP is explicitly requested
+                boolean secure = !"false".equalsIgnoreCase(url.getProperty(S3File.SECURE_PROPERTY_NAME));
+                if(!secure)
+                    props.setProperty("s3service.https-only", "false");
+
+                // A non-standard port designates an S3-compatible server, which is accessed with the bucket name in
+                // the path rather than in the hostname
+                int port = url.getPort();
+                if(port!=-1 && port!=url.getStandardPort()) {
+                    props.setProperty(secure?"s3service.s3-endpoint-https-port":"s3service.s3-endpoint-http-port", Integer.toString(port));
+                    props.setProperty("s3service.disable-dns-buckets", "true");
+                }
+
+                service = new RestS3Service(new AWSCredentials(credentials.getLogin(), credentials.getPassword()), null, null, props);
             }
             catch(S3ServiceException e) {
                 throw S3File.getIOException(e, url);
@@ -72,7 +89,7 @@ public class S3ProtocolProvider implements ProtocolProvider {
         // Object resource
         if(st.hasMoreTokens()) {
             if(instantiationParams.length==2)
-                return new S3Object(url, service, bucketName, (org.jets3t.service.model.S3Object)instantiationParams[1]);
+                return new S3Object(url, service, bucketName, (StorageObject)instantiationParams[1]);
 
             return new S3Object(url, service, bucketName);
         }
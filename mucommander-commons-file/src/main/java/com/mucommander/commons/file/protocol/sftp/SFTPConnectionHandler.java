@@ -48,6 +48,10 @@ class SFTPConnectionHandler extends ConnectionHandler {
     /** 'Public key' SSH authentication method, not supported at the moment */
     private final static String PUBLIC_KEY_AUTH_METHOD = "publickey";
 
+    /** Number of read requests kept in flight when reading a file, each of them for up to 32KB of data. Keeping
+     * several requests in flight hides the latency of the link. */
+    private final static int BULK_REQUESTS = 64;
+
 
     SFTPConnectionHandler(FileURL location) {
         super(location);
@@ -93,6 +97,7 @@ class SFTPConnectionHandler extends ConnectionHandler {
             // Init SFTP connections
             channelSftp = (ChannelSftp) session.openChannel("sftp");
             channelSftp.connect(5*1000);
+            channelSftp.setBulkRequests(BULK_REQUESTS);
             LOGGER.info("authentication complete");
         }
         catch(IOException e) {
@@ -20,6 +20,7 @@
 
 package com.mucommander.commons.file.protocol.sftp;
 
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -55,6 +56,7 @@ import com.mucommander.commons.io.ByteUtils;
 import com.mucommander.commons.io.CounterOutputStream;
 import com.mucommander.commons.io.RandomAccessInputStream;
 import com.mucommander.commons.io.RandomAccessOutputStream;
+import com.mucommander.commons.io.StreamUtils;
 
 
 /**
@@ -460,7 +462,7 @@ public class SFTPFile extends ProtocolFile {
             childURL = (FileURL) fileURL.clone();
             childURL.setPath(parentPath + filename);
 
-            children[fileCount++] = FileFactory.getFile(childURL, this, new SFTPFileAttributes(childURL, file.getAttrs()));
+            children[fileCount++] = FileFactory.getChildFile(childURL, this, new SFTPFileAttributes(childURL, file.getAttrs()));
         }
 
         // Create new array of the exact file count
@@ -633,9 +635,27 @@ public class SFTPFile extends ProtocolFile {
             // Makes sure the connection is started, if not starts it
             connHandler.checkConnection();
 
-            InputStream in = connHandler.channelSftp.get(absPath);
-            in.skip(offset);
-            return in;
+            // Reading starts at the given offset, the data before it is not transferred. Read requests are pipelined.
+            InputStream in = connHandler.channelSftp.get(absPath, null, offset);
+
+            return new FilterInputStream(in) {
+                private boolean closed;
+
+                @Override
+                public void close() throws IOException {
+                    if(closed)
+                        return;
+
+                    closed = true;
+                    try {
+                        super.close();
+                    }
+                    finally {
+                        // Release the lock on the ConnectionHandler
+                        connHandler.releaseLock();
+                    }
+                }
+            };
         }
         catch(IOException e) {
             // Release the lock on the ConnectionHandler if the InputStream could not be created
@@ -643,11 +663,12 @@ public class SFTPFile extends ProtocolFile {
 
             // Re-throw IOException
             throw e;
-        } catch (SftpException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
-			return null;
-		}
+        }
+        catch(SftpException e) {
+            connHandler.releaseLock();
+
+            throw new IOException(e);
+        }
     }
 
     @Override
@@ -852,19 +873,35 @@ public class SFTPFile extends ProtocolFile {
 
     /**
      * SFTPRandomAccessInputStream extends RandomAccessInputStream to provide random read access to an SFTPFile.
+     * Reads are performed from the current offset with pipelined read requests. The stream is (re)opened lazily, at the
+     * offset of the first read that follows a seek, so that seeking does not transfer any data.
      */
     private class SFTPRandomAccessInputStream extends RandomAccessInputStream {
 
+        /** Maximum distance of a forward seek that is performed by skipping data of the current stream, which
+         * has likely been requested already */
+        private final static int MAX_SKIP = 64 * 1024;
+
+        /** Stream positioned at the current offset, null if it hasn't been opened yet */
         private InputStream in;
         private long offset;
 
         private SFTPRandomAccessInputStream() throws IOException {
-            this.in = getInputStream();
+            // The stream is opened lazily, make sure that the file can be read so that errors are reported right away
+            if(!exists() || isDirectory())
+                throw new IOException("Cannot read "+absPath);
+        }
+
+        private InputStream getStream() throws IOException {
+            if(in==null)
+                in = getInputStream(offset);
+
+            return in;
         }
 
         @Override
         public int read(byte b[], int off, int len) throws IOException {
-        	int nbRead = in.read(b, off, len);
+        	int nbRead = getStream().read(b, off, len);
 
             if(nbRead!=-1)
                 offset += nbRead;
@@ -874,7 +911,7 @@ public class SFTPFile extends ProtocolFile {
 
         @Override
         public int read() throws IOException {
-        	int read = in.read();
+        	int read = getStream().read();
 
             if(read!=-1)
                 offset += 1;
@@ -891,18 +928,29 @@ public class SFTPFile extends ProtocolFile {
         }
 
         public void seek(long offset) throws IOException {
-        	try {
-                in.close();
+            if(offset==this.offset)
+                return;
+
+            if(in!=null && offset>this.offset && offset-this.offset<=MAX_SKIP) {
+                StreamUtils.skipFully(in, offset-this.offset);
+                this.offset = offset;
+                return;
             }
-            catch(IOException e) {}
 
-            in = getInputStream(offset);
+            close();
             this.offset = offset;
         }
 
         @Override
         public void close() throws IOException {
-            in.close();
+            if(in!=null) {
+                try {
+                    in.close();
+                }
+                finally {
+                    in = null;
+                }
+            }
         }
     }
 
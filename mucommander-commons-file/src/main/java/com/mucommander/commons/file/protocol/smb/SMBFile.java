@@ -504,7 +504,7 @@ import java.net.MalformedURLException;
                 childURL.setPath(smbFile.getURL().getPath());
 
                 // Use SMBFile private constructor to recycle the SmbFile instance
-                children[currentIndex++] = FileFactory.getFile(childURL, this, smbFile);
+                children[currentIndex++] = FileFactory.getChildFile(childURL, this, smbFile);
             }
 
             return children;
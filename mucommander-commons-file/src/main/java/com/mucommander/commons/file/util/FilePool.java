@@ -32,19 +32,37 @@ import org.apache.commons.collections.map.ReferenceMap;
  * when they are no longer hard-referenced.</p>
  *
  * <p>This class uses the {@link ReferenceMap} class part of the <code>Apache Commons Collection</code> library.
- * All accesses to the underlying map is synchronized, making this class thread-safe.</p>
+ * Mappings are spread over {@link #NB_SEGMENTS} maps according to the hash code of their key, each of them guarded
+ * by its own lock. This makes this class thread-safe while allowing threads that list different folders (or
+ * different parts of the same folder) to add files to the pool concurrently.</p>
  *
  * @author Maxence Bernard
  */
 public class FilePool {
 
-    /** The actual hash map */
-    protected final ReferenceMap hashMap = new ReferenceMap(ReferenceMap.HARD, ReferenceMap.WEAK);
+    /** Number of segments the pool is split into, must be a power of 2 */
+    final static int NB_SEGMENTS = 16;
+
+    /** The segments, each of them is an independently-locked map */
+    private final ReferenceMap segments[] = new ReferenceMap[NB_SEGMENTS];
 
     /**
      * Creates a new file pool.
      */
     public FilePool() {
+        for(int i=0; i<NB_SEGMENTS; i++)
+            segments[i] = new ReferenceMap(ReferenceMap.HARD, ReferenceMap.WEAK);
+    }
+
+    /**
+     * Returns the segment the given key belongs to.
+     */
+    private ReferenceMap getSegment(Object key) {
+        int hash = key.hashCode();
+        // Spread the higher bits, hash codes of similar keys (e.g. URLs of files in the same folder) tend to differ
+        // in their lower bits only when they differ at all
+        hash ^= (hash>>>16);
+        return segments[hash&(NB_SEGMENTS-1)];
     }
 
     /**
@@ -56,8 +74,11 @@ public class FilePool {
      * @return returns the file instance previously mapped onto the given key, <code>null</code> if no
      * such mapping existed
      */
-    public synchronized AbstractFile put(Object key, AbstractFile value) {
-        return (AbstractFile)hashMap.put(key, value);
+    public AbstractFile put(Object key, AbstractFile value) {
+        ReferenceMap segment = getSegment(key);
+        synchronized(segment) {
+            return (AbstractFile)segment.put(key, value);
+        }
     }
 
     /**
@@ -68,8 +89,11 @@ public class FilePool {
      * @return the {@link AbstractFile} instance mapped onto the given key if there is one,
      * <code>null</code> otherwise
      */
-    public synchronized AbstractFile get(Object key) {
-        return (AbstractFile)hashMap.get(key);
+    public AbstractFile get(Object key) {
+        ReferenceMap segment = getSegment(key);
+        synchronized(segment) {
+            return (AbstractFile)segment.get(key);
+        }
     }
 
     /**
@@ -80,8 +104,11 @@ public class FilePool {
      * @return <code>true</code> if this pool currently contains a key/file mapping where the given key is used as
      * the mapping's key.
      */
-    public synchronized boolean containsKey(Object key) {
-        return hashMap.containsKey(key);
+    public boolean containsKey(Object key) {
+        ReferenceMap segment = getSegment(key);
+        synchronized(segment) {
+            return segment.containsKey(key);
+        }
     }
 
     /**
@@ -92,16 +119,26 @@ public class FilePool {
      * @return <code>true</code> if this pool currently contains a key/file mapping where the given file is used as
      * the mapping's key.
      */
-    public synchronized boolean containsValue(AbstractFile file) {
-        return hashMap.containsValue(file);
+    public boolean containsValue(AbstractFile file) {
+        for(ReferenceMap segment : segments) {
+            synchronized(segment) {
+                if(segment.containsValue(file))
+                    return true;
+            }
+        }
+        return false;
     }
 
     /**
      * Removes all existing key/file mapping from this pool, leaving the pool in the same state as it was right after
      * its creation.
      */
-    public synchronized void clear() {
-        hashMap.clear();
+    public void clear() {
+        for(ReferenceMap segment : segments) {
+            synchronized(segment) {
+                segment.clear();
+            }
+        }
     }
 
     /**
@@ -109,7 +146,13 @@ public class FilePool {
      *
      * @return the number of key/file mapping this pool currently contains.
      */
-    public synchronized int size() {
-        return hashMap.size();
+    public int size() {
+        int size = 0;
+        for(ReferenceMap segment : segments) {
+            synchronized(segment) {
+                size += segment.size();
+            }
+        }
+        return size;
     }
 }
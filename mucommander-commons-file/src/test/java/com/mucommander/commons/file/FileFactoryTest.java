@@ -18,6 +18,9 @@
 
 package com.mucommander.commons.file;
 
+import com.mucommander.commons.file.archive.AbstractArchiveFile;
+import com.mucommander.commons.file.protocol.ProtocolFile;
+
 import org.testng.annotations.Test;
 
 import java.io.IOException;
@@ -79,4 +82,72 @@ public class FileFactoryTest {
         assert temporaryFile1 != null;
         assert !temporaryFile1.exists();
     }
+
+    /**
+     * Asserts that {@link FileFactory#getChildFile(FileURL, ProtocolFile, Object...)} returns the same kind of files as
+     * {@link FileFactory#getFile(FileURL, AbstractFile, Object...)}.
+     *
+     * @throws IOException should not happen
+     */
+    @Test
+    public void testChildFile() throws IOException {
+        AbstractFile folder = FileFactory.getTemporaryFile(false);
+        folder.mkdir();
+        try {
+            folder.getDirectChild("file.txt").mkfile();
+            folder.getDirectChild("archive.zip").mkfile();
+            folder.getDirectChild("folder").mkdir();
+
+            ProtocolFile parent = (ProtocolFile)folder.getTopAncestor();
+            for (AbstractFile child : folder.ls()) {
+                FileURL childURL = (FileURL)child.getURL().clone();
+                AbstractFile childFile = FileFactory.getChildFile(childURL, parent, child.getUnderlyingFileObject());
+                AbstractFile file = FileFactory.getFile((FileURL)child.getURL().clone(), parent, child.getUnderlyingFileObject());
+
+                assert childFile.getClass().equals(file.getClass());
+                assert childFile.getURL().equals(file.getURL());
+                assert childFile.getParent() == parent;
+                assert (childFile instanceof AbstractArchiveFile) == childFile.getName().equals("archive.zip");
+            }
+        }
+        finally {
+            folder.deleteRecursively();
+        }
+    }
+
+    /**
+     * Asserts that the children of a deep folder resolved by
+     * {@link FileFactory#getChildFile(FileURL, ProtocolFile, Object...)} are pooled, so that
+     * {@link FileFactory#getFile(FileURL, AbstractFile, Object...)} returns the same instances, and that only the
+     * child's own filename is tested against the archive formats. Files are not created on the filesystem.
+     *
+     * @throws IOException should not happen
+     */
+    @Test
+    public void testChildFilePool() throws IOException {
+        AbstractFile folder = FileFactory.getTemporaryFolder();
+        for (int i=0; i<10; i++)
+            folder = folder.getDirectChild("level"+i+".d");
+
+        ProtocolFile parent = (ProtocolFile)folder.getTopAncestor();
+        for (String name : new String[]{"file.txt", "file", "archive.zip"}) {
+            FileURL childURL = (FileURL)parent.getURL().clone();
+            childURL.setPath(parent.getAbsolutePath()+parent.getSeparator()+name);
+            AbstractFile childFile = FileFactory.getChildFile(childURL, parent, new java.io.File(childURL.getPath()));
+
+            assert childFile.getName().equals(name);
+            assert childFile.getParent() == parent;
+            assert (childFile instanceof AbstractArchiveFile) == name.equals("archive.zip");
+
+            // The pool returns the instance that was just created
+            FileURL fileURL = (FileURL)parent.getURL().clone();
+            fileURL.setPath(parent.getAbsolutePath()+parent.getSeparator()+name);
+            assert FileFactory.getFile(fileURL) == childFile;
+
+            // Resolving the child again with instantiation parameters replaces the pooled instance
+            AbstractFile newChildFile = FileFactory.getChildFile(fileURL, parent, new java.io.File(fileURL.getPath()));
+            assert newChildFile.getURL().equals(childFile.getURL());
+            assert FileFactory.getFile((FileURL)fileURL.clone()) == newChildFile;
+        }
+    }
 }
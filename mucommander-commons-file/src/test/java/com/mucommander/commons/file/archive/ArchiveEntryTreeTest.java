@@ -0,0 +1,108 @@
+/**
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2018 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.mucommander.commons.file.archive;
+
+import javax.swing.tree.DefaultMutableTreeNode;
+
+import org.testng.annotations.Test;
+
+/**
+ * This class is a TestNG test case for {@link ArchiveEntryTree}.
+ *
+ * @see ArchiveEntryTree
+ */
+public class ArchiveEntryTreeTest {
+
+    private static ArchiveEntry getEntry(DefaultMutableTreeNode node) {
+        return (ArchiveEntry)node.getUserObject();
+    }
+
+    /**
+     * Asserts that parent directory nodes are created for entries whose parents are not listed in the archive, and
+     * that explicit directory entries replace them.
+     */
+    @Test
+    public void testImplicitDirectories() {
+        ArchiveEntryTree tree = new ArchiveEntryTree();
+        tree.addArchiveEntry(new ArchiveEntry("a/b/c.txt", false, 0, 1, true));
+
+        assert tree.getChildCount() == 1;
+        DefaultMutableTreeNode a = tree.findEntryNode("a");
+        assert a != null && a.getParent() == tree;
+        assert getEntry(a).isDirectory();
+        assert "a/".equals(getEntry(a).getPath());
+
+        DefaultMutableTreeNode b = tree.findEntryNode("a/b/");
+        assert b != null && b.getParent() == a;
+        assert tree.findEntryNode("a/b/c.txt").getParent() == b;
+
+        ArchiveEntry explicitB = new ArchiveEntry("a/b/", true, 42, 0, true);
+        tree.addArchiveEntry(explicitB);
+        assert tree.findEntryNode("a/b") == b;
+        assert getEntry(b) == explicitB;
+        assert a.getChildCount() == 1;
+    }
+
+    /**
+     * Asserts that lookups are trailing slash insensitive and that unknown or removed paths are not found.
+     */
+    @Test
+    public void testFindEntryNode() {
+        ArchiveEntryTree tree = new ArchiveEntryTree();
+        tree.addArchiveEntry(new ArchiveEntry("dir/", true, 0, 0, true));
+        tree.addArchiveEntry(new ArchiveEntry("dir/file", false, 0, 0, true));
+        tree.addArchiveEntry(new ArchiveEntry("dir/sub/", true, 0, 0, true));
+        tree.addArchiveEntry(new ArchiveEntry("dir/sub/file", false, 0, 0, true));
+
+        assert tree.findEntryNode("") == tree;
+        assert tree.findEntryNode("dir") == tree.findEntryNode("dir/");
+        assert tree.findEntryNode("dir/file/") == tree.findEntryNode("dir/file");
+        assert tree.findEntryNode("dir/fil") == null;
+        assert tree.findEntryNode("dir/sub/file/other") == null;
+
+        DefaultMutableTreeNode sub = tree.findEntryNode("dir/sub");
+        tree.removeEntryNode(sub);
+        assert sub.getParent() == null;
+        assert tree.findEntryNode("dir/sub") == null;
+        assert tree.findEntryNode("dir/sub/file") == null;
+        assert tree.findEntryNode("dir").getChildCount() == 1;
+
+        // Re-adding an entry under the removed directory creates a new node
+        tree.addArchiveEntry(new ArchiveEntry("dir/sub/file", false, 0, 0, true));
+        assert tree.findEntryNode("dir/sub") != sub;
+        assert tree.findEntryNode("dir").getChildCount() == 2;
+    }
+
+    /**
+     * Builds the tree of a flat archive with a large number of entries, this would take minutes if the children of
+     * the directory were looked up linearly.
+     */
+    @Test(timeOut = 20000)
+    public void testLargeFlatArchive() {
+        int nbEntries = 200000;
+        ArchiveEntryTree tree = new ArchiveEntryTree();
+        for(int i=0; i<nbEntries; i++)
+            tree.addArchiveEntry(new ArchiveEntry("root/entry"+i, false, 0, 0, true));
+
+        DefaultMutableTreeNode root = tree.findEntryNode("root/");
+        assert root.getChildCount() == nbEntries;
+        for(int i=0; i<nbEntries; i+=997)
+            assert tree.findEntryNode("root/entry"+i).getParent() == root;
+    }
+}
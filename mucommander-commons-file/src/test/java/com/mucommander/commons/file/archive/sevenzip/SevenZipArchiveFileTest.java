@@ -0,0 +1,324 @@
+/**
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2018 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.mucommander.commons.file.archive.sevenzip;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CyclicBarrier;
+import java.util.zip.CRC32;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.mucommander.commons.file.AbstractFile;
+import com.mucommander.commons.file.FileFactory;
+import com.mucommander.commons.file.archive.ArchiveEntry;
+import com.mucommander.commons.file.archive.ArchiveEntryIterator;
+import com.mucommander.commons.file.archive.sevenzip.provider.SevenZip.Compression.LZMA.Encoder;
+import com.mucommander.commons.io.StreamUtils;
+
+/**
+ * A test case for {@link SevenZipArchiveFile}, which reads the entries of a solid archive created by the test: all
+ * entries are compressed with LZMA in a single folder.
+ */
+public class SevenZipArchiveFileTest {
+
+    /** Number of entries in the archive */
+    private static final int NB_ENTRIES = 4;
+
+    /** Entries are larger than the buffer they are decompressed into so that the decoder blocks */
+    private static final int ENTRY_SIZE = MuArchiveExtractCallback.BUFFER_SIZE+50000;
+
+    private AbstractFile tempFile;
+
+    private byte[][] data;
+
+    @BeforeMethod
+    public void setUp() throws IOException {
+        tempFile = FileFactory.getTemporaryFile(getClass().getName()+".7z", true);
+
+        Random random = new Random(0);
+        data = new byte[NB_ENTRIES][ENTRY_SIZE];
+        for(byte[] entryData : data) {
+            for(int i=0; i<entryData.length; i++)
+                entryData[i] = (byte)('a'+random.nextInt(8));
+        }
+
+        writeArchive();
+    }
+
+    @AfterMethod
+    public void tearDown() throws IOException {
+        if(tempFile.exists())
+            tempFile.delete();
+    }
+
+    private static String getEntryName(int i) {
+        return "entry"+i;
+    }
+
+    /**
+     * Writes numbers in their 9-byte form, which any value fits in.
+     */
+    private static void writeNumber(ByteArrayOutputStream out, long value) {
+        out.write(0xFF);
+        writeLong(out, value, 8);
+    }
+
+    private static void writeLong(ByteArrayOutputStream out, long value, int nbBytes) {
+        for(int i=0; i<nbBytes; i++)
+            out.write((int)(value>>(8*i)));
+    }
+
+    private static long getCrc(byte[] b, int off, int len) {
+        CRC32 crc = new CRC32();
+        crc.update(b, off, len);
+        return crc.getValue();
+    }
+
+    /**
+     * Writes a 7z archive made of a single LZMA folder that contains all entries.
+     */
+    private void writeArchive() throws IOException {
+        ByteArrayOutputStream uncompressed = new ByteArrayOutputStream();
+        for(byte[] entryData : data)
+            uncompressed.write(entryData);
+
+        Encoder encoder = new Encoder();
+        encoder.SetDictionarySize(1<<20);
+        ByteArrayOutputStream properties = new ByteArrayOutputStream();
+        encoder.WriteCoderProperties(properties);
+        ByteArrayOutputStream packed = new ByteArrayOutputStream();
+        encoder.Code(new ByteArrayInputStream(uncompressed.toByteArray()), packed, -1, -1, null);
+
+        ByteArrayOutputStream header = new ByteArrayOutputStream();
+        header.write(0x01);                 // Header
+        header.write(0x04);                 // MainStreamsInfo
+        header.write(0x06);                 // PackInfo
+        writeNumber(header, 0);
+        writeNumber(header, 1);
+        header.write(0x09);                 // Size
+        writeNumber(header, packed.size());
+        header.write(0x00);
+        header.write(0x07);                 // UnPackInfo
+        header.write(0x0B);                 // Folder
+        writeNumber(header, 1);
+        header.write(0);
+        writeNumber(header, 1);             // A single coder: LZMA with properties
+        header.write(0x23);
+        header.write(new byte[]{3, 1, 1});
+        writeNumber(header, properties.size());
+        header.write(properties.toByteArray());
+        header.write(0x0C);                 // CodersUnPackSize
+        writeNumber(header, uncompressed.size());
+        header.write(0x00);
+        header.write(0x08);                 // SubStreamsInfo
+        header.write(0x0D);                 // NumUnPackStream
+        writeNumber(header, NB_ENTRIES);
+        header.write(0x09);                 // Size, implicit for the last entry
+        for(int i=0; i<NB_ENTRIES-1; i++)
+            writeNumber(header, data[i].length);
+        header.write(0x0A);                 // CRC
+        header.write(1);
+        for(byte[] entryData : data)
+            writeLong(header, getCrc(entryData, 0, entryData.length), 4);
+        header.write(0x00);
+        header.write(0x00);
+        header.write(0x05);                 // FilesInfo
+        writeNumber(header, NB_ENTRIES);
+        ByteArrayOutputStream names = new ByteArrayOutputStream();
+        for(int i=0; i<NB_ENTRIES; i++)
+            names.write((getEntryName(i)+"\0").getBytes("UTF-16LE"));
+        header.write(0x11);                 // Name
+        writeNumber(header, names.size()+1);
+        header.write(0);
+        header.write(names.toByteArray());
+        header.write(0x00);
+        header.write(0x00);
+
+        ByteArrayOutputStream startHeader = new ByteArrayOutputStream();
+        writeLong(startHeader, packed.size(), 8);
+        writeLong(startHeader, header.size(), 8);
+        writeLong(startHeader, getCrc(header.toByteArray(), 0, header.size()), 4);
+
+        OutputStream out = tempFile.getOutputStream();
+        try {
+            out.write(new byte[]{'7', 'z', (byte)0xBC, (byte)0xAF, 0x27, 0x1C, 0, 3});
+            ByteArrayOutputStream crc = new ByteArrayOutputStream();
+            writeLong(crc, getCrc(startHeader.toByteArray(), 0, startHeader.size()), 4);
+            out.write(crc.toByteArray());
+            out.write(startHeader.toByteArray());
+            out.write(packed.toByteArray());
+            out.write(header.toByteArray());
+        }
+        finally {
+            out.close();
+        }
+    }
+
+    private List<ArchiveEntry> getEntries(SevenZipArchiveFile archive) throws IOException {
+        List<ArchiveEntry> entries = new ArrayList<ArchiveEntry>();
+        ArchiveEntryIterator iterator = archive.getEntryIterator();
+        try {
+            ArchiveEntry entry;
+            while((entry = iterator.nextEntry())!=null)
+                entries.add(entry);
+        }
+        finally {
+            iterator.close();
+        }
+
+        assert entries.size() == NB_ENTRIES;
+        for(int i=0; i<NB_ENTRIES; i++) {
+            assert entries.get(i).getPath().equals(getEntryName(i));
+            assert entries.get(i).getSize() == data[i].length;
+        }
+
+        return entries;
+    }
+
+    private static byte[] readFully(InputStream in) throws IOException {
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        try {
+            StreamUtils.copyStream(in, bout);
+        }
+        finally {
+            in.close();
+        }
+
+        return bout.toByteArray();
+    }
+
+    /**
+     * Reads entries in order, skipping one of them without reading it.
+     */
+    @Test
+    public void testSequentialRead() throws IOException {
+        SevenZipArchiveFile archive = new SevenZipArchiveFile(tempFile);
+        List<ArchiveEntry> entries = getEntries(archive);
+
+        assert Arrays.equals(data[0], readFully(archive.getEntryInputStream(entries.get(0), null)));
+        archive.getEntryInputStream(entries.get(1), null).close();
+        assert Arrays.equals(data[2], readFully(archive.getEntryInputStream(entries.get(2), null)));
+        assert Arrays.equals(data[3], readFully(archive.getEntryInputStream(entries.get(3), null)));
+
+        // Going back to a previous entry
+        assert Arrays.equals(data[1], readFully(archive.getEntryInputStream(entries.get(1), null)));
+    }
+
+    /**
+     * Opens the streams of all entries before reading them from separate threads, and asserts that each entry is read
+     * entirely and is not affected by the others.
+     */
+    @Test
+    public void testConcurrentRead() throws Exception {
+        final SevenZipArchiveFile archive = new SevenZipArchiveFile(tempFile);
+        final List<ArchiveEntry> entries = getEntries(archive);
+        final CyclicBarrier barrier = new CyclicBarrier(NB_ENTRIES);
+        final List<Throwable> failures = Collections.synchronizedList(new ArrayList<Throwable>());
+
+        Thread threads[] = new Thread[NB_ENTRIES];
+        for(int i=0; i<NB_ENTRIES; i++) {
+            // Entries are opened in reverse order
+            final int index = NB_ENTRIES-1-i;
+            threads[i] = new Thread("SevenZipArchiveFileTest-"+index) {
+                @Override
+                public void run() {
+                    try {
+                        InputStream in = archive.getEntryInputStream(entries.get(index), null);
+                        barrier.await();
+                        byte[] read = readFully(in);
+                        if(!Arrays.equals(data[index], read))
+                            throw new AssertionError("entry "+index+": "+read.length+" bytes differ");
+                    }
+                    catch(Throwable t) {
+                        failures.add(t);
+                    }
+                }
+            };
+            threads[i].start();
+            // Let the streams be opened in a predictable order
+            Thread.sleep(50);
+        }
+
+        for(Thread thread : threads)
+            thread.join(60000);
+
+        assert failures.isEmpty(): failures;
+    }
+
+    /**
+     * Leaves as many entry streams open as there can be running extractions without reading them, and asserts that
+     * the extractions are aborted once they have been idle long enough: a later entry can still be read, and the
+     * abandoned streams report an error rather than truncated data. An abandoned extraction may not have started
+     * when it was abandoned, in which case reading its stream lets it complete.
+     */
+    @Test
+    public void testAbandonedStreams() throws Exception {
+        MuArchiveExtractCallback.idleTimeout = 1000;
+        try {
+            final SevenZipArchiveFile archive = new SevenZipArchiveFile(tempFile);
+            final List<ArchiveEntry> entries = getEntries(archive);
+
+            List<InputStream> abandoned = new ArrayList<InputStream>();
+            for(int i=0; i<SevenZipArchiveFile.MAX_EXTRACTORS; i++)
+                abandoned.add(archive.getEntryInputStream(entries.get(0), null));
+
+            final List<Throwable> failures = Collections.synchronizedList(new ArrayList<Throwable>());
+            Thread thread = new Thread("SevenZipArchiveFileTest-reader") {
+                @Override
+                public void run() {
+                    try {
+                        if(!Arrays.equals(data[1], readFully(archive.getEntryInputStream(entries.get(1), null))))
+                            throw new AssertionError("entry 1 differs");
+                    }
+                    catch(Throwable t) {
+                        failures.add(t);
+                    }
+                }
+            };
+            thread.start();
+            thread.join(30000);
+
+            assert !thread.isAlive(): "entry 1 could not be read";
+            assert failures.isEmpty(): failures;
+
+            for(InputStream in : abandoned) {
+                try {
+                    assert Arrays.equals(data[0], readFully(in));
+                }
+                catch(IOException e) {
+                    // Expected: the extraction was aborted
+                }
+            }
+        }
+        finally {
+            MuArchiveExtractCallback.idleTimeout = MuArchiveExtractCallback.IDLE_TIMEOUT;
+        }
+    }
+}
@@ -0,0 +1,226 @@
+/**
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2018 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.mucommander.commons.file.archive.tar;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.tools.bzip2.CBZip2OutputStream;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.mucommander.commons.file.AbstractFile;
+import com.mucommander.commons.file.FileFactory;
+import com.mucommander.commons.io.StreamUtils;
+
+/**
+ * This class is a TestNG test case for {@link GzipSeekPointIndex} and {@link Bzip2SeekPointIndex}.
+ *
+ * @see SeekPointIndex
+ */
+public class SeekPointIndexTest {
+
+    /** Temporary file holding the compressed data */
+    private AbstractFile tempFile;
+
+    @BeforeMethod
+    public void setUp() throws IOException {
+        tempFile = FileFactory.getTemporaryFile(getClass().getName(), false);
+    }
+
+    @AfterMethod
+    public void tearDown() throws IOException {
+        if(tempFile.exists())
+            tempFile.delete();
+    }
+
+    /**
+     * Returns data made of random bytes and repeated sequences, to get a mix of literals and back-references.
+     */
+    private static byte[] getTestData(int length, long seed) {
+        Random random = new Random(seed);
+        byte[] data = new byte[length];
+        int pos = 0;
+        while(pos<length) {
+            int len = Math.min(length-pos, 1+random.nextInt(200));
+            if(pos>1000 && random.nextBoolean()) {
+                int distance = 1+random.nextInt(Math.min(pos, 32768));
+                for(int i=0; i<len; i++)
+                    data[pos+i] = data[pos+i-distance];
+            }
+            else {
+                for(int i=0; i<len; i++)
+                    data[pos+i] = (byte)('a'+random.nextInt(random.nextBoolean()?4:26));
+            }
+            pos += len;
+        }
+
+        return data;
+    }
+
+    private void writeTempFile(byte[]... parts) throws IOException {
+        OutputStream out = tempFile.getOutputStream();
+        try {
+            for(byte[] part : parts)
+                out.write(part);
+        }
+        finally {
+            out.close();
+        }
+    }
+
+    private static byte[] gzip(byte[] data, int offset, int length) throws IOException {
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        GZIPOutputStream out = new GZIPOutputStream(bout);
+        out.write(data, offset, length);
+        out.close();
+
+        return bout.toByteArray();
+    }
+
+    private static byte[] bzip2(byte[] data) throws IOException {
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        bout.write('B');
+        bout.write('Z');
+        // Smallest block size (100KB) to get several blocks
+        CBZip2OutputStream out = new CBZip2OutputStream(bout, 1);
+        out.write(data);
+        out.close();
+
+        return bout.toByteArray();
+    }
+
+    private static byte[] readFully(InputStream in) throws IOException {
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        try {
+            StreamUtils.copyStream(in, bout);
+        }
+        finally {
+            in.close();
+        }
+
+        return bout.toByteArray();
+    }
+
+    /**
+     * Asserts that the data read from each seek point, and from arbitrary offsets, matches the uncompressed data.
+     */
+    private void assertSeekable(SeekPointIndex index, byte[] data) throws IOException {
+        assert index.isComplete();
+
+        // Seek points are further apart than the step
+        SeekPointIndex.SeekPoint lastPoint = null;
+        int nbPoints = 0;
+        for(long offset=0; offset<data.length; offset+=4096) {
+            SeekPointIndex.SeekPoint point = index.getSeekPoint(offset);
+            if(point!=lastPoint) {
+                assertReadAt(index, data, point.getUncompressedOffset());
+                lastPoint = point;
+                nbPoints++;
+            }
+        }
+        assert nbPoints == index.getSeekPointCount();
+
+        Random random = new Random(0);
+        for(int i=0; i<10; i++)
+            assertReadAt(index, data, random.nextInt(data.length));
+    }
+
+    private void assertReadAt(SeekPointIndex index, byte[] data, long offset) throws IOException {
+        byte[] read = readFully(index.getInputStream(tempFile, offset));
+        assert read.length == data.length-offset: "offset "+offset+": "+read.length+" bytes read";
+        for(int i=0; i<read.length; i++)
+            assert read[i] == data[(int)offset+i]: "offset "+offset+": mismatch at "+i;
+    }
+
+    @Test
+    public void testGzip() throws IOException {
+        byte[] data = getTestData(3*1024*1024, 1);
+        writeTempFile(gzip(data, 0, data.length));
+
+        GzipSeekPointIndex index = new GzipSeekPointIndex();
+        byte[] uncompressed = readFully(index.createIndexingInputStream(tempFile.getInputStream(), 128*1024));
+        assert Arrays.equals(data, uncompressed);
+        assert index.getSeekPointCount() > 10;
+
+        assertSeekable(index, data);
+    }
+
+    /**
+     * Incompressible data is stored in uncompressed blocks, which can only be resumed from when their header is
+     * byte-aligned. Alternating it with compressible data yields stored blocks that follow compressed ones at
+     * arbitrary bit offsets.
+     */
+    @Test
+    public void testGzipStoredBlocks() throws IOException {
+        byte[] data = getTestData(3*1024*1024, 3);
+        Random random = new Random(3);
+        for(int pos=0; pos<data.length; pos+=256*1024) {
+            byte[] noise = new byte[128*1024];
+            random.nextBytes(noise);
+            System.arraycopy(noise, 0, data, pos, noise.length);
+        }
+        writeTempFile(gzip(data, 0, data.length));
+
+        GzipSeekPointIndex index = new GzipSeekPointIndex();
+        byte[] uncompressed = readFully(index.createIndexingInputStream(tempFile.getInputStream(), 64*1024));
+        assert Arrays.equals(data, uncompressed);
+        assert index.getSeekPointCount() > 10;
+
+        assertSeekable(index, data);
+    }
+
+    /**
+     * Concatenated gzip members are valid gzip streams, data located in a member that follows a seek point must be
+     * readable.
+     */
+    @Test
+    public void testGzipMultipleMembers() throws IOException {
+        byte[] data = getTestData(1024*1024, 2);
+        int split = 400*1024;
+        writeTempFile(gzip(data, 0, split), gzip(data, split, data.length-split));
+
+        GzipSeekPointIndex index = new GzipSeekPointIndex();
+        byte[] uncompressed = readFully(index.createIndexingInputStream(tempFile.getInputStream(), 100*1024));
+        assert Arrays.equals(data, uncompressed);
+
+        assertSeekable(index, data);
+        assertReadAt(index, data, split-1000);
+        assertReadAt(index, data, split);
+    }
+
+    @Test
+    public void testBzip2() throws IOException {
+        byte[] data = getTestData(1024*1024, 3);
+        writeTempFile(bzip2(data));
+
+        Bzip2SeekPointIndex index = new Bzip2SeekPointIndex();
+        byte[] uncompressed = readFully(index.createIndexingInputStream(tempFile.getInputStream()));
+        assert Arrays.equals(data, uncompressed);
+        assert index.getSeekPointCount() > 5;
+
+        assertSeekable(index, data);
+    }
+}
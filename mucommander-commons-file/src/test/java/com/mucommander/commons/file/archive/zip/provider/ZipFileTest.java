@@ -0,0 +1,219 @@
+/**
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2018 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.mucommander.commons.file.archive.zip.provider;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.mucommander.commons.file.AbstractFile;
+import com.mucommander.commons.file.FileFactory;
+import com.mucommander.commons.file.archive.AbstractArchiveEntryFile;
+import com.mucommander.commons.file.archive.zip.ZipArchiveFile;
+import com.mucommander.commons.io.StreamUtils;
+
+/**
+ * A test case for the central directory index of {@link ZipFile}.
+ *
+ * @see ZipCentralDirectory
+ */
+public class ZipFileTest {
+
+    /** The temporary Zip file */
+    private AbstractFile tempFile;
+
+    @BeforeMethod
+    public void setUp() throws IOException {
+        tempFile = FileFactory.getTemporaryFile(ZipFileTest.class.getName()+".zip", true);
+    }
+
+    @AfterMethod
+    public void tearDown() throws IOException {
+        if(tempFile.exists())
+            tempFile.delete();
+    }
+
+    /**
+     * Creates a Zip file containing the given number of entries, whose contents are their names.
+     */
+    private void createZipFile(int nbEntries) throws IOException {
+        java.util.zip.ZipOutputStream zout = new java.util.zip.ZipOutputStream(tempFile.getOutputStream());
+        try {
+            for(int i=0; i<nbEntries; i++) {
+                String name = getEntryName(i);
+                zout.putNextEntry(new java.util.zip.ZipEntry(name));
+                zout.write(name.getBytes("UTF-8"));
+                zout.closeEntry();
+            }
+        }
+        finally {
+            zout.close();
+        }
+    }
+
+    private static String getEntryName(int index) {
+        return "directory"+(index%10)+"/entry-éè-"+index+".txt";
+    }
+
+    private static String readEntry(ZipFile zipFile, ZipEntry entry) throws IOException {
+        InputStream in = zipFile.getInputStream(entry);
+        try {
+            byte bytes[] = new byte[(int)entry.getSize()];
+            StreamUtils.readFully(in, bytes);
+            return new String(bytes, "UTF-8");
+        }
+        finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Asserts that entries can be iterated and looked up by name, and that their contents can be read.
+     */
+    private void assertEntries(int nbEntries) throws IOException {
+        createZipFile(nbEntries);
+        ZipFile zipFile = new ZipFile(tempFile);
+
+        assert zipFile.getNbEntries()==nbEntries;
+        assert zipFile.getEntry("missing")==null;
+
+        Iterator<ZipEntry> iterator = zipFile.getEntries();
+        for(int i=0; i<nbEntries; i++) {
+            ZipEntry entry = iterator.next();
+            assert getEntryName(i).equals(entry.getName());
+            assert zipFile.getEntry(entry.getName()).equals(entry);
+        }
+        assert !iterator.hasNext();
+
+        for(int i=0; i<nbEntries; i+=Math.max(1, nbEntries/100)) {
+            ZipEntry entry = zipFile.getEntry(getEntryName(i));
+            assert getEntryName(i).equals(readEntry(zipFile, entry));
+        }
+    }
+
+    /**
+     * Tests an archive whose central directory is loaded on the heap.
+     */
+    @Test
+    public void testSmallArchive() throws IOException {
+        assertEntries(0);
+        assertEntries(1);
+        assertEntries(100);
+    }
+
+    /**
+     * Tests an archive whose central directory is larger than {@link ZipCentralDirectory#MAPPING_THRESHOLD}, and thus
+     * memory-mapped.
+     */
+    @Test
+    public void testLargeArchive() throws IOException {
+        assertEntries(ZipCentralDirectory.MAPPING_THRESHOLD/50);
+    }
+
+    /**
+     * Asserts that entries can be modified using instances that were returned before the archive was modified, and
+     * that entries looked up after a modification are valid.
+     */
+    @Test
+    public void testModification() throws IOException {
+        createZipFile(10);
+        ZipFile zipFile = new ZipFile(tempFile);
+
+        ZipEntry lastEntry = zipFile.getEntry(getEntryName(9));
+        ZipEntry secondEntry = zipFile.getEntry(getEntryName(1));
+        zipFile.deleteEntry(zipFile.getEntry(getEntryName(0)));
+        zipFile.defragment();
+
+        // The instance was returned before the offsets were updated by the deletion
+        zipFile.deleteEntry(secondEntry);
+        lastEntry.setTime(0);
+        zipFile.updateEntry(lastEntry);
+
+        assert zipFile.getNbEntries()==8;
+        assert zipFile.getEntry(getEntryName(0))==null;
+        assert zipFile.getEntry(getEntryName(1))==null;
+        assert getEntryName(9).equals(readEntry(zipFile, zipFile.getEntry(getEntryName(9))));
+
+        // Re-open the archive to assert that it is still valid
+        zipFile = new ZipFile(tempFile);
+        assert zipFile.getNbEntries()==8;
+        assert getEntryName(9).equals(readEntry(zipFile, zipFile.getEntry(getEntryName(9))));
+        assert zipFile.getEntry(getEntryName(9)).getDosTime()==lastEntry.getDosTime();
+    }
+
+    /**
+     * Asserts that browsing an archive doesn't retain a <code>ZipEntry</code> per entry: neither in the entries tree
+     * of the archive file, nor in the central directory index.
+     */
+    @Test
+    public void testEntriesNotRetained() throws IOException {
+        int nbEntries = 1000;
+        createZipFile(nbEntries);
+
+        // Browse the archive the way the application does
+        ZipArchiveFile archiveFile = (ZipArchiveFile)FileFactory.getFile(tempFile.getURL());
+        AbstractFile directories[] = archiveFile.ls();
+        assert directories.length==10;
+        int nbListed = 0;
+        for(AbstractFile directory : directories) {
+            for(AbstractFile file : directory.ls()) {
+                assert ((AbstractArchiveEntryFile)file).getEntry().getEntryObject()==null;
+                nbListed++;
+            }
+        }
+        assert nbListed==nbEntries;
+
+        // Listed entries can still be read
+        AbstractFile entryFile = archiveFile.getArchiveEntryFile(getEntryName(42));
+        InputStream in = entryFile.getInputStream();
+        try {
+            byte bytes[] = new byte[(int)entryFile.getSize()];
+            StreamUtils.readFully(in, bytes);
+            assert getEntryName(42).equals(new String(bytes, "UTF-8"));
+        }
+        finally {
+            in.close();
+        }
+
+        // Count the entries that remain reachable once they have been iterated over
+        ZipFile zipFile = new ZipFile(tempFile);
+        List<WeakReference<ZipEntry>> references = new ArrayList<WeakReference<ZipEntry>>(nbEntries);
+        Iterator<ZipEntry> iterator = zipFile.getEntries();
+        while(iterator.hasNext())
+            references.add(new WeakReference<ZipEntry>(iterator.next()));
+
+        int nbRetained = nbEntries;
+        for(int attempt=0; attempt<10 && nbRetained>0; attempt++) {
+            System.gc();
+            nbRetained = 0;
+            for(WeakReference<ZipEntry> reference : references) {
+                if(reference.get()!=null)
+                    nbRetained++;
+            }
+        }
+        assert nbRetained==0 : nbRetained+" entries retained";
+    }
+}
@@ -0,0 +1,162 @@
+/**
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2018 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.mucommander.commons.file.archive.zip.provider;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.mucommander.commons.file.AbstractFile;
+import com.mucommander.commons.file.FileFactory;
+import com.mucommander.commons.io.StreamUtils;
+
+/**
+ * A test case for the concurrent compression of {@link ZipOutputStream}.
+ */
+public class ZipOutputStreamTest {
+
+    private final static int NB_THREADS = 4;
+
+    /** Sizes of the test entries: empty, smaller than a chunk, exactly one chunk and several chunks */
+    private final static int ENTRY_SIZES[] = {0, 1, 1000, 128*1024, 128*1024+1, 1024*1024+12345};
+
+    private ExecutorService deflateExecutor;
+
+    private AbstractFile tempFile;
+
+    private byte entryData[][];
+
+    @BeforeMethod
+    public void setUp() throws IOException {
+        deflateExecutor = Executors.newFixedThreadPool(NB_THREADS);
+        tempFile = FileFactory.getTemporaryFile(ZipOutputStreamTest.class.getName()+".zip", true);
+
+        // Half random, half compressible data
+        Random random = new Random(0);
+        entryData = new byte[ENTRY_SIZES.length][];
+        for(int i=0; i<ENTRY_SIZES.length; i++) {
+            entryData[i] = new byte[ENTRY_SIZES[i]];
+            random.nextBytes(entryData[i]);
+            for(int j=0; j<entryData[i].length; j+=2)
+                entryData[i][j] = (byte)(j%64);
+        }
+    }
+
+    @AfterMethod
+    public void tearDown() throws IOException {
+        deflateExecutor.shutdownNow();
+        if(tempFile.exists())
+            tempFile.delete();
+    }
+
+    /** DEFLATED and STORED entries are interleaved */
+    private final static int ALL_METHODS[] = {ZipConstants.DEFLATED, ZipConstants.STORED};
+
+    /** <code>java.util.zip.ZipInputStream</code> doesn't support STORED entries with a data descriptor */
+    private final static int DEFLATED_METHOD[] = {ZipConstants.DEFLATED};
+
+    /**
+     * Writes the test entries with the given compression methods, using small writes for some of them.
+     */
+    private void writeEntries(OutputStream out, int methods[]) throws IOException {
+        ZipOutputStream zos = new ZipOutputStream(out);
+        zos.setDeflateExecutor(deflateExecutor, NB_THREADS);
+
+        for(int i=0; i<ENTRY_SIZES.length; i++) {
+            for(int method : methods) {
+                ZipEntry entry = new ZipEntry(getEntryName(i, method));
+                entry.setMethod(method);
+                zos.putNextEntry(entry);
+
+                if(i%2==0) {
+                    zos.write(entryData[i]);
+                }
+                else {
+                    for(int off=0; off<entryData[i].length; off+=777)
+                        zos.write(entryData[i], off, Math.min(777, entryData[i].length-off));
+                }
+            }
+        }
+
+        zos.close();
+    }
+
+    private static String getEntryName(int index, int method) {
+        return "entry"+index+(method==ZipConstants.DEFLATED?".deflated":".stored");
+    }
+
+    /**
+     * Tests an archive written to a stream that is not seekable, i.e. with data descriptors, and reads it back with
+     * <code>java.util.zip.ZipInputStream</code>.
+     */
+    @Test
+    public void testDataDescriptors() throws IOException {
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        writeEntries(bout, DEFLATED_METHOD);
+
+        java.util.zip.ZipInputStream zin = new java.util.zip.ZipInputStream(new ByteArrayInputStream(bout.toByteArray()));
+        for(int i=0; i<ENTRY_SIZES.length; i++) {
+            for(int method : DEFLATED_METHOD) {
+                java.util.zip.ZipEntry entry = zin.getNextEntry();
+                assert getEntryName(i, method).equals(entry.getName());
+
+                ByteArrayOutputStream entryOut = new ByteArrayOutputStream();
+                StreamUtils.copyStream(zin, entryOut);
+                assert Arrays.equals(entryData[i], entryOut.toByteArray());
+            }
+        }
+        assert zin.getNextEntry()==null;
+        zin.close();
+    }
+
+    /**
+     * Tests an archive written to a seekable stream, and reads it back with {@link ZipFile}.
+     */
+    @Test
+    public void testRandomAccess() throws IOException {
+        writeEntries(tempFile.getRandomAccessOutputStream(), ALL_METHODS);
+
+        ZipFile zipFile = new ZipFile(tempFile);
+        assert zipFile.getNbEntries()==ENTRY_SIZES.length*2;
+        for(int i=0; i<ENTRY_SIZES.length; i++) {
+            for(int method : ALL_METHODS) {
+                ZipEntry entry = zipFile.getEntry(getEntryName(i, method));
+                assert entry.getSize()==ENTRY_SIZES[i];
+
+                InputStream in = zipFile.getInputStream(entry);
+                byte data[] = new byte[ENTRY_SIZES[i]];
+                StreamUtils.readFully(in, data);
+                assert in.read()==-1;
+                in.close();
+
+                assert Arrays.equals(entryData[i], data);
+            }
+        }
+    }
+}
@@ -0,0 +1,194 @@
+/**
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2018 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.mucommander.commons.file.protocol.ftp;
+
+import com.mucommander.commons.file.AbstractFile;
+import com.mucommander.commons.file.FileURL;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * A test case for the way {@link FTPFile} resolves and lists files, using <code>MLST</code>/<code>MLSD</code> when
+ * the server supports them and reusing directory listings through {@link FTPListingCache}. Files are served by an
+ * {@link InMemoryFTPServer}.
+ */
+public class FTPListingTest {
+
+    private InMemoryFTPServer server;
+
+    @AfterMethod
+    public void stopServer() throws IOException {
+        if(server!=null)
+            server.stop();
+    }
+
+    private void startServer(boolean mlstAdvertised, boolean mlstImplemented) throws IOException {
+        server = new InMemoryFTPServer(mlstAdvertised, mlstImplemented);
+        server.addDirectory("/dir");
+        server.addFile("/dir/a", 3);
+        server.addFile("/dir/b", 1000);
+        server.addDirectory("/dir/sub");
+    }
+
+    /**
+     * Resolves the file at the given path, bypassing the file pool of <code>FileFactory</code> so that the server
+     * is queried (or the listing cache used) every time.
+     */
+    private FTPFile resolve(String path) throws IOException {
+        return new FTPFile(FileURL.getFileURL(server.getURL(path)));
+    }
+
+    private static String[] getNames(AbstractFile files[]) {
+        String names[] = new String[files.length];
+        for(int i=0; i<files.length; i++)
+            names[i] = files[i].getName();
+        Arrays.sort(names);
+
+        return names;
+    }
+
+    /**
+     * Asserts that files are resolved with MLST without listing their parent, when the server supports it.
+     *
+     * @throws IOException should not happen
+     */
+    @Test
+    public void testResolveWithMlst() throws IOException {
+        startServer(true, true);
+
+        FTPFile file = resolve("/dir/a");
+        assert file.exists();
+        assert !file.isDirectory();
+        assert file.getSize()==3;
+        assert "a".equals(file.getName());
+        assert "a".equals(((org.apache.commons.net.ftp.FTPFile)file.getUnderlyingFileObject()).getName());
+
+        FTPFile dir = resolve("/dir/sub");
+        assert dir.exists();
+        assert dir.isDirectory();
+
+        assert !resolve("/dir/missing").exists();
+
+        assert server.getCommandCount("MLST")==3;
+        assert server.getCommandCount("MLSD")==0;
+        assert server.getCommandCount("LIST")==0;
+    }
+
+    /**
+     * Asserts that MLSD is used to list directories when the server supports it, that the entries of the directory
+     * itself and its parent are discarded, and that the listing is reused to resolve the children.
+     *
+     * @throws IOException should not happen
+     */
+    @Test
+    public void testListWithMlsd() throws IOException {
+        startServer(true, true);
+
+        AbstractFile children[] = resolve("/dir").ls();
+        assert Arrays.equals(new String[] {"a", "b", "sub"}, getNames(children));
+        for(AbstractFile child : children) {
+            assert child.exists();
+            assert child.isDirectory() == child.getName().equals("sub");
+        }
+
+        assert resolve("/dir/b").getSize()==1000;
+        assert !resolve("/dir/missing").exists();
+
+        assert server.getCommandCount("MLSD")==1;
+        assert server.getCommandCount("LIST")==0;
+        // '/dir' itself was resolved with MLST, its children from the listing
+        assert server.getCommandCount("MLST")==1;
+    }
+
+    /**
+     * Asserts that LIST is used when the server does not support FEAT, and that sibling files are resolved from a
+     * single listing of their parent.
+     *
+     * @throws IOException should not happen
+     */
+    @Test
+    public void testResolveWithList() throws IOException {
+        startServer(false, false);
+
+        FTPFile file = resolve("/dir/a");
+        assert file.exists();
+        assert file.getSize()==3;
+        assert resolve("/dir/b").getSize()==1000;
+        assert resolve("/dir/sub").isDirectory();
+        assert !resolve("/dir/missing").exists();
+
+        assert server.getCommandCount("LIST")==1;
+        assert server.getCommandCount("MLST")==0;
+        assert server.getCommandCount("MLSD")==0;
+    }
+
+    /**
+     * Asserts that the client falls back to LIST when the server advertises MLST but replies that it is not
+     * implemented.
+     *
+     * @throws IOException should not happen
+     */
+    @Test
+    public void testMlstNotImplemented() throws IOException {
+        startServer(true, false);
+
+        assert resolve("/dir/a").getSize()==3;
+        assert resolve("/dir/b").exists();
+        assert Arrays.equals(new String[] {"a", "b", "sub"}, getNames(resolve("/dir").ls()));
+
+        // MLST is tried once only
+        assert server.getCommandCount("MLST")==1;
+        assert server.getCommandCount("MLSD")==0;
+    }
+
+    /**
+     * Asserts that the listing of a directory is invalidated when one of its children is created, renamed or deleted.
+     *
+     * @throws IOException should not happen
+     */
+    @Test
+    public void testListingInvalidation() throws IOException {
+        startServer(false, false);
+
+        assert resolve("/dir/a").exists();
+        FTPFile newDir = resolve("/dir/new");
+        assert !newDir.exists();
+        assert server.getCommandCount("LIST")==1;
+
+        newDir.mkdir();
+        assert server.exists("/dir/new");
+        assert resolve("/dir/new").isDirectory();
+        assert server.getCommandCount("LIST")==2;
+
+        FTPFile renamedDir = resolve("/dir/renamed");
+        assert !renamedDir.exists();
+        resolve("/dir/new").renameTo(renamedDir);
+        assert !resolve("/dir/new").exists();
+        assert resolve("/dir/renamed").exists();
+        assert server.getCommandCount("LIST")==3;
+
+        resolve("/dir/renamed").delete();
+        assert !server.exists("/dir/renamed");
+        assert !resolve("/dir/renamed").exists();
+        assert server.getCommandCount("LIST")==4;
+    }
+}
@@ -0,0 +1,228 @@
+/**
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2018 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.mucommander.commons.file.protocol.http;
+
+import com.mucommander.commons.file.AbstractFile;
+import com.mucommander.commons.file.FileFactory;
+import com.mucommander.commons.io.RandomAccessInputStream;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A test case for the random access streams of {@link HTTPFile}, which read resources served by a local HTTP server.
+ */
+public class HTTPRandomAccessInputStreamTest {
+
+    private final static Pattern RANGE_PATTERN = Pattern.compile("bytes=(\\d+)-(\\d+)");
+
+    private static HttpServer server;
+
+    private static byte data[];
+
+    /** Number of GET requests served */
+    private final static AtomicInteger nbGetRequests = new AtomicInteger();
+
+    @BeforeClass
+    public static void startServer() throws IOException {
+        data = new byte[1024*1024+123];
+        new Random(0).nextBytes(data);
+
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        // Resources whose path starts with '/ranges' honor the 'Range' header, the others don't
+        server.createContext("/", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                boolean rangesSupported = exchange.getRequestURI().getPath().startsWith("/ranges");
+                exchange.getResponseHeaders().add("Last-Modified", "Thu, 01 Jan 2015 00:00:00 GMT");
+
+                if(exchange.getRequestMethod().equals("HEAD")) {
+                    exchange.getResponseHeaders().add("Content-Length", Integer.toString(data.length));
+                    exchange.sendResponseHeaders(200, -1);
+                    exchange.close();
+                    return;
+                }
+
+                nbGetRequests.incrementAndGet();
+
+                int start = 0;
+                int end = data.length-1;
+                String range = exchange.getRequestHeaders().getFirst("Range");
+                Matcher matcher = range==null ? null : RANGE_PATTERN.matcher(range);
+                if(rangesSupported && matcher!=null && matcher.matches()) {
+                    start = Integer.parseInt(matcher.group(1));
+                    end = Math.min(Integer.parseInt(matcher.group(2)), data.length-1);
+                    exchange.getResponseHeaders().add("Content-Range", "bytes "+start+"-"+end+"/"+data.length);
+                    exchange.sendResponseHeaders(206, end-start+1);
+                }
+                else {
+                    exchange.sendResponseHeaders(200, data.length);
+                }
+
+                OutputStream out = exchange.getResponseBody();
+                try {
+                    out.write(data, start, end-start+1);
+                }
+                catch(IOException e) {
+                    // The client doesn't read the whole resource if it doesn't support ranges
+                }
+                exchange.close();
+            }
+        });
+        server.start();
+    }
+
+    @AfterClass
+    public static void stopServer() {
+        server.stop(0);
+    }
+
+    private static RandomAccessInputStream getStream(String path) throws IOException {
+        AbstractFile file = FileFactory.getFile("http://localhost:"+server.getAddress().getPort()+path);
+        return file.getRandomAccessInputStream();
+    }
+
+    private static void assertSequentialRead(RandomAccessInputStream in) throws IOException {
+        byte read[] = new byte[data.length];
+        byte buffer[] = new byte[4096];
+        int pos = 0;
+        int nbRead;
+        while((nbRead=in.read(buffer))!=-1) {
+            System.arraycopy(buffer, 0, read, pos, nbRead);
+            pos += nbRead;
+        }
+
+        assert pos==data.length;
+        assert Arrays.equals(data, read);
+    }
+
+    /**
+     * Reads a resource sequentially and makes sure that the number of requests is logarithmic, as the size of the
+     * requested chunks doubles.
+     */
+    @Test
+    public void testSequentialRead() throws IOException {
+        int nbRequests = nbGetRequests.get();
+        RandomAccessInputStream in = getStream("/ranges/sequential.bin");
+        try {
+            assertSequentialRead(in);
+        }
+        finally {
+            in.close();
+        }
+
+        // Chunks grow from 8KB to 512KB
+        assert nbGetRequests.get()-nbRequests<=10;
+    }
+
+    /**
+     * Seeks and reads at random offsets, some of them close to each other.
+     */
+    @Test
+    public void testRandomRead() throws IOException {
+        Random random = new Random(1);
+        RandomAccessInputStream in = getStream("/ranges/random.bin");
+        try {
+            for(int i=0; i<300; i++) {
+                int offset = i%3==0 ? (int)Math.min(in.getOffset()+random.nextInt(100), data.length-1) : random.nextInt(data.length);
+                int len = Math.min(random.nextInt(40000)+1, data.length-offset);
+                in.seek(offset);
+
+                byte read[] = new byte[len];
+                in.readFully(read);
+                assert Arrays.equals(Arrays.copyOfRange(data, offset, offset+len), read);
+                assert in.getOffset()==offset+len;
+            }
+
+            // Single bytes are returned unsigned
+            in.seek(0);
+            for(int i=0; i<1000; i++)
+                assert in.read()==(data[i] & 0xFF);
+
+            in.seek(data.length);
+            assert in.read()==-1;
+        }
+        finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Makes sure that blocks that have been read by a stream are not requested again by another stream on the same
+     * resource.
+     */
+    @Test
+    public void testSharedCache() throws IOException {
+        RandomAccessInputStream in = getStream("/ranges/shared.bin");
+        byte read[] = new byte[100000];
+        try {
+            in.seek(data.length-read.length);
+            in.readFully(read);
+        }
+        finally {
+            in.close();
+        }
+
+        int nbRequests = nbGetRequests.get();
+        in = getStream("/ranges/shared.bin");
+        try {
+            in.seek(data.length-read.length);
+            in.readFully(read);
+            in.seek(data.length-read.length+5000);
+            in.readFully(read, 0, 1000);
+        }
+        finally {
+            in.close();
+        }
+
+        assert nbGetRequests.get()==nbRequests;
+        assert Arrays.equals(Arrays.copyOfRange(data, data.length-read.length+5000, data.length-read.length+6000), Arrays.copyOf(read, 1000));
+    }
+
+    /**
+     * Reads a resource from a server that doesn't honor the 'Range' header.
+     */
+    @Test
+    public void testRangesNotSupported() throws IOException {
+        RandomAccessInputStream in = getStream("/noranges/file.bin");
+        try {
+            in.seek(500000);
+            byte read[] = new byte[10000];
+            in.readFully(read);
+            assert Arrays.equals(Arrays.copyOfRange(data, 500000, 510000), read);
+
+            in.seek(0);
+            assertSequentialRead(in);
+        }
+        finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,290 @@
+/**
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2018 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.mucommander.commons.file.protocol.local;
+
+import com.mucommander.commons.file.AbstractFile;
+import com.mucommander.commons.file.FileFactory;
+import com.mucommander.commons.file.ProxyFile;
+import com.mucommander.commons.file.archive.zip.provider.ZipEntry;
+import com.mucommander.commons.file.archive.zip.provider.ZipFile;
+import com.mucommander.commons.file.protocol.local.LocalFile.LocalBufferedRandomAccessInputStream;
+import com.mucommander.commons.file.protocol.local.LocalFile.LocalRandomAccessInputStream;
+import com.mucommander.commons.io.RandomAccessInputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Random;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * A test case for {@link LocalBufferedRandomAccessInputStream}. The file that is read spans many read buffers so that
+ * reads that cross a buffer's boundary are tested.
+ */
+public class LocalBufferedRandomAccessInputStreamTest {
+    private static final Logger LOGGER = LoggerFactory.getLogger(LocalBufferedRandomAccessInputStreamTest.class);
+
+    private static File file;
+
+    private static byte data[];
+
+    @BeforeClass(alwaysRun = true)
+    public static void createFile() throws IOException {
+        data = new byte[64*LocalBufferedRandomAccessInputStream.READ_BUFFER_SIZE+12345];
+        new Random(0).nextBytes(data);
+
+        file = File.createTempFile(LocalBufferedRandomAccessInputStreamTest.class.getName(), null);
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(data);
+        }
+        finally {
+            out.close();
+        }
+    }
+
+    @AfterClass(alwaysRun = true)
+    public static void deleteFile() {
+        file.delete();
+    }
+
+    private static LocalBufferedRandomAccessInputStream openStream() throws IOException {
+        return new LocalBufferedRandomAccessInputStream(new RandomAccessFile(file, "r").getChannel());
+    }
+
+    /**
+     * Reads the whole file one byte at a time and asserts that bytes are returned unsigned.
+     *
+     * @throws IOException should not happen
+     */
+    @Test
+    public void testReadByte() throws IOException {
+        LocalBufferedRandomAccessInputStream in = openStream();
+        try {
+            assert in.getLength()==data.length;
+            for(int i=0; i<data.length; i++)
+                assert in.read()==(data[i]&0xFF);
+
+            assert in.read()==-1;
+            assert in.getOffset()==data.length;
+        }
+        finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Seeks backward and forward, including across the boundary of a read buffer, and reads chunks.
+     *
+     * @throws IOException should not happen
+     */
+    @Test
+    public void testSeekAndReadFully() throws IOException {
+        int boundary = 32*LocalBufferedRandomAccessInputStream.READ_BUFFER_SIZE;
+        long offsets[] = {data.length-22, boundary-1000, 0, boundary+7, 5, LocalBufferedRandomAccessInputStream.READ_BUFFER_SIZE-3};
+
+        LocalBufferedRandomAccessInputStream in = openStream();
+        try {
+            byte b[] = new byte[2000];
+            for(long offset : offsets) {
+                in.seek(offset);
+                int len = (int)Math.min(b.length, data.length-offset);
+                in.readFully(b, 0, len);
+
+                assert in.getOffset()==offset+len;
+                assert Arrays.equals(Arrays.copyOfRange(data, (int)offset, (int)offset+len), Arrays.copyOf(b, len));
+            }
+
+            in.seek(data.length);
+            assert in.read()==-1;
+            assert in.read(b, 0, b.length)==-1;
+            assert in.read(b, 0, 0)==0;
+
+            in.seek(10);
+            assert in.skip(100)==100;
+            assert in.read()==(data[110]&0xFF);
+        }
+        finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Asserts that a file that is truncated while it is being read is handled like the end of the file is.
+     *
+     * @throws IOException should not happen
+     */
+    @Test
+    public void testTruncatedFile() throws IOException {
+        File truncatedFile = File.createTempFile(LocalBufferedRandomAccessInputStreamTest.class.getName(), null);
+        try {
+            RandomAccessFile raf = new RandomAccessFile(truncatedFile, "rw");
+            try {
+                raf.write(data, 0, 1024*1024);
+
+                LocalBufferedRandomAccessInputStream in = new LocalBufferedRandomAccessInputStream(new RandomAccessFile(truncatedFile, "r").getChannel());
+                try {
+                    // Fill the read buffer
+                    assert in.read() == (data[0]&0xFF);
+
+                    raf.setLength(100);
+
+                    in.seek(500000);
+                    assert in.read() == -1;
+                    assert in.read(new byte[10]) == -1;
+
+                    in.seek(50);
+                    assert in.read() == (data[50]&0xFF);
+                    byte b[] = new byte[100];
+                    assert in.read(b) == 49;
+                }
+                finally {
+                    in.close();
+                }
+            }
+            finally {
+                raf.close();
+            }
+        }
+        finally {
+            truncatedFile.delete();
+        }
+    }
+
+    /**
+     * Returns a file that reads the given local file with the given kind of random access stream.
+     */
+    private static AbstractFile getFile(final File localFile, final boolean buffered) {
+        return new ProxyFile(FileFactory.getFile(localFile.getAbsolutePath())) {
+            @Override
+            public RandomAccessInputStream getRandomAccessInputStream() throws IOException {
+                return buffered
+                    ? new LocalBufferedRandomAccessInputStream(new RandomAccessFile(localFile, "r").getChannel())
+                    : new LocalRandomAccessInputStream(new RandomAccessFile(localFile, "r").getChannel());
+            }
+        };
+    }
+
+    /**
+     * Opens a Zip file, lists its entries and reads them, returning the number of bytes read.
+     */
+    private static long readZipFile(AbstractFile file, int nbEntries) throws IOException {
+        ZipFile zipFile = new ZipFile(file);
+        byte b[] = new byte[1024];
+        long nbBytes = 0;
+        int nbReadEntries = 0;
+        Iterator<ZipEntry> entries = zipFile.getEntries();
+        while(entries.hasNext()) {
+            InputStream in = zipFile.getInputStream(entries.next());
+            try {
+                int nbRead;
+                while((nbRead = in.read(b))!=-1)
+                    nbBytes += nbRead;
+            }
+            finally {
+                in.close();
+            }
+            nbReadEntries++;
+        }
+
+        assert nbReadEntries==nbEntries;
+
+        return nbBytes;
+    }
+
+    /**
+     * Compares the time it takes to open, list and read a large generated Zip file through
+     * {@link LocalRandomAccessInputStream}, which reads the file directly, and through
+     * {@link LocalBufferedRandomAccessInputStream}. The archive is also read a byte at a time through both streams,
+     * which is the worst case for the unbuffered one.
+     * <p>
+     * 7z archives are not compared as they are read with an <code>InputStream</code> rather than a random access one.
+     * </p>
+     * <p>
+     * This benchmark is part of the <code>benchmark</code> group, which is excluded from the default test run: it is
+     * run by the <code>benchmark</code> Gradle task.
+     * </p>
+     *
+     * @throws IOException should not happen
+     */
+    @Test(groups = "benchmark")
+    public void benchmarkZipFile() throws IOException {
+        final int nbEntries = 20000;
+        final int entrySize = 100;
+
+        File zip = File.createTempFile(LocalBufferedRandomAccessInputStreamTest.class.getName(), ".zip");
+        try {
+            ZipOutputStream out = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(zip)));
+            try {
+                Random random = new Random(0);
+                byte entryData[] = new byte[entrySize];
+                for(int i=0; i<nbEntries; i++) {
+                    out.putNextEntry(new java.util.zip.ZipEntry("dir"+(i/1000)+"/entry"+i+".txt"));
+                    random.nextBytes(entryData);
+                    out.write(entryData);
+                    out.closeEntry();
+                }
+            }
+            finally {
+                out.close();
+            }
+
+            // Warm up, then measure
+            long times[][] = new long[2][2];
+            for(int run=0; run<2; run++) {
+                for(int buffered=0; buffered<2; buffered++) {
+                    long start = System.nanoTime();
+                    assert readZipFile(getFile(zip, buffered==1), nbEntries)==(long)nbEntries*entrySize;
+                    times[buffered][0] = System.nanoTime()-start;
+
+                    start = System.nanoTime();
+                    RandomAccessInputStream in = getFile(zip, buffered==1).getRandomAccessInputStream();
+                    try {
+                        long nbBytes = 0;
+                        while(in.read()!=-1)
+                            nbBytes++;
+                        assert nbBytes==zip.length();
+                    }
+                    finally {
+                        in.close();
+                    }
+                    times[buffered][1] = System.nanoTime()-start;
+                }
+            }
+
+            LOGGER.info("Zip file of {} entries ({} bytes), unbuffered: read entries in {} ms, read byte by byte in {} ms",
+                        nbEntries, zip.length(), times[0][0]/1000000, times[0][1]/1000000);
+            LOGGER.info("Zip file of {} entries ({} bytes), buffered: read entries in {} ms, read byte by byte in {} ms",
+                        nbEntries, zip.length(), times[1][0]/1000000, times[1][1]/1000000);
+        }
+        finally {
+            zip.delete();
+        }
+    }
+}
@@ -157,6 +157,50 @@ public class LocalFileTest extends AbstractFileTest {
             testVolume(volume);
     }
 
+    /**
+     * Asserts that the attributes read when listing a folder match those of the listed files, and that they are
+     * returned only once by {@link LocalFile#takeListingAttributes()}, however long after the listing.
+     *
+     * @throws IOException should not happen
+     * @throws NoSuchAlgorithmException should not happen
+     * @throws InterruptedException should not happen
+     */
+    @Test
+    public void testListingAttributes() throws IOException, NoSuchAlgorithmException, InterruptedException {
+        tempFile.mkdir();
+        createFile(tempFile.getDirectChild("file"), 27);
+        tempFile.getDirectChild(".hidden").mkdir();
+
+        AbstractFile children[] = tempFile.ls();
+        assert children.length == 2;
+
+        for (AbstractFile child : children) {
+            LocalFile.LocalFileAttributes attributes = ((LocalFile)child).takeListingAttributes();
+            assert attributes != null;
+            assert attributes.exists();
+            assert attributes.isDirectory() == child.isDirectory();
+            assert attributes.isHidden() == child.isHidden();
+            assert attributes.isSymlink() == child.isSymlink();
+            assert attributes.getDate() / 1000 == child.getDate() / 1000;
+            if (!child.isDirectory())
+                assert attributes.getSize() == 27;
+
+            assert ((LocalFile)child).takeListingAttributes() == null;
+        }
+
+        // Attributes of large folders may be consumed well after they have been read
+        children = tempFile.ls();
+        Thread.sleep(1500);
+        for (AbstractFile child : children)
+            assert ((LocalFile)child).takeListingAttributes() != null;
+
+        // Attributes are not kept once the file has been modified
+        AbstractFile file = tempFile.ls()[0];
+        file.delete();
+        assert ((LocalFile)file).takeListingAttributes() == null;
+        assert ((LocalFile)file).readAttributes() == null;
+    }
+
     /**
      * Tests the regex pattern
      */
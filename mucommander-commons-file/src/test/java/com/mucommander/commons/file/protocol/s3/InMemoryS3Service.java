@@ -0,0 +1,423 @@
+/**
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2018 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.mucommander.commons.file.protocol.s3;
+
+import org.jets3t.service.S3ServiceException;
+import org.jets3t.service.ServiceException;
+import org.jets3t.service.StorageObjectsChunk;
+import org.jets3t.service.acl.AccessControlList;
+import org.jets3t.service.impl.rest.httpclient.RestS3Service;
+import org.jets3t.service.model.MultipartCompleted;
+import org.jets3t.service.model.MultipartPart;
+import org.jets3t.service.model.MultipartUpload;
+import org.jets3t.service.model.S3Object;
+import org.jets3t.service.model.StorageObject;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An S3 service that keeps the objects of a single bucket in memory, allowing S3 files to be tested without an S3
+ * server. Only the operations that are needed by the tests are implemented, following the semantics of the
+ * S3 REST API: listing objects, getting (ranges of) objects and uploading objects in parts.
+ */
+public class InMemoryS3Service extends RestS3Service {
+
+    /** Objects of the bucket, sorted by key */
+    private final SortedMap<String, S3Object> objects = new TreeMap<String, S3Object>();
+
+    /** Contents of the objects, by key */
+    private final Map<String, byte[]> objectData = new HashMap<String, byte[]>();
+
+    /** Parts of the multipart uploads in progress, by upload ID and part number */
+    private final Map<String, SortedMap<Integer, byte[]>> uploads = new HashMap<String, SortedMap<Integer, byte[]>>();
+
+    /** Number of listing requests that have been served */
+    private final AtomicInteger nbListRequests = new AtomicInteger();
+
+    /** Number of GET object requests that have been served */
+    private final AtomicInteger nbGetRequests = new AtomicInteger();
+
+    /** Number of upload part requests that have been served */
+    private final AtomicInteger nbPartRequests = new AtomicInteger();
+
+    /** Number of multipart uploads that have been started, used to generate upload IDs */
+    private final AtomicInteger nbUploads = new AtomicInteger();
+
+    /** Number of GET object requests that are to fail */
+    private int nbGetFailures;
+
+    /** Number of upload part requests that are to fail */
+    private int nbPartFailures;
+
+    /** Number of listing requests that are to be served before one fails, -1 if none is to fail */
+    private int nbListsBeforeFailure = -1;
+
+    /** Number of parts being uploaded, and the highest number of parts that were uploaded at the same time */
+    private int nbActiveParts, maxNbActiveParts;
+
+    /** Time spent serving each upload part request, in milliseconds */
+    private long partDelay;
+
+    public InMemoryS3Service() throws S3ServiceException {
+        super(null);
+    }
+
+    /**
+     * Adds an empty object with the given key.
+     *
+     * @param key the object's key
+     */
+    public void addObject(String key) {
+        addObject(key, new byte[0]);
+    }
+
+    /**
+     * Adds an object with the given key and contents, replacing the object with the same key if there is one.
+     *
+     * @param key the object's key
+     * @param data the object's contents
+     */
+    public synchronized void addObject(String key, byte data[]) {
+        S3Object object = new S3Object(key);
+        object.setLastModifiedDate(new Date());
+        object.setContentLength(data.length);
+        object.setETag(Integer.toHexString(Arrays.hashCode(data)));
+        objects.put(key, object);
+        objectData.put(key, data);
+    }
+
+    /**
+     * Returns the object with the given key, <code>null</code> if there is none.
+     *
+     * @param key the object's key
+     * @return the object with the given key
+     */
+    public synchronized S3Object getStoredObject(String key) {
+        return objects.get(key);
+    }
+
+    /**
+     * Returns the contents of the object with the given key, <code>null</code> if there is none.
+     *
+     * @param key the object's key
+     * @return the contents of the object with the given key
+     */
+    public synchronized byte[] getStoredObjectData(String key) {
+        return objectData.get(key);
+    }
+
+    /**
+     * Makes the given number of subsequent GET object requests fail with a server error.
+     *
+     * @param nbGetFailures number of GET object requests that are to fail
+     */
+    public synchronized void setNbGetFailures(int nbGetFailures) {
+        this.nbGetFailures = nbGetFailures;
+    }
+
+    /**
+     * Makes the given number of subsequent upload part requests fail with a server error.
+     *
+     * @param nbPartFailures number of upload part requests that are to fail
+     */
+    public synchronized void setNbPartFailures(int nbPartFailures) {
+        this.nbPartFailures = nbPartFailures;
+    }
+
+    /**
+     * Makes a single listing request fail with a server error, once the given number of subsequent ones have been
+     * served.
+     *
+     * @param nbListsBeforeFailure number of listing requests to serve before one fails
+     */
+    public synchronized void setNbListsBeforeFailure(int nbListsBeforeFailure) {
+        this.nbListsBeforeFailure = nbListsBeforeFailure;
+    }
+
+    /**
+     * Makes each upload part request take the given time, so that concurrent requests overlap.
+     *
+     * @param partDelay time spent serving each upload part request, in milliseconds
+     */
+    public synchronized void setPartDelay(long partDelay) {
+        this.partDelay = partDelay;
+    }
+
+    /**
+     * Returns the number of GET object requests that have been served so far, including failed ones.
+     *
+     * @return the number of GET object requests that have been served so far
+     */
+    public int getNbGetRequests() {
+        return nbGetRequests.get();
+    }
+
+    /**
+     * Returns the number of listing requests that have been served so far.
+     *
+     * @return the number of listing requests that have been served so far
+     */
+    public int getNbListRequests() {
+        return nbListRequests.get();
+    }
+
+    /**
+     * Returns the number of upload part requests that have been served so far, including failed ones.
+     *
+     * @return the number of upload part requests that have been served so far
+     */
+    public int getNbPartRequests() {
+        return nbPartRequests.get();
+    }
+
+    /**
+     * Returns the highest number of parts that were uploaded at the same time so far.
+     *
+     * @return the highest number of parts that were uploaded at the same time so far
+     */
+    public synchronized int getMaxNbActiveParts() {
+        return maxNbActiveParts;
+    }
+
+    /**
+     * Returns the number of multipart uploads that have been started and neither completed nor aborted.
+     *
+     * @return the number of multipart uploads in progress
+     */
+    public synchronized int getNbUploadsInProgress() {
+        return uploads.size();
+    }
+
+    private static ServiceException createServiceException(String message, int responseCode) {
+        ServiceException e = new ServiceException(message);
+        e.setResponseCode(responseCode);
+        return e;
+    }
+
+    private static S3ServiceException createS3ServiceException(String message, int responseCode) {
+        S3ServiceException e = new S3ServiceException(message);
+        e.setResponseCode(responseCode);
+        return e;
+    }
+
+    @Override
+    protected synchronized StorageObjectsChunk listObjectsChunkedImpl(String bucketName, String prefix, String delimiter,
+            long maxListingLength, String priorLastKey, boolean completeListing) throws ServiceException {
+        nbListRequests.incrementAndGet();
+
+        if(nbListsBeforeFailure==0) {
+            nbListsBeforeFailure = -1;
+            throw createServiceException("Internal error", 500);
+        }
+        if(nbListsBeforeFailure>0)
+            nbListsBeforeFailure--;
+
+        List<StorageObject> chunkObjects = new ArrayList<StorageObject>();
+        List<String> commonPrefixes = new ArrayList<String>();
+        String lastKey = null;
+        boolean truncated = false;
+
+        Map<String, S3Object> tail = priorLastKey==null ? objects : objects.tailMap(priorLastKey + '\0');
+        for(Map.Entry<String, S3Object> entry : tail.entrySet()) {
+            String key = entry.getKey();
+            if(!key.startsWith(prefix))
+                continue;
+
+            // Keys that contain the delimiter after the prefix are rolled up into a common prefix, which is skipped
+            // if it precedes the marker
+            String commonPrefix = null;
+            int delimiterPos = delimiter==null ? -1 : key.indexOf(delimiter, prefix.length());
+            if(delimiterPos!=-1) {
+                commonPrefix = key.substring(0, delimiterPos+delimiter.length());
+                if(commonPrefix.equals(lastKey) || (priorLastKey!=null && priorLastKey.compareTo(commonPrefix)>=0))
+                    continue;
+            }
+
+            if(!completeListing && chunkObjects.size()+commonPrefixes.size()>=maxListingLength) {
+                truncated = true;
+                break;
+            }
+
+            if(commonPrefix==null) {
+                chunkObjects.add(entry.getValue());
+                lastKey = key;
+            }
+            else {
+                commonPrefixes.add(commonPrefix);
+                lastKey = commonPrefix;
+            }
+        }
+
+        return new StorageObjectsChunk(prefix, delimiter, chunkObjects.toArray(new StorageObject[chunkObjects.size()]),
+                commonPrefixes.toArray(new String[commonPrefixes.size()]), truncated ? lastKey : null);
+    }
+
+    @Override
+    protected synchronized StorageObject getObjectDetailsImpl(String bucketName, String objectKey,
+            Calendar ifModifiedSince, Calendar ifUnmodifiedSince, String[] ifMatchTags, String[] ifNoneMatchTags,
+            String versionId) throws ServiceException {
+        S3Object object = objects.get(objectKey);
+        if(object==null)
+            throw createServiceException("No such key: " + objectKey, 404);
+
+        return object;
+    }
+
+    @Override
+    protected StorageObject getObjectImpl(String bucketName, String objectKey, Calendar ifModifiedSince,
+            Calendar ifUnmodifiedSince, String[] ifMatchTags, String[] ifNoneMatchTags, Long byteRangeStart,
+            Long byteRangeEnd, String versionId) throws ServiceException {
+        byte data[];
+        synchronized(this) {
+            // Counted along with the checks so that requests that have been counted have been checked
+            nbGetRequests.incrementAndGet();
+
+            if(nbGetFailures>0) {
+                nbGetFailures--;
+                throw createServiceException("Internal error", 500);
+            }
+
+            data = objectData.get(objectKey);
+            if(data==null)
+                throw createServiceException("No such key: " + objectKey, 404);
+
+            if(ifMatchTags!=null && !Arrays.asList(ifMatchTags).contains(objects.get(objectKey).getETag()))
+                throw createServiceException("Precondition failed: " + objectKey, 412);
+        }
+
+        int start = byteRangeStart==null ? 0 : byteRangeStart.intValue();
+        int end = byteRangeEnd==null ? data.length : (int)Math.min(byteRangeEnd+1, data.length);
+
+        S3Object object = new S3Object(objectKey);
+        object.setContentLength(end-start);
+        object.setDataInputStream(new ByteArrayInputStream(Arrays.copyOfRange(data, start, end)));
+
+        return object;
+    }
+
+    @Override
+    protected synchronized MultipartUpload multipartStartUploadImpl(String bucketName, String objectKey,
+            Map<String, Object> metadata, AccessControlList acl, String storageClass) throws S3ServiceException {
+        String uploadId = "upload" + nbUploads.incrementAndGet();
+        uploads.put(uploadId, new TreeMap<Integer, byte[]>());
+
+        return new MultipartUpload(uploadId, bucketName, objectKey);
+    }
+
+    @Override
+    protected MultipartPart multipartUploadPartImpl(String uploadId, String bucketName, Integer partNumber,
+            S3Object object) throws S3ServiceException {
+        nbPartRequests.incrementAndGet();
+
+        long delay;
+        synchronized(this) {
+            if(!uploads.containsKey(uploadId))
+                throw createS3ServiceException("No such upload: " + uploadId, 404);
+
+            if(nbPartFailures>0) {
+                nbPartFailures--;
+                throw createS3ServiceException("Internal error", 500);
+            }
+
+            maxNbActiveParts = Math.max(maxNbActiveParts, ++nbActiveParts);
+            delay = partDelay;
+        }
+
+        try {
+            ByteArrayOutputStream bout = new ByteArrayOutputStream();
+            InputStream in = object.getDataInputStream();
+            byte buffer[] = new byte[8192];
+            int nbRead;
+            while((nbRead=in.read(buffer))!=-1)
+                bout.write(buffer, 0, nbRead);
+
+            Thread.sleep(delay);
+
+            byte data[] = bout.toByteArray();
+            synchronized(this) {
+                SortedMap<Integer, byte[]> parts = uploads.get(uploadId);
+                if(parts==null)
+                    throw createS3ServiceException("No such upload: " + uploadId, 404);
+
+                parts.put(partNumber, data);
+            }
+
+            return new MultipartPart(partNumber, new Date(), Integer.toHexString(Arrays.hashCode(data)), (long)data.length);
+        }
+        catch(ServiceException e) {
+            throw new S3ServiceException(e);
+        }
+        catch(IOException e) {
+            throw new S3ServiceException(e);
+        }
+        catch(InterruptedException e) {
+            throw new S3ServiceException(e);
+        }
+        finally {
+            synchronized(this) {
+                nbActiveParts--;
+            }
+        }
+    }
+
+    @Override
+    protected synchronized void multipartAbortUploadImpl(String uploadId, String bucketName, String objectKey)
+            throws S3ServiceException {
+        if(uploads.remove(uploadId)==null)
+            throw createS3ServiceException("No such upload: " + uploadId, 404);
+    }
+
+    @Override
+    protected synchronized MultipartCompleted multipartCompleteUploadImpl(String uploadId, String bucketName,
+            String objectKey, List<MultipartPart> parts) throws S3ServiceException {
+        SortedMap<Integer, byte[]> uploadedParts = uploads.get(uploadId);
+        if(uploadedParts==null)
+            throw createS3ServiceException("No such upload: " + uploadId, 404);
+
+        // Parts must be listed in ascending order, and all but the last one must be at least 5MB
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        for(int i=0; i<parts.size(); i++) {
+            MultipartPart part = parts.get(i);
+            byte data[] = uploadedParts.get(part.getPartNumber());
+            if(data==null || (i>0 && parts.get(i-1).getPartNumber()>=part.getPartNumber())
+                    || (i<parts.size()-1 && data.length<S3MultipartUpload.MIN_PART_SIZE))
+                throw createS3ServiceException("Invalid part: " + part.getPartNumber(), 400);
+
+            bout.write(data, 0, data.length);
+        }
+
+        uploads.remove(uploadId);
+        addObject(objectKey, bout.toByteArray());
+
+        return new MultipartCompleted(null, bucketName, objectKey, objects.get(objectKey).getETag());
+    }
+}
@@ -0,0 +1,169 @@
+/**
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2018 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.mucommander.commons.file.protocol.s3;
+
+import com.mucommander.commons.file.FileURL;
+import com.mucommander.commons.io.FileTransferError;
+import com.mucommander.commons.io.FileTransferException;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * A test case for {@link S3MultipartUpload}, which uploads objects to an {@link InMemoryS3Service} through
+ * {@link S3Object#copyStream(InputStream, boolean, long)}.
+ */
+public class S3MultipartUploadTest {
+
+    private final static String BUCKET_NAME = "bucket";
+
+    private final static String OBJECT_KEY = "dir/object";
+
+    /** Number of parts the object is uploaded in */
+    private final static int NB_PARTS = 4;
+
+    private InMemoryS3Service service;
+
+    private byte data[];
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        service = new InMemoryS3Service();
+
+        data = new byte[(NB_PARTS-1)*S3MultipartUpload.MIN_PART_SIZE+17];
+        new Random(0).nextBytes(data);
+    }
+
+    private S3Object getObject(int nbThreads) throws IOException {
+        FileURL url = FileURL.getFileURL("s3://login:password@s3.amazonaws.com/" + BUCKET_NAME + "/" + OBJECT_KEY);
+        url.setProperty(S3Object.NB_TRANSFER_THREADS_PROPERTY_NAME, Integer.toString(nbThreads));
+        // Smaller than the minimum size of a part
+        url.setProperty(S3Object.PART_SIZE_PROPERTY_NAME, Integer.toString(1000));
+
+        return new S3Object(url, service, BUCKET_NAME);
+    }
+
+    /**
+     * Makes sure that the part size is raised to the minimum allowed by S3, and so that objects fit in the maximum
+     * number of parts.
+     */
+    @Test
+    public void testGetPartSize() {
+        int minPartSize = S3MultipartUpload.MIN_PART_SIZE;
+        assert S3MultipartUpload.getPartSize(100, 1000) == minPartSize;
+        assert S3MultipartUpload.getPartSize(100, 2*minPartSize) == 2*minPartSize;
+
+        long length = 3L*minPartSize*S3MultipartUpload.MAX_NB_PARTS;
+        assert S3MultipartUpload.getPartSize(length, minPartSize) == 3*minPartSize;
+        assert S3MultipartUpload.getPartSize(length+1, minPartSize) == 3*minPartSize+1;
+    }
+
+    /**
+     * Uploads an object in parts concurrently and asserts that it is assembled in order, that no more parts than
+     * requested are uploaded at the same time, and that the object's attributes are updated.
+     */
+    @Test
+    public void testUpload() throws IOException {
+        service.setPartDelay(200);
+
+        S3Object object = getObject(2);
+        assert !object.exists();
+        object.copyStream(new ByteArrayInputStream(data), false, data.length);
+
+        assert Arrays.equals(data, service.getStoredObjectData(OBJECT_KEY));
+        assert service.getNbPartRequests() == NB_PARTS;
+        assert service.getMaxNbActiveParts() == 2;
+        assert service.getNbUploadsInProgress() == 0;
+
+        assert object.exists();
+        assert object.getSize() == data.length;
+    }
+
+    /**
+     * Makes sure that parts that fail to upload are sent again.
+     */
+    @Test
+    public void testRetries() throws IOException {
+        service.setNbPartFailures(2);
+
+        getObject(2).copyStream(new ByteArrayInputStream(data), false, data.length);
+
+        assert Arrays.equals(data, service.getStoredObjectData(OBJECT_KEY));
+        assert service.getNbPartRequests() == NB_PARTS+2;
+    }
+
+    /**
+     * Makes sure that the upload is aborted if a part fails repeatedly, and that no object is created.
+     */
+    @Test
+    public void testAbort() throws IOException {
+        service.setNbPartFailures(1000);
+
+        try {
+            getObject(2).copyStream(new ByteArrayInputStream(data), false, data.length);
+            assert false;
+        }
+        catch(FileTransferException e) {
+            assert e.getReason() == FileTransferError.UNKNOWN;
+        }
+
+        assert service.getNbUploadsInProgress() == 0;
+        assert service.getStoredObject(OBJECT_KEY) == null;
+    }
+
+    /**
+     * Makes sure that the upload is aborted if the source can't be read entirely.
+     */
+    @Test
+    public void testReadError() throws IOException {
+        InputStream in = new FilterInputStream(new ByteArrayInputStream(data)) {
+            private long offset;
+
+            @Override
+            public int read(byte b[], int off, int len) throws IOException {
+                // Fails in the middle of the second part
+                if(offset>=S3MultipartUpload.MIN_PART_SIZE*3/2)
+                    throw new IOException("Read error");
+
+                int nbRead = super.read(b, off, Math.min(len, 8192));
+                if(nbRead>0)
+                    offset += nbRead;
+
+                return nbRead;
+            }
+        };
+
+        try {
+            getObject(2).copyStream(in, false, data.length);
+            assert false;
+        }
+        catch(FileTransferException e) {
+            assert e.getReason() == FileTransferError.READING_SOURCE;
+        }
+
+        assert service.getNbUploadsInProgress() == 0;
+        assert service.getStoredObject(OBJECT_KEY) == null;
+    }
+}
@@ -0,0 +1,232 @@
+/**
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2018 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.mucommander.commons.file.protocol.s3;
+
+import com.mucommander.commons.file.AbstractFile;
+import com.mucommander.commons.file.ChildrenListener;
+import com.mucommander.commons.file.FileURL;
+import com.mucommander.commons.file.filter.AbstractFileFilter;
+import com.mucommander.commons.file.filter.FileFilter;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A test case for {@link S3ObjectLister}, which lists the objects of an {@link InMemoryS3Service}.
+ */
+public class S3ObjectListerTest {
+
+    private final static String BUCKET_NAME = "bucket";
+
+    private final static String DIRECTORY_KEY = "dir/";
+
+    private InMemoryS3Service service;
+
+    /** Names of the children of the directory */
+    private Set<String> childrenNames;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        service = new InMemoryS3Service();
+        childrenNames = new HashSet<String>();
+
+        service.addObject(DIRECTORY_KEY);
+        service.addObject("before");
+        service.addObject("dir0/after");
+
+        // Children whose names start with a variety of characters, some of them with contents of their own
+        String firstChars = " !-.09@AMZ_az~é中";
+        for(int i=0; i<firstChars.length(); i++) {
+            for(int j=0; j<40; j++) {
+                String name = firstChars.charAt(i) + "file" + j;
+                service.addObject(DIRECTORY_KEY + name);
+                childrenNames.add(name);
+            }
+
+            String subdirectoryName = firstChars.charAt(i) + "subdir";
+            service.addObject(DIRECTORY_KEY + subdirectoryName + "/");
+            service.addObject(DIRECTORY_KEY + subdirectoryName + "/child1");
+            service.addObject(DIRECTORY_KEY + subdirectoryName + "/child2");
+            childrenNames.add(subdirectoryName);
+
+            // A common prefix that has no object of its own
+            service.addObject(DIRECTORY_KEY + firstChars.charAt(i) + "prefix/child");
+            childrenNames.add(firstChars.charAt(i) + "prefix");
+        }
+    }
+
+    private S3Object getDirectory(int nbListingThreads) throws IOException {
+        FileURL url = FileURL.getFileURL("s3://login:password@s3.amazonaws.com/" + BUCKET_NAME + "/" + DIRECTORY_KEY);
+        if(nbListingThreads>0)
+            url.setProperty(S3File.NB_LISTING_THREADS_PROPERTY_NAME, Integer.toString(nbListingThreads));
+
+        return new S3Object(url, service, BUCKET_NAME);
+    }
+
+    /**
+     * Lists the directory and asserts that the returned children are the expected ones, and the same as the ones
+     * the listener was notified of.
+     *
+     * @return the number of batches the listener was notified of
+     */
+    private int assertListing(S3Object directory, long chunkSize, FileFilter filter, Set<String> expectedNames) throws IOException {
+        final List<AbstractFile> listedChildren = new ArrayList<AbstractFile>();
+        final int nbBatches[] = new int[1];
+        ChildrenListener listener = new ChildrenListener() {
+            public void childrenListed(AbstractFile[] children) {
+                for(AbstractFile child : children)
+                    listedChildren.add(child);
+                nbBatches[0]++;
+            }
+        };
+
+        S3ObjectLister lister = new S3ObjectLister(service, directory.getURL(), BUCKET_NAME, DIRECTORY_KEY, directory,
+                filter, listener, directory.getNbListingThreads());
+        lister.setChunkSize(chunkSize);
+        AbstractFile children[] = lister.list();
+
+        assert children.length==expectedNames.size();
+        assert listedChildren.size()==children.length;
+
+        Set<String> names = new HashSet<String>();
+        for(AbstractFile child : children) {
+            assert names.add(child.getName());
+            assert child.getParent()==directory;
+        }
+        assert names.equals(expectedNames);
+
+        for(AbstractFile child : listedChildren)
+            assert names.contains(child.getName());
+
+        return nbBatches[0];
+    }
+
+    /**
+     * Lists the directory in a single chunk.
+     */
+    @Test
+    public void testSingleChunk() throws IOException {
+        assert assertListing(getDirectory(0), 100000, null, childrenNames)==1;
+    }
+
+    /**
+     * Lists the directory one chunk after the other, the listener being notified of each chunk.
+     */
+    @Test
+    public void testSequentialChunks() throws IOException {
+        int chunkSize = 7;
+        int nbBatches = assertListing(getDirectory(1), chunkSize, null, childrenNames);
+        assert nbBatches==(childrenNames.size()+1+chunkSize-1)/chunkSize;
+    }
+
+    /**
+     * Lists the remainder of the directory after the first chunk in ranges that are listed concurrently.
+     */
+    @Test
+    public void testConcurrentRanges() throws IOException {
+        for(int nbThreads : new int[]{2, 3, 8, 200}) {
+            for(int chunkSize : new int[]{1, 5, 13, 1000}) {
+                assertListing(getDirectory(nbThreads), chunkSize, null, childrenNames);
+            }
+        }
+    }
+
+    /**
+     * Makes sure that the filter is applied to each batch.
+     */
+    @Test
+    public void testFilter() throws IOException {
+        FileFilter filter = new AbstractFileFilter() {
+            public boolean accept(AbstractFile file) {
+                return file.getName().startsWith("A");
+            }
+        };
+
+        Set<String> expectedNames = new HashSet<String>();
+        for(String name : childrenNames)
+            if(name.startsWith("A"))
+                expectedNames.add(name);
+
+        assertListing(getDirectory(1), 9, filter, expectedNames);
+        assertListing(getDirectory(4), 9, filter, expectedNames);
+    }
+
+    /**
+     * Makes sure that the listing fails if a chunk fails to be listed after the listener was notified of the first
+     * one, and that the listener is not notified anymore once the listing has failed.
+     */
+    @Test
+    public void testFailure() throws Exception {
+        for(int nbThreads : new int[]{1, 4}) {
+            final AtomicInteger nbListedChildren = new AtomicInteger();
+            ChildrenListener listener = new ChildrenListener() {
+                public void childrenListed(AbstractFile[] children) {
+                    nbListedChildren.addAndGet(children.length);
+                }
+            };
+
+            S3Object directory = getDirectory(nbThreads);
+            S3ObjectLister lister = new S3ObjectLister(service, directory.getURL(), BUCKET_NAME, DIRECTORY_KEY, directory,
+                    null, listener, nbThreads);
+            lister.setChunkSize(1);
+            service.setNbListsBeforeFailure(10);
+            try {
+                lister.list();
+                assert false;
+            }
+            catch(IOException e) {
+                // Expected
+            }
+
+            int nbListed = nbListedChildren.get();
+            assert nbListed>0 && nbListed<childrenNames.size();
+
+            // Ranges that were still being listed must not notify the listener
+            Thread.sleep(200);
+            assert nbListedChildren.get()==nbListed;
+        }
+    }
+
+    /**
+     * Makes sure that {@link S3Object#ls(FileFilter, ChildrenListener)} lists the directory, and that the listing of
+     * a directory that doesn't exist fails.
+     */
+    @Test
+    public void testLs() throws IOException {
+        S3Object directory = getDirectory(4);
+        AbstractFile children[] = directory.ls(null, null);
+        assert children.length==childrenNames.size();
+        assert directory.ls().length==childrenNames.size();
+
+        FileURL url = FileURL.getFileURL("s3://login:password@s3.amazonaws.com/" + BUCKET_NAME + "/missing/");
+        try {
+            new S3Object(url, service, BUCKET_NAME).ls(null, null);
+            assert false;
+        }
+        catch(IOException e) {
+            // Expected
+        }
+    }
+}
@@ -0,0 +1,176 @@
+/**
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2018 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.mucommander.commons.file.protocol.s3;
+
+import com.mucommander.commons.file.FileURL;
+import com.mucommander.commons.io.StreamUtils;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * A test case for {@link S3ObjectRangedInputStream}, which downloads the objects of an {@link InMemoryS3Service}.
+ */
+public class S3ObjectRangedInputStreamTest {
+
+    private final static String BUCKET_NAME = "bucket";
+
+    private final static String OBJECT_KEY = "dir/object";
+
+    private InMemoryS3Service service;
+
+    private byte data[];
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        service = new InMemoryS3Service();
+
+        data = new byte[100000+17];
+        new Random(0).nextBytes(data);
+        service.addObject(OBJECT_KEY, data);
+    }
+
+    private S3Object getObject(int nbThreads, int partSize) throws IOException {
+        FileURL url = FileURL.getFileURL("s3://login:password@s3.amazonaws.com/" + BUCKET_NAME + "/" + OBJECT_KEY);
+        url.setProperty(S3Object.NB_TRANSFER_THREADS_PROPERTY_NAME, Integer.toString(nbThreads));
+        url.setProperty(S3Object.PART_SIZE_PROPERTY_NAME, Integer.toString(partSize));
+
+        return new S3Object(url, service, BUCKET_NAME, service.getStoredObject(OBJECT_KEY));
+    }
+
+    private byte[] readObject(S3Object object, long offset) throws IOException {
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        InputStream in = object.getInputStream(offset);
+        try {
+            StreamUtils.copyStream(in, bout);
+        }
+        finally {
+            in.close();
+        }
+
+        return bout.toByteArray();
+    }
+
+    /**
+     * Reads the object from various offsets with various part sizes and numbers of threads.
+     */
+    @Test
+    public void testRead() throws IOException {
+        for(int nbThreads : new int[]{1, 2, 4}) {
+            for(int partSize : new int[]{1000, 4096, 33333, 100000+17, 1000000}) {
+                for(long offset : new long[]{0, 1, 4096, 99999, data.length}) {
+                    int nbGetRequests = service.getNbGetRequests();
+                    byte read[] = readObject(getObject(nbThreads, partSize), offset);
+                    assert Arrays.equals(Arrays.copyOfRange(data, (int)offset, data.length), read);
+
+                    // Objects that fit in a single part are downloaded with a single request
+                    int expectedNbGetRequests = nbThreads>1 && data.length-offset>partSize
+                            ? (int)((data.length-offset+partSize-1)/partSize)
+                            : 1;
+                    assert service.getNbGetRequests()-nbGetRequests==expectedNbGetRequests;
+                }
+            }
+        }
+    }
+
+    /**
+     * Makes sure that parts that fail to download are requested again, and that the stream fails if they fail
+     * repeatedly.
+     */
+    @Test
+    public void testRetries() throws IOException {
+        service.setNbGetFailures(2);
+        assert Arrays.equals(data, readObject(getObject(2, 10000), 0));
+
+        service.setNbGetFailures(1000);
+        try {
+            readObject(getObject(2, 10000), 0);
+            assert false;
+        }
+        catch(IOException e) {
+            // Expected
+        }
+    }
+
+    /**
+     * Makes sure that the stream fails rather than returning parts of another version of the object if the object is
+     * replaced while it is being read, and that the failed part is not requested again.
+     */
+    @Test
+    public void testObjectChanged() throws IOException {
+        InputStream in = getObject(2, 1000).getInputStream();
+        try {
+            byte b[] = new byte[1000];
+            StreamUtils.readFully(in, b);
+            assert Arrays.equals(Arrays.copyOf(data, b.length), b);
+
+            // Wait for the parts that are downloaded ahead to be requested
+            long deadline = System.currentTimeMillis()+10000;
+            while(service.getNbGetRequests()<3) {
+                assert System.currentTimeMillis()<deadline;
+                Thread.yield();
+            }
+
+            byte newData[] = data.clone();
+            newData[data.length-1]++;
+            service.addObject(OBJECT_KEY, newData);
+
+            int nbGetRequests = service.getNbGetRequests();
+            try {
+                StreamUtils.copyStream(in, new ByteArrayOutputStream());
+                assert false;
+            }
+            catch(IOException e) {
+                // Expected
+            }
+
+            // The parts requested after the object changed fail once, without being requested again
+            int nbFailedRequests = service.getNbGetRequests()-nbGetRequests;
+            assert nbFailedRequests>=1 && nbFailedRequests<=2;
+        }
+        finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Makes sure that the stream can be closed before it has been read entirely, and can't be read after.
+     */
+    @Test
+    public void testClose() throws IOException {
+        InputStream in = getObject(4, 1000).getInputStream();
+        byte b[] = new byte[1500];
+        StreamUtils.readFully(in, b);
+        assert Arrays.equals(Arrays.copyOf(data, b.length), b);
+        in.close();
+
+        try {
+            in.read();
+            assert false;
+        }
+        catch(IOException e) {
+            // Expected
+        }
+    }
+}
@@ -22,10 +22,16 @@ import com.mucommander.commons.file.AbstractFile;
 import com.mucommander.commons.file.AbstractFileTest;
 import com.mucommander.commons.file.FileFactory;
 import com.mucommander.commons.file.FileOperation;
+import com.mucommander.commons.io.RandomAccessInputStream;
+import com.mucommander.commons.io.StreamUtils;
 import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
 
 import java.io.IOException;
-import java.security.NoSuchAlgorithmException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Random;
 
 /**
  * An {@link AbstractFileTest} implementation for {@link com.mucommander.commons.file.protocol.sftp.SFTPFile}.
@@ -82,18 +88,106 @@ public class SFTPFileTest extends AbstractFileTest {
 
 
     ////////////////////////
-    // Overridden methods //
+    // SFTP-specific tests //
     ////////////////////////
 
-    // Method temporarily overridden to prevent the unit tests from failing
-    @Override
-    protected void testGetInputStreamSupported() throws IOException, NoSuchAlgorithmException {
-        // Todo: fix the InputStream
+    /**
+     * Creates the temporary file with the given number of random bytes and returns them.
+     */
+    private byte[] createTempFile(int length) throws IOException {
+        byte data[] = new byte[length];
+        new Random(0).nextBytes(data);
+
+        OutputStream out = tempFile.getOutputStream();
+        try {
+            out.write(data);
+        }
+        finally {
+            out.close();
+        }
+
+        return data;
     }
 
-    // Method temporarily overridden to prevent the unit tests from failing
-    @Override
-    protected void testGetRandomAccessInputStreamSupported() throws IOException, NoSuchAlgorithmException {
-        // Todo: fix the RandomAccessInputStream
+    /**
+     * Asserts that the given stream returns the given bytes and then reaches EOF.
+     */
+    private void assertReads(InputStream in, byte expected[], int offset, int length) throws IOException {
+        byte b[] = new byte[length];
+        StreamUtils.readFully(in, b);
+        assert Arrays.equals(Arrays.copyOfRange(expected, offset, offset+length), b);
+    }
+
+    /**
+     * Tests {@link SFTPFile#getInputStream(long)} at various offsets, including the end of the file. Streams are read
+     * entirely or closed early, and must not keep their connection locked once they are closed.
+     */
+    @Test
+    public void testGetInputStreamAtOffset() throws IOException {
+        byte data[] = createTempFile(200000);
+
+        for(long offset : new long[]{0, 1, 32767, 32768, 100000, data.length-1, data.length}) {
+            InputStream in = tempFile.getInputStream(offset);
+            try {
+                assertReads(in, data, (int)offset, data.length-(int)offset);
+                assert -1 == in.read();
+            }
+            finally {
+                in.close();
+            }
+
+            // Close the stream before it has been read entirely
+            in = tempFile.getInputStream(offset);
+            in.close();
+        }
+    }
+
+    /**
+     * Tests {@link SFTPFile#getRandomAccessInputStream()} with backward, short forward and long forward seeks, and
+     * seeks to the end of the file.
+     */
+    @Test
+    public void testRandomAccessRead() throws IOException {
+        byte data[] = createTempFile(300000);
+
+        RandomAccessInputStream rais = tempFile.getRandomAccessInputStream();
+        try {
+            assert rais.getLength() == data.length;
+
+            // Seek before reading anything
+            rais.seek(150000);
+            assert rais.getOffset() == 150000;
+            assertReads(rais, data, 150000, 1000);
+            assert rais.getOffset() == 151000;
+
+            // Backward seek
+            rais.seek(10);
+            assertReads(rais, data, 10, 100);
+            assert rais.getOffset() == 110;
+
+            // Short forward seek, performed by skipping data
+            rais.seek(5000);
+            assertReads(rais, data, 5000, 40000);
+
+            // Long forward seek
+            rais.seek(250000);
+            assertReads(rais, data, 250000, 1);
+            assert rais.read() == (data[250001]&0xFF);
+
+            // Seeking to the same offset has no effect
+            rais.seek(rais.getOffset());
+            assertReads(rais, data, 250002, data.length-250002);
+            assert -1 == rais.read();
+
+            rais.seek(data.length);
+            assert -1 == rais.read();
+
+            rais.seek(0);
+            assertReads(rais, data, 0, data.length);
+            assert -1 == rais.read();
+        }
+        finally {
+            rais.close();
+        }
     }
 }
@@ -0,0 +1,125 @@
+/**
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2018 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.mucommander.commons.file.util;
+
+import com.mucommander.commons.file.AbstractFile;
+import com.mucommander.commons.file.FileFactory;
+import com.mucommander.commons.file.FileURL;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CyclicBarrier;
+
+/**
+ * A test case for {@link FilePool}, whose mappings are spread over several independently-locked segments.
+ */
+public class FilePoolTest {
+
+    /** Number of files per thread, enough for all segments to be used */
+    private final static int NB_FILES = 20*FilePool.NB_SEGMENTS;
+
+    private final static int NB_THREADS = 4;
+
+    private AbstractFile files[];
+
+    @BeforeMethod
+    public void setUp() throws IOException {
+        AbstractFile folder = FileFactory.getTemporaryFolder();
+        files = new AbstractFile[NB_THREADS*NB_FILES];
+        for(int i=0; i<files.length; i++)
+            files[i] = folder.getDirectChild("file"+i);
+    }
+
+    /**
+     * Tests the mappings of a pool that is used by a single thread.
+     */
+    @Test
+    public void testMappings() {
+        FilePool pool = new FilePool();
+        for(AbstractFile file : files)
+            assert pool.put(file.getURL(), file) == null;
+
+        assert pool.size() == files.length;
+        for(AbstractFile file : files) {
+            assert pool.get(file.getURL()) == file;
+            assert pool.containsKey(file.getURL());
+            assert pool.containsValue(file);
+        }
+
+        // Replacing a mapping returns the previous file, URLs are trailing slash insensitive
+        FileURL url = (FileURL)files[0].getURL().clone();
+        url.setPath(url.getPath()+"/");
+        assert pool.put(url, files[1]) == files[0];
+        assert pool.get(files[0].getURL()) == files[1];
+        assert !pool.containsValue(files[0]);
+        assert pool.size() == files.length;
+
+        pool.clear();
+        assert pool.size() == 0;
+        assert pool.get(files[1].getURL()) == null;
+        assert !pool.containsKey(files[1].getURL());
+    }
+
+    /**
+     * Adds and retrieves files from several threads at the same time and asserts that no mapping is lost.
+     *
+     * @throws InterruptedException should not happen
+     */
+    @Test
+    public void testConcurrentMappings() throws InterruptedException {
+        final FilePool pool = new FilePool();
+        final CyclicBarrier barrier = new CyclicBarrier(NB_THREADS);
+        final List<Throwable> failures = Collections.synchronizedList(new ArrayList<Throwable>());
+
+        Thread threads[] = new Thread[NB_THREADS];
+        for(int t=0; t<NB_THREADS; t++) {
+            final int first = t*NB_FILES;
+            threads[t] = new Thread("FilePoolTest-"+t) {
+                @Override
+                public void run() {
+                    try {
+                        barrier.await();
+                        for(int i=first; i<first+NB_FILES; i++) {
+                            if(pool.put(files[i].getURL(), files[i])!=null)
+                                throw new AssertionError("file"+i+" was already mapped");
+                            if(pool.get(files[i].getURL())!=files[i])
+                                throw new AssertionError("file"+i+" is not mapped");
+                        }
+                    }
+                    catch(Throwable e) {
+                        failures.add(e);
+                    }
+                }
+            };
+            threads[t].start();
+        }
+
+        for(Thread thread : threads)
+            thread.join(60000);
+
+        assert failures.isEmpty(): failures;
+        assert pool.size() == files.length;
+        for(AbstractFile file : files)
+            assert pool.get(file.getURL()) == file;
+    }
+}
@@ -33,15 +33,28 @@ import java.io.IOException;
  * longer it takes to reposition the stream. On the other hand, a larger block size will yield better performance when
  * reading the resource sequentially, as it lessens the overhead of requesting a particular block.</p>
  *
+ * <p>To get the best of both worlds, a maximum block size can be specified: the size of the blocks then doubles every
+ * time a block is read right after the previous one (i.e. the resource is read sequentially), up to the maximum
+ * block size, and gets back to the initial block size when a block is read at a different offset.</p>
+ *
  * @author Maxence Bernard
  */
 public abstract class BlockRandomInputStream extends RandomAccessInputStream {
 
-    /** Block size, i.e. length of the {@link #block} array */
+    /** Initial block size, i.e. size of the blocks that are read when seeking */
     protected final int blockSize;
 
+    /** Size that the block size grows to when the resource is read sequentially */
+    private final int maxBlockSize;
+
+    /** Size of the current block, between {@link #blockSize} and {@link #maxBlockSize} */
+    private int currentBlockSize;
+
     /** Contains the current file block. Data may end before the array does. */
-    private final byte block[];
+    private byte block[];
+
+    /** Global offset within the file of the end of the current block, -1 if no block has been read yet */
+    private long blockEnd = -1;
 
     /** Current offset within the block array to the next byte to return */
     private int blockOff;
@@ -64,7 +77,20 @@ public abstract class BlockRandomInputStream extends RandomAccessInputStream {
      * @param blockSize controls the amount of data requested when reading a block
      */
     protected BlockRandomInputStream(int blockSize) {
+        this(blockSize, blockSize);
+    }
+
+    /**
+     * Creates a new <code>BlockRandomInputStream</code> whose block size grows from <code>blockSize</code> up to
+     * <code>maxBlockSize</code> as long as the resource is read sequentially.
+     *
+     * @param blockSize controls the amount of data requested when seeking
+     * @param maxBlockSize controls the maximum amount of data requested when reading the resource sequentially
+     */
+    protected BlockRandomInputStream(int blockSize, int maxBlockSize) {
         this.blockSize = blockSize;
+        this.maxBlockSize = Math.max(blockSize, maxBlockSize);
+        currentBlockSize = blockSize;
         block = new byte[blockSize];
     }
 
@@ -90,19 +116,25 @@ public abstract class BlockRandomInputStream extends RandomAccessInputStream {
     }
 
     /**
-     * Calls {@link #readBlock(long, byte[], int)} to read a block of up to <code>blockSize</code>, less if the
+     * Calls {@link #readBlock(long, byte[], int)} to read a block of up to the current block size, less if the
      * the end of file is near.
      *
      * @throws IOException if an I/O error occurred
      */
     private void readBlock() throws IOException {
-        int len = Math.min((int)(getLength()-offset), blockSize);
+        // Grow the block size if the block follows the previous one, reset it otherwise
+        currentBlockSize = offset==blockEnd ? Math.min(currentBlockSize*2, maxBlockSize) : blockSize;
+        if(block.length<currentBlockSize)
+            block = new byte[currentBlockSize];
+
+        int len = (int)Math.min(getLength()-offset, currentBlockSize);
         // update len with the number of bytes actually read
         len = readBlock(offset, block, len);
 
         // Note: these fields won't be updated if an I/O error occurs
         this.blockOff = 0;
         this.blockLen = len;
+        this.blockEnd = offset+len;
     }
 
 
@@ -117,7 +149,7 @@ public abstract class BlockRandomInputStream extends RandomAccessInputStream {
 
         checkBuffer();
 
-        int ret = block[blockOff];
+        int ret = block[blockOff] & 0xFF;
 
         blockOff++;
         offset ++;
@@ -169,8 +201,9 @@ public abstract class BlockRandomInputStream extends RandomAccessInputStream {
     /**
      * Reads a block, that spawns from <code>fileOffset</code> to <code>fileOffset+blockLen</code>, an returns
      * the number of bytes that could be read, normally <code>blockLen</code> but can be less.
+     * If a maximum block size was specified, <code>blockLen</code> may be larger than {@link #blockSize}.
      *
-     * <p>Note that <code>blockLen</code> may be smaller than {@link #blockSize} if the end of file is near, to prevent
+     * <p>Note that <code>blockLen</code> may be smaller than the block size if the end of file is near, to prevent
      * <code>EOF</code> from being reached. In other words, <code>fileOffset+blockLen</code> should theorically not
      * exceed the file's length, but this could happen in the unlikely event that the file just shrinked after
      * {@link #getLength()} was last called. So this method's implementation should handle the case where
@@ -23,7 +23,13 @@ import org.slf4j.LoggerFactory;
 
 import java.nio.ByteBuffer;
 import java.nio.CharBuffer;
-import java.util.Vector;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * This class allows to share and reuse byte buffers to avoid excessive memory allocation and garbage collection.
@@ -46,7 +52,10 @@ import java.util.Vector;
  * </ul>
  * </p>
  *
- * <p>Note: this class is thread safe and thus can safely be used by concurrent threads.</p>
+ * <p>Note: this class is thread safe and thus can safely be used by concurrent threads. It doesn't use any lock:
+ * available buffers are kept in lock-free lists, one for each buffer class and size, so that threads that use
+ * buffers of different sizes don't interfere with each other. Usage counters are available to tune the pool, see
+ * {@link #getHitCount()}, {@link #getMissCount()}, {@link #getDiscardCount()} and {@link #getContentionCount()}.</p>
  *
  * @author Maxence Bernard, Nicolas Rinaudo
  * @see com.mucommander.commons.io.StreamUtils
@@ -55,23 +64,47 @@ public class BufferPool {
     /** Logger used by this class. */
     private static final Logger LOGGER = LoggerFactory.getLogger(BufferPool.class);
 
-    /** List of BufferContainer instances that wraps available buffers */
-    private static Vector<BufferContainer> bufferContainers = new Vector<BufferContainer>();
+    /** Available buffers, most recently released first, by buffer class and size */
+    private final static ConcurrentMap<BufferKey, ConcurrentLinkedDeque<BufferContainer>> freeLists = new ConcurrentHashMap<BufferKey, ConcurrentLinkedDeque<BufferContainer>>();
+
+    /** BufferContainer instances that wrap available buffers, used to detect buffers that are released twice */
+    private final static Set<BufferContainer> bufferContainers = Collections.newSetFromMap(new ConcurrentHashMap<BufferContainer, Boolean>());
 
     /** The initial default buffer size */
     public final static int INITIAL_DEFAULT_BUFFER_SIZE = 65536;
 
     /** Size of buffers returned by get*Buffer methods without a size argument */
-    public static int defaultBufferSize = INITIAL_DEFAULT_BUFFER_SIZE;
+    public static volatile int defaultBufferSize = INITIAL_DEFAULT_BUFFER_SIZE;
 
     /** The initial max pool size */
     public final static long INITIAL_POOL_LIMIT = 10485760;
 
     /** Maximum combined size of all pooled buffers, in bytes */
-    public static long maxPoolSize = INITIAL_POOL_LIMIT;
+    public static volatile long maxPoolSize = INITIAL_POOL_LIMIT;
 
     /** Current combined size of all pooled buffers, in bytes */
-    public static long poolSize;
+    private final static AtomicLong poolSizeCounter = new AtomicLong();
+
+    /**
+     * Current combined size of all pooled buffers, in bytes. This field is updated after the pool size changes and
+     * may briefly lag behind it when buffers are requested and released concurrently. Assigning it has no effect.
+     *
+     * @deprecated use {@link #getPoolSize()} instead
+     */
+    @Deprecated
+    public static volatile long poolSize;
+
+    /** Number of buffer requests that were served by a pooled buffer */
+    private final static LongAdder hitCount = new LongAdder();
+
+    /** Number of buffer requests that required a new buffer to be created */
+    private final static LongAdder missCount = new LongAdder();
+
+    /** Number of released buffers that were not added to the pool because the pool size limit was reached */
+    private final static LongAdder discardCount = new LongAdder();
+
+    /** Number of times a thread had to retry updating the pool size because of a concurrent update */
+    private final static LongAdder contentionCount = new LongAdder();
 
 
     /**
@@ -80,7 +113,7 @@ public class BufferPool {
      *
      * @return a byte array with a length of {@link #getDefaultBufferSize()}
      */
-    public static synchronized byte[] getByteArray() {
+    public static byte[] getByteArray() {
         return getByteArray(getDefaultBufferSize());
     }
 
@@ -98,7 +131,7 @@ public class BufferPool {
      * @param length length of the byte array
      * @return a byte array of the specified size
      */
-    public static synchronized byte[] getByteArray(int length) {
+    public static byte[] getByteArray(int length) {
         return (byte[])getBuffer(new ByteArrayFactory(), length);
     }
 
@@ -108,7 +141,7 @@ public class BufferPool {
      *
      * @return a char array with a length of {@link #getDefaultBufferSize()}
      */
-    public static synchronized char[] getCharArray() {
+    public static char[] getCharArray() {
         return getCharArray(getDefaultBufferSize());
     }
 
@@ -126,7 +159,7 @@ public class BufferPool {
      * @param length length of the char array
      * @return a char array of the specified length
      */
-    public static synchronized char[] getCharArray(int length) {
+    public static char[] getCharArray(int length) {
         return (char[])getBuffer(new CharArrayFactory(), length);
     }
 
@@ -136,7 +169,7 @@ public class BufferPool {
      *
      * @return a ByteBuffer with a capacity equal to {@link #getDefaultBufferSize()}
      */
-    public static synchronized ByteBuffer getByteBuffer() {
+    public static ByteBuffer getByteBuffer() {
         return getByteBuffer(getDefaultBufferSize());
     }
 
@@ -154,7 +187,7 @@ public class BufferPool {
      * @param capacity capacity of the ByteBuffer
      * @return a ByteBuffer with the specified capacity
      */
-    public static synchronized ByteBuffer getByteBuffer(int capacity) {
+    public static ByteBuffer getByteBuffer(int capacity) {
         return (ByteBuffer)getBuffer(new ByteBufferFactory(), capacity);
     }
 
@@ -165,7 +198,7 @@ public class BufferPool {
      *
      * @return a CharBuffer with a capacity equal to {@link #getDefaultBufferSize()}
      */
-    public static synchronized CharBuffer getCharBuffer() {
+    public static CharBuffer getCharBuffer() {
         return getCharBuffer(getDefaultBufferSize());
     }
 
@@ -183,7 +216,7 @@ public class BufferPool {
      * @param capacity capacity of the CharBuffer
      * @return a CharBuffer with the specified capacity
      */
-    public static synchronized CharBuffer getCharBuffer(int capacity) {
+    public static CharBuffer getCharBuffer(int capacity) {
         return (CharBuffer)getBuffer(new CharBufferFactory(), capacity);
     }
 
@@ -195,7 +228,7 @@ public class BufferPool {
      * @param factory BufferFactory used to identify the target buffer class and create a new buffer (if necessary)
      * @return a buffer with a size equal to {@link #getDefaultBufferSize()}
      */
-    public static synchronized Object getBuffer(BufferFactory factory) {
+    public static Object getBuffer(BufferFactory factory) {
         return getBuffer(factory, getDefaultBufferSize());
     }
 
@@ -212,24 +245,22 @@ public class BufferPool {
      * @param size size of the buffer
      * @return a buffer of the specified size
      */
-    public static synchronized Object getBuffer(BufferFactory factory, int size) {
-        int nbBuffers = bufferContainers.size();
-        BufferContainer bufferContainer;
-        Object buffer;
-
+    public static Object getBuffer(BufferFactory factory, int size) {
         // Looks for a buffer container in the pool that matches the specified size and buffer class.
-        for(int i=0; i<nbBuffers; i++) {
-            bufferContainer = bufferContainers.elementAt(i);
-            buffer = bufferContainer.getBuffer();
-
-            // Caution: mind the difference between BufferContainer#getLength() and BufferContainer#getSize()
-            if(bufferContainer.getLength()==size && (factory.matchesBufferClass(buffer.getClass()))) {
-                bufferContainers.removeElementAt(i);
-                poolSize -= bufferContainer.getSize();
-                return buffer;
+        ConcurrentLinkedDeque<BufferContainer> freeList = freeLists.get(new BufferKey(factory.getBufferClass(), size));
+        if(freeList!=null) {
+            BufferContainer bufferContainer = freeList.pollFirst();
+            if(bufferContainer!=null) {
+                bufferContainers.remove(bufferContainer);
+                // Caution: mind the difference between BufferContainer#getLength() and BufferContainer#getSize()
+                poolSizeCounter.addAndGet(-bufferContainer.getSize());
+                poolSize = poolSizeCounter.get();
+                hitCount.increment();
+                return bufferContainer.getBuffer();
             }
         }
 
+        missCount.increment();
         LOGGER.trace("Creating new buffer with {} size=", factory, size);
 
         // No buffer with the same class and size found in the pool, create a new one and return it
@@ -249,7 +280,7 @@ public class BufferPool {
      * @return <code>true</code> if the buffer was added to the pool, <code>false</code> if the buffer was already in the pool
      * @throws IllegalArgumentException if specified buffer is null
      */
-    public static synchronized boolean releaseByteArray(byte buffer[]) {
+    public static boolean releaseByteArray(byte buffer[]) {
         return releaseBuffer(buffer, new ByteArrayFactory());
     }
 
@@ -265,7 +296,7 @@ public class BufferPool {
      * @return <code>true</code> if the buffer was added to the pool, <code>false</code> if the buffer was already in the pool
      * @throws IllegalArgumentException if specified buffer is null
      */
-    public static synchronized boolean releaseCharArray(char buffer[]) {
+    public static boolean releaseCharArray(char buffer[]) {
         return releaseBuffer(buffer, new CharArrayFactory());
     }
 
@@ -281,7 +312,7 @@ public class BufferPool {
      * @return <code>true</code> if the buffer was added to the pool, <code>false</code> if the buffer was already in the pool
      * @throws IllegalArgumentException if specified buffer is null
      */
-    public static synchronized boolean releaseByteBuffer(ByteBuffer buffer) {
+    public static boolean releaseByteBuffer(ByteBuffer buffer) {
         return releaseBuffer(buffer, new ByteBufferFactory());
     }
 
@@ -297,7 +328,7 @@ public class BufferPool {
      * @return <code>true</code> if the buffer was added to the pool, <code>false</code> if the buffer was already in the pool
      * @throws IllegalArgumentException if specified buffer is null
      */
-    public static synchronized boolean releaseCharBuffer(CharBuffer buffer) {
+    public static boolean releaseCharBuffer(CharBuffer buffer) {
         return releaseBuffer(buffer, new CharBufferFactory());
     }
 
@@ -315,26 +346,49 @@ public class BufferPool {
      * @return <code>true</code> if the buffer was added to the pool, <code>false</code> if the buffer was already in the pool or the pool size limit has been reached
      * @throws IllegalArgumentException if specified buffer is null
      */
-    public static synchronized boolean releaseBuffer(Object buffer, BufferFactory factory) {
+    public static boolean releaseBuffer(Object buffer, BufferFactory factory) {
         if(buffer==null)
             throw new IllegalArgumentException("specified buffer is null");
 
         BufferContainer bufferContainer = factory.newBufferContainer(buffer);
 
-        if(bufferContainers.contains(bufferContainer)) {
+        if(!bufferContainers.add(bufferContainer)) {
             LOGGER.info("Warning: specified buffer is already in the pool: {}", buffer);
             return false;
         }
 
         long bufferSize = bufferContainer.getSize();        // size in bytes (!= length)
 
-        if(maxPoolSize!=-1 && poolSize+bufferSize>maxPoolSize) {
-            LOGGER.info("Warning: maximum pool size reached, buffer not added to the pool: {}", buffer);
-            return false;
+        // Reserve room for the buffer in the pool
+        while(true) {
+            long currentPoolSize = poolSizeCounter.get();
+            long max = maxPoolSize;
+            if(max!=-1 && currentPoolSize+bufferSize>max) {
+                bufferContainers.remove(bufferContainer);
+                discardCount.increment();
+                LOGGER.info("Warning: maximum pool size reached, buffer not added to the pool: {}", buffer);
+                return false;
+            }
+
+            if(poolSizeCounter.compareAndSet(currentPoolSize, currentPoolSize+bufferSize)) {
+                poolSize = poolSizeCounter.get();
+                break;
+            }
+
+            contentionCount.increment();
         }
 
-        bufferContainers.add(bufferContainer);
-        poolSize += bufferSize;
+        BufferKey key = new BufferKey(factory.getBufferClass(), bufferContainer.getLength());
+        ConcurrentLinkedDeque<BufferContainer> freeList = freeLists.get(key);
+        if(freeList==null) {
+            ConcurrentLinkedDeque<BufferContainer> newFreeList = new ConcurrentLinkedDeque<BufferContainer>();
+            freeList = freeLists.putIfAbsent(key, newFreeList);
+            if(freeList==null)
+                freeList = newFreeList;
+        }
+
+        // Most recently released buffers are reused first, their memory is more likely to be in the CPU caches
+        freeList.addFirst(bufferContainer);
 
         return true;
     }
@@ -372,10 +426,9 @@ public class BufferPool {
      * @return the number of buffers currently in the pool
      */
     public static int getBufferCount(BufferFactory factory) {
-        int count = 0;        
-        int nbBuffers = bufferContainers.size();
-        for(int i=0; i<nbBuffers; i++) {
-            if(factory.matchesBufferClass(bufferContainers.elementAt(i).getBuffer().getClass())) {
+        int count = 0;
+        for(BufferContainer bufferContainer : bufferContainers) {
+            if(factory.matchesBufferClass(bufferContainer.getBuffer().getClass())) {
                 count ++;
             }
         }
@@ -400,7 +453,7 @@ public class BufferPool {
      *
      * @param bufferSize the new buffer size
      */
-    public static synchronized void setDefaultBufferSize(int bufferSize) {
+    public static void setDefaultBufferSize(int bufferSize) {
         BufferPool.defaultBufferSize = bufferSize;
     }
 
@@ -411,7 +464,7 @@ public class BufferPool {
      * @return the combined size in bytes of all buffers that are currenty in the pool
      */
     public static long getPoolSize() {
-        return poolSize;
+        return poolSizeCounter.get();
     }
 
     /**
@@ -434,11 +487,63 @@ public class BufferPool {
      *
      * @param maxPoolSize the maximum combined size in bytes for all buffers in the pool
      */
-    public static synchronized void setMaxPoolSize(long maxPoolSize) {
+    public static void setMaxPoolSize(long maxPoolSize) {
         BufferPool.maxPoolSize = maxPoolSize;
     }
 
 
+    /**
+     * Returns the number of buffer requests that were served by a buffer from the pool, since the class was loaded
+     * or the counters last reset.
+     *
+     * @return the number of buffer requests that were served by a buffer from the pool
+     */
+    public static long getHitCount() {
+        return hitCount.sum();
+    }
+
+    /**
+     * Returns the number of buffer requests that required a new buffer to be created, since the class was loaded
+     * or the counters last reset.
+     *
+     * @return the number of buffer requests that required a new buffer to be created
+     */
+    public static long getMissCount() {
+        return missCount.sum();
+    }
+
+    /**
+     * Returns the number of released buffers that were not added to the pool because the
+     * {@link #getMaxPoolSize() max pool size} would have been exceeded, since the class was loaded or the counters
+     * last reset. A high value suggests that the max pool size is too low.
+     *
+     * @return the number of released buffers that were not added to the pool because the pool was full
+     */
+    public static long getDiscardCount() {
+        return discardCount.sum();
+    }
+
+    /**
+     * Returns the number of times a thread that released a buffer had to retry because of a concurrent update of the
+     * pool, since the class was loaded or the counters last reset.
+     *
+     * @return the number of times a thread had to retry because of a concurrent update of the pool
+     */
+    public static long getContentionCount() {
+        return contentionCount.sum();
+    }
+
+    /**
+     * Resets the hit, miss, discard and contention counters.
+     */
+    public static void resetCounters() {
+        hitCount.reset();
+        missCount.reset();
+        discardCount.reset();
+        contentionCount.reset();
+    }
+
+
     ///////////////////
     // Inner classes //
     ///////////////////
@@ -473,10 +578,18 @@ public class BufferPool {
          * Implements a shallow equal comparison.
          */
         public boolean equals(Object o) {
-            // Note: this method is used by Vector.contains()
+            // Note: this method is used by the Set of pooled buffers
             return (o instanceof BufferContainer) && buffer == ((BufferContainer)o).buffer;
         }
 
+        /**
+         * Returns the identity hash code of the wrapped buffer, consistent with {@link #equals(Object)}.
+         */
+        public int hashCode() {
+            // Note: ByteBuffer and CharBuffer hash codes depend on their content
+            return System.identityHashCode(buffer);
+        }
+
         /**
          * Returns the length of the wrapped buffer instance.
          *
@@ -492,6 +605,32 @@ public class BufferPool {
         protected abstract int getSize();
     }
 
+    /**
+     * Identifies a list of available buffers: buffers of a same class and length.
+     */
+    private static class BufferKey {
+
+        private final Class<?> bufferClass;
+        private final int length;
+
+        private BufferKey(Class<?> bufferClass, int length) {
+            this.bufferClass = bufferClass;
+            this.length = length;
+        }
+
+        public boolean equals(Object o) {
+            if(!(o instanceof BufferKey))
+                return false;
+
+            BufferKey key = (BufferKey)o;
+            return length==key.length && bufferClass==key.bufferClass;
+        }
+
+        public int hashCode() {
+            return 31*bufferClass.hashCode() + length;
+        }
+    }
+
     /**
      * A BufferFactory is responsible for creating buffer and {@link BufferContainer} instances, and for returning the buffer
      * Class. The Class returned by {@link #getBufferClass()} may be a superclass or superinterface of the actual
@@ -528,11 +667,15 @@ public class BufferPool {
         public abstract BufferContainer newBufferContainer(Object buffer);
 
         /**
-         * Returns the Class of buffer instances this factory creates. 
+         * Returns the Class of buffer instances this factory creates. Buffers are pooled by this class and their
+         * length. This implementation returns the class of an empty buffer created by {@link #newBuffer(int)}, it
+         * should be overridden if buffers of different classes can be created.
          *
          * @return the Class of buffer instances this factory creates
          */
-        public abstract Class<?> getBufferClass();
+        public Class<?> getBufferClass() {
+            return newBuffer(0).getClass();
+        }
     }
 
     /**
@@ -0,0 +1,162 @@
+/*
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2018 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.mucommander.commons.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * An InputStream that reads a <code>FileChannel</code>, and whose {@link #skip(long)} method transfers the skipped bytes
+ * to a target channel instead of discarding them. Bytes that are read with the <code>read</code> methods are not
+ * transferred.
+ *
+ * <p>Skipped bytes are transferred with {@link FileChannel#transferTo(long, long, WritableByteChannel)}, which lets
+ * the operating system copy the data without bringing it to user space when it can. Since the transfer goes through
+ * the regular <code>skip</code> method, it can be used as the underlying stream of filter streams that account for
+ * skipped bytes, such as {@link CounterInputStream} or {@link ThroughputLimitInputStream}: copying the data is then
+ * merely a matter of skipping all of it.</p>
+ *
+ * <p>At most {@link #MAX_TRANSFER_SIZE} bytes are transferred by a single call to {@link #skip(long)}, so that progress
+ * can be monitored and the transfer interrupted by closing the stream from another thread.</p>
+ *
+ * <p>The size reported by the source channel is not relied upon to detect the end of the source: files of some
+ * special filesystems (e.g. <code>/proc</code> or FUSE filesystems) and FIFOs report a size of <code>0</code> even
+ * though they have contents, which <code>transferTo</code> does not transfer. When <code>transferTo</code> transfers
+ * nothing, the bytes are read from the source channel and written to the target one instead, and the end of the
+ * source is reached only when such a read reaches it.</p>
+ */
+public class ChannelTransferInputStream extends InputStream {
+
+    /** Maximum number of bytes transferred by a single call to {@link #skip(long)} */
+    public final static int MAX_TRANSFER_SIZE = 8*1024*1024;
+
+    /** The channel to read from */
+    private final FileChannel source;
+
+    /** The channel skipped bytes are transferred to */
+    private final WritableByteChannel target;
+
+
+    /**
+     * Creates a new ChannelTransferInputStream that reads from the source channel's current position, and transfers
+     * skipped bytes to the target channel. Closing this stream closes the source channel but not the target one.
+     *
+     * @param source the channel to read from
+     * @param target the channel skipped bytes are transferred to
+     */
+    public ChannelTransferInputStream(FileChannel source, WritableByteChannel target) {
+        this.source = source;
+        this.target = target;
+    }
+
+
+    ////////////////////////////////
+    // InputStream implementation //
+    ////////////////////////////////
+
+    @Override
+    public int read() throws IOException {
+        byte b[] = new byte[1];
+        return read(b, 0, 1)==-1?-1:b[0]&0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if(len==0)
+            return 0;
+
+        return source.read(ByteBuffer.wrap(b, off, len));
+    }
+
+    /**
+     * Transfers up to <code>n</code> bytes to the target channel, no more than {@link #MAX_TRANSFER_SIZE}, and returns
+     * the number of bytes that were transferred. <code>0</code> is returned when the end of the source channel has
+     * been reached.
+     *
+     * @param n the maximum number of bytes to transfer
+     * @return the number of bytes that were transferred, <code>0</code> at the end of the source channel
+     * @throws IOException if an I/O error occurred while reading the source or writing the target, or if the stream
+     * was closed during the transfer
+     */
+    @Override
+    public long skip(long n) throws IOException {
+        if(n<=0)
+            return 0;
+
+        long position = source.position();
+        long count = Math.min(n, MAX_TRANSFER_SIZE);
+        long nbTransferred = source.transferTo(position, count, target);
+        if(nbTransferred>0) {
+            source.position(position+nbTransferred);
+            return nbTransferred;
+        }
+
+        // transferTo does not transfer anything past the size of the source, which may not be its actual size:
+        // copy the bytes, if any
+        return copy((int)Math.min(count, BufferPool.getDefaultBufferSize()));
+    }
+
+    /**
+     * Reads up to <code>count</code> bytes from the source channel and writes them to the target channel.
+     *
+     * @param count the maximum number of bytes to copy
+     * @return the number of bytes that were copied, <code>0</code> at the end of the source channel
+     * @throws IOException if an I/O error occurred while reading the source or writing the target
+     */
+    private long copy(int count) throws IOException {
+        ByteBuffer buffer = BufferPool.getByteBuffer();
+        try {
+            buffer.clear();
+            buffer.limit(count);
+            int nbRead = source.read(buffer);
+            if(nbRead<=0)
+                return 0;
+
+            buffer.flip();
+            while(buffer.hasRemaining())
+                target.write(buffer);
+
+            return nbRead;
+        }
+        finally {
+            BufferPool.releaseByteBuffer(buffer);
+        }
+    }
+
+    /**
+     * Returns an estimate of the number of bytes that remain in the source channel, based on its size. Note that
+     * <code>0</code> may be returned even though the end of the source channel hasn't been reached, for sources that do
+     * not report their actual size.
+     *
+     * @return an estimate of the number of bytes that remain in the source channel
+     * @throws IOException if an I/O error occurred while retrieving the channel's size or position
+     */
+    @Override
+    public int available() throws IOException {
+        return (int)Math.max(0, Math.min(Integer.MAX_VALUE, source.size()-source.position()));
+    }
+
+    @Override
+    public void close() throws IOException {
+        source.close();
+    }
+}
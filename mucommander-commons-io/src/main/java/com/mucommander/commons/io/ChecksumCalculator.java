@@ -0,0 +1,191 @@
+/*
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2018 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.mucommander.commons.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.security.MessageDigest;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Calculates several checksums (also referred to as <i>hashes</i> or <i>digests</i>) of a stream in a single pass:
+ * each chunk of data that is read from the stream is fed to all the <code>MessageDigest</code> instances.
+ *
+ * <p>When an <code>Executor</code> is specified, the digests are updated by a task of the executor while the calling
+ * thread reads the next chunk of data, using two buffers in turn (double buffering). This allows reading and hashing
+ * to overlap, which matters when both are slow, e.g. when hashing large files with several algorithms.</p>
+ *
+ * @see ChecksumInputStream
+ */
+public class ChecksumCalculator {
+
+    /** Number of buffers used when reading and hashing overlap */
+    private final static int NB_BUFFERS = 2;
+
+    /** Number of milliseconds to wait for an empty buffer before checking that the digest task is still alive */
+    private final static int DIGEST_TASK_POLL_TIMEOUT = 100;
+
+    /**
+     * Reads the given <code>InputStream</code> until EOF and returns its checksums, in the order of the specified
+     * digests. The digests are reset before use. This method does <b>not</b> close the stream.
+     *
+     * @param in the InputStream to read
+     * @param digests the MessageDigest instances to feed the stream's bytes to
+     * @return the checksum calculated by each digest, expressed as an hexadecimal string
+     * @throws IOException if an I/O error occurs
+     */
+    public static String[] calculateChecksums(InputStream in, MessageDigest... digests) throws IOException {
+        return calculateChecksums(in, null, digests);
+    }
+
+    /**
+     * Reads the given <code>InputStream</code> until EOF and returns its checksums, in the order of the specified
+     * digests. The digests are reset before use. This method does <b>not</b> close the stream.
+     *
+     * <p>If an executor is specified, the digests are updated by a task submitted to it while the calling thread keeps
+     * on reading the stream. The task must be run by a different thread than the calling one.
+     * If <code>null</code> is specified, the stream is read and hashed by the calling thread.</p>
+     *
+     * @param in the InputStream to read
+     * @param digestExecutor the executor that updates the digests, <code>null</code> to update them in the calling thread
+     * @param digests the MessageDigest instances to feed the stream's bytes to
+     * @return the checksum calculated by each digest, expressed as an hexadecimal string
+     * @throws IOException if an I/O error occurs, <code>InterruptedIOException</code> if the calling thread was
+     * interrupted
+     */
+    public static String[] calculateChecksums(InputStream in, Executor digestExecutor, final MessageDigest... digests) throws IOException {
+        for(MessageDigest digest : digests)
+            digest.reset();
+
+        if(digestExecutor==null) {
+            byte buffer[] = BufferPool.getByteArray();
+            try {
+                int nbRead;
+                while((nbRead=in.read(buffer, 0, buffer.length))!=-1)
+                    update(digests, buffer, nbRead);
+            }
+            finally {
+                BufferPool.releaseByteArray(buffer);
+            }
+
+            return getChecksums(digests);
+        }
+
+        final BlockingQueue<Chunk> emptyChunks = new ArrayBlockingQueue<Chunk>(NB_BUFFERS);
+        final BlockingQueue<Chunk> filledChunks = new ArrayBlockingQueue<Chunk>(NB_BUFFERS);
+        for(int i=0; i<NB_BUFFERS; i++)
+            emptyChunks.add(new Chunk(BufferPool.getByteArray()));
+
+        FutureTask<Void> digestTask = new FutureTask<Void>(new Callable<Void>() {
+            public Void call() throws InterruptedException {
+                boolean last;
+                do {
+                    Chunk chunk = filledChunks.take();
+                    update(digests, chunk.buffer, chunk.length);
+                    // The chunk must not be accessed once it has been handed back to the reading thread
+                    last = chunk.last;
+                    emptyChunks.put(chunk);
+                }
+                while(!last);
+
+                return null;
+            }
+        });
+        digestExecutor.execute(digestTask);
+
+        boolean completed = false;
+        try {
+            Chunk chunk;
+            do {
+                // The digest task may have been cancelled, e.g. if its executor was shut down
+                while((chunk=emptyChunks.poll(DIGEST_TASK_POLL_TIMEOUT, TimeUnit.MILLISECONDS))==null) {
+                    if(digestTask.isDone())
+                        throw new InterruptedIOException("Digest task was cancelled");
+                }
+
+                chunk.length = StreamUtils.readUpTo(in, chunk.buffer);
+                chunk.last = chunk.length<chunk.buffer.length;
+                filledChunks.put(chunk);
+            }
+            while(!chunk.last);
+
+            digestTask.get();
+            completed = true;
+        }
+        catch(InterruptedException e) {
+            throw new InterruptedIOException();
+        }
+        catch(ExecutionException e) {
+            throw new IOException(e.getCause());
+        }
+        finally {
+            if(completed) {
+                for(Chunk chunk : emptyChunks)
+                    BufferPool.releaseByteArray(chunk.buffer);
+            }
+            else {
+                // The buffers may still be in use by the digest task, leave them to the garbage collector
+                digestTask.cancel(true);
+            }
+        }
+
+        return getChecksums(digests);
+    }
+
+    /**
+     * Feeds the given bytes to all the digests.
+     */
+    private static void update(MessageDigest digests[], byte buffer[], int length) {
+        for(MessageDigest digest : digests)
+            digest.update(buffer, 0, length);
+    }
+
+    /**
+     * Completes the digests and returns their checksums, expressed as hexadecimal strings.
+     */
+    private static String[] getChecksums(MessageDigest digests[]) {
+        String checksums[] = new String[digests.length];
+        for(int i=0; i<digests.length; i++)
+            checksums[i] = ByteUtils.toHexString(digests[i].digest());
+
+        return checksums;
+    }
+
+
+    /**
+     * A buffer and the number of bytes it holds, handed over from the reading thread to the digest task.
+     */
+    private static class Chunk {
+        private final byte buffer[];
+        private int length;
+        /** True if EOF was reached after this chunk was read */
+        private boolean last;
+
+        private Chunk(byte buffer[]) {
+            this.buffer = buffer;
+        }
+    }
+}
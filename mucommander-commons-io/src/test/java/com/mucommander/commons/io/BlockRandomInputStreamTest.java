@@ -0,0 +1,105 @@
+/*
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2018 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.mucommander.commons.io;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.testng.annotations.Test;
+
+/**
+ * A test case for {@link BlockRandomInputStream}.
+ *
+ * @see BlockRandomInputStream
+ */
+public class BlockRandomInputStreamTest {
+
+    /**
+     * A <code>BlockRandomInputStream</code> that reads a byte array and records the length of the blocks it is asked
+     * to read.
+     */
+    private static class ByteArrayBlockInputStream extends BlockRandomInputStream {
+        private final byte data[];
+        private final List<Integer> blockLengths = new ArrayList<Integer>();
+
+        private ByteArrayBlockInputStream(byte data[], int blockSize, int maxBlockSize) {
+            super(blockSize, maxBlockSize);
+            this.data = data;
+        }
+
+        @Override
+        protected int readBlock(long fileOffset, byte block[], int blockLen) {
+            blockLengths.add(blockLen);
+            System.arraycopy(data, (int)fileOffset, block, 0, blockLen);
+            return blockLen;
+        }
+
+        public long getLength() {
+            return data.length;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    /**
+     * Makes sure that the block size doubles as long as the stream is read sequentially, and gets back to the initial
+     * block size after a seek.
+     */
+    @Test
+    public void testAdaptiveBlockSize() throws IOException {
+        byte data[] = new byte[10000];
+        new Random(0).nextBytes(data);
+
+        ByteArrayBlockInputStream in = new ByteArrayBlockInputStream(data, 100, 1000);
+        byte read[] = new byte[data.length];
+        in.readFully(read);
+        assert Arrays.equals(data, read);
+        assert in.blockLengths.subList(0, 5).equals(Arrays.asList(100, 200, 400, 800, 1000));
+
+        in.blockLengths.clear();
+        in.seek(50);
+        in.readFully(read, 0, 350);
+        assert Arrays.equals(Arrays.copyOfRange(data, 50, 400), Arrays.copyOf(read, 350));
+        assert in.blockLengths.equals(Arrays.asList(100, 200, 400));
+
+        // Bytes are returned unsigned
+        in.seek(0);
+        for(int i=0; i<data.length; i++)
+            assert in.read()==(data[i] & 0xFF);
+        assert in.read()==-1;
+    }
+
+    /**
+     * Makes sure that the block size doesn't change if no maximum block size is specified.
+     */
+    @Test
+    public void testFixedBlockSize() throws IOException {
+        byte data[] = new byte[1000];
+        ByteArrayBlockInputStream in = new ByteArrayBlockInputStream(data, 100, 100);
+        in.readFully(new byte[data.length]);
+        assert in.blockLengths.size()==10;
+        for(int blockLength : in.blockLengths)
+            assert blockLength==100;
+    }
+}
@@ -18,6 +18,12 @@
 
 package com.mucommander.commons.io;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
 import org.testng.annotations.Test;
 
 /**
@@ -30,6 +36,8 @@ public class BufferPoolTest {
     public final static int TEST_BUFFER_SIZE_1 = 27;
     public final static int TEST_BUFFER_SIZE_2 = 28;
     public final static int TEST_MAX_POOL_SIZE = 1000;
+    public final static int TEST_BUFFER_SIZE_3 = 29;
+    public final static int TEST_BUFFER_SIZE_4 = 30;
 
     /**
      * Tests <code>BufferPool</code> with byte array (<code>byte[]</code>) buffers.
@@ -188,6 +196,142 @@ public class BufferPoolTest {
         BufferPool.setMaxPoolSize(BufferPool.INITIAL_POOL_LIMIT);
     }
 
+    /**
+     * Tests the hit, miss and discard counters.
+     */
+    @Test
+    public void testCounters() {
+        BufferPool.ByteArrayFactory factory = new BufferPool.ByteArrayFactory();
+
+        long hitCount = BufferPool.getHitCount();
+        long missCount = BufferPool.getMissCount();
+        long discardCount = BufferPool.getDiscardCount();
+
+        // Other tests may have filled the pool
+        long maxPoolSize = BufferPool.getMaxPoolSize();
+        BufferPool.setMaxPoolSize(-1);
+        try {
+            // No buffer of that size in the pool: miss
+            Object buffer = BufferPool.getBuffer(factory, TEST_BUFFER_SIZE_3);
+            assert BufferPool.getMissCount() == missCount+1;
+            assert BufferPool.getHitCount() == hitCount;
+
+            // The released buffer is reused: hit
+            assert BufferPool.releaseBuffer(buffer, factory);
+            assert buffer == BufferPool.getBuffer(factory, TEST_BUFFER_SIZE_3);
+            assert BufferPool.getHitCount() == hitCount+1;
+            assert BufferPool.getMissCount() == missCount+1;
+
+            // A buffer that doesn't fit in the pool is discarded
+            BufferPool.setMaxPoolSize(BufferPool.getPoolSize());
+            assert !BufferPool.releaseBuffer(buffer, factory);
+            assert !BufferPool.containsBuffer(buffer, factory);
+            assert BufferPool.getDiscardCount() == discardCount+1;
+        }
+        finally {
+            BufferPool.setMaxPoolSize(maxPoolSize);
+        }
+
+        BufferPool.resetCounters();
+        assert BufferPool.getHitCount() == 0;
+        assert BufferPool.getMissCount() == 0;
+        assert BufferPool.getDiscardCount() == 0;
+        assert BufferPool.getContentionCount() == 0;
+    }
+
+    /**
+     * Has concurrent threads get and release buffers, and asserts that a buffer is never handed out to two threads
+     * at the same time and that the pool is left in the state it was before the test.
+     */
+    @Test
+    public void testConcurrentAccess() throws InterruptedException {
+        final BufferPool.ByteArrayFactory factory = new BufferPool.ByteArrayFactory();
+        final int nbThreads = 8;
+        final int nbIterations = 10000;
+        final Set<Object> buffersInUse = Collections.synchronizedSet(Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>()));
+        final List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+
+        int originalBufferCount = BufferPool.getBufferCount(factory);
+        long originalPoolSize = BufferPool.getPoolSize();
+
+        Thread threads[] = new Thread[nbThreads];
+        for(int t=0; t<nbThreads; t++) {
+            final int size = t%2==0?TEST_BUFFER_SIZE_3:TEST_BUFFER_SIZE_4;
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        for(int i=0; i<nbIterations; i++) {
+                            byte buffer[] = (byte[])BufferPool.getBuffer(factory, size);
+                            assert buffer.length==size;
+                            assert buffersInUse.add(buffer);
+                            assert buffersInUse.remove(buffer);
+                            BufferPool.releaseBuffer(buffer, factory);
+                        }
+                    }
+                    catch(Throwable e) {
+                        errors.add(e);
+                    }
+                }
+            };
+            threads[t].start();
+        }
+
+        for(Thread thread : threads)
+            thread.join();
+
+        assert errors.isEmpty(): errors;
+
+        // At most one buffer per thread may remain in the pool, retrieve them to leave the pool as it was
+        assert BufferPool.getBufferCount(factory) <= originalBufferCount+nbThreads;
+        while(BufferPool.getBufferCount(factory)>originalBufferCount) {
+            BufferPool.getBuffer(factory, TEST_BUFFER_SIZE_3);
+            BufferPool.getBuffer(factory, TEST_BUFFER_SIZE_4);
+        }
+        assert originalPoolSize == BufferPool.getPoolSize();
+    }
+
+    /**
+     * Tests a <code>BufferFactory</code> that doesn't override {@link BufferPool.BufferFactory#getBufferClass()}, and
+     * asserts that the deprecated {@link BufferPool#poolSize} field reflects the pool size.
+     */
+    @Test
+    @SuppressWarnings("deprecation")
+    public void testDefaultBufferClass() {
+        final BufferPool.BufferFactory byteArrayFactory = new BufferPool.ByteArrayFactory();
+        BufferPool.BufferFactory factory = new BufferPool.BufferFactory() {
+            @Override
+            public Object newBuffer(int size) {
+                return byteArrayFactory.newBuffer(size);
+            }
+
+            @Override
+            public BufferPool.BufferContainer newBufferContainer(Object buffer) {
+                return byteArrayFactory.newBufferContainer(buffer);
+            }
+        };
+        assert factory.getBufferClass() == byte[].class;
+
+        // The pool may have been filled by other tests
+        long originalMaxPoolSize = BufferPool.getMaxPoolSize();
+        BufferPool.setMaxPoolSize(-1);
+        try {
+            long originalPoolSize = BufferPool.getPoolSize();
+            Object buffer = BufferPool.getBuffer(factory, TEST_BUFFER_SIZE_3);
+            assert BufferPool.releaseBuffer(buffer, factory);
+            assert BufferPool.getPoolSize() == originalPoolSize+TEST_BUFFER_SIZE_3;
+            assert BufferPool.poolSize == BufferPool.getPoolSize();
+
+            // Buffers released with the default buffer class are shared with byte array buffers
+            assert BufferPool.getByteArray(TEST_BUFFER_SIZE_3) == buffer;
+            assert BufferPool.getPoolSize() == originalPoolSize;
+            assert BufferPool.poolSize == originalPoolSize;
+        }
+        finally {
+            BufferPool.setMaxPoolSize(originalMaxPoolSize);
+        }
+    }
+
     /**
      * Asserts that the given buffer's size matches the specified one.
      *
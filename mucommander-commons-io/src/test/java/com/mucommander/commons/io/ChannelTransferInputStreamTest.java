@@ -0,0 +1,259 @@
+/*
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2018 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.mucommander.commons.io;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * A test case for {@link ChannelTransferInputStream}.
+ *
+ * @see ChannelTransferInputStream
+ */
+public class ChannelTransferInputStreamTest {
+
+    /** Size of the test data, more than a single transfer */
+    private final static int TEST_DATA_SIZE = ChannelTransferInputStream.MAX_TRANSFER_SIZE+12345;
+
+    private byte testData[];
+
+    private File testFile;
+
+    @BeforeMethod
+    public void setUp() throws IOException {
+        testData = new byte[TEST_DATA_SIZE];
+        new Random(0).nextBytes(testData);
+
+        testFile = File.createTempFile(getClass().getName(), null);
+        FileOutputStream out = new FileOutputStream(testFile);
+        try {
+            out.write(testData);
+        }
+        finally {
+            out.close();
+        }
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        testFile.delete();
+    }
+
+    /**
+     * Transfers the whole file through a {@link CounterInputStream} and asserts that the transferred data and the
+     * number of bytes counted are correct.
+     *
+     * @throws IOException should not happen
+     */
+    @Test
+    public void testTransfer() throws IOException {
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        ByteCounter counter = new ByteCounter();
+
+        CounterInputStream in = new CounterInputStream(new ChannelTransferInputStream(new FileInputStream(testFile).getChannel(), Channels.newChannel(bout)), counter);
+        try {
+            assert ChannelTransferInputStream.MAX_TRANSFER_SIZE == in.skip(Long.MAX_VALUE);
+            assert TEST_DATA_SIZE-ChannelTransferInputStream.MAX_TRANSFER_SIZE == in.available();
+            while(in.skip(Long.MAX_VALUE)>0);
+
+            assert 0 == in.available();
+            assert -1 == in.read();
+        }
+        finally {
+            in.close();
+        }
+
+        assert TEST_DATA_SIZE == counter.getByteCount();
+        assert Arrays.equals(testData, bout.toByteArray());
+    }
+
+    /**
+     * Reads a few bytes before transferring the rest of the file, and asserts that the bytes that were read are not
+     * transferred.
+     *
+     * @throws IOException should not happen
+     */
+    @Test
+    public void testReadAndTransfer() throws IOException {
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        FileInputStream fin = new FileInputStream(testFile);
+        fin.getChannel().position(1);
+
+        ChannelTransferInputStream in = new ChannelTransferInputStream(fin.getChannel(), Channels.newChannel(bout));
+        try {
+            assert (testData[1]&0xFF) == in.read();
+            byte b[] = new byte[10];
+            assert 10 == in.read(b);
+            assert Arrays.equals(Arrays.copyOfRange(testData, 2, 12), b);
+
+            assert 100 == in.skip(100);
+            while(in.skip(Long.MAX_VALUE)>0);
+        }
+        finally {
+            in.close();
+        }
+
+        assert Arrays.equals(Arrays.copyOfRange(testData, 12, TEST_DATA_SIZE), bout.toByteArray());
+    }
+
+    /**
+     * Transfers a source that reports a size of <code>0</code> even though it has contents, like files of the
+     * <code>/proc</code> filesystem do, and asserts that all of its contents are transferred.
+     *
+     * @throws IOException should not happen
+     */
+    @Test
+    public void testTransferZeroSizeSource() throws IOException {
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        ByteCounter counter = new ByteCounter();
+
+        CounterInputStream in = new CounterInputStream(new ChannelTransferInputStream(new ZeroSizeFileChannel(new FileInputStream(testFile).getChannel()), Channels.newChannel(bout)), counter);
+        try {
+            assert 0 == in.available();
+            assert 1 == in.skip(1);
+            while(in.skip(Long.MAX_VALUE)>0);
+
+            assert -1 == in.read();
+        }
+        finally {
+            in.close();
+        }
+
+        assert TEST_DATA_SIZE == counter.getByteCount();
+        assert Arrays.equals(testData, bout.toByteArray());
+    }
+
+
+    /**
+     * A FileChannel that reports a size of <code>0</code>, and that like <code>FileChannel</code> implementations
+     * doesn't transfer bytes past its size with {@link #transferTo(long, long, WritableByteChannel)}. Other methods are
+     * delegated to an actual channel.
+     */
+    private static class ZeroSizeFileChannel extends FileChannel {
+
+        private final FileChannel channel;
+
+        private ZeroSizeFileChannel(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public long size() {
+            return 0;
+        }
+
+        @Override
+        public long transferTo(long position, long count, WritableByteChannel target) {
+            return 0;
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            return channel.read(dst);
+        }
+
+        @Override
+        public long read(ByteBuffer[] dsts, int offset, int length) throws IOException {
+            return channel.read(dsts, offset, length);
+        }
+
+        @Override
+        public int read(ByteBuffer dst, long position) throws IOException {
+            return channel.read(dst, position);
+        }
+
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            return channel.write(src);
+        }
+
+        @Override
+        public long write(ByteBuffer[] srcs, int offset, int length) throws IOException {
+            return channel.write(srcs, offset, length);
+        }
+
+        @Override
+        public int write(ByteBuffer src, long position) throws IOException {
+            return channel.write(src, position);
+        }
+
+        @Override
+        public long position() throws IOException {
+            return channel.position();
+        }
+
+        @Override
+        public FileChannel position(long newPosition) throws IOException {
+            channel.position(newPosition);
+            return this;
+        }
+
+        @Override
+        public FileChannel truncate(long size) throws IOException {
+            channel.truncate(size);
+            return this;
+        }
+
+        @Override
+        public void force(boolean metaData) throws IOException {
+            channel.force(metaData);
+        }
+
+        @Override
+        public long transferFrom(ReadableByteChannel src, long position, long count) throws IOException {
+            return channel.transferFrom(src, position, count);
+        }
+
+        @Override
+        public MappedByteBuffer map(MapMode mode, long position, long size) throws IOException {
+            return channel.map(mode, position, size);
+        }
+
+        @Override
+        public FileLock lock(long position, long size, boolean shared) throws IOException {
+            return channel.lock(position, size, shared);
+        }
+
+        @Override
+        public FileLock tryLock(long position, long size, boolean shared) throws IOException {
+            return channel.tryLock(position, size, shared);
+        }
+
+        @Override
+        protected void implCloseChannel() throws IOException {
+            channel.close();
+        }
+    }
+}
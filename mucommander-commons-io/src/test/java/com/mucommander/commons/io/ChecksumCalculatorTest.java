@@ -0,0 +1,131 @@
+/*
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2018 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.mucommander.commons.io;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * A test case for {@link ChecksumCalculator}.
+ *
+ * @see ChecksumCalculator
+ */
+public class ChecksumCalculatorTest {
+
+    private final static String ALGORITHMS[] = {"MD5", "SHA-1", "SHA-256"};
+
+    private ExecutorService digestExecutor;
+
+    @BeforeMethod
+    public void setUp() {
+        digestExecutor = Executors.newSingleThreadExecutor();
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        digestExecutor.shutdownNow();
+    }
+
+    private static MessageDigest[] getDigests() throws NoSuchAlgorithmException {
+        MessageDigest digests[] = new MessageDigest[ALGORITHMS.length];
+        for(int i=0; i<ALGORITHMS.length; i++)
+            digests[i] = MessageDigest.getInstance(ALGORITHMS[i]);
+
+        return digests;
+    }
+
+    /**
+     * Asserts that the checksums calculated in a single pass, with and without an executor, match the ones calculated
+     * by separate {@link ChecksumInputStream} passes.
+     *
+     * @param data the data to hash
+     */
+    private void assertChecksums(byte data[]) throws IOException, NoSuchAlgorithmException {
+        String expected[] = new String[ALGORITHMS.length];
+        for(int i=0; i<ALGORITHMS.length; i++) {
+            ChecksumInputStream cin = new ChecksumInputStream(new ByteArrayInputStream(data), MessageDigest.getInstance(ALGORITHMS[i]));
+            StreamUtils.readUntilEOF(cin);
+            expected[i] = cin.getChecksumString();
+        }
+
+        MessageDigest digests[] = getDigests();
+        String checksums[] = ChecksumCalculator.calculateChecksums(new ByteArrayInputStream(data), digests);
+        for(int i=0; i<ALGORITHMS.length; i++)
+            assert expected[i].equals(checksums[i]);
+
+        // Digests are reset before use
+        checksums = ChecksumCalculator.calculateChecksums(new ByteArrayInputStream(data), digestExecutor, digests);
+        for(int i=0; i<ALGORITHMS.length; i++)
+            assert expected[i].equals(checksums[i]);
+    }
+
+    /**
+     * Tests empty data, data that fits in a single buffer, exactly fills one and spans several ones.
+     */
+    @Test
+    public void testChecksums() throws IOException, NoSuchAlgorithmException {
+        int bufferSize = BufferPool.getDefaultBufferSize();
+        Random random = new Random(0);
+
+        for(int size : new int[]{0, 1, bufferSize-1, bufferSize, bufferSize*2, bufferSize*5+123}) {
+            byte data[] = new byte[size];
+            random.nextBytes(data);
+            assertChecksums(data);
+        }
+    }
+
+    /**
+     * Asserts that an error raised while reading the stream is thrown, and that it doesn't leave the digest task
+     * blocked.
+     */
+    @Test
+    public void testReadError() throws NoSuchAlgorithmException, InterruptedException {
+        byte data[] = new byte[BufferPool.getDefaultBufferSize()*3];
+        ByteArrayInputStream in = new ByteArrayInputStream(data) {
+            @Override
+            public synchronized int read(byte b[], int off, int len) {
+                if(pos>=count/2)
+                    throw new IllegalStateException();
+                return super.read(b, off, len);
+            }
+        };
+
+        try {
+            ChecksumCalculator.calculateChecksums(in, digestExecutor, getDigests());
+            assert false;
+        }
+        catch(IllegalStateException | IOException e) {
+            // Expected
+        }
+
+        // The executor's single thread is available again
+        digestExecutor.shutdown();
+        assert digestExecutor.awaitTermination(5, TimeUnit.SECONDS);
+    }
+}
@@ -155,6 +155,7 @@ public class CircularByteBuffer {
 			markPosition = 0;
 			outputStreamClosed = false;
 			inputStreamClosed = false;
+			notifyAll();
 		}
 	}
 
@@ -447,6 +448,7 @@ public class CircularByteBuffer {
 		@Override public void close() throws IOException {
 			synchronized (CircularByteBuffer.this){
 				inputStreamClosed = true;
+				CircularByteBuffer.this.notifyAll();
 			}
 		}
 
@@ -507,15 +509,16 @@ public class CircularByteBuffer {
 							readPosition = 0;
 						}
 						ensureMark();
+						CircularByteBuffer.this.notifyAll();
 						return result;
 					} else if (outputStreamClosed){
 						return -1;
 					}
-				}
-				try {
-					Thread.sleep(100);
-				} catch(Exception x){
-					throw new IOException("Blocking read operation interrupted.");
+					try {
+						CircularByteBuffer.this.wait(100);
+					} catch(Exception x){
+						throw new IOException("Blocking read operation interrupted.");
+					}
 				}
 			}
 		}
@@ -570,15 +573,16 @@ public class CircularByteBuffer {
 							readPosition = 0;
 						}
 						ensureMark();
+						CircularByteBuffer.this.notifyAll();
 						return length;
 					} else if (outputStreamClosed){
 						return -1;
 					}
-				}
-				try {
-					Thread.sleep(100);
-				} catch(Exception x){
-					throw new IOException("Blocking read operation interrupted.");
+					try {
+						CircularByteBuffer.this.wait(100);
+					} catch(Exception x){
+						throw new IOException("Blocking read operation interrupted.");
+					}
 				}
 			}
 		}
@@ -630,15 +634,16 @@ public class CircularByteBuffer {
 							readPosition = 0;
 						}
 						ensureMark();
+						CircularByteBuffer.this.notifyAll();
 						return length;
 					} else if (outputStreamClosed){
 						return 0;
 					}
-				}
-				try {
-					Thread.sleep(100);
-				} catch(Exception x){
-					throw new IOException("Blocking read operation interrupted.");
+					try {
+						CircularByteBuffer.this.wait(100);
+					} catch(Exception x){
+						throw new IOException("Blocking read operation interrupted.");
+					}
 				}
 			}
 		}
@@ -672,6 +677,7 @@ public class CircularByteBuffer {
 					flush();
 				}
 				outputStreamClosed = true;
+				CircularByteBuffer.this.notifyAll();
 			}
 		}
 
@@ -751,12 +757,13 @@ public class CircularByteBuffer {
 					}
 					off += written;
 					len -= written;
-				}
-				if (len > 0){
-					try {
-						Thread.sleep(100);
-					} catch(Exception x){
-						throw new IOException("Waiting for available space in buffer interrupted.");
+					CircularByteBuffer.this.notifyAll();
+					if (len > 0){
+						try {
+							CircularByteBuffer.this.wait(100);
+						} catch(Exception x){
+							throw new IOException("Waiting for available space in buffer interrupted.");
+						}
 					}
 				}
 			}
@@ -795,13 +802,13 @@ public class CircularByteBuffer {
 							writePosition = 0;
 						}
 						written = true;
-					}
-				}
-				if (!written){
-					try {
-						Thread.sleep(100);
-					} catch(Exception x){
-						throw new IOException("Waiting for available space in buffer interrupted.");
+						CircularByteBuffer.this.notifyAll();
+					} else {
+						try {
+							CircularByteBuffer.this.wait(100);
+						} catch(Exception x){
+							throw new IOException("Waiting for available space in buffer interrupted.");
+						}
 					}
 				}
 			}
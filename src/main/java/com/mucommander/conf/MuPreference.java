@@ -69,6 +69,7 @@ public enum MuPreference {
 	WAIT_AFTER_REFRESH(MuPreferences.WAIT_AFTER_REFRESH),
 	PROGRESS_DIALOG_EXPANDED(MuPreferences.PROGRESS_DIALOG_EXPANDED),
 	PROGRESS_DIALOG_CLOSE_WHEN_FINISHED(MuPreferences.PROGRESS_DIALOG_CLOSE_WHEN_FINISHED),
+	FILE_TRANSFER_THREADS(MuPreferences.FILE_TRANSFER_THREADS),
 	THEME_TYPE(MuPreferences.THEME_TYPE),
 	THEME_NAME(MuPreferences.THEME_NAME),
 	ENABLE_BONJOUR_DISCOVERY(MuPreferences.ENABLE_BONJOUR_DISCOVERY),
@@ -311,6 +311,17 @@ public class MuPreferences implements MuPreferencesAPI {
 
 
 
+	// - File transfer variables ---------------------------------------------
+	// -----------------------------------------------------------------------
+	/** Section describing the behavior of file transfers. */
+	public static final String  FILE_TRANSFER_SECTION             = "file_transfer";
+	/** Number of files that are copied concurrently. */
+	public static final String  FILE_TRANSFER_THREADS             = FILE_TRANSFER_SECTION + '.' + "threads";
+	/** Default number of files that are copied concurrently. */
+	public static final int     DEFAULT_FILE_TRANSFER_THREADS     = 1;
+
+
+
 	// - Variables used for themes -------------------------------------------
 	// -----------------------------------------------------------------------
 	/** Section controlling which theme should be applied to muCommander. */
@@ -20,7 +20,10 @@ package com.mucommander.core;
 
 import java.awt.event.WindowEvent;
 import java.awt.event.WindowListener;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.Vector;
 
 import org.slf4j.Logger;
@@ -41,13 +44,15 @@ import com.mucommander.ui.main.FolderPanel;
 
 
 /**
- * This file monitors changes in the current folder of a FolderPanel, checking periodically if the current folder's
- * date has changed. If a change has been detected, the FolderPanel will be asked to refresh its current folder.
+ * This file monitors changes in the current folder of a FolderPanel. Local folders are watched by
+ * {@link LocalFolderWatcher}, which reports the entries that have been created, deleted or modified: the FolderPanel
+ * is then asked to update these entries only. Other folders are checked periodically for a change of their date.
+ * If a change has been detected, the FolderPanel will be asked to refresh its current folder.
  * 
- * <p>If the MainFrame which contains the monitored FolderPanel becomes inactive (lies in the background), monitoring
- * on will be not happen until the MainFrame becomes active again.
+ * <p>If the MainFrame which contains the monitored FolderPanel becomes inactive (lies in the background), polling
+ * will not happen until the MainFrame becomes active again.
  *
- * <p>Implementation note: the monitoring is done in one single thread for all folders, each folder being monitored
+ * <p>Implementation note: the polling is done in one single thread for all folders, each folder being polled
  * one after another. Current folder refreshes are performed in a separate thread.
  *
  * @author Maxence Bernard
@@ -80,6 +85,9 @@ public class FolderChangeMonitor implements Runnable, WindowListener, LocationLi
     /** Number of checks in current folder */
     private int nbSamples = 0;
 
+    /** True if the current folder is watched by {@link LocalFolderWatcher} rather than polled */
+    private volatile boolean watched;
+
 	
     //////////////////////
     // Static variables //
@@ -142,6 +150,7 @@ public class FolderChangeMonitor implements Runnable, WindowListener, LocationLi
 
         this.currentFolder = folderPanel.getCurrentFolder();
         this.currentFolderDate = currentFolder.getDate();
+        this.watched = watch(currentFolder);
 
         // Folder contents is up-to-date let's wait before checking it for changes
         this.lastCheckTimestamp = System.currentTimeMillis();
@@ -174,6 +183,10 @@ public class FolderChangeMonitor implements Runnable, WindowListener, LocationLi
                 FolderChangeMonitor monitor;
                 try { monitor = instances.get(i); }
                 catch(Exception e) { continue; } // Exception may be raised when an instance is removed
+
+                // Changes in the folder are pushed by LocalFolderWatcher
+                if (monitor.watched)
+                    continue;
 				
                 // Check for changes in current folder and refresh it only if :
                 // - MainFrame is in the foreground
@@ -205,6 +218,21 @@ public class FolderChangeMonitor implements Runnable, WindowListener, LocationLi
     }
 
 
+    /**
+     * Watches the given folder with {@link LocalFolderWatcher} if possible, unless auto-refresh is disabled.
+     *
+     * @param folder the new current folder
+     * @return true if the folder is watched, false if it has to be polled
+     */
+    private boolean watch(AbstractFile folder) {
+        if (checkPeriod<0 || disableAutoRefreshFilter.match(folder)) {
+            LocalFolderWatcher.unregister(this);
+            return false;
+        }
+
+        return LocalFolderWatcher.register(this, folder);
+    }
+
     /**
      * Forces this monitor to update current folder information. This method should be called when a folder has been
      * manually refreshed, so that this monitor doesn't detect changes and try to refresh the table again.
@@ -212,6 +240,10 @@ public class FolderChangeMonitor implements Runnable, WindowListener, LocationLi
      * @param folder the new current folder
      */
     private void updateFolderInfo(AbstractFile folder) {
+        // Keep on watching the folder if it has merely been refreshed
+        if (!(watched && folder.equals(currentFolder)))
+            watched = watch(folder);
+
         this.currentFolder = folder;
         this.currentFolderDate = currentFolder.getDate();
 
@@ -268,6 +300,57 @@ public class FolderChangeMonitor implements Runnable, WindowListener, LocationLi
         return true;
     }
 
+    /**
+     * Called by {@link LocalFolderWatcher} when the given entries of the current folder have been created, deleted or
+     * modified. The corresponding rows of the FolderPanel are updated, the folder is not listed again.
+     *
+     * @param names names of the entries that have changed
+     */
+    void folderEntriesChanged(Set<String> names) {
+        AbstractFile folder = currentFolder;
+        // The folder is listed anyway when it is being changed
+        if (folderChanging)
+            return;
+
+        FileFilter filter = folderPanel.getLocationManager().getFolderFilter();
+        List<AbstractFile> updatedFiles = new ArrayList<AbstractFile>(names.size());
+        Set<String> removedNames = new HashSet<String>();
+        for (String name : names) {
+            AbstractFile file = folder.getChildSilently(name);
+            if (file == null)
+                continue;
+
+            // Files that are filtered out (e.g. that have become hidden) are removed
+            if (file.exists() && filter.match(file))
+                updatedFiles.add(file);
+            else
+                removedNames.add(name);
+        }
+
+        LOGGER.debug(this+" ("+folder.getName()+") Detected changes in "+names.size()+" entries of current folder, updating table");
+        folderPanel.updateCurrentFolderFiles(folder, updatedFiles.toArray(new AbstractFile[updatedFiles.size()]), removedNames);
+    }
+
+    /**
+     * Called by {@link LocalFolderWatcher} when the current folder has changed in a way that requires it to be
+     * listed again, e.g. when too many changes occurred for them to be reported.
+     */
+    void folderChanged() {
+        if (!folderChanging) {
+            LOGGER.debug(this+" ("+currentFolder.getName()+") Detected changes in current folder, refreshing table!");
+            folderPanel.tryRefreshCurrentFolder();
+        }
+    }
+
+    /**
+     * Called by {@link LocalFolderWatcher} when the current folder can no longer be watched, e.g. because it has been
+     * deleted. The folder is refreshed, which changes the current folder if it no longer exists, and polled if it does.
+     */
+    void folderWatchCancelled() {
+        watched = false;
+        folderChanged();
+    }
+
     /////////////////////////////////////
     // LocationListener implementation //
     /////////////////////////////////////
@@ -311,6 +394,7 @@ public class FolderChangeMonitor implements Runnable, WindowListener, LocationLi
     public void windowClosed(WindowEvent e) {
         // Remove the MainFrame from the list of monitored instances
         instances.remove(this);
+        LocalFolderWatcher.unregister(this);
         LOGGER.debug("nbInstances="+instances.size());
     }	
 	
@@ -0,0 +1,279 @@
+/*
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2018 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.mucommander.core;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.mucommander.commons.file.AbstractFile;
+import com.mucommander.commons.file.protocol.local.LocalFile;
+
+/**
+ * Watches local folders for changes using the filesystem's native notification mechanism (e.g. inotify), through
+ * a {@link WatchService}. Each watched folder is associated with a {@link FolderChangeMonitor} which is notified of
+ * the names of the entries that have been created, deleted or modified in the folder.
+ *
+ * <p>Events are coalesced: once an event has been received, events keep being collected for {@link #SETTLE_DELAY}
+ * milliseconds before the monitors are notified, so that a burst of changes (e.g. a file being written) results in a
+ * single notification.</p>
+ *
+ * <p>Implementation note: all folders are watched by one single daemon thread, which is started when the first
+ * folder is registered.</p>
+ */
+class LocalFolderWatcher implements Runnable {
+	private static final Logger LOGGER = LoggerFactory.getLogger(LocalFolderWatcher.class);
+
+    /** Number of milliseconds events are collected for before the monitors are notified */
+    final static int SETTLE_DELAY = 100;
+
+    /** The unique instance, null until a folder is registered or if no WatchService is available */
+    private static LocalFolderWatcher instance;
+
+    /** True if a WatchService could not be created, folders are then polled by FolderChangeMonitor */
+    private static boolean unavailable;
+
+    private final WatchService watchService;
+
+    /** Monitors mapped by the key of the folder they watch. Monitors that watch the same folder share the same key. */
+    private final Map<WatchKey, List<FolderChangeMonitor>> monitors = new HashMap<WatchKey, List<FolderChangeMonitor>>();
+
+    /** Keys mapped by the monitor that watches them */
+    private final Map<FolderChangeMonitor, WatchKey> keys = new HashMap<FolderChangeMonitor, WatchKey>();
+
+    private LocalFolderWatcher(WatchService watchService) {
+        this.watchService = watchService;
+    }
+
+    /**
+     * Returns the unique instance, creating it and starting its thread if necessary. Returns <code>null</code> if
+     * no <code>WatchService</code> is available.
+     */
+    private static synchronized LocalFolderWatcher getInstance() {
+        if(instance==null && !unavailable) {
+            try {
+                instance = new LocalFolderWatcher(FileSystems.getDefault().newWatchService());
+
+                Thread thread = new Thread(instance, LocalFolderWatcher.class.getName());
+                thread.setDaemon(true);
+                thread.start();
+            }
+            catch(IOException | UnsupportedOperationException e) {
+                LOGGER.info("Filesystem notifications are not available, local folders will be polled", e);
+                unavailable = true;
+            }
+        }
+
+        return instance;
+    }
+
+    /**
+     * Returns <code>true</code> if the given folder can be watched for changes, i.e. if it is a local folder that is
+     * not an archive.
+     *
+     * @param folder the folder to test
+     * @return true if the given folder can be watched for changes
+     */
+    static boolean isWatchable(AbstractFile folder) {
+        return folder.hasAncestor(LocalFile.class) && !folder.isArchive() && folder.isDirectory();
+    }
+
+    /**
+     * Watches the given folder for changes on behalf of the given monitor, replacing the folder the monitor was
+     * watching, if any. Returns <code>false</code> if the folder cannot be watched, in which case the monitor has to
+     * poll the folder for changes.
+     *
+     * @param monitor the monitor to notify of the folder's changes
+     * @param folder the folder to watch
+     * @return true if the folder is being watched, false if it cannot be
+     */
+    static boolean register(FolderChangeMonitor monitor, AbstractFile folder) {
+        unregister(monitor);
+
+        if(!isWatchable(folder))
+            return false;
+
+        LocalFolderWatcher watcher = getInstance();
+        if(watcher==null)
+            return false;
+
+        // Registration is performed while holding the lock, so that the key is not cancelled by another monitor in
+        // the meantime
+        synchronized(watcher) {
+            try {
+                WatchKey key = Paths.get(folder.getAbsolutePath()).register(watcher.watchService,
+                        StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_DELETE,
+                        StandardWatchEventKinds.ENTRY_MODIFY);
+
+                List<FolderChangeMonitor> keyMonitors = watcher.monitors.get(key);
+                if(keyMonitors==null) {
+                    keyMonitors = new ArrayList<FolderChangeMonitor>(2);
+                    watcher.monitors.put(key, keyMonitors);
+                }
+                keyMonitors.add(monitor);
+                watcher.keys.put(monitor, key);
+
+                return true;
+            }
+            catch(IOException | RuntimeException e) {
+                LOGGER.debug("Could not watch "+folder+", polling it", e);
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Stops watching the folder the given monitor was watching, if any.
+     *
+     * @param monitor the monitor that no longer needs to be notified
+     */
+    static void unregister(FolderChangeMonitor monitor) {
+        LocalFolderWatcher watcher;
+        synchronized(LocalFolderWatcher.class) {
+            watcher = instance;
+        }
+
+        if(watcher==null)
+            return;
+
+        synchronized(watcher) {
+            WatchKey key = watcher.keys.remove(monitor);
+            if(key==null)
+                return;
+
+            List<FolderChangeMonitor> keyMonitors = watcher.monitors.get(key);
+            keyMonitors.remove(monitor);
+            // Stop watching the folder if no other monitor watches it
+            if(keyMonitors.isEmpty()) {
+                watcher.monitors.remove(key);
+                key.cancel();
+            }
+        }
+    }
+
+    public void run() {
+        try {
+            while(true) {
+                // Wait for a first event, then collect the ones that follow closely
+                Map<WatchKey, Set<String>> changes = new LinkedHashMap<WatchKey, Set<String>>();
+                Set<WatchKey> overflowedKeys = new LinkedHashSet<WatchKey>();
+                Set<WatchKey> invalidKeys = new LinkedHashSet<WatchKey>();
+
+                WatchKey key = watchService.take();
+                long deadline = System.currentTimeMillis()+SETTLE_DELAY;
+                while(key!=null) {
+                    collectEvents(key, changes, overflowedKeys, invalidKeys);
+
+                    long timeout = deadline-System.currentTimeMillis();
+                    key = timeout>0?watchService.poll(timeout, TimeUnit.MILLISECONDS):watchService.poll();
+                }
+
+                dispatch(changes, overflowedKeys, invalidKeys);
+            }
+        }
+        catch(InterruptedException | ClosedWatchServiceException e) {
+            LOGGER.info("Stopped watching local folders", e);
+        }
+    }
+
+    private void collectEvents(WatchKey key, Map<WatchKey, Set<String>> changes, Set<WatchKey> overflowedKeys, Set<WatchKey> invalidKeys) {
+        for(WatchEvent<?> event : key.pollEvents()) {
+            if(event.kind()==StandardWatchEventKinds.OVERFLOW) {
+                overflowedKeys.add(key);
+                continue;
+            }
+
+            Set<String> names = changes.get(key);
+            if(names==null) {
+                names = new LinkedHashSet<String>();
+                changes.put(key, names);
+            }
+            names.add(((Path)event.context()).toString());
+        }
+
+        // The key becomes invalid when the folder is deleted or becomes inaccessible
+        if(!key.reset())
+            invalidKeys.add(key);
+    }
+
+    private void dispatch(Map<WatchKey, Set<String>> changes, Set<WatchKey> overflowedKeys, Set<WatchKey> invalidKeys) {
+        for(Map.Entry<WatchKey, Set<String>> entry : changes.entrySet()) {
+            WatchKey key = entry.getKey();
+            if(overflowedKeys.contains(key) || invalidKeys.contains(key))
+                continue;
+
+            for(FolderChangeMonitor monitor : getMonitors(key))
+                monitor.folderEntriesChanged(entry.getValue());
+        }
+
+        for(WatchKey key : overflowedKeys) {
+            if(invalidKeys.contains(key))
+                continue;
+
+            for(FolderChangeMonitor monitor : getMonitors(key))
+                monitor.folderChanged();
+        }
+
+        for(WatchKey key : invalidKeys) {
+            List<FolderChangeMonitor> keyMonitors;
+            synchronized(this) {
+                keyMonitors = monitors.remove(key);
+                if(keyMonitors==null)
+                    continue;
+
+                for(FolderChangeMonitor monitor : keyMonitors)
+                    keys.remove(monitor);
+            }
+
+            for(FolderChangeMonitor monitor : keyMonitors)
+                monitor.folderWatchCancelled();
+        }
+    }
+
+    /**
+     * Returns a copy of the list of monitors that watch the given key, so that they can be notified without holding
+     * this watcher's lock.
+     */
+    private synchronized List<FolderChangeMonitor> getMonitors(WatchKey key) {
+        List<FolderChangeMonitor> keyMonitors = monitors.get(key);
+        if(keyMonitors==null)
+            return Collections.emptyList();
+
+        return new ArrayList<FolderChangeMonitor>(keyMonitors);
+    }
+}
@@ -343,7 +343,9 @@ public class LocationChanger {
         // while FileTable#setCurrentFolder is being called. 
         lastFolderChangeTime = System.currentTimeMillis();
         
-    	locationManager.setCurrentFolder(folder, fileToSelect, changeLockedTab);
+    	// The folder is presented even if it could not be listed entirely, with the children that could be listed
+    	if (!locationManager.setCurrentFolder(folder, fileToSelect, changeLockedTab))
+    		showFailedToReadFolderDialog();
     }
 
     /**
@@ -497,6 +497,16 @@ public abstract class FileJob implements Runnable {
     }
 	
 
+    /**
+     * This method is called by {@link #run()} after the last call to {@link #processFile(AbstractFile,Object)} has
+     * returned, whether the job has been interrupted or not, and before {@link #jobCompleted()}.
+     * This method implementation does nothing but it can be overridden by subclasses that process files asynchronously,
+     * to wait for all of them to be processed.
+     */
+    protected void jobFilesProcessed() {
+    }
+
+
     /**
      * This method is called when this job has completed normal execution : all files have been processed without any interruption
      * (without any call to {@link #interrupt()}).
@@ -779,6 +789,9 @@ public abstract class FileJob implements Runnable {
             }
         }
 
+        // Wait for files that are processed asynchronously, if any
+        jobFilesProcessed();
+
         // If last file was reached without any user interruption, all files have been processed with or
         // without errors, switch to FINISHED state and notify listeners
         if (currentFileIndex == nbFiles && getState() != FileJobState.INTERRUPTED) {
@@ -19,10 +19,13 @@
 package com.mucommander.job.impl;
 
 import com.mucommander.commons.file.AbstractFile;
+import com.mucommander.commons.file.FileOperation;
 import com.mucommander.commons.file.archive.AbstractRWArchiveFile;
 import com.mucommander.commons.file.util.FileSet;
 import com.mucommander.job.FileCollisionChecker;
 import com.mucommander.job.FileJobAction;
+import com.mucommander.job.FileJobState;
+import com.mucommander.job.ui.DialogResult;
 import com.mucommander.text.Translator;
 import com.mucommander.ui.dialog.file.FileCollisionDialog;
 import com.mucommander.ui.dialog.file.FileCollisionRenameDialog;
@@ -30,6 +33,18 @@ import com.mucommander.ui.dialog.file.ProgressDialog;
 import com.mucommander.ui.main.MainFrame;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * This class is the parent class of {@link com.mucommander.job.impl.CopyJob} and {@link com.mucommander.job.impl.MoveJob} and
@@ -40,7 +55,26 @@ import java.io.IOException;
  * @see com.mucommander.job.impl.MoveJob
  */
 public abstract class AbstractCopyJob extends TransferFileJob {
-    
+	private static final Logger LOGGER = LoggerFactory.getLogger(AbstractCopyJob.class);
+
+    /** Number of files that may be queued for each transfer thread, on top of the one it is copying */
+    private final static int QUEUED_FILES_PER_THREAD = 4;
+
+    /** Number of threads that copy files concurrently, 1 (the job's thread) by default */
+    private int nbTransferThreads = 1;
+
+    /** Copies files concurrently, null unless files are copied by more than one thread */
+    private ExecutorService transferExecutor;
+
+    /** Bounds the number of files that are being copied or queued, so that the job's thread does not get too far ahead */
+    private Semaphore transferSlots;
+
+    /** Folders which date is to be changed once the files they contain have been copied */
+    private final List<FolderDate> folderDates = new ArrayList<FolderDate>();
+
+    /** Serializes the dialogs shown by the job's thread and the transfer threads */
+    private final Object dialogLock = new Object();
+
     /** Base destination folder */
     protected AbstractFile baseDestFolder;
     
@@ -201,6 +235,116 @@ public abstract class AbstractCopyJob extends TransferFileJob {
         return destFile;
     }
     
+    /**
+     * Sets the number of threads that copy files concurrently. If more than one, regular files are queued by the job's
+     * thread, which keeps on scanning folders and checking for collisions, and copied by a pool of transfer threads.
+     * Files are always copied by the job's thread when the source or destination is located in an archive.
+     * This method has no effect once the job has been started.
+     *
+     * @param nbTransferThreads number of threads that copy files concurrently, 1 to copy files one at a time
+     */
+    public void setTransferThreads(int nbTransferThreads) {
+        this.nbTransferThreads = Math.max(1, nbTransferThreads);
+    }
+
+    /**
+     * Returns the number of threads that copy files concurrently, 1 by default.
+     *
+     * @return the number of threads that copy files concurrently
+     */
+    public int getTransferThreads() {
+        return nbTransferThreads;
+    }
+
+    /**
+     * Returns <code>true</code> if files are copied by a pool of transfer threads, i.e. {@link #transferFile(AbstractFile, AbstractFile, boolean)}
+     * returns before the file has been copied.
+     *
+     * @return true if files are copied by a pool of transfer threads
+     */
+    protected boolean isCopyingConcurrently() {
+        return transferExecutor!=null;
+    }
+
+    /**
+     * Copies the given file to the specified destination, see {@link #tryCopyFile(AbstractFile, AbstractFile, boolean, String)}.
+     * If files are copied concurrently, the file is queued and this method returns <code>true</code> right away,
+     * after having waited for room in the queue if necessary. Errors are then reported by the transfer thread.
+     *
+     * @param file the file to copy
+     * @param destFile the destination file
+     * @param append true to resume the transfer
+     * @return true if the file was copied or queued, false if the transfer was interrupted / aborted by the user
+     */
+    protected boolean transferFile(final AbstractFile file, final AbstractFile destFile, final boolean append) {
+        if(transferExecutor==null)
+            return tryCopyFile(file, destFile, append, errorDialogTitle);
+
+        transferSlots.acquireUninterruptibly();
+        if(getState()==FileJobState.INTERRUPTED) {
+            transferSlots.release();
+            return false;
+        }
+
+        transferExecutor.execute(new Runnable() {
+            public void run() {
+                try {
+                    if(getState()==FileJobState.INTERRUPTED)
+                        return;
+
+                    beginTransfer(file);
+                    try {
+                        tryCopyFile(file, destFile, append, errorDialogTitle);
+                    }
+                    finally {
+                        endTransfer();
+                    }
+                }
+                catch(RuntimeException e) {
+                    LOGGER.info("Caught exception while copying "+file, e);
+                }
+                finally {
+                    transferSlots.release();
+                }
+            }
+        });
+
+        return true;
+    }
+
+    /**
+     * Changes the date of the given destination folder. If files are copied concurrently, the date is changed once all
+     * files have been copied, so that it is not modified by the files copied into the folder.
+     *
+     * @param destFolder the folder which date is to be changed
+     * @param date the new date
+     */
+    protected void changeFolderDate(AbstractFile destFolder, long date) {
+        if(transferExecutor!=null) {
+            folderDates.add(new FolderDate(destFolder, date));
+            return;
+        }
+
+        if(destFolder.isFileOperationSupported(FileOperation.CHANGE_DATE)) {
+            try {
+                destFolder.changeDate(date);
+            }
+            catch (IOException e) {
+                LOGGER.debug("failed to change the date of "+destFolder, e);
+                // Fail silently
+            }
+        }
+    }
+
+    /**
+     * Waits for the files that are being copied or queued to be copied.
+     */
+    private void awaitTransfers() {
+        int nbSlots = nbTransferThreads*(1+QUEUED_FILES_PER_THREAD);
+        transferSlots.acquireUninterruptibly(nbSlots);
+        transferSlots.release(nbSlots);
+    }
+
     /**
      * Optimizes the given writable archive file and notifies the user in case of an error.
      *
@@ -227,4 +371,73 @@ public abstract class AbstractCopyJob extends TransferFileJob {
         isOptimizingArchive = false;
     }
 
+
+    ////////////////////////
+    // Overridden methods //
+    ////////////////////////
+
+    @Override
+    protected void jobStarted() {
+        super.jobStarted();
+
+        // Archive entries cannot be read or written concurrently
+        if(nbTransferThreads>1 && baseDestFolder.getParentArchive()==null && files.getBaseFolder().getParentArchive()==null) {
+            final AtomicInteger threadCount = new AtomicInteger();
+            transferExecutor = new ThreadPoolExecutor(nbTransferThreads, nbTransferThreads, 0, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(),
+                    new ThreadFactory() {
+                        public Thread newThread(Runnable r) {
+                            Thread thread = new Thread(r, "FileTransfer-"+threadCount.incrementAndGet());
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+            transferSlots = new Semaphore(nbTransferThreads*(1+QUEUED_FILES_PER_THREAD));
+        }
+    }
+
+    /**
+     * Waits for the files that are queued to be copied, then restores the date of the folders that were created.
+     */
+    @Override
+    protected void jobFilesProcessed() {
+        super.jobFilesProcessed();
+
+        if(transferExecutor==null)
+            return;
+
+        awaitTransfers();
+        transferExecutor.shutdown();
+        transferExecutor = null;
+
+        // Innermost folders were recorded first
+        for(FolderDate folderDate : folderDates)
+            changeFolderDate(folderDate.folder, folderDate.date);
+        folderDates.clear();
+    }
+
+    /**
+     * Overridden to prevent the transfer threads and the job's thread from showing dialogs at the same time.
+     */
+    @Override
+    protected Object waitForUserResponseObject(DialogResult dialog) {
+        synchronized(dialogLock) {
+            return super.waitForUserResponseObject(dialog);
+        }
+    }
+
+
+    /**
+     * The date of a destination folder, restored once the files it contains have been copied.
+     */
+    private static class FolderDate {
+        private final AbstractFile folder;
+        private final long date;
+
+        private FolderDate(AbstractFile folder, long date) {
+            this.folder = folder;
+            this.date = date;
+        }
+    }
+
 }
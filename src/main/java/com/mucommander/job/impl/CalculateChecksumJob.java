@@ -22,12 +22,28 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.mucommander.commons.file.AbstractFile;
 import com.mucommander.commons.file.util.FileSet;
+import com.mucommander.commons.io.ChecksumCalculator;
+import com.mucommander.commons.io.FileTransferError;
+import com.mucommander.commons.io.FileTransferException;
 import com.mucommander.job.FileCollisionChecker;
 import com.mucommander.job.FileJobAction;
 import com.mucommander.job.FileJobState;
@@ -62,34 +78,232 @@ import com.mucommander.ui.viewer.ViewerRegistrar;
  * </pre>
  * </p>
  *
+ * <p>Several checksum algorithms can be used at once, in which case one checksum file is written per algorithm.
+ * Each file is read only once: the bytes that are read are fed to all the digests by a separate thread, while the next
+ * bytes are being read (see {@link ChecksumCalculator}). Unless they are located in an archive, files are hashed by a
+ * pool of threads, several of them at a time. Checksums are written in the order the files are listed in.</p>
+ *
  * @author Maxence Bernard
  */
 public class CalculateChecksumJob extends TransferFileJob {
 	private static final Logger LOGGER = LoggerFactory.getLogger(CalculateChecksumJob.class);
-	
-    /** The checksum file where the checksum of each file is written */
-    private AbstractFile checksumFile;
-    /** The OutputStream of the checksum file */
-    private OutputStream checksumFileOut;
+
+    /** Maximum number of files that are hashed concurrently */
+    private final static int MAX_HASH_THREADS = 4;
+
+    /** Number of files queued for each hash thread, in addition to the one being hashed */
+    private final static int QUEUED_FILES_PER_THREAD = 4;
+
+    /** The checksum files where the checksum of each file is written, one per algorithm */
+    private AbstractFile checksumFiles[];
+    /** The OutputStreams of the checksum files */
+    private OutputStream checksumFilesOut[];
 
     /** The path to the base source folder, i.e. the folder which contains all the files this job operates on */
     private String baseSourcePath;
 
-    /** True if the SFV format is used rather than the default 'SUMS' format */
-    private boolean useSfvFormat;
+    /** True for each algorithm for which the SFV format is used rather than the default 'SUMS' format */
+    private boolean useSfvFormat[];
+
+    /** The MessageDigests that serve to calculate the checksums in the job's thread */
+    private MessageDigest digests[];
 
-    /** The MessageDigest that serves to calculate the checksum */
-    private MessageDigest digest;
+    /** Number of files that are hashed concurrently */
+    private int nbHashThreads;
+
+    /** Hashes files concurrently, null if files are hashed by the job's thread */
+    private ExecutorService hashExecutor;
+
+    /** Updates the digests while files are being read */
+    private ExecutorService digestExecutor;
+
+    /** Files that have been queued to be hashed and whose checksums have not been written yet, in order */
+    private final Queue<ChecksumTask> pendingTasks = new ConcurrentLinkedQueue<ChecksumTask>();
 
 
     public CalculateChecksumJob(ProgressDialog progressDialog, MainFrame mainFrame, FileSet files, AbstractFile checksumFile, MessageDigest digest) {
+        this(progressDialog, mainFrame, files, new AbstractFile[]{checksumFile}, new MessageDigest[]{digest});
+    }
+
+    /**
+     * Creates a new job that calculates the checksums of the given files with several algorithms at once.
+     *
+     * @param progressDialog dialog which shows this job's progress
+     * @param mainFrame mainFrame this job has been triggered by
+     * @param files files which are going to be hashed
+     * @param checksumFiles the checksum file of each digest
+     * @param digests the digests to calculate the checksums with, one per checksum file
+     */
+    public CalculateChecksumJob(ProgressDialog progressDialog, MainFrame mainFrame, FileSet files, AbstractFile checksumFiles[], MessageDigest digests[]) {
         super(progressDialog, mainFrame, files);
 
-        this.checksumFile = checksumFile;
-        this.digest = digest;
-        this.useSfvFormat = digest.getAlgorithm().equalsIgnoreCase("CRC32");
+        this.checksumFiles = checksumFiles;
+        this.digests = digests;
+
+        this.useSfvFormat = new boolean[digests.length];
+        for(int i=0; i<digests.length; i++)
+            useSfvFormat[i] = digests[i].getAlgorithm().equalsIgnoreCase("CRC32");
 
         this.baseSourcePath = getBaseSourceFolder().getAbsolutePath(true);
+
+        // Each file being hashed keeps two threads busy: one that reads it and one that updates the digests
+        this.nbHashThreads = Math.max(1, Math.min(MAX_HASH_THREADS, Runtime.getRuntime().availableProcessors()/2));
+    }
+
+
+    /**
+     * Returns the path of the given file, relative to the base source folder.
+     */
+    private String getRelativePath(AbstractFile file) {
+        String relativePath = file.getAbsolutePath();
+        return relativePath.substring(baseSourcePath.length(), relativePath.length());
+    }
+
+    /**
+     * Returns new instances of the job's digests, for a thread other than the job's.
+     */
+    private MessageDigest[] createDigests() {
+        MessageDigest newDigests[] = new MessageDigest[digests.length];
+        for(int i=0; i<digests.length; i++) {
+            try {
+                newDigests[i] = MessageDigest.getInstance(digests[i].getAlgorithm(), digests[i].getProvider());
+            }
+            catch(NoSuchAlgorithmException e) {
+                // Should never happen as the provider already supplied an instance
+                throw new IllegalStateException(e);
+            }
+        }
+
+        return newDigests;
+    }
+
+    /**
+     * Reads the given file once and returns its checksums, in the order of the digests.
+     *
+     * @param file the file to hash
+     * @param digests the digests to use
+     * @return the checksums of the file
+     * @throws IOException if an I/O error occurred while reading the file
+     */
+    private String[] calculateChecksums(AbstractFile file, MessageDigest digests[]) throws IOException {
+        InputStream in = setCurrentInputStream(file.getInputStream());
+        try {
+            return ChecksumCalculator.calculateChecksums(in, digestExecutor, digests);
+        }
+        catch(IOException e) {
+            throw new FileTransferException(FileTransferError.READING_SOURCE);
+        }
+        finally {
+            // Close the InputStream, a new one will be created when retrying
+            try { in.close(); }
+            catch(IOException e) {}
+        }
+    }
+
+    /**
+     * Writes a new line in each checksum file, in the appropriate format.
+     *
+     * @param relativePath the path of the file, relative to the base source folder
+     * @param checksums the checksums of the file, in the order of the digests
+     * @throws IOException if an I/O error occurred while writing the lines
+     */
+    private void writeChecksums(String relativePath, String checksums[]) throws IOException {
+        for(int i=0; i<checksums.length; i++) {
+            String line;
+            if(useSfvFormat[i]) {
+                // SFV format for CRC32 checksums
+                line = relativePath + " " + checksums[i];     // 1 space character
+            }
+            else {
+                // 'SUMS' format for other checksum algorithms
+                line = checksums[i] + "  " + relativePath;    // 2 space characters, that's how the format is
+            }
+
+            line += '\n';
+
+            checksumFilesOut[i].write(line.getBytes("utf-8"));
+        }
+    }
+
+    /**
+     * Calculates the checksums of the given file in the job's thread and writes them, offering to retry if an error
+     * occurs.
+     *
+     * @param file the file to hash
+     * @param relativePath the path of the file, relative to the base source folder
+     * @return true if the checksums were written, false if the file was skipped or the job interrupted
+     */
+    private boolean processChecksum(AbstractFile file, String relativePath) {
+        do {		// Loop for retry
+            try {
+                writeChecksums(relativePath, calculateChecksums(file, digests));
+
+                return true;
+            }
+            catch(IOException e) {
+                // If the job was interrupted by the user at the time the exception occurred, it most likely means that
+                // the IOException was caused by the stream being closed as a result of the user interruption.
+                // If that is the case, the exception should not be interpreted as an error.
+                // Same goes if the current file was skipped.
+                if (getState() == FileJobState.INTERRUPTED || wasCurrentFileSkipped())
+                    return false;
+
+                LOGGER.debug("Caught IOException", e);
+
+                if(!retryAfterError(file))
+                    return false;
+            }
+        } while(true);
+    }
+
+    /**
+     * Reports an error that occurred while hashing the given file and returns <code>true</code> if the user chose to
+     * retry.
+     */
+    private boolean retryAfterError(AbstractFile file) {
+        int ret = showErrorDialog(Translator.get("error"), Translator.get("error_while_transferring", file.getAbsolutePath()));
+        // Retry loops
+        if(ret==FileJobAction.RETRY) {
+            // Reset processed bytes currentFileByteCounter
+            resetCurrentFileByteCounter();
+
+            return true;
+        }
+
+        // Cancel, skip or close dialog return false
+        return false;
+    }
+
+    /**
+     * Writes the checksums of the files that have been hashed concurrently, in the order they were queued. Checksums
+     * of the first queued files are waited for as long as more than the specified number of files are pending.
+     * Errors are reported by the job's thread, which hashes the file again if the user chooses to retry.
+     *
+     * @param maxPendingTasks the maximum number of files that can remain pending when this method returns
+     */
+    private void writePendingChecksums(int maxPendingTasks) {
+        ChecksumTask task;
+        while((task=pendingTasks.peek())!=null && (pendingTasks.size()>maxPendingTasks || task.future.isDone())) {
+            pendingTasks.poll();
+
+            try {
+                String checksums[] = task.future.get();
+                if(checksums!=null)
+                    writeChecksums(task.relativePath, checksums);
+            }
+            catch(InterruptedException | CancellationException e) {
+                // The job was interrupted
+            }
+            catch(ExecutionException | IOException e) {
+                if (getState() == FileJobState.INTERRUPTED || task.skipped)
+                    continue;
+
+                LOGGER.debug("Caught exception while hashing "+task.file, e);
+
+                if(retryAfterError(task.file))
+                    processChecksum(task.file, task.relativePath);
+            }
+        }
     }
 
 
@@ -125,77 +339,33 @@ public class CalculateChecksumJob extends TransferFileJob {
             } while(true);
         }
 
-        // Calculate the file's checksum
-        do {		// Loop for retry
-            InputStream in = null;
-            String line;
-            String checksum;
-            try {
-                // Resets the digest before use
-                digest.reset();
-
-                in = null;
-                in = setCurrentInputStream(file.getInputStream());
-
-                // Determine the path relative to the base source folder
-                String relativePath = file.getAbsolutePath();
-                relativePath = relativePath.substring(baseSourcePath.length(), relativePath.length());
-
-                // Write a new line in the checksum file, in the appropriate format
-                checksum = AbstractFile.calculateChecksum(in, digest);
-                if(useSfvFormat) {
-                    // SFV format for CRC32 checksums
-                    line = relativePath + " " + checksum;     // 1 space character
-                }
-                else {
-                    // 'SUMS' format for other checksum algorithms
-                    line = checksum + "  " + relativePath;    // 2 space characters, that's how the format is
-                }
-
-                line += '\n';
+        // Calculate the file's checksums
+        String relativePath = getRelativePath(file);
+        if(hashExecutor==null)
+            return processChecksum(file, relativePath);
 
-                // Close the InputStream, we're done with it
-                in.close();
+        if(getState()==FileJobState.INTERRUPTED)
+            return false;
 
-                checksumFileOut.write(line.getBytes("utf-8"));
+        ChecksumTask task = new ChecksumTask(file, relativePath);
+        task.future = hashExecutor.submit(task);
+        pendingTasks.add(task);
 
-                return true;
-            }
-            catch(IOException e) {
-                // Close the InputStream, a new one will be created when retrying
-                if(in!=null) {
-                    try { in.close(); }
-                    catch(IOException e2){}
-                }
+        // Write the checksums that are available, waiting for room in the queue if necessary
+        writePendingChecksums(nbHashThreads*(1+QUEUED_FILES_PER_THREAD));
 
-                // If the job was interrupted by the user at the time the exception occurred, it most likely means that
-                // the IOException was caused by the stream being closed as a result of the user interruption.
-                // If that is the case, the exception should not be interpreted as an error.
-                // Same goes if the current file was skipped.
-                if (getState() == FileJobState.INTERRUPTED || wasCurrentFileSkipped())
-                    return false;
-
-                LOGGER.debug("Caught IOException", e);
-                
-                int ret = showErrorDialog(Translator.get("error"), Translator.get("error_while_transferring", file.getAbsolutePath()));
-                // Retry loops
-                if(ret==FileJobAction.RETRY) {
-                    // Reset processed bytes currentFileByteCounter
-                    resetCurrentFileByteCounter();
-
-                    continue;
-                }
-
-                // Cancel, skip or close dialog return false
-                return false;
-            }
-        } while(true);
+        return true;
     }
 
     @Override
     protected boolean hasFolderChanged(AbstractFile folder) {
-        // This job modifies the folder where the checksum file is
-        return folder.equalsCanonical(checksumFile.getParent());     // Note: parent may be null
+        // This job modifies the folders where the checksum files are
+        for(AbstractFile checksumFile : checksumFiles) {
+            if(folder.equalsCanonical(checksumFile.getParent()))     // Note: parent may be null
+                return true;
+        }
+
+        return false;
     }
 
 
@@ -207,6 +377,50 @@ public class CalculateChecksumJob extends TransferFileJob {
     protected void jobStarted() {
         super.jobStarted();
 
+        checksumFilesOut = new OutputStream[checksumFiles.length];
+        for(int i=0; i<checksumFiles.length; i++) {
+            if(!openChecksumFile(i)) {
+                interrupt();
+                return;
+            }
+        }
+
+        final AtomicInteger threadCount = new AtomicInteger();
+        ThreadFactory threadFactory = new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "ChecksumDigest-"+threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+        // One more thread than the hash threads, for the files that are hashed again by the job's thread
+        digestExecutor = new ThreadPoolExecutor(nbHashThreads+1, nbHashThreads+1, 0, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), threadFactory);
+
+        // Archive entries cannot be read concurrently
+        if(nbHashThreads>1 && getBaseSourceFolder().getParentArchive()==null) {
+            final AtomicInteger hashThreadCount = new AtomicInteger();
+            hashExecutor = new ThreadPoolExecutor(nbHashThreads, nbHashThreads, 0, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(),
+                    new ThreadFactory() {
+                        public Thread newThread(Runnable r) {
+                            Thread thread = new Thread(r, "ChecksumHash-"+hashThreadCount.incrementAndGet());
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+        }
+    }
+
+    /**
+     * Checks the checksum file of the specified algorithm for collision and opens it for writing.
+     *
+     * @param index index of the algorithm
+     * @return true if the checksum file was opened, false if the user chose to cancel the job
+     */
+    private boolean openChecksumFile(int index) {
+        AbstractFile checksumFile = checksumFiles[index];
+
         // Check for file collisions, i.e. if the file already exists in the destination
         int collision = FileCollisionChecker.checkForCollision(null, checksumFile);
         if(collision!=FileCollisionChecker.NO_COLLOSION) {
@@ -220,8 +434,7 @@ public class CalculateChecksumJob extends TransferFileJob {
             }
             // 'Cancel' or close dialog interrupts the job
             else {
-                interrupt();
-                return;
+                return false;
             }
         }
 
@@ -229,10 +442,9 @@ public class CalculateChecksumJob extends TransferFileJob {
         do {
             try {
                 // Tries to get an OutputStream on the destination file
-                this.checksumFileOut = checksumFile.getOutputStream();
-
-                break;
+                checksumFilesOut[index] = checksumFile.getOutputStream();
 
+                return true;
             }
             catch(Exception e) {
                 int choice = showErrorDialog(Translator.get("error"),
@@ -246,29 +458,94 @@ public class CalculateChecksumJob extends TransferFileJob {
                     continue;
 
                 // 'Cancel' or close dialog interrupts the job
-                interrupt();
-                return;
+                return false;
             }
         } while(true);
     }
 
+    /**
+     * Waits for the files that are being hashed concurrently and writes their checksums.
+     */
+    @Override
+    protected void jobFilesProcessed() {
+        super.jobFilesProcessed();
+
+        if(hashExecutor==null)
+            return;
+
+        writePendingChecksums(0);
+        hashExecutor.shutdown();
+    }
+
     @Override
     protected void jobCompleted() {
         super.jobCompleted();
 
-        // Open the checksum file in a viewer
-        ViewerRegistrar.createViewerFrame(getMainFrame(), checksumFile, IconManager.getImageIcon(checksumFile.getIcon()).getImage());
+        // Open the checksum files in a viewer
+        for(AbstractFile checksumFile : checksumFiles)
+            ViewerRegistrar.createViewerFrame(getMainFrame(), checksumFile, IconManager.getImageIcon(checksumFile.getIcon()).getImage());
     }
 
     @Override
     protected void jobStopped() {
         super.jobStopped();
-        
-        // Close the checksum file's OutputStream
-        if(checksumFileOut !=null) {
-            try { checksumFileOut.close(); }
-            catch(IOException e2){
-                // No need to inform the user
+
+        // Files that are queued will not be hashed, the ones being hashed have had their stream closed
+        for(ChecksumTask task : pendingTasks)
+            task.future.cancel(false);
+
+        if(hashExecutor!=null)
+            hashExecutor.shutdownNow();
+        if(digestExecutor!=null)
+            digestExecutor.shutdownNow();
+
+        // Close the checksum files' OutputStreams
+        if(checksumFilesOut!=null) {
+            for(OutputStream checksumFileOut : checksumFilesOut) {
+                if(checksumFileOut!=null) {
+                    try { checksumFileOut.close(); }
+                    catch(IOException e2){
+                        // No need to inform the user
+                    }
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Hashes a file in a thread of the hash pool, concurrently with the job's thread and other files.
+     */
+    private class ChecksumTask implements Callable<String[]> {
+        private final AbstractFile file;
+        private final String relativePath;
+        /** The task's result, set once the task has been submitted */
+        private Future<String[]> future;
+        /** True if the file was skipped by the user while it was being hashed */
+        private volatile boolean skipped;
+
+        private ChecksumTask(AbstractFile file, String relativePath) {
+            this.file = file;
+            this.relativePath = relativePath;
+        }
+
+        /**
+         * Returns the checksums of the file, <code>null</code> if the job was interrupted before the file was hashed.
+         */
+        public String[] call() throws IOException {
+            if(getState()==FileJobState.INTERRUPTED)
+                return null;
+
+            beginTransfer(file);
+            try {
+                return calculateChecksums(file, createDigests());
+            }
+            catch(IOException e) {
+                skipped = wasCurrentFileSkipped();
+                throw e;
+            }
+            finally {
+                endTransfer();
             }
         }
     }
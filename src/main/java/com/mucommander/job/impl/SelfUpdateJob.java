@@ -86,6 +86,9 @@ public class SelfUpdateJob extends CopyJob {
     private SelfUpdateJob(ProgressDialog progressDialog, MainFrame mainFrame, FileSet files, AbstractFile destJar, AbstractFile tempDestJar) {
         super(progressDialog, mainFrame, files, tempDestJar.getParent(), tempDestJar.getName(), TransferMode.DOWNLOAD, FileCollisionDialog.OVERWRITE_ACTION);
 
+        // processFile() works on the JAR file as soon as it has been copied
+        setTransferThreads(1);
+
         this.destJar = destJar;
         this.tempDestJar = tempDestJar;
         this.classLoader = getClass().getClassLoader();
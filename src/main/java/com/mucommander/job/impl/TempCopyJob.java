@@ -48,6 +48,9 @@ public class TempCopyJob extends CopyJob {
      */
     public TempCopyJob(ProgressDialog progressDialog, MainFrame mainFrame, AbstractFile fileToCopy) {
         super(progressDialog, mainFrame, new FileSet(fileToCopy.getParent(), fileToCopy), FileFactory.getTemporaryFolder(), getTemporaryFileName(fileToCopy), TransferMode.COPY, FileCollisionDialog.OVERWRITE_ACTION);
+
+        // Subclasses work on the temporary files as soon as they have been copied
+        setTransferThreads(1);
     }
 
     /**
@@ -59,6 +62,9 @@ public class TempCopyJob extends CopyJob {
      */
     public TempCopyJob(ProgressDialog progressDialog, MainFrame mainFrame, FileSet filesToCopy) {
         super(progressDialog, mainFrame, filesToCopy, getTemporaryFolder(filesToCopy), null, TransferMode.COPY, FileCollisionDialog.OVERWRITE_ACTION);
+
+        // Subclasses work on the temporary files as soon as they have been copied
+        setTransferThreads(1);
     }
 
 
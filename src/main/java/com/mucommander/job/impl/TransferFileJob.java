@@ -20,12 +20,17 @@
 package com.mucommander.job.impl;
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -37,6 +42,7 @@ import com.mucommander.commons.file.FilePermissions;
 import com.mucommander.commons.file.protocol.local.LocalFile;
 import com.mucommander.commons.file.util.FileSet;
 import com.mucommander.commons.io.ByteCounter;
+import com.mucommander.commons.io.ChannelTransferInputStream;
 import com.mucommander.commons.io.ChecksumInputStream;
 import com.mucommander.commons.io.CounterInputStream;
 import com.mucommander.commons.io.FileTransferError;
@@ -82,14 +88,20 @@ public abstract class TransferFileJob extends FileJob {
     private long throughputLimit = -1;
 
     /** Has the file currently being processed been skipped ? */
-    private boolean currentFileSkipped;
+    private volatile boolean currentFileSkipped;
 
     /** If true, all transfers will be checked for integrity: the checksum of the source and destination file will
      *  be calculated and compared to verify they match. */
     private boolean integrityCheckEnabled;
 
-    /** True when the checksum of the source or destination file is being calculated. */
-    private boolean isCheckingIntegrity;
+    /** True when the checksum of the source or destination file is being calculated by the job's thread. */
+    private volatile boolean isCheckingIntegrity;
+
+    /** Transfers performed concurrently by other threads than the job's, mapped by thread, see {@link #beginTransfer(AbstractFile)} */
+    private final Map<Thread, ConcurrentTransfer> concurrentTransfers = new LinkedHashMap<Thread, ConcurrentTransfer>();
+
+    /** The most recently started concurrent transfer, reported as the current file. null if there is none. */
+    private volatile ConcurrentTransfer lastConcurrentTransfer;
 
     /** The checksum algorithm used for checking the integrity of transferred files. The algorithm has to be the fastest
      * possible (to have the minimum impact on transfer speed) and does not need to have a good resitance to collision. */
@@ -121,8 +133,8 @@ public abstract class TransferFileJob extends FileJob {
      * As much as the source and destination protocols allow, the source file's date and permissions will be preserved.
      */
     protected void copyFile(AbstractFile sourceFile, AbstractFile destFile, boolean append) throws FileTransferException {
-        // Reset this field in case it was set to true for the previous file
-        isCheckingIntegrity = false;
+        // Reset this flag in case it was set to true for the previous file
+        setCheckingIntegrity(false);
 
         // Throw a specific FileTransferException if source and destination files are identical
         if(sourceFile.equalsCanonical(destFile))
@@ -143,8 +155,16 @@ public abstract class TransferFileJob extends FileJob {
             }
         }
 
+        // Local files are transferred by the operating system, unless the data is needed to calculate a checksum
+        if(!copied && !integrityCheckEnabled
+                && sourceFile.hasAncestor(LocalFile.class) && destFile.hasAncestor(LocalFile.class)) {
+            transferLocalFile(sourceFile, destFile, append);
+            copied = true;
+        }
+
         // If the file wasn't copied using copyRemotelyTo(), or if copyRemotelyTo() failed
         InputStream in = null;
+        InputStream tin = null;
         if(!copied) {
             // Copy source file stream to destination file
             try {
@@ -159,9 +179,9 @@ public abstract class TransferFileJob extends FileJob {
 
                         inLength -= destFileSize;
                         // Increase current file ByteCounter by the number of bytes skipped
-                        currentFileByteCounter.add(destFileSize);
+                        getFileByteCounter().add(destFileSize);
                         // Increase skipped ByteCounter by the number of bytes skipped
-                        currentFileSkippedByteCounter.add(destFileSize);
+                        getFileSkippedByteCounter().add(destFileSize);
                     }
                     else {
                         in = sourceFile.getInputStream();
@@ -169,7 +189,7 @@ public abstract class TransferFileJob extends FileJob {
                             in = new ChecksumInputStream(in, MessageDigest.getInstance(CHECKSUM_VERIFICATION_ALGORITHM));
                     }
 
-                    setCurrentInputStream(in);
+                    tin = setCurrentInputStream(in);
                 }
                 catch(Exception e) {
                     LOGGER.debug("IOException caught, throwing FileTransferException", e);
@@ -177,7 +197,7 @@ public abstract class TransferFileJob extends FileJob {
                 }
 
                 // Copy source stream to destination file
-                destFile.copyStream(tlin, append, inLength);
+                destFile.copyStream(tin, append, inLength);
             }
             finally {
                 // This block will always be executed, even if an exception
@@ -204,7 +224,7 @@ public abstract class TransferFileJob extends FileJob {
             String destinationChecksum;
 
             // Indicate that integrity is being checked, the value is reset when the next file starts
-            isCheckingIntegrity = true;
+            setCheckingIntegrity(true);
 
             if(in!=null && (in instanceof ChecksumInputStream)) {
                 // The file was copied with a ChecksumInputStream, the checksum is already calculated, simply
@@ -242,6 +262,70 @@ public abstract class TransferFileJob extends FileJob {
     }
 
 
+    /**
+     * Copies the given local source file to the specified local destination file using
+     * {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)}, which spares copying the data
+     * to and from user space. The transfer is performed by skipping a {@link ChannelTransferInputStream} that is
+     * registered as the current InputStream, so that the transfer is accounted for, throttled, paused and interrupted
+     * just like a regular stream copy.
+     */
+    private void transferLocalFile(AbstractFile sourceFile, AbstractFile destFile, boolean append) throws FileTransferException {
+        FileChannel sourceChannel;
+        long offset = 0;
+        try {
+            long destFileSize = destFile.getSize();
+            if(append && destFileSize!=-1)
+                offset = destFileSize;
+
+            sourceChannel = new FileInputStream(sourceFile.getAbsolutePath()).getChannel();
+            sourceChannel.position(offset);
+        }
+        catch(IOException e) {
+            LOGGER.debug("IOException caught, throwing FileTransferException", e);
+            throw new FileTransferException(FileTransferError.OPENING_SOURCE);
+        }
+
+        FileChannel destChannel;
+        try {
+            destChannel = new FileOutputStream(destFile.getAbsolutePath(), append).getChannel();
+        }
+        catch(IOException e) {
+            try { sourceChannel.close(); }
+            catch(IOException e2) {}
+
+            throw new FileTransferException(FileTransferError.OPENING_DESTINATION);
+        }
+
+        if(offset>0) {
+            // Increase current file ByteCounter by the number of bytes skipped
+            getFileByteCounter().add(offset);
+            // Increase skipped ByteCounter by the number of bytes skipped
+            getFileSkippedByteCounter().add(offset);
+        }
+
+        try {
+            InputStream in = setCurrentInputStream(new ChannelTransferInputStream(sourceChannel, destChannel));
+            try {
+                while(in.skip(Long.MAX_VALUE)>0);
+            }
+            catch(IOException e) {
+                LOGGER.debug("IOException caught, throwing FileTransferException", e);
+                // The source channel is closed when the file is skipped or the job stopped
+                throw new FileTransferException(sourceChannel.isOpen()?FileTransferError.WRITING_DESTINATION:FileTransferError.READING_SOURCE);
+            }
+        }
+        finally {
+            closeCurrentInputStream();
+
+            try {
+                destChannel.close();
+            }
+            catch(IOException e) {
+                throw new FileTransferException(FileTransferError.CLOSING_DESTINATION);
+            }
+        }
+    }
+
     private void tryCopyFileTypeAndCreator(AbstractFile sourceFile, AbstractFile destFile) {
         if (OsFamily.MAC_OS_X.isCurrent()
             && sourceFile.hasAncestor(LocalFile.class)
@@ -285,7 +369,7 @@ public abstract class TransferFileJob extends FileJob {
     }
 
     private String calculateChecksum(AbstractFile file) throws IOException, NoSuchAlgorithmException {
-        currentFileByteCounter.reset();
+        getFileByteCounter().reset();
         InputStream in = setCurrentInputStream(file.getInputStream());
         try {
             return AbstractFile.calculateChecksum(in, MessageDigest.getInstance(CHECKSUM_VERIFICATION_ALGORITHM));
@@ -375,8 +459,8 @@ public abstract class TransferFileJob extends FileJob {
                 // Retry action (append or retry)
                 if(choice==FileJobAction.RETRY || choice==FileJobAction.APPEND) {
                     // Reset current file byte counters
-                    currentFileByteCounter.reset();
-                    currentFileSkippedByteCounter.reset();
+                    getFileByteCounter().reset();
+                    getFileSkippedByteCounter().reset();
                     // Append resumes transfer
                     append = choice==FileJobAction.APPEND;
                     continue;
@@ -404,6 +488,13 @@ public abstract class TransferFileJob extends FileJob {
      * @return the 'augmented' InputStream using the given stream as the underlying InputStream
      */
     protected synchronized InputStream setCurrentInputStream(InputStream in) {
+        ConcurrentTransfer transfer = concurrentTransfers.get(Thread.currentThread());
+        if(transfer!=null) {
+            transfer.tlin = new ThroughputLimitInputStream(new CounterInputStream(in, transfer.byteCounter),
+                    getState()==FileJobState.PAUSED?0:getConcurrentThroughputLimit());
+            return transfer.tlin;
+        }
+
         if(tlin==null) {
             tlin = new ThroughputLimitInputStream(new CounterInputStream(in, currentFileByteCounter), throughputLimit);
         }
@@ -418,13 +509,94 @@ public abstract class TransferFileJob extends FileJob {
      * Closes the currently registered source InputStream.
      */
     protected synchronized void closeCurrentInputStream() {
-        if(tlin !=null) {
-            try { tlin.close(); }
+        ConcurrentTransfer transfer = concurrentTransfers.get(Thread.currentThread());
+        closeInputStream(transfer==null?tlin:transfer.tlin);
+    }
+
+    private static void closeInputStream(InputStream in) {
+        if(in!=null) {
+            try { in.close(); }
             catch(IOException e) {}
         }
     }
 
 
+    /**
+     * Registers a transfer performed by the calling thread, concurrently with the job's thread and other transfers.
+     * Until {@link #endTransfer()} is called, the InputStreams registered by the calling thread and the bytes counted
+     * for it are kept apart from the other transfers', and accounted in the job's totals. The throughput limit is
+     * shared evenly among concurrent transfers. The most recently started transfer is reported as the current file.
+     *
+     * @param file the file being transferred by the calling thread
+     */
+    protected synchronized void beginTransfer(AbstractFile file) {
+        ConcurrentTransfer transfer = new ConcurrentTransfer(file);
+        concurrentTransfers.put(Thread.currentThread(), transfer);
+        lastConcurrentTransfer = transfer;
+
+        updateConcurrentThroughputLimits();
+    }
+
+    /**
+     * Unregisters the transfer performed by the calling thread, adding its byte counts to the job's totals.
+     * This method must be called once the transfer started by {@link #beginTransfer(AbstractFile)} is over.
+     */
+    protected synchronized void endTransfer() {
+        ConcurrentTransfer transfer = concurrentTransfers.remove(Thread.currentThread());
+        if(transfer==null)
+            return;
+
+        closeInputStream(transfer.tlin);
+        totalByteCounter.add(transfer.byteCounter, false);
+        totalSkippedByteCounter.add(transfer.skippedByteCounter, false);
+
+        if(lastConcurrentTransfer==transfer) {
+            lastConcurrentTransfer = null;
+            for(ConcurrentTransfer t : concurrentTransfers.values())
+                lastConcurrentTransfer = t;
+        }
+
+        updateConcurrentThroughputLimits();
+    }
+
+    /**
+     * Returns the throughput limit of each concurrent transfer, the job's limit being shared evenly among them.
+     */
+    private long getConcurrentThroughputLimit() {
+        if(throughputLimit<=0)
+            return -1;
+
+        return Math.max(1, throughputLimit/Math.max(1, concurrentTransfers.size()));
+    }
+
+    private synchronized void updateConcurrentThroughputLimits() {
+        if(getState()==FileJobState.PAUSED)
+            return;
+
+        long limit = getConcurrentThroughputLimit();
+        for(ConcurrentTransfer transfer : concurrentTransfers.values()) {
+            if(transfer.tlin!=null)
+                transfer.tlin.setThroughputLimit(limit);
+        }
+    }
+
+    /**
+     * Returns the byte counter of the file being transferred by the calling thread.
+     */
+    private synchronized ByteCounter getFileByteCounter() {
+        ConcurrentTransfer transfer = concurrentTransfers.get(Thread.currentThread());
+        return transfer==null?currentFileByteCounter:transfer.byteCounter;
+    }
+
+    /**
+     * Returns the skipped byte counter of the file being transferred by the calling thread.
+     */
+    private synchronized ByteCounter getFileSkippedByteCounter() {
+        ConcurrentTransfer transfer = concurrentTransfers.get(Thread.currentThread());
+        return transfer==null?currentFileSkippedByteCounter:transfer.skippedByteCounter;
+    }
+
+
     /**
      * Returns <code>true</code> if file transfers need to be checked for data integrity. In this case, the checksum of
      * the source and destination files are both calculated and compared to verify they match.
@@ -451,15 +623,36 @@ public abstract class TransferFileJob extends FileJob {
      * @return true if the integrity of the current file is being verified
      */
     protected boolean isCheckingIntegrity() {
-        return isCheckingIntegrity;
+        ConcurrentTransfer transfer = lastConcurrentTransfer;
+        return transfer==null?isCheckingIntegrity:transfer.checkingIntegrity;
+    }
+
+    /**
+     * Specifies whether the integrity of the file transferred by the calling thread is being verified.
+     */
+    private synchronized void setCheckingIntegrity(boolean checkingIntegrity) {
+        ConcurrentTransfer transfer = concurrentTransfers.get(Thread.currentThread());
+        if(transfer==null)
+            isCheckingIntegrity = checkingIntegrity;
+        else
+            transfer.checkingIntegrity = checkingIntegrity;
     }
 
 
     /**
-     * Interrupts the current file transfer and advance to the next one.
+     * Interrupts the current file transfer and advance to the next one. If files are being transferred concurrently,
+     * all the transfers in progress are interrupted.
      */
     public synchronized void skipCurrentFile() {
-        if(tlin !=null) {
+        if(!concurrentTransfers.isEmpty()) {
+            for(ConcurrentTransfer transfer : concurrentTransfers.values()) {
+                LOGGER.debug("skipping "+transfer.file+", closing "+ transfer.tlin);
+
+                transfer.skipped = true;
+                closeInputStream(transfer.tlin);
+            }
+        }
+        else if(tlin !=null) {
             LOGGER.debug("skipping current file, closing "+ tlin);
 
             // Prevents an error from being reported when the current InputStream is closed
@@ -480,7 +673,8 @@ public abstract class TransferFileJob extends FileJob {
      * @return true if the file that is currently being processed has been skipped
      */
     public synchronized boolean wasCurrentFileSkipped() {
-        return currentFileSkipped;
+        ConcurrentTransfer transfer = concurrentTransfers.get(Thread.currentThread());
+        return transfer==null?currentFileSkipped:transfer.skipped;
     }
 
     /**
@@ -503,14 +697,15 @@ public abstract class TransferFileJob extends FileJob {
      * @return the number of bytes that have been processed in the current file
      */
     public long getCurrentFileByteCount() {
-        return currentFileByteCounter.getByteCount();
+        ConcurrentTransfer transfer = lastConcurrentTransfer;
+        return (transfer==null?currentFileByteCounter:transfer.byteCounter).getByteCount();
     }
 
     /**
      * Resets the number of bytes that have been processed in the current file.
      */
     public void resetCurrentFileByteCounter() {
-        currentFileByteCounter.reset();
+        getFileByteCounter().reset();
     }
 
     /**
@@ -520,7 +715,8 @@ public abstract class TransferFileJob extends FileJob {
      * @return the number of bytes that have been skipped in the current file
      */
     public long getCurrentFileSkippedByteCount() {
-        return currentFileSkippedByteCounter.getByteCount();
+        ConcurrentTransfer transfer = lastConcurrentTransfer;
+        return (transfer==null?currentFileSkippedByteCounter:transfer.skippedByteCounter).getByteCount();
     }
 
     /**
@@ -529,6 +725,10 @@ public abstract class TransferFileJob extends FileJob {
      * @return the size of the file currently being processed, -1 if this information is not available.
      */
     public long getCurrentFileSize() {
+        ConcurrentTransfer transfer = lastConcurrentTransfer;
+        if(transfer!=null)
+            return transfer.file.getSize();
+
         return getCurrentFile()==null?-1:getCurrentFile().getSize();
     }
 
@@ -538,8 +738,13 @@ public abstract class TransferFileJob extends FileJob {
      *
      * @return the total number of bytes that have been processed by this job so far
      */
-    public long getTotalByteCount() {
-        return totalByteCounter.getByteCount();
+    public synchronized long getTotalByteCount() {
+        long count = totalByteCounter.getByteCount();
+        // Account the bytes of concurrent transfers in progress
+        for(ConcurrentTransfer transfer : concurrentTransfers.values())
+            count += transfer.byteCounter.getByteCount();
+
+        return count;
     }
 
     /**
@@ -548,8 +753,12 @@ public abstract class TransferFileJob extends FileJob {
      *
      * @return the total number of bytes that have been skipped by this job so far
      */
-    public long getTotalSkippedByteCount() {
-        return totalSkippedByteCounter.getByteCount();
+    public synchronized long getTotalSkippedByteCount() {
+        long count = totalSkippedByteCounter.getByteCount();
+        for(ConcurrentTransfer transfer : concurrentTransfers.values())
+            count += transfer.skippedByteCounter.getByteCount();
+
+        return count;
     }
 
 
@@ -572,6 +781,8 @@ public abstract class TransferFileJob extends FileJob {
         synchronized(this) {
             if(getState() != FileJobState.PAUSED && tlin !=null)
                 tlin.setThroughputLimit(throughputLimit);
+
+            updateConcurrentThroughputLimits();
         }
     }
 
@@ -601,8 +812,11 @@ public abstract class TransferFileJob extends FileJob {
             if(tlin !=null) {
                 LOGGER.debug("closing current InputStream "+ tlin);
 
-                closeCurrentInputStream();
+                closeInputStream(tlin);
             }
+
+            for(ConcurrentTransfer transfer : concurrentTransfers.values())
+                closeInputStream(transfer.tlin);
         }
     }
 
@@ -618,6 +832,11 @@ public abstract class TransferFileJob extends FileJob {
         synchronized(this) {
             if(tlin !=null)
                 tlin.setThroughputLimit(0);
+
+            for(ConcurrentTransfer transfer : concurrentTransfers.values()) {
+                if(transfer.tlin!=null)
+                    transfer.tlin.setThroughputLimit(0);
+            }
         }
     }
 
@@ -634,6 +853,8 @@ public abstract class TransferFileJob extends FileJob {
             // Restore previous throughput limit (if any, -1 by default)
             if(tlin !=null)
                 tlin.setThroughputLimit(throughputLimit);
+
+            updateConcurrentThroughputLimits();
         }
     }
 
@@ -679,12 +900,41 @@ public abstract class TransferFileJob extends FileJob {
      */
     @Override
     public String getStatusString() {
-        if(isCheckingIntegrity())
+        ConcurrentTransfer transfer = lastConcurrentTransfer;
+        if(transfer!=null) {
+            if(transfer.checkingIntegrity)
+                return Translator.get("progress_dialog.verifying_file", "'"+transfer.file.getName()+"'");
+        }
+        else if(isCheckingIntegrity) {
             return Translator.get("progress_dialog.verifying_file", getCurrentFilename());
+        }
 
         return super.getStatusString();
     }
 
+
+    /**
+     * A file transfer performed concurrently by another thread than the job's, see {@link #beginTransfer(AbstractFile)}.
+     */
+    private static class ConcurrentTransfer {
+        /** The file being transferred */
+        private final AbstractFile file;
+        /** Number of bytes processed in the file so far */
+        private final ByteCounter byteCounter = new ByteCounter();
+        /** Number of bytes skipped in the file so far (resumed file) */
+        private final ByteCounter skippedByteCounter = new ByteCounter();
+        /** InputStream currently being processed, may be null */
+        private ThroughputLimitInputStream tlin;
+        /** Has the file been skipped ? */
+        private volatile boolean skipped;
+        /** True when the checksum of the source or destination file is being calculated */
+        private volatile boolean checkingIntegrity;
+
+        private ConcurrentTransfer(AbstractFile file) {
+            this.file = file;
+        }
+    }
+
 //    /**
 //     * Method overridden to return a more accurate percentage of job processed so far by taking
 //     * into account the current file's processed percentage.
@@ -0,0 +1,133 @@
+/*
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2018 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.mucommander.ui.autocomplete.completers.services;
+
+import java.util.Arrays;
+import java.util.Vector;
+
+/**
+ * A <code>DirectoryIndex</code> holds the names of the files of a directory, sorted in case-insensitive order so
+ * that the names that start with a given prefix can be looked up by binary search.
+ *
+ * <p>The names of directories end with a separator, as they are suggested to the user.</p>
+ */
+class DirectoryIndex {
+
+	/** The path that completed names are appended to */
+	private final String directoryPath;
+
+	/** Date of the directory when it was indexed */
+	private final long date;
+
+	/** Names of the directory's files, sorted in case-insensitive order */
+	private final String[] names;
+
+	/** Last time the directory was checked for changes */
+	private volatile long checkTime;
+
+	/**
+	 * Creates a new index of the given names, which are sorted by this constructor.
+	 *
+	 * @param directoryPath - the path that completed names are appended to.
+	 * @param date - the date of the directory.
+	 * @param names - the names of the directory's files.
+	 */
+	DirectoryIndex(String directoryPath, long date, String[] names) {
+		this.directoryPath = directoryPath;
+		this.date = date;
+		this.names = names;
+		this.checkTime = System.currentTimeMillis();
+
+		Arrays.sort(names, String.CASE_INSENSITIVE_ORDER);
+	}
+
+	/**
+	 * @return the date of the directory when it was indexed.
+	 */
+	long getDate() {
+		return date;
+	}
+
+	/**
+	 * Returns <code>true</code> if the directory was last checked for changes more than the given number of
+	 * milliseconds ago, in which case the check time is reset so that a single caller performs the check.
+	 *
+	 * @param period - minimum number of milliseconds between checks.
+	 * @return <code>true</code> if the directory should be checked for changes by the caller.
+	 */
+	synchronized boolean startCheck(long period) {
+		long now = System.currentTimeMillis();
+		if (now - checkTime < period)
+			return false;
+
+		checkTime = now;
+		return true;
+	}
+
+	/**
+	 * Returns the index of the first name that is not lower than the given prefix, in case-insensitive order.
+	 * All the names that start with the prefix (ignoring case) follow this index.
+	 */
+	private int lowerBound(String prefix) {
+		int left = 0;
+		int right = names.length;
+		while (left < right) {
+			int mid = (left + right) >>> 1;
+			if (String.CASE_INSENSITIVE_ORDER.compare(names[mid], prefix) < 0)
+				left = mid + 1;
+			else
+				right = mid;
+		}
+		return left;
+	}
+
+	/**
+	 * Returns the names that start with the given prefix, ignoring case.
+	 *
+	 * @param prefix - the prefix, <code>null</code> or empty to return all the names.
+	 * @return Vector of the names that start with the given prefix, in case-insensitive order.
+	 */
+	Vector<String> getNames(String prefix) {
+		if (prefix == null || prefix.isEmpty())
+			return new Vector<String>(Arrays.asList(names));
+
+		Vector<String> result = new Vector<String>();
+		int prefixLength = prefix.length();
+		for (int i = lowerBound(prefix); i < names.length; i++) {
+			if (!names[i].regionMatches(true, 0, prefix, 0, prefixLength))
+				break;
+			result.add(names[i]);
+		}
+		return result;
+	}
+
+	/**
+	 * If the given completion matches one of the names (ignoring case), returns the path of the corresponding file,
+	 * <code>null</code> otherwise.
+	 *
+	 * @param selectedCompletion - a completion that was suggested.
+	 * @return the path of the file that corresponds to the given completion, <code>null</code> if there is none.
+	 */
+	String complete(String selectedCompletion) {
+		int index = lowerBound(selectedCompletion);
+		if (index < names.length && names[index].equalsIgnoreCase(selectedCompletion))
+			return directoryPath + names[index];
+		return null;
+	}
+}
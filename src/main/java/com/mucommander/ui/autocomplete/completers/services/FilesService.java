@@ -19,8 +19,22 @@
 package com.mucommander.ui.autocomplete.completers.services;
 
 import java.io.IOException;
-import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -30,21 +44,60 @@ import com.mucommander.commons.file.FileFactory;
 
 /**
  * This <code>CompletionService</code> handles file paths completion.
+ *
+ * <p>Directories are listed in the background and their file names are kept in a {@link DirectoryIndex}, the
+ * indexes of the most recently completed directories being cached. Completions for a directory whose index is cached
+ * are returned right away, while the directory is checked for changes in the background. Requests are debounced:
+ * a directory that is not cached is listed only if no other request has been made in the meantime, and a request
+ * gives up waiting for the listing as soon as a newer request is made, cancelling the listing if it is no longer
+ * needed. When only a few directories match the typed name, they are indexed in advance.</p>
  * 
  * @author Arik Hadas
  */
 
 public abstract class FilesService implements CompletionService {
 	private static final Logger LOGGER = LoggerFactory.getLogger(FilesService.class);
-	
-	private String cachedDirectoryName;
-	private String[] cachedDirectoryFileNames;
-	private long cachedDirectoryDate;
-	
-	public FilesService() {
-		cachedDirectoryFileNames = new String[0];
-		cachedDirectoryDate = -1;
-	}
+
+	/** Maximum number of directory indexes that are cached */
+	private static final int MAX_CACHED_DIRECTORIES = 16;
+
+	/** Minimum number of milliseconds between two checks of a cached directory for changes */
+	private static final long DIRECTORY_CHECK_PERIOD = 2000;
+
+	/** Number of milliseconds a request waits before listing a directory, or between checks for a newer request */
+	static final int DEBOUNCE_DELAY = 150;
+
+	/** Maximum number of matching directories that are indexed in advance */
+	private static final int MAX_WARMED_DIRECTORIES = 3;
+
+	/** Maximum number of threads that list directories concurrently, shared by all services */
+	private static final int MAX_WORKERS = 2;
+
+	/** Number of seconds an idle worker thread is kept alive */
+	private static final int WORKER_KEEP_ALIVE = 30;
+
+	/** Lists directories, lazily created */
+	private static ExecutorService executor;
+
+	/** Cached directory indexes by directory name, in access order */
+	private final Map<String, DirectoryIndex> indexes = new LinkedHashMap<String, DirectoryIndex>(MAX_CACHED_DIRECTORIES, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, DirectoryIndex> eldest) {
+			return size() > MAX_CACHED_DIRECTORIES;
+		}
+	};
+
+	/** Directories being indexed, by directory name */
+	private final Map<String, Future<DirectoryIndex>> loadingIndexes = new HashMap<String, Future<DirectoryIndex>>();
+
+	/** Identifier of the last request */
+	private final AtomicLong lastRequest = new AtomicLong();
+
+	/** Name of the directory of the last request */
+	private volatile String lastRequestedDirectoryName;
+
+	/** The index used by the last request, used to complete the selected completion */
+	private volatile DirectoryIndex lastIndex;
 
 	/**
 	 * This abstract function gets a directory and should return it's children
@@ -55,54 +108,213 @@ public abstract class FilesService implements CompletionService {
 	 * @throws IOException
 	 */
 	protected abstract AbstractFile[] getFiles(AbstractFile directory) throws IOException;
-	
+
+	/**
+	 * Returns the shared executor, creating it if necessary. Worker threads are daemon threads that terminate after
+	 * having been idle for {@link #WORKER_KEEP_ALIVE} seconds.
+	 */
+	private static synchronized ExecutorService getExecutor() {
+		if (executor == null) {
+			final AtomicInteger threadCount = new AtomicInteger();
+			ThreadPoolExecutor pool = new ThreadPoolExecutor(MAX_WORKERS, MAX_WORKERS, WORKER_KEEP_ALIVE, TimeUnit.SECONDS,
+					new LinkedBlockingQueue<Runnable>(),
+					new ThreadFactory() {
+						public Thread newThread(Runnable r) {
+							Thread thread = new Thread(r, "FilesService-" + threadCount.incrementAndGet());
+							thread.setDaemon(true);
+							return thread;
+						}
+					});
+			pool.allowCoreThreadTimeOut(true);
+			executor = pool;
+		}
+
+		return executor;
+	}
+
 	public Vector<String> getPossibleCompletions(String path) {
-		Vector<String> result = new Vector<String>();
-		int index = Math.max(path.lastIndexOf('\\'), path.lastIndexOf('/'));	
-		if (index != -1) {
-	        String currentDirectoryName = path.substring(0, index+1);
-	        
-	        AbstractFile currentDirectory = FileFactory.getFile(currentDirectoryName);
-	        if (currentDirectory != null && currentDirectory.exists()) {	        
-		        long currentDirectoryDate = currentDirectory.getDate();
-		        if (cachedDirectoryName == null || !cachedDirectoryName.equals(currentDirectoryName) || currentDirectoryDate != cachedDirectoryDate) {
-		        	AbstractFile[] currentDirectoryFiles;
+		int index = Math.max(path.lastIndexOf('\\'), path.lastIndexOf('/'));
+		if (index == -1)
+			return new Vector<String>();
+
+		String directoryName = path.substring(0, index+1);
+		long request = lastRequest.incrementAndGet();
+		lastRequestedDirectoryName = directoryName;
+
+		DirectoryIndex directoryIndex = getIndex(directoryName, request);
+		if (directoryIndex == null)
+			return new Vector<String>();
+
+		lastIndex = directoryIndex;
+
+		String prefix = index==path.length()-1 ? null : path.substring(index + 1);
+		Vector<String> result = directoryIndex.getNames(prefix);
+
+		warmDirectories(directoryName, result);
+
+		return result;
+	}
+
+	public String complete(String selectedCompletion) {
+		DirectoryIndex directoryIndex = lastIndex;
+		return directoryIndex == null ? null : directoryIndex.complete(selectedCompletion);
+	}
+
+	/**
+	 * Returns the index of the given directory, from the cache if it is there, <code>null</code> if the directory
+	 * doesn't exist or could not be listed, or if a newer request has been made in the meantime.
+	 */
+	private DirectoryIndex getIndex(final String directoryName, long request) {
+		DirectoryIndex cachedIndex;
+		synchronized (this) {
+			cachedIndex = indexes.get(directoryName);
+		}
+
+		if (cachedIndex != null) {
+			if (cachedIndex.startCheck(DIRECTORY_CHECK_PERIOD)) {
+				final DirectoryIndex checkedIndex = cachedIndex;
+				getExecutor().submit(new Runnable() {
+					public void run() {
+						checkIndex(directoryName, checkedIndex);
+					}
+				});
+			}
+			return cachedIndex;
+		}
+
+		// Do not list the directory if the user keeps on typing
+		try {
+			Thread.sleep(DEBOUNCE_DELAY);
+		}
+		catch (InterruptedException e) {
+			return null;
+		}
+		if (lastRequest.get() != request)
+			return null;
+
+		Future<DirectoryIndex> future = loadIndex(directoryName);
+		while (true) {
+			try {
+				return future.get(DEBOUNCE_DELAY, TimeUnit.MILLISECONDS);
+			}
+			catch (TimeoutException e) {
+				if (lastRequest.get() != request) {
+					// The listing is no longer needed if the user has moved on to another directory
+					if (!directoryName.equals(lastRequestedDirectoryName))
+						cancelLoading(directoryName, future);
+					return null;
+				}
+			}
+			catch (CancellationException e) {
+				return null;
+			}
+			catch (InterruptedException | ExecutionException e) {
+				LOGGER.debug("Caught exception", e);
+				return null;
+			}
+		}
+	}
+
+	/**
+	 * Starts indexing the given directory in the background if it is not being indexed already, and returns the
+	 * corresponding <code>Future</code>.
+	 */
+	private synchronized Future<DirectoryIndex> loadIndex(final String directoryName) {
+		Future<DirectoryIndex> future = loadingIndexes.get(directoryName);
+		if (future == null) {
+			future = getExecutor().submit(new Callable<DirectoryIndex>() {
+				public DirectoryIndex call() {
 					try {
-						currentDirectoryFiles = getFiles(currentDirectory);
-					} catch (IOException e) {
-                        LOGGER.debug("Caught exception", e);
-						return new Vector<String>();
+						DirectoryIndex directoryIndex = createIndex(directoryName);
+						synchronized (FilesService.this) {
+							if (directoryIndex != null)
+								indexes.put(directoryName, directoryIndex);
+						}
+						return directoryIndex;
+					}
+					finally {
+						synchronized (FilesService.this) {
+							loadingIndexes.remove(directoryName);
+						}
 					}
-		
-		        	int nbCurrentDirectoryFiles = currentDirectoryFiles.length;
-		        	cachedDirectoryFileNames = new String[nbCurrentDirectoryFiles];
-		        	
-		        	for (int i=0; i<nbCurrentDirectoryFiles; i++) {
-		        		AbstractFile abstractFileI = currentDirectoryFiles[i];
-						cachedDirectoryFileNames[i] = abstractFileI.getName() + (abstractFileI.isDirectory() ? abstractFileI.getSeparator() : "");
-		        	}
-		        	
-		        	Arrays.sort(cachedDirectoryFileNames, String.CASE_INSENSITIVE_ORDER);
-		        	
-		        	cachedDirectoryName = currentDirectory.getAbsolutePath() + (currentDirectory.isDirectory() ? "" : currentDirectory.getSeparator());
-		        	cachedDirectoryDate = currentDirectoryDate;
-		        }
-				
-		        final String prefix = index==path.length()-1 ? null : path.substring(index + 1).toLowerCase();
-		        result = PrefixFilter.createPrefixFilter(prefix).filter(cachedDirectoryFileNames);
-	        }
+				}
+			});
+			loadingIndexes.put(directoryName, future);
 		}
-		return result;
+		return future;
 	}
-	
-	public String complete(String selectedCompletion) {
-		String result = null;
-       	int nbCachedFileNames = cachedDirectoryFileNames.length;
-        for (int i=0; i < nbCachedFileNames; i++)
-        	if (cachedDirectoryFileNames[i].equalsIgnoreCase(selectedCompletion)) {
-        		result = cachedDirectoryName + cachedDirectoryFileNames[i];
-        		break;
-        	}
-        return result;
+
+	private synchronized void cancelLoading(String directoryName, Future<DirectoryIndex> future) {
+		if (loadingIndexes.get(directoryName) == future) {
+			future.cancel(true);
+			loadingIndexes.remove(directoryName);
+		}
+	}
+
+	/**
+	 * Lists the given directory and returns its index, <code>null</code> if the directory doesn't exist or could not
+	 * be listed.
+	 */
+	private DirectoryIndex createIndex(String directoryName) {
+		AbstractFile directory = FileFactory.getFile(directoryName);
+		if (directory == null || !directory.exists())
+			return null;
+
+		long date = directory.getDate();
+		AbstractFile[] files;
+		try {
+			files = getFiles(directory);
+		} catch (IOException e) {
+			LOGGER.debug("Caught exception", e);
+			return null;
+		}
+
+		int nbFiles = files.length;
+		String[] names = new String[nbFiles];
+		for (int i=0; i<nbFiles; i++) {
+			AbstractFile file = files[i];
+			names[i] = file.getName() + (file.isDirectory() ? file.getSeparator() : "");
+		}
+
+		return new DirectoryIndex(directory.getAbsolutePath() + (directory.isDirectory() ? "" : directory.getSeparator()), date, names);
+	}
+
+	/**
+	 * Checks whether the given directory has changed since it was indexed, indexing it again if it has, or removing
+	 * its index if the directory no longer exists.
+	 */
+	private void checkIndex(String directoryName, DirectoryIndex directoryIndex) {
+		AbstractFile directory = FileFactory.getFile(directoryName);
+		if (directory != null && directory.exists() && directory.getDate() == directoryIndex.getDate())
+			return;
+
+		DirectoryIndex newIndex = directory == null ? null : createIndex(directoryName);
+		synchronized (this) {
+			if (newIndex == null)
+				indexes.remove(directoryName);
+			else
+				indexes.put(directoryName, newIndex);
+		}
+	}
+
+	/**
+	 * Indexes the matching directories in advance, if there are only a few of them.
+	 */
+	private void warmDirectories(String directoryName, Vector<String> completions) {
+		Vector<String> directories = new Vector<String>();
+		for (String completion : completions) {
+			if (completion.endsWith("/") || completion.endsWith("\\")) {
+				if (directories.size() == MAX_WARMED_DIRECTORIES)
+					return;
+				directories.add(directoryName + completion);
+			}
+		}
+
+		for (String directory : directories) {
+			synchronized (this) {
+				if (!indexes.containsKey(directory))
+					loadIndex(directory);
+			}
+		}
 	}
 }
@@ -33,6 +33,8 @@ import com.mucommander.ui.main.MainFrame;
 import com.mucommander.ui.text.FilePathField;
 
 import javax.swing.*;
+import javax.swing.event.ListSelectionEvent;
+import javax.swing.event.ListSelectionListener;
 import java.awt.*;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
@@ -42,19 +44,22 @@ import java.io.IOException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.Security;
+import java.util.Arrays;
 import java.util.Comparator;
+import java.util.List;
 import java.util.SortedSet;
 import java.util.TreeSet;
 
 /**
- * This dialog prepares a {@link com.mucommander.job.impl.CalculateChecksumJob} and lets the user choose a checksum
- * algorithm, and a destination for the checksum file.
+ * This dialog prepares a {@link com.mucommander.job.impl.CalculateChecksumJob} and lets the user choose one or several
+ * checksum algorithms, and a destination for the checksum files. When several algorithms are chosen, one checksum file
+ * is created per algorithm, with its standard filename, in the destination folder.
  *
  * @author Maxence Bernard
  */
-public class CalculateChecksumDialog extends JobDialog implements ActionListener, ItemListener {
+public class CalculateChecksumDialog extends JobDialog implements ActionListener, ItemListener, ListSelectionListener {
 
-    private JComboBox algorithmComboBox;
+    private JList algorithmList;
     private JRadioButton specificLocationRadioButton;
     private JTextField specificLocationTextField;
     private JButton okButton;
@@ -65,8 +70,11 @@ public class CalculateChecksumDialog extends JobDialog implements ActionListener
     /** Default checksum algorithm (most commonly used) */
     private final static String DEFAULT_ALGORITHM = "MD5";
 
-    /** Last algorithm used, saved after validation of this dialog */
-    private static String lastUsedAlgorithm = DEFAULT_ALGORITHM;
+    /** Last algorithms used, saved after validation of this dialog */
+    private static String lastUsedAlgorithms[] = {DEFAULT_ALGORITHM};
+
+    /** Number of algorithms visible in the list without scrolling */
+    private final static int VISIBLE_ALGORITHMS = 6;
 
     /** Dialog size constraints */
     private final static Dimension MINIMUM_DIALOG_DIMENSION = new Dimension(320,0);
@@ -106,19 +114,27 @@ public class CalculateChecksumDialog extends JobDialog implements ActionListener
         messageDigests = new MessageDigest[algorithmSortedSet.size()];
         algorithmSortedSet.toArray(messageDigests);
 
-        // Add the sorted list of algorithms to a combo box to let the user choose one
-        algorithmComboBox = new JComboBox();
-        for (MessageDigest messageDigest : messageDigests) 
-            algorithmComboBox.addItem(messageDigest.getAlgorithm());
-
-        // Select the last used algorithm (if any), or the default algorithm
-        algorithmComboBox.setSelectedItem(lastUsedAlgorithm);
-        algorithmComboBox.addItemListener(this);
+        // Add the sorted list of algorithms to a list to let the user choose one or several of them
+        String algorithms[] = new String[messageDigests.length];
+        for (int i=0; i<messageDigests.length; i++)
+            algorithms[i] = messageDigests[i].getAlgorithm();
+
+        algorithmList = new JList(algorithms);
+        algorithmList.setSelectionMode(ListSelectionModel.MULTIPLE_INTERVAL_SELECTION);
+        algorithmList.setVisibleRowCount(VISIBLE_ALGORITHMS);
+
+        // Select the last used algorithms (if any), or the default algorithm
+        List<String> algorithmsList = Arrays.asList(algorithms);
+        for (String algorithm : lastUsedAlgorithms) {
+            int index = algorithmsList.indexOf(algorithm);
+            if (index!=-1)
+                algorithmList.addSelectionInterval(index, index);
+        }
+        algorithmList.addListSelectionListener(this);
 
-        FlowLayout flowLayout = new FlowLayout(FlowLayout.LEADING, 0, 0);
-        JPanel tempPanel = new JPanel(flowLayout);
-        tempPanel.add(new JLabel(Translator.get("calculate_checksum_dialog.checksum_algorithm")+" : "));
-        tempPanel.add(algorithmComboBox);
+        JPanel tempPanel = new JPanel(new BorderLayout());
+        tempPanel.add(new JLabel(Translator.get("calculate_checksum_dialog.checksum_algorithm")+" :"), BorderLayout.NORTH);
+        tempPanel.add(new JScrollPane(algorithmList), BorderLayout.CENTER);
 
         mainPanel.add(tempPanel);
         mainPanel.addSpace(10);
@@ -137,7 +153,7 @@ public class CalculateChecksumDialog extends JobDialog implements ActionListener
         specificLocationRadioButton.addItemListener(this);
         
         // Create a path field with auto-completion capabilities
-        specificLocationTextField = new FilePathField(getChecksumFilename(lastUsedAlgorithm));
+        specificLocationTextField = new FilePathField(getDefaultLocation());
         specificLocationTextField.setEnabled(false);
         tempPanel.add(specificLocationTextField, BorderLayout.CENTER);
 
@@ -154,6 +170,7 @@ public class CalculateChecksumDialog extends JobDialog implements ActionListener
         JPanel fileDetailsPanel = createFileDetailsPanel();
 
         okButton = new JButton(Translator.get("ok"));
+        okButton.setEnabled(!algorithmList.isSelectionEmpty());
         JButton cancelButton = new JButton(Translator.get("cancel"));
 
         mainPanel.add(createButtonsPanel(createFileDetailsButton(fileDetailsPanel),
@@ -168,7 +185,7 @@ public class CalculateChecksumDialog extends JobDialog implements ActionListener
         getContentPane().add(mainPanel);
 
         // Give initial keyboard focus to the 'Delete' button
-        setInitialFocusComponent(algorithmComboBox);
+        setInitialFocusComponent(algorithmList);
 
         // Call dispose() when dialog is closed
         setDefaultCloseOperation(DISPOSE_ON_CLOSE);
@@ -179,12 +196,31 @@ public class CalculateChecksumDialog extends JobDialog implements ActionListener
     }
 
     /**
-     * Returns the MessageDigest instance corresponding to the currently selected algorithm.
+     * Returns the MessageDigest instances corresponding to the currently selected algorithms.
      *
-     * @return the MessageDigest instance corresponding to the currently selected algorithm.
+     * @return the MessageDigest instances corresponding to the currently selected algorithms.
      */
-    private MessageDigest getSelectedMessageDigest() {
-        return messageDigests[algorithmComboBox.getSelectedIndex()];
+    private MessageDigest[] getSelectedMessageDigests() {
+        int selectedIndices[] = algorithmList.getSelectedIndices();
+        MessageDigest selectedDigests[] = new MessageDigest[selectedIndices.length];
+        for (int i=0; i<selectedIndices.length; i++)
+            selectedDigests[i] = messageDigests[selectedIndices[i]];
+
+        return selectedDigests;
+    }
+
+    /**
+     * Returns the default destination for the currently selected algorithms: the standard checksum filename if a single
+     * algorithm is selected, the current folder if several are.
+     *
+     * @return the default destination for the currently selected algorithms
+     */
+    private String getDefaultLocation() {
+        MessageDigest selectedDigests[] = getSelectedMessageDigests();
+        if (selectedDigests.length==1)
+            return getChecksumFilename(selectedDigests[0].getAlgorithm());
+
+        return mainFrame.getActivePanel().getCurrentFolder().getAbsolutePath(true);
     }
 
     /**
@@ -227,39 +263,46 @@ public class CalculateChecksumDialog extends JobDialog implements ActionListener
 
         if(e.getSource()==okButton) {
             try {
-                MessageDigest digest = getSelectedMessageDigest();
-                String algorithm = digest.getAlgorithm();
-                AbstractFile checksumFile;
+                MessageDigest digests[] = getSelectedMessageDigests();
+                String algorithms[] = new String[digests.length];
+                AbstractFile checksumFiles[] = new AbstractFile[digests.length];
+                for(int i=0; i<digests.length; i++)
+                    algorithms[i] = digests[i].getAlgorithm();
 
-                // Resolve the destination checksum file
+                // Resolve the destination checksum files
 
                 if(specificLocationRadioButton.isSelected()) {
                     // User-defined checksum file
                     String enteredPath = specificLocationTextField.getText();
 
                     PathUtils.ResolvedDestination resolvedDest = PathUtils.resolveDestination(enteredPath, mainFrame.getActivePanel().getCurrentFolder());
-                    // The path entered doesn't correspond to any existing folder
-                    if (resolvedDest==null) {
+                    // The path entered doesn't correspond to any existing folder, or several checksum files have to
+                    // be created and the path doesn't correspond to a folder
+                    if (resolvedDest==null
+                            || (digests.length>1 && resolvedDest.getDestinationType()!=PathUtils.ResolvedDestination.EXISTING_FOLDER)) {
                         showErrorDialog(Translator.get("invalid_path", enteredPath));
                         return;
                     }
 
-                    if(resolvedDest.getDestinationType()==PathUtils.ResolvedDestination.EXISTING_FOLDER)
-                        checksumFile = resolvedDest.getDestinationFile().getDirectChild(getChecksumFilename(algorithm));
-                    else
-                        checksumFile = resolvedDest.getDestinationFile();
+                    for(int i=0; i<digests.length; i++) {
+                        if(resolvedDest.getDestinationType()==PathUtils.ResolvedDestination.EXISTING_FOLDER)
+                            checksumFiles[i] = resolvedDest.getDestinationFile().getDirectChild(getChecksumFilename(algorithms[i]));
+                        else
+                            checksumFiles[i] = resolvedDest.getDestinationFile();
+                    }
                 }
                 else {
-                    // Temporary file
-                    checksumFile = FileFactory.getTemporaryFile(getChecksumFilename(algorithm), true);
+                    // Temporary files
+                    for(int i=0; i<digests.length; i++)
+                        checksumFiles[i] = FileFactory.getTemporaryFile(getChecksumFilename(algorithms[i]), true);
                 }
 
-                // Save the algorithm that was used for the next time this dialog is invoked
-                lastUsedAlgorithm = algorithm; 
+                // Save the algorithms that were used for the next time this dialog is invoked
+                lastUsedAlgorithms = algorithms;
 
                 // Start processing files
                 ProgressDialog progressDialog = new ProgressDialog(mainFrame, Translator.get("properties_dialog.calculating"));
-                CalculateChecksumJob job = new CalculateChecksumJob(progressDialog, mainFrame, files, checksumFile, digest);
+                CalculateChecksumJob job = new CalculateChecksumJob(progressDialog, mainFrame, files, checksumFiles, digests);
                 progressDialog.start(job);
             }
             catch(IOException ex) {
@@ -283,8 +326,20 @@ public class CalculateChecksumDialog extends JobDialog implements ActionListener
             specificLocationTextField.setEnabled(specificLocationRadioButton.isSelected());
             specificLocationTextField.requestFocus();
         }
-        else if(source==algorithmComboBox) {
-            specificLocationTextField.setText(getChecksumFilename(getSelectedMessageDigest().getAlgorithm()));
-        }
+    }
+
+
+    //////////////////////////////////////////
+    // ListSelectionListener implementation //
+    //////////////////////////////////////////
+
+    public void valueChanged(ListSelectionEvent e) {
+        if(e.getValueIsAdjusting())
+            return;
+
+        // At least one algorithm has to be selected
+        okButton.setEnabled(!algorithmList.isSelectionEmpty());
+        if(!algorithmList.isSelectionEmpty())
+            specificLocationTextField.setText(getDefaultLocation());
     }
 }
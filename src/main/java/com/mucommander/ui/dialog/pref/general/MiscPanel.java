@@ -22,6 +22,7 @@ import java.awt.BorderLayout;
 import java.awt.FlowLayout;
 import java.awt.event.ItemEvent;
 import java.awt.event.ItemListener;
+import java.util.Arrays;
 
 import javax.swing.BorderFactory;
 import javax.swing.ButtonGroup;
@@ -39,6 +40,7 @@ import com.mucommander.ui.dialog.DialogOwner;
 import com.mucommander.ui.dialog.pref.PreferencesDialog;
 import com.mucommander.ui.dialog.pref.PreferencesPanel;
 import com.mucommander.ui.dialog.pref.component.PrefCheckBox;
+import com.mucommander.ui.dialog.pref.component.PrefComboBox;
 import com.mucommander.ui.dialog.pref.component.PrefEncodingSelectBox;
 import com.mucommander.ui.dialog.pref.component.PrefFilePathField;
 import com.mucommander.ui.dialog.pref.component.PrefRadioButton;
@@ -81,6 +83,12 @@ class MiscPanel extends PreferencesPanel implements ItemListener {
     /** Shell encoding select box. */
     private PrefEncodingSelectBox shellEncodingSelectBox;
 
+    /** Number of files copied concurrently combo box */
+    private PrefComboBox<Integer> transferThreadsComboBox;
+
+    /** Choices offered for the number of files copied concurrently */
+    private final static int TRANSFER_THREADS[] = {1, 2, 4, 8};
+
 
     private JPanel createShellEncodingPanel(PreferencesDialog parent) {
         JPanel panel = new JPanel(new FlowLayout(FlowLayout.LEADING));
@@ -108,6 +116,29 @@ class MiscPanel extends PreferencesPanel implements ItemListener {
         return panel;
     }
 
+    private JPanel createTransferThreadsPanel() {
+        JPanel panel = new JPanel(new FlowLayout(FlowLayout.LEADING));
+
+        int transferThreads = MuConfigurations.getPreferences().getVariable(MuPreference.FILE_TRANSFER_THREADS, MuPreferences.DEFAULT_FILE_TRANSFER_THREADS);
+        transferThreadsComboBox = new PrefComboBox<Integer>() {
+            public boolean hasChanged() {
+                return !getSelectedItem().equals(MuConfigurations.getPreferences().getVariable(MuPreference.FILE_TRANSFER_THREADS, MuPreferences.DEFAULT_FILE_TRANSFER_THREADS));
+            }
+        };
+
+        for(int nbThreads : TRANSFER_THREADS)
+            transferThreadsComboBox.addItem(nbThreads);
+        // Keep a value that was set manually in the preferences file
+        if(transferThreads>0 && Arrays.binarySearch(TRANSFER_THREADS, transferThreads)<0)
+            transferThreadsComboBox.addItem(transferThreads);
+        transferThreadsComboBox.setSelectedItem(Math.max(1, transferThreads));
+
+        panel.add(new JLabel(Translator.get("prefs_dialog.file_transfer_threads")+':'));
+        panel.add(transferThreadsComboBox);
+
+        return panel;
+    }
+
 
     public MiscPanel(PreferencesDialog parent) {
         super(parent, Translator.get("prefs_dialog.misc_tab"));
@@ -207,6 +238,11 @@ class MiscPanel extends PreferencesPanel implements ItemListener {
                                                                               MuPreferences.DEFAULT_ENABLE_BONJOUR_DISCOVERY));
         northPanel.add(bonjourDiscoveryCheckBox);
 
+        northPanel.addSpace(10);
+
+        // 'Files copied concurrently' option
+        northPanel.add(createTransferThreadsPanel());
+
         add(northPanel, BorderLayout.NORTH);
         
         customShellField.addDialogListener(parent);
@@ -217,6 +253,7 @@ class MiscPanel extends PreferencesPanel implements ItemListener {
         bonjourDiscoveryCheckBox.addDialogListener(parent);
         shellEncodingautoDetectCheckbox.addDialogListener(parent);
         shellEncodingSelectBox.addDialogListener(parent);
+        transferThreadsComboBox.addDialogListener(parent);
         if(systemNotificationsCheckBox!=null)
             systemNotificationsCheckBox.addDialogListener(parent);
     }
@@ -268,5 +305,7 @@ class MiscPanel extends PreferencesPanel implements ItemListener {
         enabled = bonjourDiscoveryCheckBox.isSelected();
         MuConfigurations.getPreferences().setVariable(MuPreference.ENABLE_BONJOUR_DISCOVERY, enabled);
         BonjourDirectory.setActive(enabled);
+
+        MuConfigurations.getPreferences().setVariable(MuPreference.FILE_TRANSFER_THREADS, transferThreadsComboBox.getSelectedItem());
     }
 }
@@ -19,14 +19,20 @@
 package com.mucommander.ui.event;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.WeakHashMap;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.mucommander.commons.file.AbstractFile;
+import com.mucommander.commons.file.ChildrenListener;
 import com.mucommander.commons.file.FileURL;
 import com.mucommander.commons.file.UnsupportedFileOperationException;
+import com.mucommander.commons.file.filter.FileFilter;
 import com.mucommander.core.FolderChangeMonitor;
 import com.mucommander.core.GlobalLocationHistory;
 import com.mucommander.ui.main.ConfigurableFolderFilter;
@@ -69,18 +75,25 @@ public class LocationManager {
      * the location was changed to it.
      * 
      * @param folder the {@link AbstractFile} that is going to be presented in the {@link FolderPanel}
+     * @return <code>true</code> if the children of the folder were listed entirely, <code>false</code> if listing
+     * them failed, in which case the folder is presented with the children that were listed before the error, if any
      */
-    public void setCurrentFolder(AbstractFile folder, AbstractFile fileToSelect, boolean changeLockedTab) {
+    public boolean setCurrentFolder(AbstractFile folder, AbstractFile fileToSelect, boolean changeLockedTab) {
     	LOGGER.trace("calling ls()");
     	AbstractFile[] children;
+    	boolean listed = true;
+    	ProgressiveListing listing = new ProgressiveListing(folder, fileToSelect, changeLockedTab);
 		try {
-			children = folder.ls(configurableFolderFilter);
+			children = folder.ls(configurableFolderFilter, listing);
 		} catch (Exception e) {
 			LOGGER.debug("Couldn't ls children of " + folder.getAbsolutePath() + ", error: " + e.getMessage());
 			children = new AbstractFile[0];
+			listed = false;
 		}
 
-    	folderPanel.setCurrentFolder(folder, children, fileToSelect, changeLockedTab);
+    	// The folder may already be presented if its children were listed in several batches
+    	if (!listing.finish())
+    		folderPanel.setCurrentFolder(folder, children, fileToSelect, changeLockedTab);
 
     	this.currentFolder = folder;
 
@@ -90,6 +103,8 @@ public class LocationManager {
     	// After the initial folder is set, initialize the monitoring thread
     	if (folderChangeMonitor == null)
     		folderChangeMonitor = new FolderChangeMonitor(folderPanel);
+
+    	return listed;
     }
 
     /**
@@ -105,6 +120,15 @@ public class LocationManager {
         return folderChangeMonitor;
     }
 
+    /**
+     * Returns the filter that is used to filter out unwanted files when listing the contents of the current folder.
+     *
+     * @return the filter used to filter out unwanted files from the current folder
+     */
+    public FileFilter getFolderFilter() {
+        return configurableFolderFilter;
+    }
+
     /**
      * Registers a LocationListener to receive notifications whenever the current folder of the associated FolderPanel
      * has or is being changed.
@@ -169,4 +193,71 @@ public class LocationManager {
         for(LocationListener listener : locationListeners.keySet())
             listener.locationFailed(new LocationEvent(folderPanel, folderURL));
     }
+
+    /**
+     * Presents the children of a folder as they are listed, for filesystems that list folders in several batches:
+     * the folder is presented as soon as the first batch is received (or the batch that contains the file to select),
+     * and the following batches are added to the table at most every {@link #UPDATE_PERIOD} milliseconds, so that
+     * the table isn't sorted again for every single batch. Batches may be received from other threads than the one
+     * that lists the folder, but not after <code>ls</code> has returned or thrown an exception.
+     */
+    private class ProgressiveListing implements ChildrenListener {
+        /** Minimum number of milliseconds between two updates of the table */
+        private final static long UPDATE_PERIOD = 500;
+
+        private final AbstractFile folder;
+        private final AbstractFile fileToSelect;
+        private final boolean changeLockedTab;
+
+        /** Children that have been listed but not presented yet */
+        private List<AbstractFile> pendingChildren = new ArrayList<AbstractFile>();
+        private boolean folderSet;
+        private long lastUpdateTime;
+
+        private ProgressiveListing(AbstractFile folder, AbstractFile fileToSelect, boolean changeLockedTab) {
+            this.folder = folder;
+            this.fileToSelect = fileToSelect;
+            this.changeLockedTab = changeLockedTab;
+        }
+
+        public void childrenListed(AbstractFile[] children) {
+            pendingChildren.addAll(Arrays.asList(children));
+
+            if (!folderSet) {
+                if (fileToSelect == null || pendingChildren.contains(fileToSelect)) {
+                    folderPanel.setCurrentFolder(folder, toArray(), fileToSelect, changeLockedTab);
+                    folderSet = true;
+                    lastUpdateTime = System.currentTimeMillis();
+                }
+            }
+            else if (System.currentTimeMillis() - lastUpdateTime >= UPDATE_PERIOD) {
+                update();
+            }
+        }
+
+        /**
+         * Presents the children that are still pending, if the folder has been presented already.
+         *
+         * @return <code>true</code> if the folder has been presented
+         */
+        private boolean finish() {
+            if (folderSet)
+                update();
+
+            return folderSet;
+        }
+
+        private void update() {
+            if (!pendingChildren.isEmpty())
+                folderPanel.getFileTable().updateCurrentFolderFiles(folder, toArray(), Collections.<String>emptySet());
+
+            lastUpdateTime = System.currentTimeMillis();
+        }
+
+        private AbstractFile[] toArray() {
+            AbstractFile[] files = pendingChildren.toArray(new AbstractFile[pendingChildren.size()]);
+            pendingChildren.clear();
+            return files;
+        }
+    }
 }
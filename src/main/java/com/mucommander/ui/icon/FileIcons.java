@@ -119,15 +119,7 @@ public class FileIcons {
      * @see #getSystemIconsPolicy()
      */
     public static Icon getFileIcon(AbstractFile file, Dimension iconDimension) {
-        boolean systemIcon = false;
-
-        if(USE_SYSTEM_ICONS_ALWAYS.equals(systemIconsPolicy))
-            systemIcon = true;
-
-        if(USE_SYSTEM_ICONS_APPLICATIONS.equals(systemIconsPolicy))
-            systemIcon = com.mucommander.desktop.DesktopManager.isApplication(file);
-
-        if(systemIcon) {
+        if(isSystemFileIconUsed(file)) {
             Icon icon = getSystemFileIcon(file, iconDimension);
             if(icon!=null)
                 return icon;
@@ -138,6 +130,26 @@ public class FileIcons {
     }
 
 
+    /**
+     * Returns <code>true</code> if {@link #getFileIcon(AbstractFile, Dimension)} would return a system icon for the
+     * given file rather than a custom one, according to the current {@link #getSystemIconsPolicy() system icons policy}.
+     * Custom icons are cheap to retrieve, whereas system icons may be expensive as they require the underlying
+     * OS/desktop manager to be queried.
+     *
+     * @param file the file to test
+     * @return true if a system icon is to be used for the given file
+     */
+    public static boolean isSystemFileIconUsed(AbstractFile file) {
+        if(USE_SYSTEM_ICONS_ALWAYS.equals(systemIconsPolicy))
+            return true;
+
+        if(USE_SYSTEM_ICONS_APPLICATIONS.equals(systemIconsPolicy))
+            return com.mucommander.desktop.DesktopManager.isApplication(file);
+
+        return false;
+    }
+
+
     /**
      * Shorthand for {@link #getCustomFileIcon(com.mucommander.commons.file.AbstractFile, java.awt.Dimension)} called with the
      * icon dimension returned by {@link #getIconDimension()}.
@@ -32,6 +32,7 @@ import java.awt.event.FocusEvent;
 import java.awt.event.FocusListener;
 import java.awt.event.KeyEvent;
 import java.util.HashSet;
+import java.util.Set;
 
 import javax.swing.JComponent;
 import javax.swing.JPanel;
@@ -417,6 +418,26 @@ public class FolderPanel extends JPanel implements FocusListener, QuickListConta
     			fileTable.setCurrentFolder(folder, children, fileToSelect);
     }
 
+    /**
+     * Applies changes to the current folder's contents without listing the folder again: the table is updated
+     * incrementally, see {@link FileTable#updateCurrentFolderFiles(AbstractFile, AbstractFile[], Set)}.
+     *
+     * @param folder the folder the changes apply to
+     * @param updatedFiles files that have been created or modified in the folder
+     * @param removedNames names of the files that have been deleted from the folder
+     */
+    public void updateCurrentFolderFiles(AbstractFile folder, AbstractFile updatedFiles[], Set<String> removedNames) {
+        fileTable.updateCurrentFolderFiles(folder, updatedFiles, removedNames);
+
+        // Subfolders may have been created or deleted
+        boolean foldersChanged = !removedNames.isEmpty();
+        for(int i=0; i<updatedFiles.length && !foldersChanged; i++)
+            foldersChanged = updatedFiles[i].isDirectory();
+
+        if(foldersChanged)
+            foldersTreePanel.refreshFolder(folder);
+    }
+
     /**
      * Shows the pop up which is located the given index in fileTablePopups.
      * 
@@ -0,0 +1,226 @@
+/*
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2018 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.mucommander.ui.main.table;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.mucommander.commons.file.AbstractFile;
+import com.mucommander.commons.file.CachedFile;
+
+/**
+ * This class pre-fetches the attributes of a folder's children in batches, using a bounded pool of worker threads.
+ * Files are wrapped into {@link CachedFile} instances so that the attributes fetched by the workers are retained
+ * and available to the table renderer and sort comparators without any further I/O.
+ *
+ * <p>For folders that contain more than {@link #BATCH_SIZE} files, only the attributes that are required to sort them
+ * are fetched by {@link #createCachedFiles(AbstractFile[], Column)}. The attributes that are only displayed are
+ * fetched by {@link FileTableModel} once rows have been sorted, a batch of rows at a time in the order they are
+ * displayed, using {@link #submit(Runnable)} to run in the background.</p>
+ */
+class FileAttributesPrefetcher {
+    private static final Logger LOGGER = LoggerFactory.getLogger(FileAttributesPrefetcher.class);
+
+    /** Number of files handled by a single prefetch task */
+    static final int BATCH_SIZE = 256;
+
+    /** Maximum number of threads that fetch file attributes concurrently */
+    private static final int MAX_WORKERS = Math.max(2, Math.min(8, Runtime.getRuntime().availableProcessors()*2));
+
+    /** Number of seconds an idle worker thread is kept alive */
+    private static final int WORKER_KEEP_ALIVE = 30;
+
+    /** Executes prefetch tasks, lazily created */
+    private static ExecutorService executor;
+
+    /**
+     * Returns the shared executor, creating it if necessary. Worker threads are daemon threads that terminate after
+     * having been idle for {@link #WORKER_KEEP_ALIVE} seconds.
+     *
+     * @return the shared executor
+     */
+    private static synchronized ExecutorService getExecutor() {
+        if(executor==null) {
+            final AtomicInteger threadCount = new AtomicInteger();
+            ThreadPoolExecutor pool = new ThreadPoolExecutor(MAX_WORKERS, MAX_WORKERS, WORKER_KEEP_ALIVE, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(),
+                    new ThreadFactory() {
+                        public Thread newThread(Runnable r) {
+                            Thread thread = new Thread(r, "FileAttributesPrefetcher-"+threadCount.incrementAndGet());
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+            pool.allowCoreThreadTimeOut(true);
+            executor = pool;
+        }
+
+        return executor;
+    }
+
+    /**
+     * Submits the given task to the pool of workers. This is used to fetch attributes that are not required to
+     * display the table initially.
+     *
+     * @param task the task to execute in the background
+     */
+    static void submit(Runnable task) {
+        getExecutor().execute(task);
+    }
+
+    /**
+     * Wraps each of the given files into a {@link CachedFile} instance (in place) and pre-fetches the attributes that
+     * are used to sort them, which happens in the event dispatch thread. The attributes that are used to display
+     * the files are pre-fetched as well if there are no more than {@link #BATCH_SIZE} files. Otherwise, files are split
+     * in batches that are processed in parallel, and the attributes that are only displayed are left to
+     * {@link FileTableModel}, which fetches them in the order rows are displayed so that the first screen of rows
+     * doesn't wait for the others. This method returns when all batches have been processed.
+     *
+     * <p>If the calling thread is interrupted while waiting for the batches to complete, this method returns
+     * immediately: attributes that have not been fetched yet will be fetched on demand by the <code>CachedFile</code>
+     * instances.</p>
+     *
+     * @param children the files to wrap, the array is modified in place
+     * @param sortCriterion the column the table is currently sorted by, its attribute is pre-fetched as well
+     * @return the array that was passed, filled with CachedFile instances
+     */
+    static AbstractFile[] createCachedFiles(final AbstractFile children[], final Column sortCriterion) {
+        final int nbFiles = children.length;
+        for(int i=0; i<nbFiles; i++) {
+            if(!(children[i] instanceof CachedFile))
+                children[i] = new CachedFile(children[i], true);
+        }
+
+        // Not worth dispatching to workers
+        if(nbFiles<=BATCH_SIZE) {
+            prefetchRange(children, 0, nbFiles, sortCriterion);
+            return children;
+        }
+
+        long startTime = System.currentTimeMillis();
+
+        List<Future<?>> batches = new ArrayList<Future<?>>(nbFiles/BATCH_SIZE+1);
+        ExecutorService executor = getExecutor();
+        for(int from=0; from<nbFiles; from+=BATCH_SIZE) {
+            final int batchFrom = from;
+            final int batchTo = Math.min(nbFiles, from+BATCH_SIZE);
+            batches.add(executor.submit(new Runnable() {
+                public void run() {
+                    for(int i=batchFrom; i<batchTo; i++)
+                        prefetchSortAttributes(children[i], sortCriterion);
+                }
+            }));
+        }
+
+        for(Future<?> batch : batches) {
+            try {
+                batch.get();
+            }
+            catch(InterruptedException e) {
+                LOGGER.debug("Interrupted while prefetching file attributes", e);
+                Thread.currentThread().interrupt();
+                break;
+            }
+            catch(ExecutionException e) {
+                // Attributes that could not be fetched will be fetched on demand
+                LOGGER.debug("Caught exception while prefetching file attributes", e.getCause());
+            }
+        }
+
+        LOGGER.debug("Prefetched sort attributes of {} files in {} batches in {} ms", nbFiles, batches.size(), System.currentTimeMillis()-startTime);
+
+        return children;
+    }
+
+    private static void prefetchRange(AbstractFile cachedFiles[], int from, int to, Column sortCriterion) {
+        for(int i=from; i<to; i++)
+            prefetchCachedFileAttributes(cachedFiles[i], sortCriterion);
+    }
+
+    /**
+     * Pre-fetch the attributes that {@link com.mucommander.commons.file.util.FileComparator} compares when sorting by
+     * the given column: whether the file is a directory, which is always compared to list folders first, and the
+     * column's attribute. Names and extensions are not I/O bound.
+     *
+     * @param cachedFile a CachedFile instance from which to pre-fetch attributes
+     * @param sortCriterion the column the table is sorted by
+     */
+    private static void prefetchSortAttributes(AbstractFile cachedFile, Column sortCriterion) {
+        boolean isDirectory = cachedFile.isDirectory();
+
+        switch(sortCriterion) {
+        case SIZE:
+            if(!isDirectory)
+                cachedFile.getSize();
+            break;
+        case DATE:
+            cachedFile.getDate();
+            break;
+        case PERMISSIONS:
+            cachedFile.getPermissions();
+            break;
+        case OWNER:
+            cachedFile.getOwner();
+            break;
+        case GROUP:
+            cachedFile.getGroup();
+            break;
+        default:
+            break;
+        }
+    }
+
+    /**
+     * Pre-fetch the attributes that are used by the table renderer and some actions from the given CachedFile.
+     * By doing so, the attributes will be available when the associated getters are called and thus the methods won't
+     * be I/O bound and will not lock.
+     *
+     * @param cachedFile a CachedFile instance from which to pre-fetch attributes
+     * @param sortCriterion the column the table is sorted by, may be <code>null</code>
+     */
+    static void prefetchCachedFileAttributes(AbstractFile cachedFile, Column sortCriterion) {
+        boolean isDirectory = cachedFile.isDirectory();
+        cachedFile.isBrowsable();
+        cachedFile.isHidden();
+        // The size column is always filled when the table is displayed
+        if(!isDirectory)
+            cachedFile.getSize();
+
+        if(sortCriterion!=null)
+            prefetchSortAttributes(cachedFile, sortCriterion);
+
+        // Pre-fetch isSymlink attribute and if the file is a symlink, pre-fetch the canonical file and its attributes
+        if(cachedFile.isSymlink()) {
+            AbstractFile canonicalFile = cachedFile.getCanonicalFile();
+            if(canonicalFile!=cachedFile)   // Cheap test to prevent infinite recursion on bogus file implementations
+                prefetchCachedFileAttributes(canonicalFile, null);
+        }
+    }
+}
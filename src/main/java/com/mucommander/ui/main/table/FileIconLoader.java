@@ -0,0 +1,262 @@
+/*
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2018 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.mucommander.ui.main.table;
+
+import java.awt.Dimension;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.swing.Icon;
+import javax.swing.JViewport;
+import javax.swing.SwingUtilities;
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
+import javax.swing.event.TableModelEvent;
+import javax.swing.event.TableModelListener;
+
+import com.mucommander.commons.file.AbstractFile;
+import com.mucommander.commons.file.icon.IconCache;
+import com.mucommander.ui.icon.FileIcons;
+
+/**
+ * Loads the icons of the files displayed by a {@link FileTable} in the background, so that the event dispatch thread
+ * doesn't get blocked by system icons, which can be expensive to retrieve: the underlying OS/desktop manager has to be
+ * queried, and a temporary file has to be created for non-local files.
+ *
+ * <p>{@link #getIcon(AbstractFile)} is called by {@link FileTableCellRenderer} for the rows being painted, that is the
+ * visible rows only. Until a file's icon has been loaded, a placeholder icon is returned: the last icon that was
+ * loaded for the same type of file (folder or file, and extension) if there is one, the custom icon of the file
+ * otherwise. The row is repainted when the icon has been loaded. Requests for files that are no longer visible,
+ * because the table has been scrolled or its contents have changed, are cancelled.</p>
+ *
+ * <p>Custom icons are cheap to retrieve and are returned right away, as are icons that have already been loaded.
+ * Except for the loading itself, all the methods of this class must be called from the event dispatch thread.</p>
+ */
+class FileIconLoader implements ChangeListener, TableModelListener {
+
+    /** Maximum number of threads that load icons concurrently, shared by all tables */
+    private static final int MAX_WORKERS = 2;
+
+    /** Number of seconds an idle worker thread is kept alive */
+    private static final int WORKER_KEEP_ALIVE = 30;
+
+    /** Executes icon requests, lazily created */
+    private static ExecutorService executor;
+
+    private final FileTable table;
+
+    /** Icons that have been loaded, by file */
+    private final Map<AbstractFile, Icon> loadedIcons = new WeakHashMap<AbstractFile, Icon>();
+
+    /** Requests that have been submitted and whose icon has not been loaded yet, by file */
+    private final Map<AbstractFile, Future<?>> pendingRequests = new HashMap<AbstractFile, Future<?>>();
+
+    /** Last icon loaded for each type of file, used as a placeholder for files of the same type */
+    private final IconCache typeIcons = new IconCache();
+
+    /** Dimension of the loaded icons */
+    private Dimension iconDimension;
+
+    /** True once this loader listens to the table's viewport */
+    private boolean viewportListened;
+
+    FileIconLoader(FileTable table) {
+        this.table = table;
+
+        table.getModel().addTableModelListener(this);
+    }
+
+    /**
+     * Returns the shared executor, creating it if necessary. Worker threads are daemon threads that terminate after
+     * having been idle for {@link #WORKER_KEEP_ALIVE} seconds.
+     *
+     * @return the shared executor
+     */
+    private static synchronized ExecutorService getExecutor() {
+        if(executor==null) {
+            final AtomicInteger threadCount = new AtomicInteger();
+            ThreadPoolExecutor pool = new ThreadPoolExecutor(MAX_WORKERS, MAX_WORKERS, WORKER_KEEP_ALIVE, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(),
+                    new ThreadFactory() {
+                        public Thread newThread(Runnable r) {
+                            Thread thread = new Thread(r, "FileIconLoader-"+threadCount.incrementAndGet());
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+            pool.allowCoreThreadTimeOut(true);
+            executor = pool;
+        }
+
+        return executor;
+    }
+
+    /**
+     * Returns the icon of the given file if it is available right away, or a placeholder icon after requesting the
+     * icon to be loaded in the background. This method never returns <code>null</code>.
+     *
+     * @param file the file for which to return an icon
+     * @return the icon of the given file, or a placeholder icon if it is being loaded
+     */
+    Icon getIcon(final AbstractFile file) {
+        if(!FileIcons.isSystemFileIconUsed(file))
+            return FileIcons.getCustomFileIcon(file);
+
+        if(!viewportListened && table.getParent() instanceof JViewport) {
+            ((JViewport)table.getParent()).addChangeListener(this);
+            viewportListened = true;
+        }
+
+        // Icons that have been loaded are no longer valid if the icon dimension has changed
+        final Dimension dimension = FileIcons.getIconDimension();
+        if(!dimension.equals(iconDimension)) {
+            cancelRequests(null);
+            loadedIcons.clear();
+            typeIcons.clear();
+            iconDimension = dimension;
+        }
+
+        Icon icon = loadedIcons.get(file);
+        if(icon!=null)
+            return icon;
+
+        final String type = getType(file);
+        if(!pendingRequests.containsKey(file)) {
+            pendingRequests.put(file, getExecutor().submit(new Runnable() {
+                public void run() {
+                    final Icon icon = FileIcons.getFileIcon(file, dimension);
+                    SwingUtilities.invokeLater(new Runnable() {
+                        public void run() {
+                            iconLoaded(file, type, icon, dimension);
+                        }
+                    });
+                }
+            }));
+        }
+
+        Icon placeholder = typeIcons.get(type);
+        return placeholder==null?FileIcons.getCustomFileIcon(file):placeholder;
+    }
+
+    /**
+     * Returns the type of the given file, which determines the placeholder icon of the file.
+     */
+    private static String getType(AbstractFile file) {
+        String extension = file.getExtension();
+        return (file.isDirectory()?"d":"f")+(extension==null?"":extension.toLowerCase());
+    }
+
+    /**
+     * Called on the event dispatch thread when the icon of the given file has been loaded.
+     */
+    private void iconLoaded(AbstractFile file, String type, Icon icon, Dimension dimension) {
+        pendingRequests.remove(file);
+
+        if(!dimension.equals(iconDimension))
+            return;
+
+        loadedIcons.put(file, icon);
+        typeIcons.put(type, icon);
+
+        int row = table.getFileTableModel().getFileRow(file);
+        if(row!=-1)
+            table.repaintRow(row);
+    }
+
+    /**
+     * Cancels the pending requests of the files that are not in the given set, all of them if the set is
+     * <code>null</code>.
+     */
+    private void cancelRequests(Set<AbstractFile> keptFiles) {
+        Iterator<Map.Entry<AbstractFile, Future<?>>> iterator = pendingRequests.entrySet().iterator();
+        while(iterator.hasNext()) {
+            Map.Entry<AbstractFile, Future<?>> entry = iterator.next();
+            if(keptFiles==null || !keptFiles.contains(entry.getKey())) {
+                entry.getValue().cancel(false);
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Cancels the pending requests of the files that are not displayed in the visible part of the table.
+     */
+    private void cancelInvisibleRequests() {
+        if(pendingRequests.isEmpty())
+            return;
+
+        Rectangle visibleRect = table.getVisibleRect();
+        int firstRow = table.rowAtPoint(visibleRect.getLocation());
+        if(firstRow==-1) {
+            cancelRequests(null);
+            return;
+        }
+
+        int lastRow = table.rowAtPoint(new Point(visibleRect.x, visibleRect.y+visibleRect.height-1));
+        FileTableModel tableModel = table.getFileTableModel();
+        if(lastRow==-1)
+            lastRow = tableModel.getRowCount()-1;
+
+        Set<AbstractFile> visibleFiles = new HashSet<AbstractFile>();
+        for(int row=firstRow; row<=lastRow; row++) {
+            AbstractFile file = tableModel.getCachedFileAtRow(row);
+            if(file!=null)
+                visibleFiles.add(file);
+        }
+
+        cancelRequests(visibleFiles);
+    }
+
+
+    ///////////////////////////////////
+    // ChangeListener implementation //
+    ///////////////////////////////////
+
+    /**
+     * Called when the table's viewport has been scrolled or resized.
+     */
+    public void stateChanged(ChangeEvent e) {
+        cancelInvisibleRequests();
+    }
+
+
+    ///////////////////////////////////////
+    // TableModelListener implementation //
+    ///////////////////////////////////////
+
+    /**
+     * Called when the table's rows have changed, e.g. when the current folder has changed.
+     */
+    public void tableChanged(TableModelEvent e) {
+        cancelInvisibleRequests();
+    }
+}
@@ -35,6 +35,7 @@ import java.awt.event.MouseEvent;
 import java.awt.event.MouseListener;
 import java.awt.event.MouseMotionListener;
 import java.util.Iterator;
+import java.util.Set;
 import java.util.WeakHashMap;
 
 import javax.swing.DefaultCellEditor;
@@ -47,6 +48,7 @@ import javax.swing.KeyStroke;
 import javax.swing.ListSelectionModel;
 import javax.swing.SwingConstants;
 import javax.swing.SwingUtilities;
+import javax.swing.event.TableModelEvent;
 import javax.swing.table.JTableHeader;
 import javax.swing.table.TableCellRenderer;
 import javax.swing.table.TableColumn;
@@ -133,6 +135,9 @@ public class FileTable extends JTable implements MouseListener, MouseMotionListe
     /** Contains sort-related variables */
     private SortInfo sortInfo = new SortInfo();
 
+    /** Incremented each time the table is sorted, so that only the latest sort is applied */
+    private int sortGeneration;
+
     /** Row currently selected */
     private int currentRow;
 
@@ -547,6 +552,10 @@ public class FileTable extends JTable implements MouseListener, MouseMotionListe
                 fileToSelect = currentFolder;
         }
 
+        // Wrap the children into CachedFile instances and fetch the attributes required to sort and display them,
+        // in parallel and outside of the event dispatch thread.
+        FileAttributesPrefetcher.createCachedFiles(children, sortInfo.getCriterion());
+
         // Changes the current folder in the swing thread to make sure that repaints cannot
         // happen in the middle of the operation - this is used to prevent flickering, badly
         // refreshed frames and such unpleasant graphical artifacts.
@@ -571,6 +580,54 @@ public class FileTable extends JTable implements MouseListener, MouseMotionListe
         }
     }
 
+    /**
+     * Applies changes to the current folder's contents without listing the folder again, see
+     * {@link FileTableModel#updateFiles(AbstractFile[], Set)}. The selected file and marked files are preserved,
+     * provided they still exist. The changes are ignored if the current folder is no longer the given one.
+     *
+     * <p>Contrary to {@link #setCurrentFolder(AbstractFile, AbstractFile[], AbstractFile)}, this method returns without
+     * waiting for the table to be updated.</p>
+     *
+     * @param folder the folder the changes apply to
+     * @param updatedFiles files that have been created or modified in the folder
+     * @param removedNames names of the files that have been deleted from the folder
+     */
+    public void updateCurrentFolderFiles(final AbstractFile folder, final AbstractFile updatedFiles[], final Set<String> removedNames) {
+        // Fetch the attributes of the new files outside of the event dispatch thread
+        FileAttributesPrefetcher.createCachedFiles(updatedFiles, sortInfo.getCriterion());
+
+        SwingUtilities.invokeLater(new Runnable() {
+            public void run() {
+                // The folder may have been changed in the meantime
+                if(!folder.equals(tableModel.getCurrentFolder()))
+                    return;
+
+                AbstractFile selectedFile = getSelectedFile(true, false);
+                boolean hadMarkedFiles = tableModel.getNbMarkedFiles()>0;
+
+                tableModel.updateFiles(updatedFiles, removedNames);
+                tableModel.sortRows();
+
+                int rowToSelect = selectedFile==null?-1:tableModel.getFileRow(selectedFile);
+                if(rowToSelect==-1) {
+                    int rowCount = tableModel.getRowCount();
+                    rowToSelect = currentRow < rowCount ? currentRow : rowCount - 1;
+                }
+                selectRow(currentRow = rowToSelect);
+
+                AbstractFile newSelectedFile = getSelectedFile(true, false);
+                if(selectedFile==null?newSelectedFile!=null:!selectedFile.equals(newSelectedFile))
+                    fireSelectedFileChangedEvent();
+
+                // Marked files may have been removed or resized
+                if(hadMarkedFiles)
+                    fireMarkedFilesChangedEvent();
+
+                resizeAndRepaint();
+            }
+        });
+    }
+
     /**
      * Sets row height based on current cell's font and border, revalidates and repaints this JTable.
      */
@@ -781,7 +838,7 @@ public class FileTable extends JTable implements MouseListener, MouseMotionListe
      *
      * @param row the row to repaint
      */
-    private void repaintRow(int row) {
+    void repaintRow(int row) {
         repaint(0, row*getRowHeight(), getWidth(), rowHeight);
     }
 
@@ -1034,19 +1091,43 @@ public class FileTable extends JTable implements MouseListener, MouseMotionListe
     /**
      * Sorts this FileTable and repaints it. Marked files and selected file will remain the same, only
      * their position will have changed in the newly sorted table.
+     *
+     * <p>The attributes compared by the current sort criterion may not have been fetched yet, so they are
+     * pre-fetched outside of the event dispatch thread first and the table is sorted in the event dispatch thread
+     * once they are available. The sort is abandoned if the table has been sorted again or if the current folder
+     * has changed in the meantime, as the folder change sorts the new rows itself.</p>
      */
     private void sortTable() {
-        // Save currently selected file
-        AbstractFile selectedFile = tableModel.getFileAtRow(currentRow);
+        final int generation = ++sortGeneration;
+        final AbstractFile folder = tableModel.getCurrentFolder();
+        final AbstractFile files[] = tableModel.getCachedFiles();
+        final Column criterion = sortInfo.getCriterion();
 
-        // Sort table, doesn't affect marked files
-        tableModel.sortRows();
+        new Thread("FileTable.sortTable") {
+            @Override
+            public void run() {
+                FileAttributesPrefetcher.createCachedFiles(files, criterion);
 
-        // Restore selected file
-        selectFile(selectedFile);
+                SwingUtilities.invokeLater(new Runnable() {
+                    public void run() {
+                        if(generation!=sortGeneration || folder!=tableModel.getCurrentFolder())
+                            return;
 
-        // Repaint table
-        repaint();
+                        // Save currently selected file
+                        AbstractFile selectedFile = tableModel.getFileAtRow(currentRow);
+
+                        // Sort table, doesn't affect marked files
+                        tableModel.sortRows();
+
+                        // Restore selected file
+                        selectFile(selectedFile);
+
+                        // Repaint table
+                        repaint();
+                    }
+                });
+            }
+        }.start();
     }
 
 
@@ -1166,6 +1247,23 @@ public class FileTable extends JTable implements MouseListener, MouseMotionListe
             nameColumn.setWidth(RESERVED_NAME_COLUMN_WIDTH);
     }
 
+    /**
+     * Overrides JTable's tableChanged() method to adjust the size of columns when the values of visible rows, which
+     * are retrieved in the background by the model, have been updated.
+     */
+    @Override
+    public void tableChanged(TableModelEvent e) {
+        super.tableChanged(e);
+
+        if(autoSizeColumnsEnabled && e.getType()==TableModelEvent.UPDATE && e.getFirstRow()>=0 && e.getLastRow()!=Integer.MAX_VALUE) {
+            Rectangle visibleRect = getVisibleRect();
+            int firstVisibleRow = rowAtPoint(visibleRect.getLocation());
+            int lastVisibleRow = rowAtPoint(new Point(visibleRect.x, visibleRect.y+visibleRect.height-1));
+            if(firstVisibleRow!=-1 && e.getFirstRow()<=(lastVisibleRow==-1?getRowCount()-1:lastVisibleRow) && e.getLastRow()>=firstVisibleRow)
+                resizeAndRepaint();
+        }
+    }
+
     /**
      * Overrides JTable's doLayout() method to use a custom column layout (if auto-column sizing is enabled).
      */
@@ -69,10 +69,14 @@ public class FileTableCellRenderer implements TableCellRenderer, ThemeListener {
     /** Custom JLabel that render specific column cells */
     private CellLabel[] cellLabels = new CellLabel[Column.values().length];
 
+    /** Loads file icons in the background */
+    private FileIconLoader iconLoader;
+
 
     public FileTableCellRenderer(FileTable table) {
     	this.table = table;
         this.tableModel = table.getFileTableModel();
+        this.iconLoader = new FileIconLoader(table);
 
         // Create a label for each column
         for(Column c : Column.values())
@@ -122,7 +126,12 @@ public class FileTableCellRenderer implements TableCellRenderer, ThemeListener {
     // TableCellRenderer methods //
     ///////////////////////////////
 
-    private static int getColorIndex(int row, AbstractFile file, FileTableModel tableModel) {
+    /**
+     * Returns the index of the color the given row is rendered with. The attributes this depends on are queried only
+     * once the model has fetched them in the background, see {@link FileTableModel#isRowFilled(int)}: until then,
+     * only whether the file is a directory is known without I/O.
+     */
+    static int getColorIndex(int row, AbstractFile file, FileTableModel tableModel) {
         // Parent directory.
         if(row==0 && tableModel.hasParentFolder())
             return ThemeCache.FOLDER;
@@ -131,6 +140,10 @@ public class FileTableCellRenderer implements TableCellRenderer, ThemeListener {
         if(tableModel.isRowMarked(row))
             return ThemeCache.MARKED;
 
+        // Attributes not fetched yet, don't fetch them in the event dispatch thread.
+        if(!tableModel.isRowFilled(row))
+            return file.isDirectory()?ThemeCache.FOLDER:ThemeCache.PLAIN_FILE;
+
         // Symlink.
         if(file.isSymlink())
             return ThemeCache.SYMLINK;
@@ -198,7 +211,7 @@ public class FileTableCellRenderer implements TableCellRenderer, ThemeListener {
             // Set file icon (parent folder icon if '..' file)
             label.setIcon(rowIndex ==0 && tableModel.hasParentFolder()
                     ?IconManager.getIcon(IconManager.FILE_ICON_SET, CustomFileIconProvider.PARENT_FOLDER_ICON_NAME, FileIcons.getScaleFactor())
-                    :FileIcons.getFileIcon(file));
+                    :iconLoader.getIcon(file));
         }
         // Any other column (name, date or size)
         else {
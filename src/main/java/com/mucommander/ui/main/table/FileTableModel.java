@@ -18,8 +18,14 @@
 
 package com.mucommander.ui.main.table;
 
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
+import javax.swing.SwingUtilities;
 import javax.swing.table.AbstractTableModel;
 
 import com.mucommander.commons.file.AbstractFile;
@@ -71,6 +77,12 @@ public class FileTableModel extends AbstractTableModel {
     /** Contains sort-related variables */
     private SortInfo sortInfo;
 
+    /** Incremented each time the cell cache is reset, allows background fill tasks to detect they are stale */
+    private volatile int cellCacheGeneration;
+
+    /** Incremented each time rows are sorted, allows background fill tasks to detect that their rows have moved */
+    private volatile int rowOrderGeneration;
+
     /** True if the name column is temporarily editable */
     private boolean nameColumnEditable;
 
@@ -172,7 +184,11 @@ public class FileTableModel extends AbstractTableModel {
     }
 
     /**
-     * Sets the current folder and its children.
+     * Sets the current folder and its children. {@link #sortRows()} must be called afterwards.
+     *
+     * <p>The children are expected to have been wrapped into {@link CachedFile} instances by
+     * {@link FileAttributesPrefetcher#createCachedFiles(AbstractFile[], Column)} before this method is called from
+     * the event dispatch thread; children that are not <code>CachedFile</code> instances are wrapped here.</p>
      *
      * @param folder the current folder
      * @param children the current folder's children
@@ -185,7 +201,7 @@ public class FileTableModel extends AbstractTableModel {
         this.parent = currentFolder.getParent();    // Note: the returned parent is a CachedFile instance
         if(parent!=null) {
             // Pre-fetch the attributes that are used by the table renderer and some actions.
-            prefetchCachedFileAttributes(parent);
+            FileAttributesPrefetcher.prefetchCachedFileAttributes(parent, null);
         }
 
         // Initialize file indexes and create CachedFile instances to speed up table display and navigation
@@ -193,10 +209,12 @@ public class FileTableModel extends AbstractTableModel {
         this.fileArrayIndex = new int[nbFiles];
         AbstractFile file;
         for(int i=0; i<nbFiles; i++) {
-            file = new CachedFile(children[i], true);
-
-            // Pre-fetch the attributes that are used by the table renderer and some actions.
-            prefetchCachedFileAttributes(file);
+            file = children[i];
+            if(!(file instanceof CachedFile)) {
+                file = new CachedFile(file, true);
+                // Pre-fetch the attributes that are used by the table renderer and some actions.
+                FileAttributesPrefetcher.prefetchCachedFileAttributes(file, null);
+            }
 
             cachedFiles[i] = file;
             fileArrayIndex[i] = i;
@@ -208,36 +226,120 @@ public class FileTableModel extends AbstractTableModel {
         this.markedTotalSize = 0;
         this.nbRowsMarked = 0;
 
-        // Init and fill cell cache to speed up table even more
+        // Init and fill cell cache to speed up table even more, the cells that are filled in the background are
+        // filled once rows have been sorted
         this.cellValuesCache = new Object[nbRows][Column.values().length-1];
 
-        fillCellCache();
+        resetCellCache();
     }
 
+
     /**
-     * Pre-fetch the attributes that are used by the table renderer and some actions from the given CachedFile.
-     * By doing so, the attributes will be available when the associated getters are called and thus the methods won't
-     * be I/O bound and will not lock.
+     * Applies changes to the current folder's children without listing the folder again: the given files are added
+     * to the current children, replacing the children that have the same name, and the children which name is
+     * contained in <code>removedNames</code> are removed. The marked state of the remaining children is preserved, and
+     * so are the cell values of the children that are left untouched. {@link #sortRows()} must be called afterwards.
+     *
+     * <p>The given files are expected to have been wrapped into {@link CachedFile} instances by
+     * {@link FileAttributesPrefetcher#createCachedFiles(AbstractFile[], Column)}.</p>
      *
-     * @param cachedFile a CachedFile instance from which to pre-fetch attributes
-     */
-    private static void prefetchCachedFileAttributes(AbstractFile cachedFile) {
-        cachedFile.isDirectory();
-        cachedFile.isBrowsable();
-        cachedFile.isHidden();
-        // Pre-fetch isSymlink attribute and if the file is a symlink, pre-fetch the canonical file and its attributes
-        if(cachedFile.isSymlink()) {
-            AbstractFile canonicalFile = cachedFile.getCanonicalFile();
-            if(canonicalFile!=cachedFile)   // Cheap test to prevent infinite recursion on bogus file implementations
-                prefetchCachedFileAttributes(canonicalFile);
+     * @param updatedFiles files that have been created or modified in the current folder
+     * @param removedNames names of the files that have been deleted from the current folder
+     */
+    synchronized void updateFiles(AbstractFile updatedFiles[], Set<String> removedNames) {
+        Map<String, AbstractFile> updatedFilesByName = new HashMap<String, AbstractFile>();
+        for(AbstractFile file : updatedFiles)
+            updatedFilesByName.put(file.getName(), file);
+
+        int cellOffset = parent==null?0:1;
+        int nbFiles = cachedFiles.length;
+        List<AbstractFile> newFiles = new ArrayList<AbstractFile>(nbFiles+updatedFiles.length);
+        List<Object[]> newCells = new ArrayList<Object[]>(nbFiles+updatedFiles.length);
+        List<Boolean> newMarked = new ArrayList<Boolean>(nbFiles+updatedFiles.length);
+
+        // Children are kept in their original order, only the index array is sorted
+        for(int i=0; i<nbFiles; i++) {
+            String name = cachedFiles[i].getName();
+            if(removedNames.contains(name))
+                continue;
+
+            AbstractFile updatedFile = updatedFilesByName.remove(name);
+            if(updatedFile==null) {
+                newFiles.add(cachedFiles[i]);
+                newCells.add(cellValuesCache[i+cellOffset]);
+            }
+            else {
+                newFiles.add(updatedFile);
+                newCells.add(createCellValues(updatedFile));
+            }
+            newMarked.add(rowMarked[i]);
         }
+
+        // Files that didn't exist
+        for(AbstractFile file : updatedFilesByName.values()) {
+            newFiles.add(file);
+            newCells.add(createCellValues(file));
+            newMarked.add(false);
+        }
+
+        nbFiles = newFiles.size();
+        this.cachedFiles = newFiles.toArray(new AbstractFile[nbFiles]);
+        this.fileArrayIndex = new int[nbFiles];
+        this.rowMarked = new boolean[nbFiles];
+        Object newCellValuesCache[][] = new Object[nbFiles+cellOffset][];
+        if(parent!=null)
+            newCellValuesCache[0] = cellValuesCache[0];
+
+        this.markedTotalSize = 0;
+        this.nbRowsMarked = 0;
+        for(int i=0; i<nbFiles; i++) {
+            fileArrayIndex[i] = i;
+            newCellValuesCache[i+cellOffset] = newCells.get(i);
+            if(newMarked.get(i)) {
+                rowMarked[i] = true;
+                nbRowsMarked++;
+                // Do not call getSize() on directories, see #setRowMarked(int, boolean)
+                long fileSize = cachedFiles[i].isDirectory()?0:cachedFiles[i].getSize();
+                if(fileSize>0)
+                    markedTotalSize += fileSize;
+            }
+        }
+        this.cellValuesCache = newCellValuesCache;
+
+        // Background tasks refer to the previous arrays, the cells they haven't filled are filled by the tasks that
+        // sortRows submits
+        cellCacheGeneration++;
+    }
+
+    /**
+     * Returns the cell values of the given file, only the name value is filled.
+     */
+    private static Object[] createCellValues(AbstractFile file) {
+        Object cells[] = new Object[Column.values().length-1];
+        cells[Column.NAME.ordinal()-1] = file.getName();
+
+        return cells;
     }
 
 	
     /**
-     * Retrieves all cell values and stores them in an array for fast access.
+     * Retrieves the name cell values and stores them in an array for fast access. The values of the other columns
+     * (size, date, permissions, owner, group) are retrieved in the background by batches of
+     * {@link FileAttributesPrefetcher#BATCH_SIZE} rows, in the order the rows are displayed. Until then,
+     * {@link #getValueAt(int, int)} returns an empty placeholder for them.
      */
     synchronized void fillCellCache() {
+        resetCellCache();
+        scheduleDerivedCellsFill();
+    }
+
+    /**
+     * Retrieves the name cell values and clears the other ones, without scheduling them to be filled.
+     */
+    private void resetCellCache() {
+        // Invalidate background tasks that may be filling the previous cache
+        cellCacheGeneration++;
+
         int len = cellValuesCache.length;
         if(len==0)
             return;
@@ -262,15 +364,141 @@ public class FileTableModel extends AbstractTableModel {
             file = getCachedFileAtRow(i);
             int cellIndex = fileArrayIndex[fileIndex]+(parent==null?0:1);
             cellValuesCache[cellIndex][Column.NAME.ordinal()-1] = file.getName();
-            cellValuesCache[cellIndex][Column.SIZE.ordinal()-1] = file.isDirectory()?DIRECTORY_SIZE_STRING:SizeFormat.format(file.getSize(), sizeFormat);
-            cellValuesCache[cellIndex][Column.DATE.ordinal()-1] = CustomDateFormat.format(new Date(file.getDate()));
-            cellValuesCache[cellIndex][Column.PERMISSIONS.ordinal()-1] = file.getPermissionsString();
-            cellValuesCache[cellIndex][Column.OWNER.ordinal()-1] = file.getOwner();
-            cellValuesCache[cellIndex][Column.GROUP.ordinal()-1] = file.getGroup();
+            // Filled lazily
+            cellValuesCache[cellIndex][Column.SIZE.ordinal()-1] = null;
+            cellValuesCache[cellIndex][Column.DATE.ordinal()-1] = null;
+            cellValuesCache[cellIndex][Column.PERMISSIONS.ordinal()-1] = null;
+            cellValuesCache[cellIndex][Column.OWNER.ordinal()-1] = null;
+            cellValuesCache[cellIndex][Column.GROUP.ordinal()-1] = null;
 
             fileIndex++;
         }
     }
+
+    /**
+     * Submits background tasks that fill the size, date, permissions, owner and group cell values of the current
+     * files, by batches of consecutive rows starting with the first one. Attributes are fetched outside of this
+     * model's lock, values are then stored into the cell cache if the cache hasn't been reset in the meantime, and the
+     * table is notified that the batch's rows have been updated.
+     *
+     * <p>This method must be called again when rows are sorted, tasks that haven't started by then are skipped.</p>
+     */
+    private void scheduleDerivedCellsFill() {
+        final int cacheGeneration = cellCacheGeneration;
+        final int orderGeneration = rowOrderGeneration;
+        final AbstractFile files[] = cachedFiles;
+        final int cellOffset = parent==null?0:1;
+        int nbFiles = files.length;
+
+        for(int from=0; from<nbFiles; from+=FileAttributesPrefetcher.BATCH_SIZE) {
+            final int batchFrom = from;
+            final int fileIndexes[] = new int[Math.min(nbFiles, from+FileAttributesPrefetcher.BATCH_SIZE)-from];
+            for(int i=0; i<fileIndexes.length; i++)
+                fileIndexes[i] = fileArrayIndex[from+i];
+
+            FileAttributesPrefetcher.submit(new Runnable() {
+                public void run() {
+                    fillDerivedCells(cacheGeneration, orderGeneration, files, fileIndexes, cellOffset, batchFrom);
+                }
+            });
+        }
+    }
+
+    /**
+     * Fills the derived cell values of the given files, which are displayed in consecutive rows starting with
+     * <code>rowFrom</code> (not counting the parent folder's row) unless rows have been sorted since.
+     */
+    private void fillDerivedCells(int cacheGeneration, final int orderGeneration, AbstractFile files[], int fileIndexes[], final int cellOffset, final int rowFrom) {
+        // Don't bother fetching attributes if the folder has changed since the task was submitted, or if the rows
+        // have been sorted: the rows are then filled by a task submitted after sorting
+        if(cacheGeneration!=cellCacheGeneration || orderGeneration!=rowOrderGeneration)
+            return;
+
+        boolean filled[] = new boolean[fileIndexes.length];
+        synchronized(this) {
+            if(cacheGeneration!=cellCacheGeneration)
+                return;
+
+            // Cells may have been filled already by a task submitted before the rows were last sorted
+            for(int i=0; i<fileIndexes.length; i++)
+                filled[i] = cellValuesCache[fileIndexes[i]+cellOffset][Column.DATE.ordinal()-1]!=null;
+        }
+
+        Object values[][] = new Object[fileIndexes.length][];
+        for(int i=0; i<fileIndexes.length; i++) {
+            if(!filled[i]) {
+                AbstractFile file = files[fileIndexes[i]];
+                // The remaining attributes used by the table renderer
+                FileAttributesPrefetcher.prefetchCachedFileAttributes(file, null);
+                values[i] = getDerivedCellValues(file);
+            }
+        }
+
+        synchronized(this) {
+            if(cacheGeneration!=cellCacheGeneration)
+                return;
+
+            for(int i=0; i<fileIndexes.length; i++) {
+                Object cells[] = cellValuesCache[fileIndexes[i]+cellOffset];
+                if(values[i]!=null && cells[Column.DATE.ordinal()-1]==null)
+                    storeDerivedCellValues(cells, values[i]);
+            }
+        }
+
+        final int nbRows = fileIndexes.length;
+        SwingUtilities.invokeLater(new Runnable() {
+            public void run() {
+                int rowCount = getRowCount();
+                if(rowCount==0)
+                    return;
+
+                // The rows the files are displayed in are unknown if rows have been sorted since
+                if(orderGeneration==rowOrderGeneration)
+                    fireTableRowsUpdated(Math.min(rowFrom+cellOffset, rowCount-1), Math.min(rowFrom+cellOffset+nbRows, rowCount)-1);
+                else
+                    fireTableRowsUpdated(0, rowCount-1);
+            }
+        });
+    }
+
+    /**
+     * Returns <code>true</code> if the attributes that are only displayed have been fetched in the background for the
+     * file at the given row, in which case they can be queried without I/O. The parent folder's row is always filled.
+     *
+     * @param rowIndex a row index, comprised between 0 and #getRowCount()
+     * @return true if the attributes of the file at the given row have been fetched
+     */
+    public synchronized boolean isRowFilled(int rowIndex) {
+        if(rowIndex<0 || rowIndex>=getRowCount())
+            return false;
+
+        if(rowIndex==0 && parent!=null)
+            return true;
+
+        int fileIndex = parent==null?rowIndex:rowIndex-1;
+        return cellValuesCache[fileArrayIndex[fileIndex]+(parent==null?0:1)][Column.DATE.ordinal()-1]!=null;
+    }
+
+    /**
+     * Returns the size, date, permissions, owner and group cell values of the given file, in this order.
+     */
+    private static Object[] getDerivedCellValues(AbstractFile file) {
+        return new Object[] {
+            file.isDirectory()?DIRECTORY_SIZE_STRING:SizeFormat.format(file.getSize(), sizeFormat),
+            CustomDateFormat.format(new Date(file.getDate())),
+            file.getPermissionsString(),
+            file.getOwner(),
+            file.getGroup()
+        };
+    }
+
+    private static void storeDerivedCellValues(Object cells[], Object values[]) {
+        cells[Column.SIZE.ordinal()-1] = values[0];
+        cells[Column.DATE.ordinal()-1] = values[1];
+        cells[Column.PERMISSIONS.ordinal()-1] = values[2];
+        cells[Column.OWNER.ordinal()-1] = values[3];
+        cells[Column.GROUP.ordinal()-1] = values[4];
+    }
 	
 	
     /**
@@ -601,6 +829,10 @@ public class FileTableModel extends AbstractTableModel {
      */
     synchronized void sortRows()  {
         sort(getFileComparator(sortInfo), 0, fileArrayIndex.length-1);
+
+        // Fill the cells that haven't been filled yet in the new order of rows
+        rowOrderGeneration++;
+        scheduleDerivedCellsFill();
     }
 
 
@@ -707,7 +939,10 @@ public class FileTableModel extends AbstractTableModel {
         if(rowIndex==0 && parent!=null)
             return cellValuesCache[0][columnIndex];
         int fileIndex = parent==null?rowIndex:rowIndex-1;
-        return cellValuesCache[fileArrayIndex[fileIndex]+(parent==null?0:1)][columnIndex];
+        Object value = cellValuesCache[fileArrayIndex[fileIndex]+(parent==null?0:1)][columnIndex];
+        // Size, date, permissions, owner and group are filled in the background, display a placeholder until then
+        // rather than fetching them in the event dispatch thread
+        return value==null?"":value;
     }
 
 	
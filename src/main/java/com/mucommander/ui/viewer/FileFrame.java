@@ -133,6 +133,14 @@ public abstract class FileFrame extends JFrame {
     // Overridden methods //
     ////////////////////////
 
+    @Override
+    public void dispose() {
+        super.dispose();
+
+        if(filePresenter!=null)
+            filePresenter.dispose();
+    }
+
     @Override
     public void pack() {
     	if (!isFullScreen()) {
@@ -130,6 +130,13 @@ public abstract class FilePresenter extends JScrollPane {
     	show(file);
     	setCurrentFile(file);
     }
+
+    /**
+     * Releases the resources used to present the file. This method is called when the frame that contains this
+     * presenter is disposed of, and does nothing by default.
+     */
+    public void dispose() {
+    }
     
 	//////////////////////
     // Abstract methods //
@@ -21,11 +21,13 @@ package com.mucommander.ui.viewer.text;
 import com.mucommander.text.Translator;
 import com.mucommander.ui.dialog.DialogToolkit;
 import com.mucommander.ui.dialog.FocusDialog;
+import com.mucommander.ui.layout.YBoxPanel;
 
 import javax.swing.*;
 import java.awt.*;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.util.regex.PatternSyntaxException;
 
 /**
  * This dialog allows the user to enter a string to be searched for in the text editor.
@@ -37,6 +39,21 @@ public class FindDialog extends FocusDialog implements ActionListener {
     /** The text field where a search string can be entered */
     private JTextField findField;
 
+    private JCheckBox caseSensitiveCheckBox;
+    private JCheckBox regexCheckBox;
+
+    /**
+     * Whether the search is case sensitive.
+     * <br>Note: this field is static so the value is kept after the dialog is OKed.
+     */
+    private static boolean caseSensitive = false;
+
+    /**
+     * Whether the search string is a regular expression.
+     * <br>Note: this field is static so the value is kept after the dialog is OKed.
+     */
+    private static boolean regex = false;
+
     /** The 'OK' button */
     private JButton okButton;
 
@@ -54,9 +71,17 @@ public class FindDialog extends FocusDialog implements ActionListener {
         Container contentPane = getContentPane();
         contentPane.add(new JLabel(Translator.get("text_viewer.find")+":"), BorderLayout.NORTH);
 
+        YBoxPanel centerPanel = new YBoxPanel();
         findField = new JTextField(20);
         findField.addActionListener(this);
-        contentPane.add(findField, BorderLayout.CENTER);
+        centerPanel.add(findField);
+
+        caseSensitiveCheckBox = new JCheckBox(Translator.get("text_viewer.case_sensitive"), caseSensitive);
+        centerPanel.add(caseSensitiveCheckBox);
+
+        regexCheckBox = new JCheckBox(Translator.get("text_viewer.regular_expression"), regex);
+        centerPanel.add(regexCheckBox);
+        contentPane.add(centerPanel, BorderLayout.CENTER);
 
         okButton = new JButton(Translator.get("ok"));
         JButton cancelButton = new JButton(Translator.get("cancel"));
@@ -87,6 +112,34 @@ public class FindDialog extends FocusDialog implements ActionListener {
         return findField.getText();
     }
 
+    /**
+     * Returns <code>true</code> if the search is case sensitive.
+     *
+     * @return <code>true</code> if the search is case sensitive
+     */
+    public boolean isCaseSensitive() {
+        return caseSensitive;
+    }
+
+    /**
+     * Returns <code>true</code> if the search string is a regular expression.
+     *
+     * @return <code>true</code> if the search string is a regular expression
+     */
+    public boolean isRegex() {
+        return regex;
+    }
+
+    /**
+     * Returns a matcher for the search string entered by the user, with the options the user selected.
+     *
+     * @return a matcher for the search string entered by the user
+     * @throws PatternSyntaxException if the search string is not a valid regular expression
+     */
+    TextMatcher createMatcher() throws PatternSyntaxException {
+        return TextMatcher.create(getSearchString(), caseSensitive, regex);
+    }
+
 
     ///////////////////////////////////
     // ActionListener implementation //
@@ -96,6 +149,10 @@ public class FindDialog extends FocusDialog implements ActionListener {
         Object source = e.getSource();
 
         wasValidated = source== okButton || source==findField;
+        if(wasValidated) {
+            caseSensitive = caseSensitiveCheckBox.isSelected();
+            regex = regexCheckBox.isSelected();
+        }
 
         dispose();
     }
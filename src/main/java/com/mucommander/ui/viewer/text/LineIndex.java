@@ -0,0 +1,225 @@
+/*
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2018 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.mucommander.ui.viewer.text;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.mucommander.commons.file.AbstractFile;
+import com.mucommander.commons.io.BufferPool;
+
+/**
+ * A sparse index of the lines of a text file, which records the offset of every {@link #LINES_PER_CHECKPOINT}th line.
+ * The number of the line that contains a given offset can then be found by counting the line feeds that separate it
+ * from the closest checkpoint, without reading the file from its start.
+ *
+ * <p>The index is built by a background thread that reads the file once, so that it takes no time to create. Until it
+ * is complete, only the part of the file that has been read is indexed. The listener is notified, from the indexing
+ * thread, as the index progresses and when it is complete.</p>
+ *
+ * <p>Like {@link PagedTextFile}, this class only supports encodings in which a line feed is the single byte
+ * <code>0x0A</code>.</p>
+ */
+class LineIndex implements Runnable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(LineIndex.class);
+
+    /** Number of lines between two checkpoints */
+    final static int LINES_PER_CHECKPOINT = 1000;
+
+    /** Number of bytes to index between two notifications of the listener */
+    private final static long NOTIFICATION_PERIOD = 16*1024*1024;
+
+    private final AbstractFile file;
+
+    private final ChangeListener listener;
+
+    /** Offsets of lines 0, LINES_PER_CHECKPOINT, 2*LINES_PER_CHECKPOINT... */
+    private long checkpoints[] = new long[64];
+
+    private int nbCheckpoints;
+
+    /** Number of bytes that have been indexed */
+    private long nbIndexedBytes;
+
+    /** Number of lines in the file, -1 until the index is complete */
+    private long nbLines = -1;
+
+    private Thread thread;
+
+    private volatile boolean stopped;
+
+    /**
+     * Creates a new <code>LineIndex</code> for the given file. The index is not built until {@link #start()} is
+     * called.
+     *
+     * @param file the file to index
+     * @param listener notified as the index progresses and when it is complete, may be <code>null</code>
+     */
+    LineIndex(AbstractFile file, ChangeListener listener) {
+        this.file = file;
+        this.listener = listener;
+    }
+
+    /**
+     * Starts building the index in a background thread.
+     */
+    synchronized void start() {
+        if(thread!=null)
+            return;
+
+        thread = new Thread(this, "LineIndex");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.start();
+    }
+
+    /**
+     * Stops building the index, if it is not complete yet.
+     */
+    void stop() {
+        stopped = true;
+    }
+
+    /**
+     * Returns <code>true</code> if the whole file has been indexed.
+     *
+     * @return <code>true</code> if the whole file has been indexed
+     */
+    synchronized boolean isComplete() {
+        return nbLines!=-1;
+    }
+
+    /**
+     * Returns the number of lines in the file, <code>-1</code> if the index is not complete yet.
+     * As with <code>JTextArea</code>, a file that ends with a line feed has an empty last line.
+     *
+     * @return the number of lines in the file, <code>-1</code> if the index is not complete yet
+     */
+    synchronized long getLineCount() {
+        return nbLines;
+    }
+
+    /**
+     * Returns the number of bytes that have been indexed.
+     *
+     * @return the number of bytes that have been indexed
+     */
+    synchronized long getIndexedLength() {
+        return nbIndexedBytes;
+    }
+
+    /**
+     * Returns the index of the last checkpoint that is located at or before the given offset, <code>-1</code> if the
+     * offset has not been indexed yet. The checkpoint's line is <code>checkpoint*LINES_PER_CHECKPOINT</code>.
+     *
+     * @param offset an offset in the file
+     * @return the index of the last checkpoint located at or before the offset, <code>-1</code> if the offset has not
+     * been indexed yet
+     */
+    synchronized int getCheckpoint(long offset) {
+        if(offset>nbIndexedBytes || nbCheckpoints==0)
+            return -1;
+
+        int index = Arrays.binarySearch(checkpoints, 0, nbCheckpoints, offset);
+        return index>=0 ? index : -index-2;
+    }
+
+    /**
+     * Returns the offset of the given checkpoint, i.e. of line <code>checkpoint*LINES_PER_CHECKPOINT</code>.
+     *
+     * @param checkpoint the index of a checkpoint
+     * @return the offset of the checkpoint
+     */
+    synchronized long getCheckpointOffset(int checkpoint) {
+        return checkpoints[checkpoint];
+    }
+
+    private synchronized void addCheckpoint(long offset) {
+        if(nbCheckpoints==checkpoints.length)
+            checkpoints = Arrays.copyOf(checkpoints, nbCheckpoints*2);
+
+        checkpoints[nbCheckpoints++] = offset;
+    }
+
+    private synchronized void setProgress(long nbIndexedBytes, long nbLines) {
+        this.nbIndexedBytes = nbIndexedBytes;
+        this.nbLines = nbLines;
+    }
+
+    private void notifyListener() {
+        if(listener!=null)
+            listener.stateChanged(new ChangeEvent(this));
+    }
+
+
+    /////////////////////////////
+    // Runnable implementation //
+    /////////////////////////////
+
+    public void run() {
+        byte buffer[] = BufferPool.getByteArray();
+        InputStream in = null;
+        try {
+            in = file.getInputStream();
+
+            addCheckpoint(0);
+            long offset = 0;
+            long line = 0;
+            long lastNotification = 0;
+            int nbRead;
+            while(!stopped && (nbRead=in.read(buffer))!=-1) {
+                for(int i=0; i<nbRead; i++) {
+                    if(buffer[i]=='\n' && ++line%LINES_PER_CHECKPOINT==0)
+                        addCheckpoint(offset+i+1);
+                }
+                offset += nbRead;
+                setProgress(offset, -1);
+
+                if(offset-lastNotification>=NOTIFICATION_PERIOD) {
+                    notifyListener();
+                    lastNotification = offset;
+                }
+            }
+
+            if(!stopped) {
+                setProgress(offset, line+1);
+                notifyListener();
+            }
+        }
+        catch(IOException e) {
+            LOGGER.info("Could not index lines of "+file.getAbsolutePath(), e);
+        }
+        finally {
+            BufferPool.releaseByteArray(buffer);
+            if(in!=null) {
+                try { in.close(); }
+                catch(IOException e) {
+                    // Nothing to do about it
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,314 @@
+/*
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2018 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.mucommander.ui.viewer.text;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CodingErrorAction;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.mucommander.commons.file.AbstractFile;
+import com.mucommander.commons.file.FileOperation;
+import com.mucommander.commons.io.RandomAccessInputStream;
+import com.mucommander.commons.io.StreamUtils;
+
+/**
+ * Gives access to the lines of a text file without loading it into memory: the file is read in pages of
+ * {@link #PAGE_SIZE} bytes, the most recently used of which are kept in memory, and lines are located by looking for
+ * line feeds around a given offset.
+ *
+ * <p>Only encodings in which a line feed is encoded as the single byte <code>0x0A</code> are supported, see
+ * {@link #isSupportedEncoding(String)}: in those, a line feed byte is always a line feed character and the byte that
+ * follows it always starts a character, so that any line can be decoded on its own.
+ * Lines longer than {@link #MAX_LINE_LENGTH} bytes are split.</p>
+ *
+ * <p>This class is not thread-safe.</p>
+ *
+ * @see LineIndex
+ */
+class PagedTextFile {
+
+    /** Size of the pages the file is read in */
+    final static int PAGE_SIZE = 64*1024;
+
+    /** Maximum number of pages kept in memory */
+    private final static int MAX_PAGES = 32;
+
+    /** Maximum length of a line in bytes, longer lines are split */
+    final static int MAX_LINE_LENGTH = 16*1024;
+
+    /** The byte order mark of UTF-8, which is not displayed */
+    final static char BYTE_ORDER_MARK = '\uFEFF';
+
+    private final AbstractFile file;
+
+    /** Length of the file when it was opened */
+    private final long length;
+
+    /** Used to read pages if the file supports random access, null otherwise */
+    private RandomAccessInputStream rais;
+
+    private Charset charset;
+
+    /** Pages in memory, in access order */
+    private final LinkedHashMap<Long, byte[]> pages = new LinkedHashMap<Long, byte[]>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, byte[]> eldest) {
+            return size()>MAX_PAGES;
+        }
+    };
+
+    /** The page that was accessed last, to avoid looking it up again when reading consecutive bytes */
+    private long lastPageIndex = -1;
+    private byte lastPage[];
+
+    /**
+     * Creates a new <code>PagedTextFile</code> that decodes the given file with the given encoding.
+     *
+     * @param file the file to read
+     * @param encoding the file's encoding, must be supported
+     */
+    PagedTextFile(AbstractFile file, String encoding) {
+        this.file = file;
+        this.length = file.getSize();
+        setEncoding(encoding);
+    }
+
+    /**
+     * Returns <code>true</code> if files encoded with the given encoding can be read by this class, i.e. if the
+     * encoding is supported by the JVM and encodes a line feed as the single byte <code>0x0A</code> (unlike UTF-16 for
+     * instance).
+     *
+     * @param encoding an encoding
+     * @return <code>true</code> if files encoded with the given encoding can be read by this class
+     */
+    static boolean isSupportedEncoding(String encoding) {
+        try {
+            return encoding!=null && Charset.isSupported(encoding)
+                && Arrays.equals("\n".getBytes(encoding), new byte[] {'\n'})
+                && Arrays.equals("a\nb".getBytes(encoding), new byte[] {'a', '\n', 'b'});
+        }
+        catch(IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Sets the encoding the file is decoded with.
+     *
+     * @param encoding the file's encoding, must be supported
+     */
+    void setEncoding(String encoding) {
+        this.charset = Charset.forName(encoding);
+    }
+
+    /**
+     * Returns the length of the file in bytes, as it was when this object was created.
+     *
+     * @return the length of the file in bytes
+     */
+    long getLength() {
+        return length;
+    }
+
+    /**
+     * Returns the byte at the given offset, <code>-1</code> if the offset is past the end of the file.
+     *
+     * @param offset an offset in the file
+     * @return the byte at the given offset, <code>-1</code> if the offset is past the end of the file
+     * @throws IOException if the page containing the byte could not be read
+     */
+    int byteAt(long offset) throws IOException {
+        if(offset<0 || offset>=length)
+            return -1;
+
+        long pageIndex = offset/PAGE_SIZE;
+        if(pageIndex!=lastPageIndex) {
+            lastPage = getPage(pageIndex);
+            lastPageIndex = pageIndex;
+        }
+
+        return lastPage[(int)(offset%PAGE_SIZE)]&0xFF;
+    }
+
+    private byte[] getPage(long pageIndex) throws IOException {
+        byte page[] = pages.get(pageIndex);
+        if(page!=null)
+            return page;
+
+        long start = pageIndex*PAGE_SIZE;
+        page = new byte[(int)Math.min(PAGE_SIZE, length-start)];
+
+        if(rais==null && file.isFileOperationSupported(FileOperation.RANDOM_READ_FILE)) {
+            try { rais = file.getRandomAccessInputStream(); }
+            catch(IOException e) {
+                // Read pages with a new InputStream each time
+            }
+        }
+
+        if(rais!=null) {
+            rais.seek(start);
+            rais.readFully(page);
+        }
+        else {
+            InputStream in = file.getInputStream(start);
+            try {
+                StreamUtils.readFully(in, page);
+            }
+            finally {
+                in.close();
+            }
+        }
+
+        pages.put(pageIndex, page);
+
+        return page;
+    }
+
+    /**
+     * Returns the offset of the start of the line that contains the given offset.
+     *
+     * @param offset an offset in the file
+     * @return the offset of the start of the line that contains the given offset
+     * @throws IOException if the file could not be read
+     */
+    long getLineStart(long offset) throws IOException {
+        offset = Math.max(0, Math.min(offset, length));
+        long limit = Math.max(0, offset-MAX_LINE_LENGTH);
+        for(long pos=offset-1; pos>=limit; pos--) {
+            if(byteAt(pos)=='\n')
+                return pos+1;
+        }
+
+        return limit;
+    }
+
+    /**
+     * Returns the offset of the start of the line that follows the one that starts at the given offset, the length of
+     * the file if it is the last one.
+     *
+     * @param lineStart the offset of the start of a line
+     * @return the offset of the start of the next line, the length of the file if there is none
+     * @throws IOException if the file could not be read
+     */
+    long getNextLineStart(long lineStart) throws IOException {
+        long limit = Math.min(length, lineStart+MAX_LINE_LENGTH);
+        for(long pos=lineStart; pos<limit; pos++) {
+            if(byteAt(pos)=='\n')
+                return pos+1;
+        }
+
+        return limit;
+    }
+
+    /**
+     * Returns the offset of the start of the line that precedes the one that starts at the given offset,
+     * <code>0</code> if it is the first one.
+     *
+     * @param lineStart the offset of the start of a line
+     * @return the offset of the start of the previous line, <code>0</code> if there is none
+     * @throws IOException if the file could not be read
+     */
+    long getPreviousLineStart(long lineStart) throws IOException {
+        return lineStart<=0 ? 0 : getLineStart(lineStart-1);
+    }
+
+    /**
+     * Returns the number of line feeds in the given range.
+     *
+     * @param start offset of the start of the range, inclusive
+     * @param end offset of the end of the range, exclusive
+     * @return the number of line feeds in the range
+     * @throws IOException if the file could not be read
+     */
+    int countLineFeeds(long start, long end) throws IOException {
+        int nbLineFeeds = 0;
+        for(long pos=start; pos<end; pos++) {
+            if(byteAt(pos)=='\n')
+                nbLineFeeds++;
+        }
+
+        return nbLineFeeds;
+    }
+
+    /**
+     * Decodes the given range of the file, which should start at the start of a line, and returns it as text.
+     * Carriage returns that precede line feeds are removed, as is the byte order mark at the start of the file.
+     * Malformed input is replaced rather than reported.
+     *
+     * @param start offset of the start of the range, inclusive
+     * @param end offset of the end of the range, exclusive
+     * @return the decoded text
+     * @throws IOException if the file could not be read
+     */
+    String getText(long start, long end) throws IOException {
+        end = Math.min(end, length);
+        if(end<=start)
+            return "";
+
+        byte bytes[] = new byte[(int)(end-start)];
+        long pos = start;
+        while(pos<end) {
+            byte page[] = getPage(pos/PAGE_SIZE);
+            int pageOffset = (int)(pos%PAGE_SIZE);
+            int len = (int)Math.min(page.length-pageOffset, end-pos);
+            System.arraycopy(page, pageOffset, bytes, (int)(pos-start), len);
+            pos += len;
+        }
+
+        String text;
+        try {
+            text = charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE)
+                .decode(ByteBuffer.wrap(bytes)).toString();
+        }
+        catch(CharacterCodingException e) {
+            // Cannot happen as errors are replaced
+            throw new IOException(e);
+        }
+
+        if(start==0 && text.length()>0 && text.charAt(0)==BYTE_ORDER_MARK)
+            text = text.substring(1);
+
+        return text.replace("\r\n", "\n");
+    }
+
+    /**
+     * Releases the resources held by this object.
+     */
+    void close() {
+        pages.clear();
+        lastPage = null;
+        lastPageIndex = -1;
+
+        if(rais!=null) {
+            try { rais.close(); }
+            catch(IOException e) {
+                // Nothing to do about it
+            }
+            rais = null;
+        }
+    }
+}
@@ -0,0 +1,742 @@
+/*
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2018 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.mucommander.ui.viewer.text;
+
+import java.awt.BorderLayout;
+import java.awt.Dimension;
+import java.awt.Insets;
+import java.awt.Rectangle;
+import java.awt.Toolkit;
+import java.awt.event.ActionEvent;
+import java.awt.event.AdjustmentEvent;
+import java.awt.event.AdjustmentListener;
+import java.awt.event.ComponentAdapter;
+import java.awt.event.ComponentEvent;
+import java.awt.event.InputEvent;
+import java.awt.event.KeyEvent;
+import java.awt.event.MouseWheelEvent;
+import java.awt.event.MouseWheelListener;
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.regex.PatternSyntaxException;
+
+import javax.swing.AbstractAction;
+import javax.swing.InputMap;
+import javax.swing.JComponent;
+import javax.swing.JFrame;
+import javax.swing.JPanel;
+import javax.swing.JScrollBar;
+import javax.swing.JScrollPane;
+import javax.swing.JTextArea;
+import javax.swing.KeyStroke;
+import javax.swing.Scrollable;
+import javax.swing.SwingUtilities;
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.DefaultCaret;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.mucommander.commons.file.AbstractFile;
+import com.mucommander.text.Translator;
+import com.mucommander.ui.dialog.InformationDialog;
+
+/**
+ * A read-only view of a text file of any size, which only holds in its text area the lines that are visible.
+ * The lines are read from a {@link PagedTextFile} as the view is scrolled with its own scroll bar, whose range
+ * covers the file's bytes, so that opening the file does not require reading it. Line numbers are provided by a
+ * {@link LineIndex} that is built in the background.
+ *
+ * <p>The file is only read by a thread of its own, which moves through the file and reads the displayed lines and
+ * line numbers as it is asked to by the event dispatch thread, then hands them over to it to be displayed: the user
+ * interface never waits for the file to be read. The offsets of the displayed lines are owned by that thread.</p>
+ *
+ * <p>The text area is meant to be the one of {@link TextEditorImpl}, so that it is themed and zoomed the same way as in
+ * the regular viewer.</p>
+ *
+ * @see TextViewer
+ */
+class PagedTextPanel extends JPanel implements Scrollable, AdjustmentListener, ChangeListener {
+    private static final Logger LOGGER = LoggerFactory.getLogger(PagedTextPanel.class);
+
+    /** Number of lines to scroll by per notch of the mouse wheel */
+    private final static int WHEEL_SCROLL_LINES = 3;
+
+    /** Maximum number of bytes line feeds are counted over from the last line whose number was computed */
+    private final static int MAX_LINE_COUNT_DISTANCE = 1024*1024;
+
+    /** Number of lines displayed above a search match */
+    private final static int MATCH_CONTEXT_LINES = 2;
+
+    /** Number of rows displayed before the panel is laid out */
+    private final static int DEFAULT_NB_ROWS = 40;
+
+    private final AbstractFile file;
+
+    /** Only read from by the reader thread */
+    private final PagedTextFile textFile;
+
+    /** Reads the file, one task at a time in the order they are submitted */
+    private final ExecutorService reader;
+
+    private final LineIndex lineIndex;
+
+    private final JTextArea textArea;
+
+    private final JScrollPane textScrollPane;
+
+    private final JScrollBar scrollBar;
+
+    /** Displays line numbers, null if they are not shown */
+    private TextLineNumbersPanel lineNumbersPanel;
+
+    /** Number of bytes per unit of the scroll bar, so that files larger than 2GB fit its int range */
+    private final long bytesPerUnit;
+
+    /** Offset of the first displayed line, only written by the reader thread */
+    private volatile long topOffset;
+
+    /** Offset of the end of the last displayed line, only accessed by the reader thread */
+    private long bottomOffset;
+
+    /** Offset and number of the last line whose number was computed, to count line feeds from there.
+     * Only accessed by the reader thread. */
+    private long lineNumberOffset = -1;
+    private long lineNumber;
+
+    /** True if line numbers are shown, in which case the reader thread computes them */
+    private volatile boolean lineNumbersShown;
+
+    /** True while the scroll bar is being updated to reflect the displayed lines */
+    private boolean updatingScrollBar;
+
+    private String encoding;
+
+    /** The search string and options, the search string is null until a search is made */
+    private String searchString;
+    private boolean caseSensitive;
+    private boolean regex;
+
+    /** Offset of the last match, -1 if there is none */
+    private long matchOffset = -1;
+
+    /** The search in progress, null if there is none */
+    private TextSearch search;
+
+    /**
+     * Creates a new <code>PagedTextPanel</code> that displays the given file using the given text area, and starts
+     * indexing its lines.
+     *
+     * @param file the file to display
+     * @param encoding the file's encoding, must be supported by {@link PagedTextFile}
+     * @param textArea the text area to display lines in
+     */
+    PagedTextPanel(AbstractFile file, String encoding, JTextArea textArea) {
+        super(new BorderLayout());
+
+        this.file = file;
+        this.encoding = encoding;
+        this.textFile = new PagedTextFile(file, encoding);
+        this.textArea = textArea;
+        this.bytesPerUnit = Math.max(1, textFile.getLength()/(Integer.MAX_VALUE/2));
+        this.reader = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "PagedTextPanel");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        // Lines are replaced as the view is scrolled: the caret must not scroll the text area by itself
+        ((DefaultCaret)textArea.getCaret()).setUpdatePolicy(DefaultCaret.NEVER_UPDATE);
+        textArea.setLineWrap(false);
+
+        textScrollPane = new JScrollPane(textArea, JScrollPane.VERTICAL_SCROLLBAR_NEVER, JScrollPane.HORIZONTAL_SCROLLBAR_AS_NEEDED);
+        textScrollPane.setBorder(null);
+        textScrollPane.setWheelScrollingEnabled(false);
+        textScrollPane.addMouseWheelListener(new MouseWheelListener() {
+            public void mouseWheelMoved(MouseWheelEvent e) {
+                int rotation = e.getWheelRotation();
+                if(rotation>0)
+                    scrollDown(rotation*WHEEL_SCROLL_LINES);
+                else if(rotation<0)
+                    scrollUp(-rotation*WHEEL_SCROLL_LINES);
+            }
+        });
+        textScrollPane.getViewport().addComponentListener(new ComponentAdapter() {
+            @Override
+            public void componentResized(ComponentEvent e) {
+                refresh();
+            }
+        });
+        textArea.addPropertyChangeListener("font", new PropertyChangeListener() {
+            public void propertyChange(PropertyChangeEvent evt) {
+                refresh();
+            }
+        });
+        add(textScrollPane, BorderLayout.CENTER);
+
+        scrollBar = new JScrollBar(JScrollBar.VERTICAL);
+        scrollBar.addAdjustmentListener(this);
+        add(scrollBar, BorderLayout.EAST);
+
+        initKeyBindings();
+
+        refresh();
+
+        lineIndex = new LineIndex(file, this);
+        lineIndex.start();
+    }
+
+    private void initKeyBindings() {
+        InputMap inputMap = textArea.getInputMap(JComponent.WHEN_FOCUSED);
+        inputMap.put(KeyStroke.getKeyStroke(KeyEvent.VK_UP, 0), "pagedScrollUp");
+        inputMap.put(KeyStroke.getKeyStroke(KeyEvent.VK_DOWN, 0), "pagedScrollDown");
+        inputMap.put(KeyStroke.getKeyStroke(KeyEvent.VK_PAGE_UP, 0), "pagedPageUp");
+        inputMap.put(KeyStroke.getKeyStroke(KeyEvent.VK_PAGE_DOWN, 0), "pagedPageDown");
+        inputMap.put(KeyStroke.getKeyStroke(KeyEvent.VK_HOME, InputEvent.CTRL_DOWN_MASK), "pagedHome");
+        inputMap.put(KeyStroke.getKeyStroke(KeyEvent.VK_END, InputEvent.CTRL_DOWN_MASK), "pagedEnd");
+
+        textArea.getActionMap().put("pagedScrollUp", new AbstractAction() {
+            public void actionPerformed(ActionEvent e) {
+                scrollUp(1);
+            }
+        });
+        textArea.getActionMap().put("pagedScrollDown", new AbstractAction() {
+            public void actionPerformed(ActionEvent e) {
+                scrollDown(1);
+            }
+        });
+        textArea.getActionMap().put("pagedPageUp", new AbstractAction() {
+            public void actionPerformed(ActionEvent e) {
+                scrollUp(Math.max(1, getNbVisibleRows()-1));
+            }
+        });
+        textArea.getActionMap().put("pagedPageDown", new AbstractAction() {
+            public void actionPerformed(ActionEvent e) {
+                scrollDown(Math.max(1, getNbVisibleRows()-1));
+            }
+        });
+        textArea.getActionMap().put("pagedHome", new AbstractAction() {
+            public void actionPerformed(ActionEvent e) {
+                scrollTo(0);
+            }
+        });
+        textArea.getActionMap().put("pagedEnd", new AbstractAction() {
+            public void actionPerformed(ActionEvent e) {
+                scrollToEnd();
+            }
+        });
+    }
+
+    /**
+     * Returns the number of rows that fit in the text area's viewport.
+     */
+    private int getNbVisibleRows() {
+        int height = textScrollPane.getViewport().getExtentSize().height;
+        if(height<=0)
+            return DEFAULT_NB_ROWS;
+
+        Insets insets = textArea.getInsets();
+        int rowHeight = textArea.getFontMetrics(textArea.getFont()).getHeight();
+
+        return Math.max(1, (height-insets.top-insets.bottom)/rowHeight);
+    }
+
+    /**
+     * Submits the given task to the reader thread, unless the panel has been disposed of.
+     */
+    private void read(Runnable task) {
+        if(!reader.isShutdown())
+            reader.execute(task);
+    }
+
+    /**
+     * The lines and line number read by the reader thread, to be displayed by the event dispatch thread.
+     */
+    private static class Page {
+        private final long topOffset;
+        private final long bottomOffset;
+        private final String text;
+        /** Number of the first displayed line, <code>-1</code> if it is unknown or not shown */
+        private final long firstLineNumber;
+
+        private Page(long topOffset, long bottomOffset, String text, long firstLineNumber) {
+            this.topOffset = topOffset;
+            this.bottomOffset = bottomOffset;
+            this.text = text;
+            this.firstLineNumber = firstLineNumber;
+        }
+    }
+
+    /**
+     * Reads the lines that fit in the viewport from the top offset and displays them.
+     */
+    private void refresh() {
+        final int nbRows = getNbVisibleRows();
+        read(new Runnable() {
+            public void run() {
+                display(readPage(nbRows));
+            }
+        });
+    }
+
+    /**
+     * Reads the given number of lines from the top offset. Called by the reader thread.
+     */
+    private Page readPage(int nbRows) {
+        String text;
+        try {
+            long end = topOffset;
+            for(int i=0; i<nbRows && end<textFile.getLength(); i++)
+                end = textFile.getNextLineStart(end);
+
+            text = textFile.getText(topOffset, end);
+            if(text.endsWith("\n"))
+                text = text.substring(0, text.length()-1);
+
+            bottomOffset = end;
+        }
+        catch(IOException e) {
+            LOGGER.info("Could not read "+file.getAbsolutePath(), e);
+            bottomOffset = topOffset;
+            text = "";
+        }
+
+        return new Page(topOffset, bottomOffset, text, getFirstLineNumber());
+    }
+
+    /**
+     * Displays the given page, in the event dispatch thread.
+     */
+    private void display(final Page page) {
+        SwingUtilities.invokeLater(new Runnable() {
+            public void run() {
+                textArea.setText(page.text);
+                updateScrollBar(page);
+                if(lineNumbersPanel!=null)
+                    lineNumbersPanel.setFirstLineNumber(page.firstLineNumber);
+            }
+        });
+    }
+
+    private void updateScrollBar(Page page) {
+        int value = (int)(page.topOffset/bytesPerUnit);
+        int extent = (int)Math.max(1, (page.bottomOffset-page.topOffset)/bytesPerUnit);
+        int max = (int)Math.max(value+extent, (textFile.getLength()+bytesPerUnit-1)/bytesPerUnit);
+
+        updatingScrollBar = true;
+        scrollBar.setValues(value, extent, 0, max);
+        // Scroll by roughly one line with the arrows, one page in the track
+        scrollBar.setUnitIncrement(Math.max(1, extent/getNbVisibleRows()));
+        scrollBar.setBlockIncrement(extent);
+        updatingScrollBar = false;
+    }
+
+    /**
+     * Updates the number of the first displayed line, once the reader thread has computed it.
+     */
+    private void updateLineNumbers() {
+        if(lineNumbersPanel==null)
+            return;
+
+        read(new Runnable() {
+            public void run() {
+                final long firstLineNumber = getFirstLineNumber();
+                SwingUtilities.invokeLater(new Runnable() {
+                    public void run() {
+                        if(lineNumbersPanel!=null)
+                            lineNumbersPanel.setFirstLineNumber(firstLineNumber);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Returns the number of the first displayed line, <code>-1</code> if it is not known yet or if line numbers are
+     * not shown. Called by the reader thread.
+     */
+    private long getFirstLineNumber() {
+        if(!lineNumbersShown)
+            return -1;
+
+        // Count the line feeds from the closest known line: a checkpoint or the last line whose number was computed
+        long fromOffset = -1;
+        long fromLine = -1;
+        int checkpoint = lineIndex==null ? -1 : lineIndex.getCheckpoint(topOffset);
+        if(checkpoint!=-1) {
+            fromOffset = lineIndex.getCheckpointOffset(checkpoint);
+            fromLine = (long)checkpoint*LineIndex.LINES_PER_CHECKPOINT;
+        }
+        if(lineNumberOffset!=-1 && lineNumberOffset>=fromOffset && lineNumberOffset<=topOffset
+            && topOffset-lineNumberOffset<=MAX_LINE_COUNT_DISTANCE) {
+            fromOffset = lineNumberOffset;
+            fromLine = lineNumber;
+        }
+
+        if(fromOffset==-1)
+            return -1;
+
+        try {
+            lineNumber = fromLine + textFile.countLineFeeds(fromOffset, topOffset);
+            lineNumberOffset = topOffset;
+            return lineNumber+1;
+        }
+        catch(IOException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Scrolls so that the line containing the given offset is displayed first.
+     *
+     * @param offset an offset in the file
+     */
+    void scrollTo(final long offset) {
+        final int nbRows = getNbVisibleRows();
+        read(new Runnable() {
+            public void run() {
+                try {
+                    topOffset = textFile.getLineStart(offset);
+                }
+                catch(IOException e) {
+                    LOGGER.info("Could not read "+file.getAbsolutePath(), e);
+                }
+
+                display(readPage(nbRows));
+            }
+        });
+    }
+
+    private void scrollToEnd() {
+        final int nbRows = getNbVisibleRows();
+        read(new Runnable() {
+            public void run() {
+                try {
+                    long offset = textFile.getLineStart(textFile.getLength());
+                    for(int i=1; i<nbRows && offset>0; i++)
+                        offset = textFile.getPreviousLineStart(offset);
+
+                    topOffset = offset;
+                }
+                catch(IOException e) {
+                    LOGGER.info("Could not read "+file.getAbsolutePath(), e);
+                }
+
+                display(readPage(nbRows));
+            }
+        });
+    }
+
+    private void scrollUp(final int nbLines) {
+        final int nbRows = getNbVisibleRows();
+        read(new Runnable() {
+            public void run() {
+                try {
+                    for(int i=0; i<nbLines && topOffset>0; i++)
+                        topOffset = textFile.getPreviousLineStart(topOffset);
+                }
+                catch(IOException e) {
+                    LOGGER.info("Could not read "+file.getAbsolutePath(), e);
+                }
+
+                display(readPage(nbRows));
+            }
+        });
+    }
+
+    private void scrollDown(final int nbLines) {
+        final int nbRows = getNbVisibleRows();
+        read(new Runnable() {
+            public void run() {
+                try {
+                    // Stop once the last line is visible
+                    for(int i=0; i<nbLines && bottomOffset<textFile.getLength(); i++) {
+                        topOffset = textFile.getNextLineStart(topOffset);
+                        bottomOffset = textFile.getNextLineStart(bottomOffset);
+                    }
+                }
+                catch(IOException e) {
+                    LOGGER.info("Could not read "+file.getAbsolutePath(), e);
+                }
+
+                display(readPage(nbRows));
+            }
+        });
+    }
+
+    /**
+     * Sets the encoding the file is decoded with.
+     *
+     * @param encoding the file's encoding, must be supported by {@link PagedTextFile}
+     */
+    void setEncoding(final String encoding) {
+        this.encoding = encoding;
+        read(new Runnable() {
+            public void run() {
+                textFile.setEncoding(encoding);
+            }
+        });
+        refresh();
+    }
+
+    /**
+     * Shows or hides line numbers.
+     *
+     * @param show <code>true</code> to show line numbers
+     */
+    void showLineNumbers(boolean show) {
+        lineNumbersPanel = show ? new TextLineNumbersPanel(textArea) : null;
+        lineNumbersShown = show;
+        textScrollPane.setRowHeaderView(lineNumbersPanel);
+        updateLineNumbers();
+    }
+
+
+    /////////////////
+    // Search code //
+    /////////////////
+
+    /**
+     * Asks the user for a string to search for and looks for it from the first displayed line.
+     */
+    void find() {
+        FindDialog findDialog = new FindDialog((JFrame)SwingUtilities.getWindowAncestor(this));
+
+        if(findDialog.wasValidated() && !findDialog.getSearchString().equals("")) {
+            try {
+                // Validate the regular expression before searching
+                findDialog.createMatcher();
+
+                searchString = findDialog.getSearchString();
+                caseSensitive = findDialog.isCaseSensitive();
+                regex = findDialog.isRegex();
+                startSearch(topOffset, true);
+            }
+            catch(PatternSyntaxException e) {
+                InformationDialog.showErrorDialog(this, Translator.get("text_viewer.invalid_regular_expression", e.getDescription()));
+            }
+        }
+
+        textArea.requestFocus();
+    }
+
+    void findNext() {
+        startSearch(matchOffset==-1 ? topOffset : matchOffset+1, true);
+    }
+
+    void findPrevious() {
+        startSearch(matchOffset==-1 ? topOffset : matchOffset, false);
+    }
+
+    /**
+     * Starts looking for the search string in a background thread, and shows the match once it is found.
+     */
+    private void startSearch(long offset, boolean forward) {
+        if(searchString==null)
+            return;
+
+        if(search!=null)
+            search.cancel();
+
+        // Matchers can't be shared by searches, which may run concurrently while a cancelled one ends
+        final TextSearch search = new TextSearch(file, encoding, TextMatcher.create(searchString, caseSensitive, regex), lineIndex);
+        this.search = search;
+        search.start(offset, forward, new TextSearchListener() {
+            private boolean found;
+
+            public boolean matchFound(final TextSearch.Match match) {
+                found = true;
+                SwingUtilities.invokeLater(new Runnable() {
+                    public void run() {
+                        if(!search.isCancelled())
+                            showMatch(match);
+                    }
+                });
+                return false;
+            }
+
+            public void searchFinished() {
+                // Beep when no match has been found
+                if(!found)
+                    Toolkit.getDefaultToolkit().beep();
+            }
+        });
+    }
+
+    /**
+     * Displays and selects the given match, a few lines below the top of the view.
+     */
+    private void showMatch(final TextSearch.Match match) {
+        matchOffset = match.getOffset();
+        final int nbRows = getNbVisibleRows();
+        read(new Runnable() {
+            public void run() {
+                try {
+                    long lineStart = match.getLineStart();
+                    int nbLines = 0;
+                    while(nbLines<MATCH_CONTEXT_LINES && lineStart>0) {
+                        lineStart = textFile.getPreviousLineStart(lineStart);
+                        nbLines++;
+                    }
+                    topOffset = lineStart;
+
+                    // The search may know the line's number before the index does
+                    if(match.getLine()!=-1 && match.getLine()>=nbLines) {
+                        lineNumberOffset = topOffset;
+                        lineNumber = match.getLine()-nbLines;
+                    }
+
+                    Page page = readPage(nbRows);
+                    display(page);
+
+                    final int start = textFile.getText(page.topOffset, match.getOffset()).length();
+                    SwingUtilities.invokeLater(new Runnable() {
+                        public void run() {
+                            selectMatch(start, match);
+                        }
+                    });
+                }
+                catch(IOException e) {
+                    LOGGER.info("Could not read "+file.getAbsolutePath(), e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Selects the given match once it is displayed, starting at the given position in the text area.
+     */
+    private void selectMatch(int start, TextSearch.Match match) {
+        try {
+            textArea.select(start, Math.min(start+match.getText().length(), textArea.getDocument().getLength()));
+            Rectangle rectangle = textArea.modelToView(start);
+            if(rectangle!=null)
+                textArea.scrollRectToVisible(rectangle);
+        }
+        catch(BadLocationException e) {
+            // The match is not displayed, it can't be selected
+        }
+    }
+
+
+    ///////////////////////////////////////
+    // AdjustmentListener implementation //
+    ///////////////////////////////////////
+
+    public void adjustmentValueChanged(AdjustmentEvent e) {
+        if(updatingScrollBar)
+            return;
+
+        final int value = e.getValue();
+        final int nbRows = getNbVisibleRows();
+        read(new Runnable() {
+            public void run() {
+                long previousTopOffset = topOffset;
+                try {
+                    topOffset = textFile.getLineStart(value*bytesPerUnit);
+                    // Make sure that scrolling down by a unit moves by a line at least
+                    if(topOffset==previousTopOffset && value>previousTopOffset/bytesPerUnit && bottomOffset<textFile.getLength())
+                        topOffset = textFile.getNextLineStart(topOffset);
+                }
+                catch(IOException ex) {
+                    LOGGER.info("Could not read "+file.getAbsolutePath(), ex);
+                }
+
+                display(readPage(nbRows));
+            }
+        });
+    }
+
+
+    ///////////////////////////////////
+    // ChangeListener implementation //
+    ///////////////////////////////////
+
+    /**
+     * Called by the {@link LineIndex} from its thread as the index progresses.
+     */
+    public void stateChanged(ChangeEvent e) {
+        SwingUtilities.invokeLater(new Runnable() {
+            public void run() {
+                updateLineNumbers();
+            }
+        });
+    }
+
+
+    ///////////////////////////////
+    // Scrollable implementation //
+    ///////////////////////////////
+
+    public Dimension getPreferredScrollableViewportSize() {
+        return getPreferredSize();
+    }
+
+    public int getScrollableUnitIncrement(Rectangle visibleRect, int orientation, int direction) {
+        return 1;
+    }
+
+    public int getScrollableBlockIncrement(Rectangle visibleRect, int orientation, int direction) {
+        return 1;
+    }
+
+    public boolean getScrollableTracksViewportWidth() {
+        return true;
+    }
+
+    public boolean getScrollableTracksViewportHeight() {
+        return true;
+    }
+
+
+    /**
+     * Stops indexing and searching the file, and closes it. This method is called when the viewer is disposed of,
+     * the panel must not be used afterwards.
+     */
+    void dispose() {
+        lineIndex.stop();
+        if(search!=null)
+            search.cancel();
+        read(new Runnable() {
+            public void run() {
+                textFile.close();
+            }
+        });
+        reader.shutdown();
+    }
+
+
+    ////////////////////////
+    // Overridden methods //
+    ////////////////////////
+
+    @Override
+    public void requestFocus() {
+        textArea.requestFocus();
+    }
+
+}
@@ -28,6 +28,7 @@ import java.io.BufferedWriter;
 import java.io.IOException;
 import java.io.Reader;
 import java.io.Writer;
+import java.util.regex.PatternSyntaxException;
 
 import javax.swing.JFrame;
 import javax.swing.JTextArea;
@@ -36,6 +37,8 @@ import javax.swing.text.BadLocationException;
 import javax.swing.text.DefaultEditorKit;
 import javax.swing.text.Document;
 
+import com.mucommander.text.Translator;
+import com.mucommander.ui.dialog.InformationDialog;
 import com.mucommander.ui.theme.ColorChangedEvent;
 import com.mucommander.ui.theme.FontChangedEvent;
 import com.mucommander.ui.theme.Theme;
@@ -49,7 +52,7 @@ import com.mucommander.ui.theme.ThemeManager;
  */
 class TextEditorImpl implements ThemeListener {
 
-	private String searchString;
+	private TextMatcher matcher;
 
 	private JFrame frame;
 
@@ -122,11 +125,14 @@ class TextEditorImpl implements ThemeListener {
 	void find() {
 		FindDialog findDialog = new FindDialog(frame);
 
-		if(findDialog.wasValidated()) {
-			searchString = findDialog.getSearchString().toLowerCase();
-
-			if(!searchString.equals(""))
+		if(findDialog.wasValidated() && !findDialog.getSearchString().equals("")) {
+			try {
+				matcher = findDialog.createMatcher();
 				doSearch(0, true);
+			}
+			catch(PatternSyntaxException e) {
+				InformationDialog.showErrorDialog(frame, Translator.get("text_viewer.invalid_regular_expression", e.getDescription()));
+			}
 		}
 
 		// Request the focus on the text area which could be lost after the Find dialog was disposed
@@ -138,24 +144,33 @@ class TextEditorImpl implements ThemeListener {
 	}
 
 	void findPrevious() {
-		doSearch(textArea.getSelectionStart() - 1, false);
-	}
-
-	private String getTextLC() {
-		return textArea.getText().toLowerCase();
+		doSearch(textArea.getSelectionStart(), false);
 	}
 
+	/**
+	 * Selects the first match that starts at or after the given position, or the last one that starts before it.
+	 */
 	private void doSearch(int startPos, boolean forward) {
-		if (searchString == null || searchString.length() == 0)
+		if (matcher == null)
 			return;
-		int pos;
+		String text = textArea.getText();
+		int start = -1;
+		int end = -1;
 		if (forward) {
-			pos = getTextLC().indexOf(searchString, startPos);
+			if (matcher.find(text, startPos)) {
+				start = matcher.start();
+				end = matcher.end();
+			}
 		} else {
-			pos = getTextLC().lastIndexOf(searchString, startPos);
+			int from = 0;
+			while (matcher.find(text, from) && matcher.start() < startPos) {
+				start = matcher.start();
+				end = matcher.end();
+				from = start + 1;
+			}
 		}
-		if (pos >= 0) {
-			textArea.select(pos, pos + searchString.length());
+		if (start >= 0) {
+			textArea.select(start, end);
 		} else {
 			// Beep when no match has been found.
 			// The beep method is called from a separate thread because this method seems to lock until the beep has
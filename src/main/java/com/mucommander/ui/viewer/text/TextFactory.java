@@ -34,11 +34,12 @@ import java.io.InputStream;
 public class TextFactory implements ViewerFactory, EditorFactory {
 
     public boolean canViewFile(AbstractFile file) throws WarnUserException {
-        return doGenericChecks(file);
+        // Large files are viewed a page at a time, unless their encoding does not allow it
+        return doGenericChecks(file, false);
     }
 
     public boolean canEditFile(AbstractFile file) throws WarnUserException {
-        return doGenericChecks(file);
+        return doGenericChecks(file, true);
     }
 
     public FileViewer createFileViewer() {
@@ -49,14 +50,14 @@ public class TextFactory implements ViewerFactory, EditorFactory {
         return new TextEditor();
     }
 
-    private boolean doGenericChecks(AbstractFile file) throws WarnUserException {
+    private boolean doGenericChecks(AbstractFile file, boolean edit) throws WarnUserException {
         // Do not allow directories
         if(file.isDirectory())
             return false;
 
         // Warn the user if the file is large that a certain size as the whole file is loaded into memory
         // (in a JTextArea)
-        if(file.getSize()>1048576)
+        if(file.getSize()>TextViewer.PAGED_VIEW_THRESHOLD && (edit || !isViewedPaged(file)))
             throw new WarnUserException(Translator.get("file_viewer.large_file_warning"));
 
         // Warn the user if the file looks like a binary file
@@ -77,4 +78,16 @@ public class TextFactory implements ViewerFactory, EditorFactory {
 
         return true;
     }
+
+    /**
+     * Returns <code>true</code> if the given file is viewed a page at a time rather than loaded entirely.
+     */
+    private boolean isViewedPaged(AbstractFile file) {
+        try {
+            return TextViewer.getPagedEncoding(file)!=null;
+        }
+        catch(IOException e) {
+            return false;
+        }
+    }
 }
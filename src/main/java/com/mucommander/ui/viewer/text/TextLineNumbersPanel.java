@@ -54,6 +54,9 @@ public class TextLineNumbersPanel extends JPanel implements CaretListener, Docum
     private int lastLine;
     
     private HashMap<String, FontMetrics> fonts;
+
+    // Number of the component's first line, -1 if unknown
+    private long firstLineNumber = 1;
     
     /**
 	 *	Create a line number component for a text component. This minimum
@@ -93,6 +96,20 @@ public class TextLineNumbersPanel extends JPanel implements CaretListener, Docum
 		component.addCaretListener(this);
 	}
 	
+	/**
+	 * Sets the number of the text component's first line, for components that show a part of a larger text.
+	 * No line numbers are displayed if the number is unknown.
+	 *
+	 * @param firstLineNumber number of the first line, starting at 1, <code>-1</code> if it is unknown
+	 */
+	public void setFirstLineNumber(long firstLineNumber) {
+		if (this.firstLineNumber != firstLineNumber) {
+			this.firstLineNumber = firstLineNumber;
+			setPreferredWidth();
+			repaint();
+		}
+	}
+
 	/**
 	 * Set the alignment of the line numbers strings within the panel
 	 * 
@@ -149,7 +166,7 @@ public class TextLineNumbersPanel extends JPanel implements CaretListener, Docum
 	 */
 	private void setPreferredWidth() {
 		Element root = component.getDocument().getDefaultRootElement();
-		int lines = root.getElementCount();
+		long lines = Math.max(firstLineNumber, 1) - 1 + root.getElementCount();
 		int digits = Math.max(String.valueOf(lines).length(), minimumDisplayDigits);
 
 		//  Update sizes when number of digits in the line number changes
@@ -228,7 +245,10 @@ public class TextLineNumbersPanel extends JPanel implements CaretListener, Docum
 		int index = root.getElementIndex( rowStartOffset );
 		Element line = root.getElement( index );
 
-		return line.getStartOffset() == rowStartOffset ? String.valueOf(index + 1) : "";
+		if (firstLineNumber == -1)
+			return "";
+
+		return line.getStartOffset() == rowStartOffset ? String.valueOf(firstLineNumber + index) : "";
 	}
 
 	/*
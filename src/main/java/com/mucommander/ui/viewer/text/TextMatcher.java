@@ -0,0 +1,192 @@
+/*
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2018 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.mucommander.ui.viewer.text;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Finds the occurrences of a search string, or of a regular expression, in text.
+ *
+ * <p>Search strings are looked for with the Boyer-Moore-Horspool algorithm, which skips over the characters that
+ * cannot be part of a match: the longer the search string, the fewer characters are compared. Regular expressions are
+ * matched with {@link Pattern}.</p>
+ *
+ * <p>A <code>TextMatcher</code> keeps the position of the last match and therefore cannot be used by several threads
+ * at once.</p>
+ *
+ * @see TextSearch
+ */
+abstract class TextMatcher {
+
+    /** Start of the last match */
+    protected int start = -1;
+
+    /** End of the last match, exclusive */
+    protected int end = -1;
+
+    /**
+     * Creates a matcher for the given search string.
+     *
+     * @param searchString the string to look for, or a regular expression
+     * @param caseSensitive <code>true</code> if case matters
+     * @param regex <code>true</code> if the search string is a regular expression
+     * @return a matcher for the given search string
+     * @throws PatternSyntaxException if the search string is not a valid regular expression
+     */
+    static TextMatcher create(String searchString, boolean caseSensitive, boolean regex) throws PatternSyntaxException {
+        if(regex)
+            return new RegexMatcher(Pattern.compile(searchString, caseSensitive ? 0 : Pattern.CASE_INSENSITIVE|Pattern.UNICODE_CASE));
+
+        return new HorspoolMatcher(searchString, caseSensitive);
+    }
+
+    /**
+     * Looks for the next match in the given text, starting at the given index. The match's bounds are then returned by
+     * {@link #start()} and {@link #end()}.
+     *
+     * @param text the text to search
+     * @param from index of the character to start searching at
+     * @return <code>true</code> if a match was found
+     */
+    abstract boolean find(CharSequence text, int from);
+
+    /**
+     * Returns the index of the first character of the last match.
+     *
+     * @return the index of the first character of the last match
+     */
+    int start() {
+        return start;
+    }
+
+    /**
+     * Returns the index of the character that follows the last match.
+     *
+     * @return the index of the character that follows the last match
+     */
+    int end() {
+        return end;
+    }
+
+
+    /**
+     * Looks for a string with the Boyer-Moore-Horspool algorithm. Case-insensitive searches compare characters the way
+     * {@link String#equalsIgnoreCase(String)} does.
+     */
+    private static class HorspoolMatcher extends TextMatcher {
+
+        /** Size of the shift table, characters share the entry of their lowest byte */
+        private final static int TABLE_SIZE = 256;
+
+        private final char pattern[];
+        private final boolean caseSensitive;
+
+        /** Number of characters to shift the pattern by, indexed by the lowest byte of the last compared character */
+        private final int shifts[] = new int[TABLE_SIZE];
+
+        private HorspoolMatcher(String searchString, boolean caseSensitive) {
+            this.caseSensitive = caseSensitive;
+
+            pattern = new char[searchString.length()];
+            for(int i=0; i<pattern.length; i++)
+                pattern[i] = fold(searchString.charAt(i));
+
+            // Characters that share an entry get the smallest shift, which is always safe
+            for(int i=0; i<TABLE_SIZE; i++)
+                shifts[i] = pattern.length;
+            for(int i=0; i<pattern.length-1; i++)
+                shifts[pattern[i]&(TABLE_SIZE-1)] = pattern.length-1-i;
+        }
+
+        private char fold(char c) {
+            return caseSensitive ? c : Character.toLowerCase(Character.toUpperCase(c));
+        }
+
+        @Override
+        boolean find(CharSequence text, int from) {
+            if(pattern.length==0)
+                return false;
+
+            int last = pattern.length-1;
+            int limit = text.length()-pattern.length;
+            for(int pos=Math.max(0, from); pos<=limit; ) {
+                char c = fold(text.charAt(pos+last));
+                if(c==pattern[last]) {
+                    int i = last-1;
+                    while(i>=0 && fold(text.charAt(pos+i))==pattern[i])
+                        i--;
+
+                    if(i<0) {
+                        start = pos;
+                        end = pos+pattern.length;
+                        return true;
+                    }
+                }
+
+                pos += shifts[c&(TABLE_SIZE-1)];
+            }
+
+            return false;
+        }
+    }
+
+
+    /**
+     * Matches a regular expression.
+     */
+    private static class RegexMatcher extends TextMatcher {
+
+        private final Pattern pattern;
+
+        /** The matcher of the last text searched, reused while the same text is searched */
+        private Matcher matcher;
+        private CharSequence text;
+
+        private RegexMatcher(Pattern pattern) {
+            this.pattern = pattern;
+        }
+
+        @Override
+        boolean find(CharSequence text, int from) {
+            if(from>text.length())
+                return false;
+
+            if(text!=this.text) {
+                this.text = text;
+                matcher = pattern.matcher(text);
+            }
+
+            // Skip empty matches, which can't be selected
+            while(matcher.find(from)) {
+                if(matcher.end()>matcher.start()) {
+                    start = matcher.start();
+                    end = matcher.end();
+                    return true;
+                }
+
+                if(++from>text.length())
+                    break;
+            }
+
+            return false;
+        }
+    }
+}
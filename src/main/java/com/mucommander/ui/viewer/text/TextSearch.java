@@ -0,0 +1,421 @@
+/*
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2018 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.mucommander.ui.viewer.text;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.mucommander.commons.file.AbstractFile;
+import com.mucommander.commons.io.BufferPool;
+
+/**
+ * Searches a text file for the matches of a {@link TextMatcher}, reading it as a stream rather than loading it.
+ * The file is decoded a line at a time and each line is matched on its own, so matches do not span several lines.
+ * Like {@link PagedTextFile}, this class only supports encodings in which a line feed is encoded as the single byte
+ * <code>0x0A</code>.
+ *
+ * <p>Matches are reported with their byte offset in the file and, when it is known, their line number. Line numbers
+ * are counted from the closest {@link LineIndex} checkpoint when the index is available, from the start of the file
+ * otherwise. Searching backward scans the file one checkpoint at a time, going back from the start offset, so that
+ * the match closest to it is found without reading the whole file.</p>
+ *
+ * @see TextMatcher
+ */
+class TextSearch {
+    private static final Logger LOGGER = LoggerFactory.getLogger(TextSearch.class);
+
+    private final AbstractFile file;
+
+    private final String encoding;
+
+    private final Charset charset;
+
+    private final TextMatcher matcher;
+
+    /** Provides line numbers and backward search windows, may be null */
+    private final LineIndex lineIndex;
+
+    private volatile boolean cancelled;
+
+    /**
+     * Creates a new <code>TextSearch</code>.
+     *
+     * @param file the file to search
+     * @param encoding the file's encoding, must be supported by {@link PagedTextFile}
+     * @param matcher finds matches in the file's lines
+     * @param lineIndex the file's line index, <code>null</code> if there is none
+     */
+    TextSearch(AbstractFile file, String encoding, TextMatcher matcher, LineIndex lineIndex) {
+        this.file = file;
+        this.encoding = encoding;
+        this.charset = Charset.forName(encoding);
+        this.matcher = matcher;
+        this.lineIndex = lineIndex;
+    }
+
+    /**
+     * Looks for the first match after the given offset, or the last one before it, in a background thread. The match,
+     * if any, is reported to the listener, which is then notified that the search is over.
+     *
+     * @param offset a forward search looks for a match that starts at or after this offset, a backward search for one
+     * that starts before it
+     * @param forward <code>true</code> to search forward, <code>false</code> to search backward
+     * @param listener notified of the match and of the end of the search
+     */
+    void start(final long offset, final boolean forward, final TextSearchListener listener) {
+        Thread thread = new Thread(new Runnable() {
+            public void run() {
+                Match match = null;
+                try {
+                    match = forward ? findNext(offset) : findPrevious(offset);
+                }
+                catch(IOException e) {
+                    LOGGER.info("Could not search "+file.getAbsolutePath(), e);
+                }
+
+                if(cancelled)
+                    return;
+
+                if(match!=null)
+                    listener.matchFound(match);
+                listener.searchFinished();
+            }
+        }, "TextSearch");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stops the search as soon as possible. The listener is not notified of matches once this method has returned.
+     */
+    void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * Returns <code>true</code> if the search has been cancelled.
+     *
+     * @return <code>true</code> if the search has been cancelled
+     */
+    boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Returns the first match that starts at or after the given offset.
+     *
+     * @param offset an offset in the file
+     * @return the first match that starts at or after the given offset, <code>null</code> if there is none
+     * @throws IOException if the file could not be read
+     */
+    Match findNext(long offset) throws IOException {
+        final Match result[] = new Match[1];
+        scan(offset, Long.MAX_VALUE, new TextSearchListener() {
+            public boolean matchFound(Match match) {
+                result[0] = match;
+                return false;
+            }
+
+            public void searchFinished() {
+            }
+        });
+
+        return result[0];
+    }
+
+    /**
+     * Returns the last match that starts before the given offset.
+     *
+     * @param offset an offset in the file
+     * @return the last match that starts before the given offset, <code>null</code> if there is none
+     * @throws IOException if the file could not be read
+     */
+    Match findPrevious(long offset) throws IOException {
+        final Match result[] = new Match[1];
+        TextSearchListener lastMatchListener = new TextSearchListener() {
+            public boolean matchFound(Match match) {
+                result[0] = match;
+                return true;
+            }
+
+            public void searchFinished() {
+            }
+        };
+
+        // Scan the lines between the closest checkpoint and the offset, then the ones before that checkpoint, and so on
+        long end = offset;
+        while(end>0 && result[0]==null && !cancelled) {
+            int checkpoint = lineIndex==null ? -1 : lineIndex.getCheckpoint(end-1);
+            long windowStart = checkpoint==-1 ? 0 : lineIndex.getCheckpointOffset(checkpoint);
+
+            scan(windowStart, end, lastMatchListener);
+            end = windowStart;
+        }
+
+        return cancelled ? null : result[0];
+    }
+
+    /**
+     * Reports the matches that start in the given range to the listener, in the order they appear in the file, until
+     * the listener asks to stop.
+     *
+     * @param start offset of the start of the range, inclusive
+     * @param end offset of the end of the range, exclusive
+     * @param listener notified of each match in the range
+     * @throws IOException if the file could not be read
+     */
+    void scan(long start, long end, TextSearchListener listener) throws IOException {
+        // Start reading at the closest known line, so that line numbers can be reported
+        long lineStart;
+        long line;
+        int checkpoint = start==0 || lineIndex==null ? -1 : lineIndex.getCheckpoint(start);
+        if(start==0) {
+            lineStart = 0;
+            line = 0;
+        }
+        else if(checkpoint!=-1) {
+            lineStart = lineIndex.getCheckpointOffset(checkpoint);
+            line = (long)checkpoint*LineIndex.LINES_PER_CHECKPOINT;
+        }
+        else {
+            PagedTextFile textFile = new PagedTextFile(file, encoding);
+            try {
+                lineStart = textFile.getLineStart(start);
+            }
+            finally {
+                textFile.close();
+            }
+            line = -1;
+        }
+
+        byte buffer[] = BufferPool.getByteArray();
+        byte lineBytes[] = new byte[PagedTextFile.MAX_LINE_LENGTH];
+        int lineLength = 0;
+        InputStream in = file.getInputStream(lineStart);
+        try {
+            int nbRead;
+            while((nbRead=in.read(buffer))!=-1) {
+                for(int i=0; i<nbRead; i++) {
+                    lineBytes[lineLength++] = buffer[i];
+
+                    // Lines longer than the line buffer are split, as they are by PagedTextFile
+                    if(buffer[i]=='\n' || lineLength==lineBytes.length) {
+                        if(!searchLine(lineBytes, lineLength, lineStart, line, start, end, listener))
+                            return;
+
+                        lineStart += lineLength;
+                        if(buffer[i]=='\n' && line!=-1)
+                            line++;
+                        lineLength = 0;
+                    }
+                }
+            }
+
+            if(lineLength>0)
+                searchLine(lineBytes, lineLength, lineStart, line, start, end, listener);
+        }
+        finally {
+            BufferPool.releaseByteArray(buffer);
+            in.close();
+        }
+    }
+
+    /**
+     * Reports the matches of the given line that start in the given range to the listener.
+     *
+     * @return <code>false</code> if the search should stop
+     */
+    private boolean searchLine(byte lineBytes[], int lineLength, long lineStart, long line, long start, long end, TextSearchListener listener) {
+        if(cancelled || lineStart>=end)
+            return false;
+
+        // No match can start in the range
+        if(lineStart+lineLength<=start)
+            return true;
+
+        String text = new String(lineBytes, 0, lineLength, charset);
+
+        // Leave out the line separator and the byte order mark, which are not displayed
+        int textStart = lineStart==0 && text.length()>0 && text.charAt(0)==PagedTextFile.BYTE_ORDER_MARK ? 1 : 0;
+        int textEnd = text.length();
+        if(textEnd>textStart && text.charAt(textEnd-1)=='\n')
+            textEnd--;
+        if(textEnd>textStart && text.charAt(textEnd-1)=='\r')
+            textEnd--;
+        String lineText = text.substring(textStart, textEnd);
+
+        int from = 0;
+        while(matcher.find(lineText, from)) {
+            int byteStart = getByteLength(lineBytes, lineLength, textStart+matcher.start());
+            long offset = lineStart + byteStart;
+            if(offset>=end)
+                return false;
+
+            if(offset<start) {
+                // Look for matches that overlap this one
+                from = matcher.start()+1;
+                continue;
+            }
+
+            String matchText = lineText.substring(matcher.start(), matcher.end());
+            int byteLength = getByteLength(lineBytes, lineLength, textStart+matcher.end()) - byteStart;
+            Match match = new Match(offset, byteLength, lineStart, line, matcher.start(), matchText);
+            if(cancelled || !listener.matchFound(match))
+                return false;
+
+            from = matcher.end();
+        }
+
+        return true;
+    }
+
+    /**
+     * Returns the number of bytes of the given line that the given number of its decoded characters are decoded from.
+     * Re-encoding the characters would not give that number when the line contains malformed or unmappable bytes,
+     * which are decoded to a single replacement character whatever their length: the bytes are decoded again,
+     * one character at a time, replacing malformed and unmappable sequences the way <code>String</code> does.
+     *
+     * @param lineBytes the line's bytes
+     * @param lineLength the number of bytes in the line
+     * @param nbChars a number of characters at the start of the decoded line
+     * @return the number of bytes the characters are decoded from
+     */
+    private int getByteLength(byte lineBytes[], int lineLength, int nbChars) {
+        CharsetDecoder decoder = charset.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPORT)
+            .onUnmappableCharacter(CodingErrorAction.REPORT);
+        ByteBuffer in = ByteBuffer.wrap(lineBytes, 0, lineLength);
+        // Room for a surrogate pair
+        CharBuffer out = CharBuffer.allocate(2);
+
+        int nbDecoded = 0;
+        while(nbDecoded<nbChars && in.hasRemaining()) {
+            out.clear();
+            out.limit(1);
+            CoderResult result = decoder.decode(in, out, true);
+            if(result.isOverflow() && out.position()==0) {
+                out.limit(2);
+                result = decoder.decode(in, out, true);
+            }
+
+            // A malformed sequence may be reported along with the character that precedes it
+            nbDecoded += out.position();
+            if(result.isError()) {
+                if(nbDecoded==nbChars)
+                    break;
+
+                // Replaced by a single character
+                in.position(in.position()+result.length());
+                nbDecoded++;
+            }
+            else if(out.position()==0) {
+                break;
+            }
+        }
+
+        return in.position();
+    }
+
+
+    /**
+     * A match found in the file.
+     */
+    static class Match {
+
+        private final long offset;
+        private final int length;
+        private final long lineStart;
+        private final long line;
+        private final int column;
+        private final String text;
+
+        private Match(long offset, int length, long lineStart, long line, int column, String text) {
+            this.offset = offset;
+            this.length = length;
+            this.lineStart = lineStart;
+            this.line = line;
+            this.column = column;
+            this.text = text;
+        }
+
+        /**
+         * Returns the offset of the match in the file, in bytes.
+         *
+         * @return the offset of the match in the file
+         */
+        long getOffset() {
+            return offset;
+        }
+
+        /**
+         * Returns the length of the match, in bytes.
+         *
+         * @return the length of the match, in bytes
+         */
+        int getLength() {
+            return length;
+        }
+
+        /**
+         * Returns the offset of the start of the line that contains the match.
+         *
+         * @return the offset of the start of the line that contains the match
+         */
+        long getLineStart() {
+            return lineStart;
+        }
+
+        /**
+         * Returns the number of the line that contains the match, starting at <code>0</code>, <code>-1</code> if it
+         * is not known.
+         *
+         * @return the number of the line that contains the match, <code>-1</code> if it is not known
+         */
+        long getLine() {
+            return line;
+        }
+
+        /**
+         * Returns the index of the first character of the match in its line.
+         *
+         * @return the index of the first character of the match in its line
+         */
+        int getColumn() {
+            return column;
+        }
+
+        /**
+         * Returns the text of the match.
+         *
+         * @return the text of the match
+         */
+        String getText() {
+            return text;
+        }
+    }
+}
@@ -0,0 +1,42 @@
+/*
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2018 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.mucommander.ui.viewer.text;
+
+/**
+ * Receives the matches found by a {@link TextSearch} as the file is scanned.
+ *
+ * <p>Methods are called by the thread that runs the search, which is not the event dispatch thread when the search
+ * was started with {@link TextSearch#start(long, boolean, TextSearchListener)}.</p>
+ */
+interface TextSearchListener {
+
+    /**
+     * Called when a match has been found.
+     *
+     * @param match the match that has been found
+     * @return <code>true</code> to keep searching, <code>false</code> to stop the search
+     */
+    boolean matchFound(TextSearch.Match match);
+
+    /**
+     * Called when a search started with {@link TextSearch#start(long, boolean, TextSearchListener)} is over, after
+     * the match if any was reported. This method is not called if the search was cancelled.
+     */
+    void searchFinished();
+}
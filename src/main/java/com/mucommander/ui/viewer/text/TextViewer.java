@@ -82,6 +82,12 @@ public class TextViewer extends FileViewer implements EncodingListener {
     private JMenuItem toggleLineNumbersItem;
     
     private String encoding;
+
+    /** Size above which files are displayed a page at a time rather than loaded into the text area */
+    final static long PAGED_VIEW_THRESHOLD = 1048576;
+
+    /** Displays the file when it is too large to be loaded entirely, null otherwise */
+    private PagedTextPanel pagedTextPanel;
     
     TextViewer() {
     	this(new TextEditorImpl(false));
@@ -220,7 +226,10 @@ public class TextViewer extends FileViewer implements EncodingListener {
     }
     
     protected void showLineNumbers(boolean show) {
-    	setRowHeaderView(show ? new TextLineNumbersPanel(textEditorImpl.getTextArea()) : null);
+    	if(pagedTextPanel!=null)
+    		pagedTextPanel.showLineNumbers(show);
+    	else
+    		setRowHeaderView(show ? new TextLineNumbersPanel(textEditorImpl.getTextArea()) : null);
     	setLineNumbers(show);
     }
 
@@ -258,7 +267,66 @@ public class TextViewer extends FileViewer implements EncodingListener {
 
     @Override
     public void show(AbstractFile file) throws IOException {
-        startEditing(file, null);
+        // Display large files a page at a time, unless their encoding does not allow lines to be found by their
+        // line feed byte, in which case the file is loaded entirely
+        String pagedEncoding = getPagedEncoding(file);
+        if(pagedEncoding!=null)
+            showPaged(file, pagedEncoding);
+        else
+            startEditing(file, null);
+    }
+
+    @Override
+    public void dispose() {
+        if(pagedTextPanel!=null)
+            pagedTextPanel.dispose();
+    }
+
+    /**
+     * Returns the encoding the given file is displayed with a page at a time, <code>null</code> if the file is small
+     * enough to be loaded entirely or if its encoding does not allow it to be displayed a page at a time.
+     *
+     * @param file a file to view
+     * @return the encoding the file is displayed with a page at a time, <code>null</code> if it is loaded entirely
+     * @throws IOException if the file could not be read to detect its encoding
+     */
+    static String getPagedEncoding(AbstractFile file) throws IOException {
+        if(file.getSize()<=PAGED_VIEW_THRESHOLD)
+            return null;
+
+        String encoding;
+        InputStream in = file.getInputStream();
+        try {
+            encoding = EncodingDetector.detectEncoding(in);
+        }
+        finally {
+            in.close();
+        }
+
+        if(encoding==null || !Charset.isSupported(encoding))
+            encoding = "UTF-8";
+
+        return PagedTextFile.isSupportedEncoding(encoding) ? encoding : null;
+    }
+
+    /**
+     * Displays the given file a page at a time in a {@link PagedTextPanel}, which takes care of scrolling.
+     */
+    private void showPaged(AbstractFile file, String encoding) {
+        this.encoding = encoding;
+
+        pagedTextPanel = new PagedTextPanel(file, encoding, textEditorImpl.getTextArea());
+        pagedTextPanel.showLineNumbers(lineNumbers);
+
+        setRowHeaderView(null);
+        setVerticalScrollBarPolicy(VERTICAL_SCROLLBAR_NEVER);
+        setHorizontalScrollBarPolicy(HORIZONTAL_SCROLLBAR_NEVER);
+        setComponentToPresent(pagedTextPanel);
+
+        // Lines are never wrapped and the whole text is never loaded
+        textEditorImpl.wrap(false);
+        toggleLineWrapItem.setEnabled(false);
+        selectAllItem.setEnabled(false);
     }
     
     ///////////////////////////////////
@@ -272,12 +340,24 @@ public class TextViewer extends FileViewer implements EncodingListener {
         	textEditorImpl.copy();
         else if(source == selectAllItem)
         	textEditorImpl.selectAll();
-        else if(source == findItem)
-        	textEditorImpl.find();
-        else if(source == findNextItem)
-        	textEditorImpl.findNext();
-        else if(source == findPreviousItem)
-        	textEditorImpl.findPrevious();
+        else if(source == findItem) {
+        	if(pagedTextPanel!=null)
+        		pagedTextPanel.find();
+        	else
+        		textEditorImpl.find();
+        }
+        else if(source == findNextItem) {
+        	if(pagedTextPanel!=null)
+        		pagedTextPanel.findNext();
+        	else
+        		textEditorImpl.findNext();
+        }
+        else if(source == findPreviousItem) {
+        	if(pagedTextPanel!=null)
+        		pagedTextPanel.findPrevious();
+        	else
+        		textEditorImpl.findPrevious();
+        }
         else if(source == toggleLineWrapItem)
         	setLineWrap(toggleLineWrapItem.isSelected());
         else if(source == toggleLineNumbersItem)
@@ -291,6 +371,18 @@ public class TextViewer extends FileViewer implements EncodingListener {
     /////////////////////////////////////
 
     public void encodingChanged(Object source, String oldEncoding, String newEncoding) {
+    	if(pagedTextPanel!=null) {
+    		// The file is too large to be loaded entirely, which requires lines to be found by their line feed byte
+    		if(!Charset.isSupported(newEncoding) || !PagedTextFile.isSupportedEncoding(newEncoding)) {
+    		    InformationDialog.showErrorDialog(getFrame(), Translator.get("read_error"), Translator.get("text_viewer.encoding_not_supported", newEncoding));
+    		    return;
+    		}
+
+    		encoding = newEncoding;
+    		pagedTextPanel.setEncoding(newEncoding);
+    		return;
+    	}
+
     	try {
     		// Reload the file using the new encoding
     		// Note: loadDocument closes the InputStream
@@ -0,0 +1,254 @@
+/*
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2018 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.mucommander.job.impl;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.mucommander.commons.file.AbstractFile;
+import com.mucommander.commons.file.FileFactory;
+import com.mucommander.commons.file.util.FileSet;
+import com.mucommander.commons.io.StreamUtils;
+import com.mucommander.text.Translator;
+import com.mucommander.ui.dialog.file.FileCollisionDialog;
+
+/**
+ * A test case for {@link CopyJob} copying files with several threads. The job is driven by the test rather than by
+ * {@link CopyJob#run()}, which requires a main frame.
+ */
+public class CopyJobTest {
+
+    static {
+        // Error dialog titles are localized
+        try { Translator.init(); }
+        catch(Exception e) { throw new RuntimeException(e); }
+    }
+
+    /** Number of threads files are copied with */
+    private final static int NB_THREADS = 4;
+
+    /** Date of the source folders, in seconds so that it is preserved by all filesystems */
+    private final static long FOLDER_DATE = 1000000000000L;
+
+    private AbstractFile folder;
+
+    private AbstractFile sourceFolder;
+
+    private AbstractFile destFolder;
+
+    private Random random;
+
+    /** The files copied by the job */
+    private FileSet files;
+
+    @BeforeMethod
+    public void setUp() throws IOException {
+        folder = FileFactory.getTemporaryFile(getClass().getName(), true);
+        folder.mkdir();
+
+        sourceFolder = folder.getDirectChild("source");
+        sourceFolder.mkdir();
+        destFolder = folder.getDirectChild("dest");
+        destFolder.mkdir();
+
+        random = new Random(0);
+    }
+
+    @AfterMethod
+    public void tearDown() throws IOException {
+        folder.deleteRecursively();
+    }
+
+    private AbstractFile createFile(AbstractFile parent, String name, int size) throws IOException {
+        byte data[] = new byte[size];
+        random.nextBytes(data);
+
+        AbstractFile file = parent.getDirectChild(name);
+        OutputStream out = file.getOutputStream();
+        try {
+            out.write(data);
+        }
+        finally {
+            out.close();
+        }
+        return file;
+    }
+
+    private AbstractFile createFolder(AbstractFile parent, String name) throws IOException {
+        AbstractFile child = parent.getDirectChild(name);
+        child.mkdir();
+        return child;
+    }
+
+    private static byte[] read(AbstractFile file) throws IOException {
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        InputStream in = file.getInputStream();
+        try {
+            StreamUtils.copyStream(in, bout);
+        }
+        finally {
+            in.close();
+        }
+        return bout.toByteArray();
+    }
+
+    /**
+     * Creates a tree of folders and files of various sizes in the source folder, and returns its total size.
+     */
+    private long createTree() throws IOException {
+        long totalSize = 0;
+        AbstractFile sub = createFolder(sourceFolder, "sub");
+        AbstractFile deep = createFolder(sub, "deep");
+        createFolder(sourceFolder, "empty");
+        for(AbstractFile parent : new AbstractFile[]{sourceFolder, sub, deep}) {
+            for(int i=0; i<10; i++)
+                totalSize += createFile(parent, "file"+i, i==0?0:random.nextInt(200000)).getSize();
+        }
+
+        // Folders are dated after their contents have been created
+        for(AbstractFile parent : new AbstractFile[]{deep, sub, sourceFolder.getDirectChild("empty")})
+            parent.changeDate(FOLDER_DATE);
+
+        return totalSize;
+    }
+
+    private CopyJob createJob() throws IOException {
+        files = new FileSet(sourceFolder);
+        for(AbstractFile file : sourceFolder.ls())
+            files.add(file);
+
+        CopyJob job = new CopyJob(null, null, files, destFolder, null, CopyJob.TransferMode.COPY, FileCollisionDialog.CANCEL_ACTION);
+        job.setTransferThreads(NB_THREADS);
+        // Errors would show a dialog
+        job.setAutoSkipErrors(true);
+        return job;
+    }
+
+    /**
+     * Processes the job's files the way {@link com.mucommander.job.FileJob#run()} does.
+     */
+    private void process(CopyJob job) {
+        job.jobStarted();
+        assert job.isCopyingConcurrently();
+        for(AbstractFile file : files) {
+            job.nextFile(file);
+            job.processFile(file, null);
+        }
+        job.jobFilesProcessed();
+    }
+
+    /**
+     * Asserts that the given destination folder is a copy of the source folder, including the date of subfolders.
+     */
+    private static void assertCopy(AbstractFile source, AbstractFile dest) throws IOException {
+        AbstractFile children[] = source.ls();
+        assert dest.ls().length == children.length;
+
+        for(AbstractFile child : children) {
+            AbstractFile destChild = dest.getDirectChild(child.getName());
+            assert destChild.exists(): destChild;
+            if(child.isDirectory()) {
+                assert destChild.isDirectory();
+                assert destChild.getDate() == child.getDate(): destChild;
+                assertCopy(child, destChild);
+            }
+            else {
+                assert Arrays.equals(read(child), read(destChild)): destChild;
+            }
+        }
+    }
+
+    private void testCopy(boolean integrityCheck) throws IOException {
+        long totalSize = createTree();
+
+        CopyJob job = createJob();
+        job.setIntegrityCheckEnabled(integrityCheck);
+        process(job);
+
+        assertCopy(sourceFolder, destFolder);
+        assert job.getTotalByteCount() == totalSize: job.getTotalByteCount();
+        assert !job.isCheckingIntegrity();
+    }
+
+    /**
+     * Copies a tree of files with several threads and asserts that all files are copied and accounted for, and that
+     * the date of folders is preserved.
+     */
+    @Test
+    public void testConcurrentCopy() throws IOException {
+        testCopy(false);
+    }
+
+    /**
+     * Same as {@link #testConcurrentCopy()} with the integrity of the files being checked by each thread.
+     */
+    @Test
+    public void testConcurrentCopyWithIntegrityCheck() throws IOException {
+        testCopy(true);
+    }
+
+    /**
+     * Makes sure that skipping the current file interrupts all the files being copied concurrently.
+     */
+    @Test
+    public void testSkipConcurrentTransfers() throws Exception {
+        int size = 1024*1024;
+        for(int i=0; i<NB_THREADS; i++)
+            createFile(sourceFolder, "file"+i, size);
+
+        final CopyJob job = createJob();
+        // Copying the files would take about a minute
+        job.setThroughputLimit(NB_THREADS*size/60);
+
+        Thread jobThread = new Thread("CopyJobTest") {
+            @Override
+            public void run() {
+                process(job);
+            }
+        };
+        jobThread.start();
+
+        // Wait for all files to be in progress
+        long deadline = System.currentTimeMillis()+30000;
+        for(int i=0; i<NB_THREADS; i++) {
+            AbstractFile destFile = destFolder.getDirectChild("file"+i);
+            while(!destFile.exists() || destFile.getSize()==0) {
+                assert System.currentTimeMillis()<deadline;
+                Thread.sleep(10);
+            }
+        }
+
+        job.skipCurrentFile();
+        jobThread.join(10000);
+        assert !jobThread.isAlive();
+
+        for(int i=0; i<NB_THREADS; i++) {
+            AbstractFile destFile = destFolder.getDirectChild("file"+i);
+            assert !destFile.exists() || destFile.getSize()<size: destFile;
+        }
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2018 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.mucommander.ui.autocomplete.completers.services;
+
+import java.io.IOException;
+import java.util.Vector;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.mucommander.commons.file.AbstractFile;
+import com.mucommander.commons.file.FileFactory;
+
+/**
+ * A test case for {@link FilesService} and {@link DirectoryIndex}.
+ */
+public class FilesServiceTest {
+
+    private AbstractFile folder;
+
+    @BeforeMethod
+    public void setUp() throws IOException {
+        folder = FileFactory.getTemporaryFile(getClass().getName(), true);
+        folder.mkdir();
+    }
+
+    @AfterMethod
+    public void tearDown() throws IOException {
+        folder.deleteRecursively();
+    }
+
+    /**
+     * Asserts that prefixes are looked up ignoring case, and that completions are resolved.
+     */
+    @Test
+    public void testDirectoryIndex() {
+        DirectoryIndex index = new DirectoryIndex("/dir/", 0, new String[] {"beta", "Alpha/", "alphabet", "ALPS", "gamma"});
+
+        assert index.getNames(null).size() == 5;
+        assert index.getNames("").get(0).equals("Alpha/");
+
+        Vector<String> names = index.getNames("alp");
+        assert names.size() == 3;
+        assert names.get(0).equals("Alpha/");
+        assert names.get(1).equals("alphabet");
+        assert names.get(2).equals("ALPS");
+
+        assert index.getNames("ALPHA").size() == 2;
+        assert index.getNames("b").size() == 1;
+        assert index.getNames("z").isEmpty();
+        assert index.getNames("alphabets").isEmpty();
+
+        assert "/dir/alphabet".equals(index.complete("ALPHABET"));
+        assert "/dir/Alpha/".equals(index.complete("alpha/"));
+        assert index.complete("alp") == null;
+        assert index.complete("zeta") == null;
+    }
+
+    /**
+     * Asserts that the files of a directory are suggested and completed, and that nothing is suggested for a
+     * directory that doesn't exist.
+     */
+    @Test
+    public void testPossibleCompletions() throws IOException {
+        folder.getDirectChild("file1").mkfile();
+        folder.getDirectChild("file2").mkfile();
+        folder.getDirectChild("folder").mkdir();
+
+        FilesService service = new AllFilesService();
+        String path = folder.getAbsolutePath(true);
+
+        Vector<String> completions = service.getPossibleCompletions(path+"fi");
+        assert completions.size() == 2;
+        assert completions.get(0).equals("file1");
+        assert (path+"file2").equals(service.complete("FILE2"));
+
+        completions = service.getPossibleCompletions(path+"fo");
+        assert completions.size() == 1;
+        assert completions.get(0).equals("folder"+folder.getSeparator());
+
+        assert service.getPossibleCompletions(folder.getParent().getAbsolutePath(true)+"no_such_folder/").isEmpty();
+    }
+}
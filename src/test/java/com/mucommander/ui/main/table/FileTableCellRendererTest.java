@@ -0,0 +1,182 @@
+/*
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2018 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.mucommander.ui.main.table;
+
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.mucommander.commons.file.AbstractFile;
+import com.mucommander.commons.file.CachedFile;
+import com.mucommander.commons.file.FileFactory;
+import com.mucommander.commons.file.FileURL;
+import com.mucommander.commons.file.ProxyFile;
+import com.mucommander.text.CustomDateFormat;
+import com.mucommander.text.Translator;
+import com.mucommander.ui.theme.ThemeCache;
+
+/**
+ * A test case for the colors {@link FileTableCellRenderer} renders rows with, which must not require attributes that
+ * {@link FileTableModel} has not fetched in the background yet.
+ */
+public class FileTableCellRendererTest {
+
+    static {
+        // The size and date columns use localized strings
+        try {
+            Translator.init();
+            CustomDateFormat.init();
+        }
+        catch(Exception e) { throw new RuntimeException(e); }
+    }
+
+    private AbstractFile folder;
+
+    /** Lets the background fetch of attributes proceed */
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    /** The threads that fetched the attributes only used for rendering */
+    private final List<Thread> fetchingThreads = Collections.synchronizedList(new ArrayList<Thread>());
+
+    @BeforeMethod
+    public void setUp() throws IOException {
+        folder = FileFactory.getTemporaryFile(getClass().getName(), true);
+        folder.mkdir();
+    }
+
+    @AfterMethod
+    public void tearDown() throws IOException {
+        release.countDown();
+        folder.deleteRecursively();
+    }
+
+    /**
+     * A file that records the threads that query its rendering attributes, and that blocks the threads other than
+     * the test's until {@link #release} is counted down. Its URL is not a local one, so that its attributes are
+     * queried one by one rather than in one pass.
+     */
+    private class AttributeRecordingFile extends ProxyFile {
+
+        private final Thread testThread = Thread.currentThread();
+
+        private AttributeRecordingFile(AbstractFile file) {
+            super(file);
+        }
+
+        private void fetched() {
+            fetchingThreads.add(Thread.currentThread());
+            if(Thread.currentThread()==testThread)
+                return;
+
+            try {
+                release.await();
+            }
+            catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        @Override
+        public FileURL getURL() {
+            try {
+                return FileURL.getFileURL("recording://localhost"+file.getURL().getPath());
+            }
+            catch(MalformedURLException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        @Override
+        public boolean isHidden() {
+            fetched();
+            return file.isHidden();
+        }
+
+        @Override
+        public boolean isSymlink() {
+            fetched();
+            return file.isSymlink();
+        }
+
+        @Override
+        public boolean isArchive() {
+            fetched();
+            return file.isArchive();
+        }
+    }
+
+    private static int getRow(FileTableModel model, String name) {
+        for(int row=model.getFirstMarkableRow(); row<model.getRowCount(); row++) {
+            if(model.getCachedFileAtRow(row).getName().equals(name))
+                return row;
+        }
+        return -1;
+    }
+
+    /**
+     * Asserts that the color of rows whose attributes are being fetched in the background is determined without
+     * fetching any attribute, and that it depends on the attributes once they have been fetched.
+     */
+    @Test
+    public void testUnfilledRowColor() throws Exception {
+        AbstractFile dir = folder.getDirectChild("dir");
+        dir.mkdir();
+        AbstractFile file = folder.getDirectChild(".file");
+        file.mkfile();
+
+        FileTableModel model = new FileTableModel();
+        model.setSortInfo(new SortInfo());
+        // Only the attributes compared when sorting are fetched before rows are displayed, as for large folders
+        AbstractFile children[] = new AbstractFile[] {
+                new CachedFile(new AttributeRecordingFile(dir), true), new CachedFile(new AttributeRecordingFile(file), true)};
+        for(AbstractFile child : children)
+            child.isDirectory();
+        model.setCurrentFolder(folder, children);
+        model.sortRows();
+
+        int firstRow = model.getFirstMarkableRow();
+        int dirRow = getRow(model, "dir");
+        int fileRow = getRow(model, ".file");
+        assert dirRow>=firstRow && fileRow>=firstRow;
+        assert !model.isRowFilled(dirRow) && !model.isRowFilled(fileRow);
+
+        assert FileTableCellRenderer.getColorIndex(dirRow, model.getCachedFileAtRow(dirRow), model) == ThemeCache.FOLDER;
+        assert FileTableCellRenderer.getColorIndex(fileRow, model.getCachedFileAtRow(fileRow), model) == ThemeCache.PLAIN_FILE;
+        assert !fetchingThreads.contains(Thread.currentThread()): "attributes were fetched by the rendering thread";
+
+        release.countDown();
+        long deadline = System.currentTimeMillis()+10000;
+        while(!model.isRowFilled(dirRow) || !model.isRowFilled(fileRow)) {
+            assert System.currentTimeMillis()<deadline;
+            Thread.sleep(10);
+        }
+
+        // The file's name makes it hidden on Unix-like systems
+        if(file.isHidden())
+            assert FileTableCellRenderer.getColorIndex(fileRow, model.getCachedFileAtRow(fileRow), model) == ThemeCache.HIDDEN_FILE;
+        assert FileTableCellRenderer.getColorIndex(dirRow, model.getCachedFileAtRow(dirRow), model) == ThemeCache.FOLDER;
+    }
+}
@@ -0,0 +1,228 @@
+/*
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2018 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.mucommander.ui.main.table;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.swing.SwingUtilities;
+import javax.swing.event.TableModelEvent;
+import javax.swing.event.TableModelListener;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.mucommander.commons.file.AbstractFile;
+import com.mucommander.commons.file.FileFactory;
+import com.mucommander.text.CustomDateFormat;
+import com.mucommander.text.Translator;
+
+/**
+ * A test case for the incremental updates of {@link FileTableModel}, and for the cells it fills in the background.
+ */
+public class FileTableModelTest {
+
+    static {
+        // The size and date columns use localized strings
+        try {
+            Translator.init();
+            CustomDateFormat.init();
+        }
+        catch(Exception e) { throw new RuntimeException(e); }
+    }
+
+    private AbstractFile folder;
+
+    @BeforeMethod
+    public void setUp() throws IOException {
+        folder = FileFactory.getTemporaryFile(getClass().getName(), true);
+        folder.mkdir();
+    }
+
+    @AfterMethod
+    public void tearDown() throws IOException {
+        folder.deleteRecursively();
+    }
+
+    private AbstractFile createFile(String name, int size) throws IOException {
+        AbstractFile file = folder.getDirectChild(name);
+        OutputStream out = file.getOutputStream();
+        try {
+            out.write(new byte[size]);
+        }
+        finally {
+            out.close();
+        }
+        return file;
+    }
+
+    private FileTableModel createModel() throws IOException {
+        FileTableModel model = new FileTableModel();
+        model.setSortInfo(new SortInfo());
+        model.setCurrentFolder(folder, FileAttributesPrefetcher.createCachedFiles(folder.ls(), Column.NAME));
+        model.sortRows();
+        return model;
+    }
+
+    private static AbstractFile[] cache(AbstractFile... files) {
+        return FileAttributesPrefetcher.createCachedFiles(files, Column.NAME);
+    }
+
+    /**
+     * Waits until the cells that are filled in the background have been filled for all rows, and until the table
+     * events that notify of it have been delivered.
+     */
+    private static void waitForDerivedCells(FileTableModel model) throws InterruptedException, InvocationTargetException {
+        long deadline = System.currentTimeMillis()+10000;
+        for(int row=model.getFirstMarkableRow(); row<model.getRowCount(); row++) {
+            while("".equals(model.getValueAt(row, Column.DATE.ordinal()))) {
+                assert System.currentTimeMillis()<deadline;
+                Thread.sleep(10);
+            }
+        }
+
+        SwingUtilities.invokeAndWait(new Runnable() {
+            public void run() {
+            }
+        });
+    }
+
+    private static int getFileIndex(FileTableModel model, String name) {
+        for(int i=0; i<model.getFileCount(); i++) {
+            if(model.getFileAt(i).getName().equals(name))
+                return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Adds and removes files and asserts that the rows are sorted and that marked files are preserved.
+     */
+    @Test
+    public void testAddAndRemove() throws IOException {
+        createFile("b", 1);
+        createFile("d", 2);
+        AbstractFile fileF = createFile("f", 3);
+        FileTableModel model = createModel();
+        int firstRow = model.getFirstMarkableRow();
+
+        model.setFileMarked(fileF, true);
+        assert model.getNbMarkedFiles() == 1;
+
+        AbstractFile fileA = createFile("a", 4);
+        AbstractFile fileE = createFile("e", 5);
+        folder.getDirectChild("d").delete();
+
+        model.updateFiles(cache(fileE, fileA), Collections.singleton("d"));
+        model.sortRows();
+
+        assert model.getFileCount() == 4;
+        assert getFileIndex(model, "a") == 0;
+        assert getFileIndex(model, "b") == 1;
+        assert getFileIndex(model, "e") == 2;
+        assert getFileIndex(model, "f") == 3;
+        assert getFileIndex(model, "d") == -1;
+
+        // Rows are looked up by binary search, which relies on the rows being sorted
+        assert model.getFileRow(fileE) == firstRow+2;
+
+        assert model.getNbMarkedFiles() == 1;
+        assert model.getTotalMarkedSize() == 3;
+        assert model.isRowMarked(firstRow+3);
+        assert !model.isRowMarked(firstRow);
+        assert model.getValueAt(firstRow, Column.NAME.ordinal()).equals("a");
+    }
+
+    /**
+     * Replaces a file that has been modified and asserts that its cell values are updated.
+     */
+    @Test
+    public void testModify() throws Exception {
+        createFile("a", 1);
+        AbstractFile fileB = createFile("b", 2);
+        FileTableModel model = createModel();
+        int firstRow = model.getFirstMarkableRow();
+        waitForDerivedCells(model);
+
+        model.setFileMarked(fileB, true);
+        Object sizeB = model.getValueAt(firstRow+1, Column.SIZE.ordinal());
+
+        fileB = createFile("b", 20000);
+        Set<String> removedNames = new HashSet<String>();
+        model.updateFiles(cache(fileB), removedNames);
+        model.sortRows();
+        waitForDerivedCells(model);
+
+        assert model.getFileCount() == 2;
+        assert model.isRowMarked(firstRow+1);
+        assert model.getTotalMarkedSize() == 20000;
+        assert !model.getValueAt(firstRow+1, Column.SIZE.ordinal()).equals(sizeB);
+        assert model.getValueAt(firstRow+1, Column.DATE.ordinal()) != null;
+    }
+
+    /**
+     * Asserts that the cells that are filled in the background are displayed as placeholders until then, and that
+     * the table is notified of the rows of each batch rather than of all rows.
+     */
+    @Test
+    public void testDerivedCellsFilledByBatches() throws Exception {
+        int nbFiles = 2*FileAttributesPrefetcher.BATCH_SIZE+10;
+        for(int i=0; i<nbFiles; i++)
+            createFile(String.format("f%04d", i), i);
+
+        final List<TableModelEvent> events = Collections.synchronizedList(new ArrayList<TableModelEvent>());
+        FileTableModel model = new FileTableModel();
+        model.setSortInfo(new SortInfo());
+        model.addTableModelListener(new TableModelListener() {
+            public void tableChanged(TableModelEvent e) {
+                events.add(e);
+            }
+        });
+        model.setCurrentFolder(folder, FileAttributesPrefetcher.createCachedFiles(folder.ls(), Column.NAME));
+        model.sortRows();
+
+        int firstRow = model.getFirstMarkableRow();
+        for(int row=firstRow; row<model.getRowCount(); row++)
+            assert model.getValueAt(row, Column.SIZE.ordinal()) != null;
+
+        waitForDerivedCells(model);
+
+        boolean updated[] = new boolean[model.getRowCount()];
+        for(TableModelEvent event : events) {
+            assert event.getType() == TableModelEvent.UPDATE;
+            assert event.getLastRow()-event.getFirstRow() < FileAttributesPrefetcher.BATCH_SIZE;
+            for(int row=event.getFirstRow(); row<=event.getLastRow(); row++)
+                updated[row] = true;
+        }
+
+        for(int i=0; i<nbFiles; i++) {
+            assert updated[firstRow+i];
+            assert model.getFileAt(i).getName().equals(String.format("f%04d", i));
+            assert !"".equals(model.getValueAt(firstRow+i, Column.SIZE.ordinal()));
+            assert !"".equals(model.getValueAt(firstRow+i, Column.PERMISSIONS.ordinal()));
+        }
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2018 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.mucommander.ui.viewer.text;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.mucommander.commons.file.AbstractFile;
+import com.mucommander.commons.file.FileFactory;
+
+/**
+ * A test case for {@link PagedTextFile} and {@link LineIndex}.
+ */
+public class PagedTextFileTest {
+
+    private AbstractFile file;
+
+    @BeforeMethod
+    public void setUp() throws IOException {
+        file = FileFactory.getTemporaryFile(getClass().getName(), true);
+    }
+
+    @AfterMethod
+    public void tearDown() throws IOException {
+        if(file.exists())
+            file.delete();
+    }
+
+    private void write(byte bytes[]) throws IOException {
+        OutputStream out = file.getOutputStream();
+        try {
+            out.write(bytes);
+        }
+        finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Asserts that lines are located and decoded across page boundaries.
+     */
+    @Test
+    public void testLines() throws IOException {
+        StringBuilder sb = new StringBuilder();
+        for(int i=0; i<20000; i++)
+            sb.append("line ").append(i).append(i%2==0 ? "\n" : "\r\n");
+        write(sb.toString().getBytes("UTF-8"));
+
+        PagedTextFile textFile = new PagedTextFile(file, "UTF-8");
+        try {
+            assert textFile.getLength() > PagedTextFile.PAGE_SIZE;
+
+            // Walk forward through all lines
+            long offset = 0;
+            int nbLines = 0;
+            while(offset<textFile.getLength()) {
+                long next = textFile.getNextLineStart(offset);
+                assert textFile.getText(offset, next).equals("line "+nbLines+"\n");
+                assert textFile.getLineStart(next-1) == offset;
+                assert textFile.getPreviousLineStart(next) == offset;
+                offset = next;
+                nbLines++;
+            }
+            assert nbLines == 20000;
+
+            assert textFile.countLineFeeds(0, textFile.getLength()) == 20000;
+            assert textFile.getLineStart(textFile.getLength()) == textFile.getLength();
+            assert textFile.byteAt(textFile.getLength()) == -1;
+        }
+        finally {
+            textFile.close();
+        }
+    }
+
+    /**
+     * Asserts that the UTF-8 byte order mark is not returned, that non-ASCII characters are decoded and that
+     * lines longer than {@link PagedTextFile#MAX_LINE_LENGTH} are split.
+     */
+    @Test
+    public void testDecoding() throws IOException {
+        StringBuilder sb = new StringBuilder("\uFEFFété\n");
+        for(int i=0; i<PagedTextFile.MAX_LINE_LENGTH+10; i++)
+            sb.append('x');
+        write(sb.toString().getBytes("UTF-8"));
+
+        PagedTextFile textFile = new PagedTextFile(file, "UTF-8");
+        try {
+            long secondLine = textFile.getNextLineStart(0);
+            assert textFile.getText(0, secondLine).equals("été\n");
+            assert textFile.getNextLineStart(secondLine) == secondLine+PagedTextFile.MAX_LINE_LENGTH;
+        }
+        finally {
+            textFile.close();
+        }
+
+        assert PagedTextFile.isSupportedEncoding("UTF-8");
+        assert PagedTextFile.isSupportedEncoding("ISO-8859-1");
+        assert !PagedTextFile.isSupportedEncoding("UTF-16");
+        assert !PagedTextFile.isSupportedEncoding("no-such-encoding");
+    }
+
+    /**
+     * Asserts that the line index counts lines and places a checkpoint every
+     * {@link LineIndex#LINES_PER_CHECKPOINT} lines.
+     */
+    @Test
+    public void testLineIndex() throws IOException {
+        StringBuilder sb = new StringBuilder();
+        for(int i=0; i<2500; i++)
+            sb.append("0123456789\n");
+        write(sb.toString().getBytes("UTF-8"));
+
+        LineIndex lineIndex = new LineIndex(file, null);
+        assert lineIndex.getCheckpoint(0) == -1;
+        assert lineIndex.getLineCount() == -1;
+
+        lineIndex.run();
+
+        assert lineIndex.isComplete();
+        // The file ends with a line feed, hence an empty last line
+        assert lineIndex.getLineCount() == 2501;
+        assert lineIndex.getIndexedLength() == file.getSize();
+        assert lineIndex.getCheckpoint(0) == 0;
+        assert lineIndex.getCheckpoint(10999) == 0;
+        assert lineIndex.getCheckpoint(11000) == 1;
+        assert lineIndex.getCheckpointOffset(1) == 11000;
+        assert lineIndex.getCheckpoint(file.getSize()) == 2;
+        assert lineIndex.getCheckpointOffset(2) == 22000;
+    }
+}
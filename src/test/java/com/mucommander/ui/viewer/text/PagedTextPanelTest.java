@@ -0,0 +1,135 @@
+/*
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2018 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.mucommander.ui.viewer.text;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.swing.JTextArea;
+import javax.swing.SwingUtilities;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.mucommander.commons.file.AbstractFile;
+import com.mucommander.commons.file.FileFactory;
+import com.mucommander.commons.file.ProxyFile;
+import com.mucommander.commons.io.RandomAccessInputStream;
+
+/**
+ * A test case for {@link PagedTextPanel}, which must not read the file in the event dispatch thread.
+ */
+public class PagedTextPanelTest {
+
+    private AbstractFile file;
+
+    /** True if the file was opened by the event dispatch thread */
+    private final AtomicBoolean openedByEventDispatchThread = new AtomicBoolean();
+
+    @BeforeMethod
+    public void setUp() throws IOException {
+        file = FileFactory.getTemporaryFile(getClass().getName(), true);
+    }
+
+    @AfterMethod
+    public void tearDown() throws IOException {
+        if(file.exists())
+            file.delete();
+    }
+
+    private String getText(final JTextArea textArea) throws Exception {
+        final AtomicReference<String> text = new AtomicReference<String>();
+        SwingUtilities.invokeAndWait(new Runnable() {
+            public void run() {
+                text.set(textArea.getText());
+            }
+        });
+        return text.get();
+    }
+
+    private void waitForText(JTextArea textArea, String prefix) throws Exception {
+        long deadline = System.currentTimeMillis()+10000;
+        while(!getText(textArea).startsWith(prefix)) {
+            assert System.currentTimeMillis()<deadline: "\""+prefix+"\" was not displayed";
+            Thread.sleep(10);
+        }
+    }
+
+    /**
+     * Asserts that the lines are read by the panel's thread and displayed once they are ready.
+     */
+    @Test
+    public void testScroll() throws Exception {
+        StringBuilder sb = new StringBuilder();
+        long line5000Offset = 0;
+        for(int i=0; i<20000; i++) {
+            if(i==5000)
+                line5000Offset = sb.length();
+            sb.append("line ").append(i).append('\n');
+        }
+        OutputStream out = file.getOutputStream();
+        try {
+            out.write(sb.toString().getBytes("UTF-8"));
+        }
+        finally {
+            out.close();
+        }
+
+        final AbstractFile recordingFile = new ProxyFile(file) {
+            @Override
+            public RandomAccessInputStream getRandomAccessInputStream() throws IOException {
+                if(SwingUtilities.isEventDispatchThread())
+                    openedByEventDispatchThread.set(true);
+                return super.getRandomAccessInputStream();
+            }
+        };
+
+        final JTextArea textArea = new JTextArea();
+        final AtomicReference<PagedTextPanel> panel = new AtomicReference<PagedTextPanel>();
+        SwingUtilities.invokeAndWait(new Runnable() {
+            public void run() {
+                panel.set(new PagedTextPanel(recordingFile, "UTF-8", textArea));
+            }
+        });
+
+        try {
+            waitForText(textArea, "line 0\nline 1\n");
+
+            final long offset = line5000Offset+2;
+            SwingUtilities.invokeAndWait(new Runnable() {
+                public void run() {
+                    panel.get().scrollTo(offset);
+                }
+            });
+            waitForText(textArea, "line 5000\nline 5001\n");
+
+            assert !openedByEventDispatchThread.get(): "the file was read by the event dispatch thread";
+        }
+        finally {
+            SwingUtilities.invokeAndWait(new Runnable() {
+                public void run() {
+                    panel.get().dispose();
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,217 @@
+/*
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2018 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.mucommander.ui.viewer.text;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.mucommander.commons.file.AbstractFile;
+import com.mucommander.commons.file.FileFactory;
+
+/**
+ * A test case for {@link TextSearch} and {@link TextMatcher}.
+ */
+public class TextSearchTest {
+
+    private AbstractFile file;
+
+    @BeforeMethod
+    public void setUp() throws IOException {
+        file = FileFactory.getTemporaryFile(getClass().getName(), true);
+    }
+
+    @AfterMethod
+    public void tearDown() throws IOException {
+        if(file.exists())
+            file.delete();
+    }
+
+    private void write(String text) throws IOException {
+        OutputStream out = file.getOutputStream();
+        try {
+            out.write(text.getBytes("UTF-8"));
+        }
+        finally {
+            out.close();
+        }
+    }
+
+    private static List<TextSearch.Match> scan(TextSearch search, long start, long end) throws IOException {
+        final List<TextSearch.Match> matches = new ArrayList<TextSearch.Match>();
+        search.scan(start, end, new TextSearchListener() {
+            public boolean matchFound(TextSearch.Match match) {
+                matches.add(match);
+                return true;
+            }
+
+            public void searchFinished() {
+            }
+        });
+
+        return matches;
+    }
+
+    /**
+     * Asserts that the Boyer-Moore-Horspool and regular expression matchers find the expected matches.
+     */
+    @Test
+    public void testMatchers() {
+        TextMatcher matcher = TextMatcher.create("abab", true, false);
+        assert matcher.find("xxababab", 0);
+        assert matcher.start() == 2 && matcher.end() == 6;
+        assert matcher.find("xxababab", 3);
+        assert matcher.start() == 4;
+        assert !matcher.find("xxababab", 5);
+        assert !matcher.find("ABAB", 0);
+        assert !matcher.find("ab", 0);
+
+        matcher = TextMatcher.create("ÉtÉ", false, false);
+        assert matcher.find("un été", 0);
+        assert matcher.start() == 3;
+
+        // Characters whose lowest byte is the same share a shift
+        matcher = TextMatcher.create("ašb", true, false);
+        assert matcher.find("šbašb", 0);
+        assert matcher.start() == 2;
+
+        matcher = TextMatcher.create("l[io]ne? \\d+", false, true);
+        assert matcher.find("A LINE 42", 0);
+        assert matcher.start() == 2 && matcher.end() == 9;
+
+        // Empty matches are skipped
+        matcher = TextMatcher.create("x*", true, true);
+        assert matcher.find("abxxc", 0);
+        assert matcher.start() == 2 && matcher.end() == 4;
+    }
+
+    /**
+     * Asserts that matches are reported in order with their byte offset, line and column, and that the line separator
+     * and byte order mark are not matched.
+     */
+    @Test
+    public void testScan() throws IOException {
+        write("\uFEFFfoo bar\r\nété foo\nbarfoo");
+
+        TextSearch search = new TextSearch(file, "UTF-8", TextMatcher.create("foo", false, false), null);
+        List<TextSearch.Match> matches = scan(search, 0, Long.MAX_VALUE);
+
+        assert matches.size() == 3;
+        assert matches.get(0).getOffset() == 3;
+        assert matches.get(0).getLine() == 0 && matches.get(0).getColumn() == 0;
+        assert matches.get(1).getOffset() == 18;
+        assert matches.get(1).getLineStart() == 12;
+        assert matches.get(1).getLine() == 1 && matches.get(1).getColumn() == 4;
+        assert matches.get(2).getOffset() == 25;
+        assert matches.get(2).getLine() == 2;
+        assert matches.get(2).getLength() == 3;
+
+        // Line ends are not part of lines
+        search = new TextSearch(file, "UTF-8", TextMatcher.create("bar$", true, true), null);
+        assert scan(search, 0, Long.MAX_VALUE).size() == 1;
+
+        // Only matches that start in the range are reported, line numbers are unknown without an index
+        search = new TextSearch(file, "UTF-8", TextMatcher.create("foo", false, false), null);
+        matches = scan(search, 18, 25);
+        assert matches.size() == 1;
+        assert matches.get(0).getOffset() == 18;
+        assert matches.get(0).getLine() == -1;
+    }
+
+    /**
+     * Asserts that the byte offset and length of matches are correct when the line contains malformed bytes, which are
+     * decoded to a replacement character that is encoded with a different number of bytes, and supplementary
+     * characters.
+     */
+    @Test
+    public void testMalformedBytes() throws IOException {
+        OutputStream out = file.getOutputStream();
+        try {
+            out.write(new byte[] {(byte)0xE9, (byte)0xE9, (byte)0xE9, 'x', 'y', 'z', '\n'});
+            out.write("\uD83D\uDE00xyz \u00E9".getBytes("UTF-8"));
+            out.write(new byte[] {(byte)0xC3, 'x', 'y', 'z', (byte)0xE2, (byte)0x82});
+        }
+        finally {
+            out.close();
+        }
+
+        TextSearch search = new TextSearch(file, "UTF-8", TextMatcher.create("xyz", true, false), null);
+        List<TextSearch.Match> matches = scan(search, 0, Long.MAX_VALUE);
+
+        assert matches.size() == 3;
+        assert matches.get(0).getOffset() == 3;
+        assert matches.get(0).getLength() == 3;
+        assert matches.get(0).getColumn() == 3;
+        assert matches.get(1).getOffset() == 11;
+        assert matches.get(1).getColumn() == 2;
+        assert matches.get(2).getOffset() == 18;
+        assert matches.get(2).getLength() == 3;
+
+        // A match that includes malformed bytes
+        search = new TextSearch(file, "UTF-8", TextMatcher.create("z\uFFFD", true, false), null);
+        matches = scan(search, 0, Long.MAX_VALUE);
+        assert matches.size() == 1;
+        assert matches.get(0).getOffset() == 20;
+        assert matches.get(0).getLength() == 3;
+    }
+
+    /**
+     * Asserts that searching forward and backward finds the closest matches, and that line numbers are provided by the
+     * line index.
+     */
+    @Test
+    public void testFindNextPrevious() throws IOException {
+        StringBuilder sb = new StringBuilder();
+        for(int i=0; i<5000; i++)
+            sb.append(i%1500==0 ? "needle " : "hay ").append(i).append('\n');
+        write(sb.toString());
+
+        LineIndex lineIndex = new LineIndex(file, null);
+        lineIndex.run();
+
+        TextSearch search = new TextSearch(file, "UTF-8", TextMatcher.create("NEEDLE", false, false), lineIndex);
+        TextSearch.Match match = search.findNext(1);
+        assert match.getLine() == 1500;
+        assert match.getOffset() == match.getLineStart();
+
+        match = search.findNext(match.getOffset()+1);
+        assert match.getLine() == 3000;
+
+        match = search.findPrevious(match.getOffset());
+        assert match.getLine() == 1500;
+
+        match = search.findPrevious(match.getOffset());
+        assert match.getLine() == 0;
+        assert match.getOffset() == 0;
+
+        assert search.findPrevious(0) == null;
+        assert search.findNext(file.getSize()) == null;
+
+        // Same results without an index, line numbers are only known when searching from the start of the file
+        search = new TextSearch(file, "UTF-8", TextMatcher.create("needle", true, false), null);
+        match = search.findNext(1);
+        assert match.getLine() == -1;
+        assert search.findPrevious(match.getOffset()).getLine() == 0;
+    }
+}